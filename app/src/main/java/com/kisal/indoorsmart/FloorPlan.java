@@ -0,0 +1,243 @@
+package com.kisal.indoorsmart;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.util.Log;
+
+import com.kisal.indoorsmart.fusion.map.FloorPlanModel;
+import com.kisal.indoorsmart.fusion.map.FloorPlanModelCache;
+import com.kisal.indoorsmart.fusion.map.FloorPlanVectorizer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A floor plan image too large to decode at full resolution. A preview is decoded
+ * once, downsampled to about the view resolution, and detail tiles are decoded on
+ * demand with a {@link BitmapRegionDecoder}.
+ */
+public class FloorPlan {
+
+    /** Tile edge in decoded pixels, whatever the sample size. */
+    public static final int TILE_SIZE = 512;
+
+    /** The model is vectorised from a copy at least this large in both dimensions. */
+    private static final int MODEL_MIN_SIZE = 1024;
+
+    private final int width;
+    private final int height;
+    private final Bitmap preview;
+    private final BitmapRegionDecoder regionDecoder; // null for plans without detail tiles
+    private final Rect tileRect = new Rect(); // decoder thread only
+    private final BitmapFactory.Options tileOptions = new BitmapFactory.Options(); // decoder thread only
+    private volatile FloorPlanModel model; // Walls and free space, once loaded
+
+    private FloorPlan(int width, int height, Bitmap preview, BitmapRegionDecoder regionDecoder) {
+        this.width = width;
+        this.height = height;
+        this.preview = preview;
+        this.regionDecoder = regionDecoder;
+        tileOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+    }
+
+    /**
+     * Wraps an already decoded bitmap, without detail tiles.
+     */
+    public static FloorPlan fromBitmap(Bitmap bitmap) {
+        return new FloorPlan(bitmap.getWidth(), bitmap.getHeight(), bitmap, null);
+    }
+
+    /**
+     * Decodes the preview of the image so that it is not larger than about
+     * targetWidth x targetHeight, and opens the image for tile decoding.
+     * Runs blocking I/O, call it off the main thread.
+     */
+    public static FloorPlan load(ContentResolver resolver, Uri uri, int targetWidth, int targetHeight)
+            throws IOException {
+        // Read the dimensions only
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream inputStream = open(resolver, uri)) {
+            BitmapFactory.decodeStream(inputStream, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Not an image: " + uri);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSizeFor(bounds.outWidth, bounds.outHeight, targetWidth, targetHeight);
+        Bitmap preview;
+        try (InputStream inputStream = open(resolver, uri)) {
+            preview = BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        if (preview == null) {
+            throw new IOException("Could not decode " + uri);
+        }
+
+        BitmapRegionDecoder regionDecoder = null;
+        if (options.inSampleSize > 1) {
+            try (InputStream inputStream = open(resolver, uri)) {
+                regionDecoder = BitmapRegionDecoder.newInstance(inputStream, false);
+            } catch (IOException e) {
+                // Formats the region decoder does not support are shown from the preview only
+                regionDecoder = null;
+            }
+        }
+        return new FloorPlan(bounds.outWidth, bounds.outHeight, preview, regionDecoder);
+    }
+
+    /**
+     * Largest power of two sample size that keeps the image at least as large as
+     * the target in both dimensions. A target of zero or less, e.g. the size of a
+     * view that has not been laid out, counts as one pixel.
+     */
+    static int sampleSizeFor(int width, int height, int targetWidth, int targetHeight) {
+        targetWidth = Math.max(1, targetWidth);
+        targetHeight = Math.max(1, targetHeight);
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static InputStream open(ContentResolver resolver, Uri uri) throws IOException {
+        InputStream inputStream = resolver.openInputStream(uri);
+        if (inputStream == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        return inputStream;
+    }
+
+    /**
+     * Loads the walls and occupancy grid of the image from the model cache in
+     * cacheDirectory, vectorising the image first when it has not been seen before.
+     * Runs blocking I/O and, the first time, seconds of CPU work; call it off the
+     * main thread.
+     */
+    public FloorPlanModel loadModel(ContentResolver resolver, Uri uri, File cacheDirectory) throws IOException {
+        long start = System.nanoTime();
+        byte[] hash;
+        try (InputStream inputStream = open(resolver, uri)) {
+            hash = FloorPlanModelCache.hash(inputStream);
+        }
+        FloorPlanModelCache cache = new FloorPlanModelCache(cacheDirectory);
+        FloorPlanModel cached = cache.load(hash);
+        if (cached != null) {
+            model = cached;
+            Log.d("FloorPlan", "Floor plan model mapped from cache in " + (System.nanoTime() - start) / 1000000 + " ms");
+            return cached;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSizeFor(width, height, MODEL_MIN_SIZE, MODEL_MIN_SIZE);
+        Bitmap bitmap;
+        try (InputStream inputStream = open(resolver, uri)) {
+            bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Could not decode " + uri);
+        }
+        FloorPlanModel built;
+        try {
+            built = new FloorPlanVectorizer().vectorize(new BitmapRows(bitmap), options.inSampleSize);
+        } finally {
+            bitmap.recycle();
+        }
+        cache.store(hash, built);
+        model = built;
+        Log.d("FloorPlan", "Floor plan vectorised to " + built.getWallCount() + " walls in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return built;
+    }
+
+    // Feeds the vectoriser one row of the bitmap at a time
+    private static class BitmapRows implements FloorPlanVectorizer.RowSource {
+        private final Bitmap bitmap;
+
+        BitmapRows(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        public int getWidth() {
+            return bitmap.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return bitmap.getHeight();
+        }
+
+        @Override
+        public void readRow(int y, int[] argb) {
+            bitmap.getPixels(argb, 0, argb.length, 0, y, argb.length, 1);
+        }
+    }
+
+    /** Walls and free space of the plan, null until {@link #loadModel} finished. */
+    public FloorPlanModel getModel() {
+        return model;
+    }
+
+    /** Full resolution width in pixels. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Full resolution height in pixels. */
+    public int getHeight() {
+        return height;
+    }
+
+    public Bitmap getPreview() {
+        return preview;
+    }
+
+    /** Full resolution pixels per preview pixel. */
+    public float getPreviewScale() {
+        return (float) width / preview.getWidth();
+    }
+
+    public boolean hasTiles() {
+        return regionDecoder != null;
+    }
+
+    /** Number of tile columns at the given sample size. */
+    public int getColumns(int sampleSize) {
+        int span = TILE_SIZE * sampleSize;
+        return (width + span - 1) / span;
+    }
+
+    /** Number of tile rows at the given sample size. */
+    public int getRows(int sampleSize) {
+        int span = TILE_SIZE * sampleSize;
+        return (height + span - 1) / span;
+    }
+
+    /**
+     * Decodes one tile. Each tile covers TILE_SIZE * sampleSize full resolution
+     * pixels per side. Must only be called from one thread.
+     */
+    Bitmap decodeTile(int sampleSize, int column, int row) {
+        int span = TILE_SIZE * sampleSize;
+        tileRect.set(column * span, row * span,
+                Math.min(width, (column + 1) * span), Math.min(height, (row + 1) * span));
+        tileOptions.inSampleSize = sampleSize;
+        return regionDecoder.decodeRegion(tileRect, tileOptions);
+    }
+
+    /** Releases the preview and the region decoder. */
+    public void recycle() {
+        preview.recycle();
+        if (regionDecoder != null) {
+            regionDecoder.recycle();
+        }
+    }
+}
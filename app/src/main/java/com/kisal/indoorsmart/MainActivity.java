@@ -2,34 +2,41 @@ package com.kisal.indoorsmart;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
-import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.provider.MediaStore;
 import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import com.example.indoorsmart.R;
+import com.kisal.indoorsmart.fusion.PositionSnapshot;
+import com.kisal.indoorsmart.fusion.journal.JournalReader;
+import com.kisal.indoorsmart.fusion.map.Building;
+import com.kisal.indoorsmart.fusion.map.FloorCache;
 
-import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity implements PositionListener {
 
     private static final int PERMISSION_ACTIVITY_RECOGNITION = 100;
     private static final int PERMISSION_LOCATION = 101;
@@ -39,6 +46,19 @@ public class MainActivity extends AppCompatActivity {
     private MapView canvasView; // Custom view for displaying the point on a canvas
     private final DecimalFormat d = new DecimalFormat("#.###");
     private float prevX = 0, prevY = 0;
+    private SensorFusionService.LocalBinder fusionBinder;
+
+    // The recorded trajectory is drawn a chunk per main looper message before live updates start
+    private static final int HISTORY_CHUNK = 256;
+    private final Handler historyHandler = new Handler(Looper.getMainLooper());
+    private JournalReader history;
+    private boolean historyShown = false;
+    private int historyRequest = 0; // Readers opened for an older request are closed unused
+
+    // Plans of the current and adjacent floors when the service follows a building
+    private ExecutorService floorPlanLoader;
+    private FloorCache<FloorPlan> floorPlans;
+    private int shownFloor;
 
     @RequiresApi(api = Build.VERSION_CODES.R)
     @Override
@@ -57,13 +77,196 @@ public class MainActivity extends AppCompatActivity {
 
         // Set button listeners
         startServiceButton.setOnClickListener(v -> onStartServiceClick());
+        startServiceButton.setOnLongClickListener(v -> onStartServiceLongClick());
         uploadMapButton.setOnClickListener(v -> onUploadMapClick());
 
         // Check permissions
         checkPermissions();
 
-        // Register the broadcast receiver
-        LocalBroadcastManager.getInstance(this).registerReceiver(sensorDataReceiver, new IntentFilter("SensorDataUpdate"));
+        openFloorPlans();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (floorPlans != null) {
+            canvasView.showFloorPlan(null);
+            floorPlans.close();
+            floorPlanLoader.shutdown();
+        }
+    }
+
+    // Same building directory as the service, see SensorFusionService#openBuilding
+    private void openFloorPlans() {
+        File directory = getExternalFilesDir("building");
+        if (directory == null || !new File(directory, Building.MANIFEST).isFile()) {
+            return;
+        }
+        Building building;
+        try {
+            building = Building.read(directory);
+        } catch (IOException e) {
+            Log.e("MainActivity", "Could not read building " + directory, e);
+            return;
+        }
+        int targetWidth = getResources().getDisplayMetrics().widthPixels;
+        int targetHeight = getResources().getDisplayMetrics().heightPixels;
+        floorPlanLoader = Executors.newSingleThreadExecutor(task -> new Thread(task, "FloorPlanLoader"));
+        floorPlans = new FloorCache<>(building, new FloorCache.Loader<FloorPlan>() {
+            @Override
+            public FloorPlan load(int floor) throws IOException {
+                Uri uri = Uri.fromFile(building.getFile(floor, Building.IMAGE_SUFFIX));
+                return FloorPlan.load(getContentResolver(), uri, targetWidth, targetHeight);
+            }
+
+            @Override
+            public void release(FloorPlan plan) {
+                // the view may still be decoding its tiles, it recycles the plan after them
+                runOnUiThread(() -> canvasView.recycleFloorPlan(plan));
+            }
+        }, floorPlanLoader, new FloorCache.Listener<FloorPlan>() {
+            @Override
+            public void onFloorLoaded(int floor, FloorPlan plan) {
+                runOnUiThread(() -> {
+                    if (floorPlans != null && floor == shownFloor && !isDestroyed()) {
+                        canvasView.showFloorPlan(floorPlans.get(floor));
+                    }
+                });
+            }
+
+            @Override
+            public void onFloorFailed(int floor, IOException e) {
+                Log.e("MainActivity", "Could not load the plan of floor " + floor, e);
+            }
+        });
+        shownFloor = building.getStartFloor();
+        floorPlans.setCurrentFloor(shownFloor);
+    }
+
+    // Switches to the plan of the floor, before the cache releases the ones that are no longer adjacent
+    private void showFloor(int floor) {
+        if (floorPlans == null || floor == shownFloor) {
+            return;
+        }
+        shownFloor = floor;
+        canvasView.showFloorPlan(floorPlans.get(floor));
+        floorPlans.setCurrentFloor(floor);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Binding only creates the service, the sensors start with startService
+        bindService(new Intent(this, SensorFusionService.class), fusionConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        stopHistory();
+        if (fusionBinder != null) {
+            fusionBinder.unsubscribe(this);
+            fusionBinder = null;
+        }
+        unbindService(fusionConnection);
+    }
+
+    private final ServiceConnection fusionConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            fusionBinder = (SensorFusionService.LocalBinder) service;
+            if (historyShown) {
+                subscribe();
+            } else {
+                startHistory();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            fusionBinder = null;
+        }
+    };
+
+    private void subscribe() {
+        if (fusionBinder == null) {
+            return;
+        }
+        // Update the views at most once per display frame
+        fusionBinder.subscribe(this, SensorFusionService.PUBLISH_INTERVAL_FRAME_MS);
+    }
+
+    // Opening a segment checks every frame in it, up to some tens of MB, so it is
+    // opened off the main thread and drawn once it is ready
+    private void startHistory() {
+        SensorFusionService.LocalBinder binder = fusionBinder;
+        int request = ++historyRequest;
+        new Thread(() -> {
+            JournalReader reader = null;
+            try {
+                reader = binder.openTrajectory();
+            } catch (IOException e) {
+                Log.e("MainActivity", "Could not read the recorded trajectory", e);
+            }
+            JournalReader opened = reader;
+            runOnUiThread(() -> onHistoryOpened(request, opened));
+        }, "HistoryReader").start();
+    }
+
+    private void onHistoryOpened(int request, JournalReader reader) {
+        if (request != historyRequest || isDestroyed()) {
+            closeHistory(reader);
+            return;
+        }
+        history = reader;
+        if (history == null) {
+            historyShown = true;
+            subscribe();
+            return;
+        }
+        historyHandler.post(this::showHistoryChunk);
+    }
+
+    // Draws the next chunk of the recorded trajectory, then yields to the looper
+    private void showHistoryChunk() {
+        try {
+            for (int i = 0; i < HISTORY_CHUNK; i++) {
+                if (!history.next()) {
+                    finishHistory();
+                    return;
+                }
+                updatePath(history.getX(), history.getY());
+            }
+            historyHandler.post(this::showHistoryChunk);
+        } catch (IOException e) {
+            Log.e("MainActivity", "Could not read the recorded trajectory", e);
+            finishHistory();
+        }
+    }
+
+    // The history is drawn, live updates take over
+    private void finishHistory() {
+        stopHistory();
+        historyShown = true;
+        subscribe();
+    }
+
+    private void stopHistory() {
+        historyHandler.removeCallbacksAndMessages(null);
+        historyRequest++;
+        closeHistory(history);
+        history = null;
+    }
+
+    private static void closeHistory(JournalReader reader) {
+        if (reader == null) {
+            return;
+        }
+        try {
+            reader.close();
+        } catch (IOException e) {
+            Log.e("MainActivity", "Could not close the recorded trajectory", e);
+        }
     }
 
     private void checkPermissions() {
@@ -79,39 +282,45 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private final BroadcastReceiver sensorDataReceiver = new BroadcastReceiver() {
-        @SuppressLint({"SetTextI18n", "DefaultLocale"})
-        @RequiresApi(api = Build.VERSION_CODES.R)
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            double azimuth = intent.getDoubleExtra("orientation", 0.0);
-            float[] position = intent.getFloatArrayExtra("position");
-            int steps = intent.getIntExtra("step", 0);
-
-            azimuthView.setText("Heading: " + d.format(azimuth) + "°");
-            stepView.setText("Steps: " + d.format(steps));
-
-            if (position != null) {
-                float x = position[0];
-                float y = position[1];
-                positionView.setText(String.format("Position (x, y): %.2f, %.2f", x, y));
-
-                if (x != prevX || y != prevY) {
-                    canvasView.updatePosition(x+1, y+1);
-                    prevX = x;
-                    prevY = y;
-                }
-            } else {
-                positionView.setText("Position: Not available");
-            }
+    @SuppressLint({"SetTextI18n", "DefaultLocale"})
+    @Override
+    public void onPositionUpdate(PositionSnapshot snapshot) {
+        azimuthView.setText("Heading: " + d.format(snapshot.getHeading()) + "°");
+        if (floorPlans != null) {
+            showFloor(snapshot.getFloor());
+            stepView.setText("Steps: " + d.format(snapshot.getStepCount()) + ", floor " + snapshot.getFloor());
+        } else {
+            stepView.setText("Steps: " + d.format(snapshot.getStepCount()));
         }
-    };
+
+        float x = snapshot.getX();
+        float y = snapshot.getY();
+        positionView.setText(String.format("Position (x, y): %.2f, %.2f", x, y));
+        updatePath(x, y);
+    }
+
+    private void updatePath(float x, float y) {
+        if (x != prevX || y != prevY) {
+            canvasView.updatePosition(x+1, y+1);
+            prevX = x;
+            prevY = y;
+        }
+    }
 
     private void onStartServiceClick() {
         startStepSensorService();
         Toast.makeText(this, "Indoor Navigation Started", Toast.LENGTH_SHORT).show();
     }
 
+    // Long press starts the navigation and records the sensor events to a trace file
+    private boolean onStartServiceLongClick() {
+        Intent serviceIntent = new Intent(this, SensorFusionService.class);
+        serviceIntent.putExtra(SensorFusionService.EXTRA_RECORD_TRACE, true);
+        startService(serviceIntent);
+        Toast.makeText(this, "Indoor Navigation Started (recording trace)", Toast.LENGTH_SHORT).show();
+        return true;
+    }
+
     private void startStepSensorService() {
         Intent serviceIntent = new Intent(this, SensorFusionService.class);
         startService(serviceIntent);
@@ -131,20 +340,38 @@ public class MainActivity extends AppCompatActivity {
         if (requestCode == PICK_IMAGE_REQUEST && resultCode == RESULT_OK && data != null && data.getData() != null) {
             Uri imageUri = data.getData();
 
-            try {
-                InputStream inputStream = getContentResolver().openInputStream(imageUri);
-                Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
+            // Decode a view sized preview off the main thread, detail tiles follow on demand;
+            // the screen size stands in until the view has been laid out
+            int targetWidth = canvasView.getWidth() > 0 ? canvasView.getWidth() : getResources().getDisplayMetrics().widthPixels;
+            int targetHeight = canvasView.getHeight() > 0 ? canvasView.getHeight() : getResources().getDisplayMetrics().heightPixels;
+            new Thread(() -> {
+                try {
+                    FloorPlan floorPlan = FloorPlan.load(getContentResolver(), imageUri, targetWidth, targetHeight);
+                    runOnUiThread(() -> {
+                        if (isDestroyed()) {
+                            floorPlan.recycle();
+                            return;
+                        }
 
-                // Set the floor map in the custom view
-                canvasView.setFloorMapBitmap(bitmap);
+                        // Set the floor map in the custom view
+                        canvasView.setFloorPlan(floorPlan);
 
-                // Show an alert dialog prompting the user to touch the starting point
-                showStartPointAlert();
+                        // Show an alert dialog prompting the user to touch the starting point
+                        showStartPointAlert();
+                    });
 
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-                Toast.makeText(this, "Error loading image", Toast.LENGTH_SHORT).show();
-            }
+                    // Walls and free space, vectorised once per image and cached
+                    try {
+                        floorPlan.loadModel(getContentResolver(), imageUri, new File(getCacheDir(), "floorplans"));
+                    } catch (IOException e) {
+                        Log.e("MainActivity", "Could not build the floor plan model", e);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // a corrupt image must not take the app down with the loader thread
+                    Log.e("MainActivity", "Could not load floor plan " + imageUri, e);
+                    runOnUiThread(() -> Toast.makeText(this, "Error loading image", Toast.LENGTH_SHORT).show());
+                }
+            }, "FloorPlanLoader").start();
         }
     }
 
@@ -157,12 +384,6 @@ public class MainActivity extends AppCompatActivity {
                 .show();
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        LocalBroadcastManager.getInstance(this).unregisterReceiver(sensorDataReceiver);
-    }
-
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
@@ -6,25 +6,60 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Path;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.widget.Toast;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.kisal.indoorsmart.fusion.map.FloorPlanModel;
 
 public class MapView extends View {
-    private Bitmap floorMapBitmap; // Floor map image
+    private FloorPlan floorPlan; // Floor map image
+    private TileCache tileCache; // Detail tiles of a large floor map, null when it has none
+    private boolean ownsFloorPlan; // Recycled with its tiles, unless the caller keeps it, see showFloorPlan
+    // Decodes the tiles of every plan shown, so a plan shown again is never decoded by
+    // two threads and a plan is recycled behind the tiles still queued for it
+    private Handler tileDecoder;
     private final Paint paint;
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
     private final Paint pathPaint = new Paint(); // Paint for the path
-    private float pointX = -1; // Position of the draggable point
+    private float pointX = -1; // Position of the draggable point, in map coordinates
     private float pointY = -1;
     private boolean dragging = false; // Tracks if the user is dragging the point
     boolean isStartPointSelectionEnabled = false;
 
-    private final List<float[]> pathPoints = new ArrayList<>(); // List to store path coordinates
+    // Decimated path coordinates; kept segments are rasterised once into pathLayer,
+    // in map coordinates so pan and zoom only change how it is drawn
+    private static final float PATH_MIN_DISTANCE = 3.0f; // px between kept path points
+    private final PathBuffer pathPoints = new PathBuffer(PATH_MIN_DISTANCE);
+    private Bitmap pathLayer;
+    private Canvas pathCanvas;
+    private int drawnSegments = 0; // Segments already drawn into pathLayer
+
+    // Map coordinates are view pixels with the floor map fitted to the view; the
+    // viewport matrix applies the user's pan and zoom on top of them
+    private static final float MAX_ZOOM = 16.0f;
+    private final Matrix viewportMatrix = new Matrix();
+    private final Matrix viewportInverse = new Matrix();
+    private float zoom = 1.0f;
+    private final ScaleGestureDetector scaleDetector;
+    private float lastTouchX;
+    private float lastTouchY;
+
+    // Floor map image pixels to map coordinates, and on to the screen
+    private final Matrix floorMapMatrix = new Matrix();
+    private final Matrix floorMapInverse = new Matrix();
+    private boolean floorMapMatrixValid = false;
+    private float floorMapScale = 1.0f;
+    private final Matrix imageToScreen = new Matrix();
+    private final Matrix screenToImage = new Matrix();
+    private final Matrix drawMatrix = new Matrix();
+    private final RectF visibleRect = new RectF();
+    private final float[] mappedPoints = new float[4];
 
     public MapView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -34,14 +69,114 @@ public class MapView extends View {
         pathPaint.setColor(0xFF0000FF); // color for the path
         pathPaint.setStyle(Paint.Style.STROKE);
         pathPaint.setStrokeWidth(5); // Thickness of the path
+        pathPaint.setStrokeCap(Paint.Cap.ROUND); // Joins the separately drawn segments
         pathPaint.setAntiAlias(true);
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                float newZoom = Math.max(1.0f, Math.min(MAX_ZOOM, zoom * detector.getScaleFactor()));
+                float factor = newZoom / zoom;
+                zoom = newZoom;
+                viewportMatrix.postScale(factor, factor, detector.getFocusX(), detector.getFocusY());
+                onViewportChanged();
+                return true;
+            }
+        });
     }
 
     public void setFloorMapBitmap(Bitmap bitmap) {
-        this.floorMapBitmap = bitmap;
+        setFloorPlan(bitmap != null ? FloorPlan.fromBitmap(bitmap) : null);
+    }
+
+    /**
+     * Shows the floor plan, replacing and releasing the previous one.
+     */
+    public void setFloorPlan(FloorPlan plan) {
+        showFloorPlan(plan);
+        ownsFloorPlan = true;
+    }
+
+    /**
+     * Shows a floor plan that stays the caller's to recycle, e.g. one of the floors
+     * of a building, and releases the previous one unless it was the caller's too.
+     */
+    public void showFloorPlan(FloorPlan plan) {
+        releaseTiles();
+        this.floorPlan = plan;
+        ownsFloorPlan = false;
+        if (plan != null && plan.hasTiles()) {
+            tileCache = new TileCache(plan, tileDecoder(), TileCache.defaultMaxBytes(), this::postInvalidate);
+        }
+        floorMapMatrixValid = false;
         invalidate(); // Redraw the canvas
     }
 
+    /**
+     * Recycles a plan that was given to showFloorPlan once no tile of it is being
+     * decoded any more, and stops showing it if it still is. Main thread.
+     */
+    public void recycleFloorPlan(FloorPlan plan) {
+        if (plan == floorPlan) {
+            showFloorPlan(null);
+        }
+        if (tileDecoder != null) {
+            tileDecoder.post(plan::recycle);
+        } else {
+            plan.recycle();
+        }
+    }
+
+    private Handler tileDecoder() {
+        if (tileDecoder == null) {
+            HandlerThread thread = new HandlerThread("FloorPlanTiles");
+            thread.start();
+            tileDecoder = new Handler(thread.getLooper());
+        }
+        return tileDecoder;
+    }
+
+    private void releaseTiles() {
+        if (tileCache != null) {
+            tileCache.release(ownsFloorPlan);
+            tileCache = null;
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // The tile cache owns the floor plan's decoder, release both with the view
+        if (tileCache != null) {
+            releaseTiles();
+            floorPlan = null;
+        }
+        // The decoder thread ends once the work already queued on it is done
+        if (tileDecoder != null) {
+            tileDecoder.getLooper().quitSafely();
+            tileDecoder = null;
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        floorMapMatrixValid = false;
+
+        // The path layer has to match the view, redraw it from the point buffer
+        if (pathLayer != null) {
+            pathLayer.recycle();
+        }
+        if (w > 0 && h > 0) {
+            pathLayer = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            pathCanvas = new Canvas(pathLayer);
+        } else {
+            pathLayer = null;
+            pathCanvas = null;
+        }
+        drawnSegments = 0;
+    }
+
     public void enableStartPointSelection() {
         isStartPointSelectionEnabled = true;
         Toast.makeText(getContext(), "Tap on the map to set the start point.", Toast.LENGTH_SHORT).show();
@@ -52,7 +187,7 @@ public class MapView extends View {
         super.onDraw(canvas);
 
         // Check if the floor map is null
-        if (floorMapBitmap == null) {
+        if (floorPlan == null) {
             paint.setColor(0xFF000000);
             paint.setTextSize(50); // Set text size
             paint.setTextAlign(Paint.Align.CENTER);
@@ -63,74 +198,172 @@ public class MapView extends View {
         }
 
         // Draw the floor map scaled to fit the canvas
-        @SuppressLint("DrawAllocation") Matrix matrix = new Matrix();
-        float scaleX = (float) getWidth() / floorMapBitmap.getWidth();
-        float scaleY = (float) getHeight() / floorMapBitmap.getHeight();
-        float scale = Math.min(scaleX, scaleY);
+        if (!floorMapMatrixValid) {
+            float scaleX = (float) getWidth() / floorPlan.getWidth();
+            float scaleY = (float) getHeight() / floorPlan.getHeight();
+            floorMapScale = Math.min(scaleX, scaleY);
 
-        float offsetX = (getWidth() - (floorMapBitmap.getWidth() * scale)) / 2;
-        float offsetY = (getHeight() - (floorMapBitmap.getHeight() * scale)) / 2;
+            float offsetX = (getWidth() - (floorPlan.getWidth() * floorMapScale)) / 2;
+            float offsetY = (getHeight() - (floorPlan.getHeight() * floorMapScale)) / 2;
 
-        matrix.setScale(scale, scale);
-        matrix.postTranslate(offsetX, offsetY);
+            floorMapMatrix.setScale(floorMapScale, floorMapScale);
+            floorMapMatrix.postTranslate(offsetX, offsetY);
+            floorMapMatrix.invert(floorMapInverse);
+            floorMapMatrixValid = true;
+        }
+        imageToScreen.set(floorMapMatrix);
+        imageToScreen.postConcat(viewportMatrix);
 
-        canvas.drawBitmap(floorMapBitmap, matrix, paint);
+        drawMatrix.set(imageToScreen);
+        float previewScale = floorPlan.getPreviewScale();
+        drawMatrix.preScale(previewScale, previewScale);
+        canvas.drawBitmap(floorPlan.getPreview(), drawMatrix, bitmapPaint);
 
-        // Draw the traveled path
-        if (!pathPoints.isEmpty()) {
-            @SuppressLint("DrawAllocation") Path path = new Path();
-            float[] start = pathPoints.get(0);
-            path.moveTo(start[0], start[1]); // Start from the first point
-
-            for (int i = 1; i < pathPoints.size(); i++) {
-                float[] point = pathPoints.get(i);
-                path.lineTo(point[0], point[1]); // Draw lines to the next points
-            }
-            canvas.drawPath(path, pathPaint);
+        // Sharper tiles cover the preview once zoomed in past its resolution
+        if (tileCache != null) {
+            drawTiles(canvas, previewScale);
         }
 
+        // Draw the traveled path
+        drawPath(canvas);
+
         // Draw the position indicator
         if (pointX >= 0 && pointY >= 0) {
+            mappedPoints[0] = pointX;
+            mappedPoints[1] = pointY;
+            viewportMatrix.mapPoints(mappedPoints, 0, mappedPoints, 0, 1);
             paint.setColor(0xFFFF0000);
             paint.setStyle(Paint.Style.FILL);
-            canvas.drawCircle(pointX, pointY, 10, paint); // Draw a point at (x, y)
+            canvas.drawCircle(mappedPoints[0], mappedPoints[1], 10, paint); // Draw a point at (x, y)
+        }
+    }
+
+    /**
+     * Draws the detail tiles that intersect the screen, at the coarsest sample size
+     * that still has at least one image pixel per screen pixel. Tiles that are not
+     * cached yet are requested and the preview shows through until they arrive.
+     */
+    private void drawTiles(Canvas canvas, float previewScale) {
+        int sampleSize = 1;
+        float imagePixelsPerScreenPixel = 1.0f / (floorMapScale * zoom);
+        while (sampleSize * 2 <= imagePixelsPerScreenPixel) {
+            sampleSize *= 2;
+        }
+        if (sampleSize >= previewScale) {
+            return; // The preview is already sharp enough
+        }
+
+        // Screen bounds in image pixels
+        imageToScreen.invert(screenToImage);
+        visibleRect.set(0, 0, getWidth(), getHeight());
+        screenToImage.mapRect(visibleRect);
+
+        int span = FloorPlan.TILE_SIZE * sampleSize;
+        int firstColumn = Math.max(0, (int) (visibleRect.left / span));
+        int firstRow = Math.max(0, (int) (visibleRect.top / span));
+        int lastColumn = Math.min(floorPlan.getColumns(sampleSize) - 1, (int) (visibleRect.right / span));
+        int lastRow = Math.min(floorPlan.getRows(sampleSize) - 1, (int) (visibleRect.bottom / span));
+
+        tileCache.beginFrame();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Bitmap tile = tileCache.get(sampleSize, column, row);
+                if (tile == null) {
+                    continue;
+                }
+                drawMatrix.set(imageToScreen);
+                drawMatrix.preTranslate(column * span, row * span);
+                drawMatrix.preScale(sampleSize, sampleSize);
+                canvas.drawBitmap(tile, drawMatrix, bitmapPaint);
+            }
         }
+        tileCache.endFrame();
     }
 
     @SuppressLint("ClickableViewAccessibility")
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        float x = event.getX();
-        float y = event.getY();
+        scaleDetector.onTouchEvent(event);
 
-        switch (event.getAction()) {
+        // Touches are handled in map coordinates
+        mappedPoints[0] = event.getX();
+        mappedPoints[1] = event.getY();
+        viewportInverse.mapPoints(mappedPoints, 0, mappedPoints, 0, 1);
+        float x = mappedPoints[0];
+        float y = mappedPoints[1];
+
+        switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
+                lastTouchX = event.getX();
+                lastTouchY = event.getY();
                 if (pointX < 0 && pointY < 0) {
+                    if (isWall(x, y)) {
+                        Toast.makeText(getContext(), "That is a wall, pick a free spot.", Toast.LENGTH_SHORT).show();
+                        break;
+                    }
                     pointX = x;
                     pointY = y;
-                    pathPoints.add(new float[]{x, y}); // Start the path
+                    pathPoints.add(x, y); // Start the path
                     invalidate();
-                } else if (Math.sqrt(Math.pow(x - pointX, 2) + Math.pow(y - pointY, 2)) <= 20) {
+                } else if (Math.sqrt(Math.pow(x - pointX, 2) + Math.pow(y - pointY, 2)) <= 20 / zoom) {
                     dragging = true;
                 }
                 break;
 
+            case MotionEvent.ACTION_POINTER_DOWN:
+                dragging = false; // A second finger starts a pinch
+                break;
+
+            case MotionEvent.ACTION_POINTER_UP:
+                // Continue panning from the finger that stays down
+                int remaining = event.getActionIndex() == 0 ? 1 : 0;
+                lastTouchX = event.getX(remaining);
+                lastTouchY = event.getY(remaining);
+                break;
+
             case MotionEvent.ACTION_MOVE:
                 if (dragging) {
                     pointX = x;
                     pointY = y;
-                    pathPoints.add(new float[]{x, y}); // Add points to the path
+                    pathPoints.add(x, y); // Add points to the path
                     invalidate();
+                } else if (event.getPointerCount() == 1 && !scaleDetector.isInProgress()) {
+                    viewportMatrix.postTranslate(event.getX() - lastTouchX, event.getY() - lastTouchY);
+                    onViewportChanged();
                 }
+                lastTouchX = event.getX();
+                lastTouchY = event.getY();
                 break;
 
             case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
                 dragging = false;
                 break;
         }
         return true;
     }
 
+    // True when the map point lies in a wall cell of the floor plan model, if it is loaded yet
+    private boolean isWall(float x, float y) {
+        FloorPlanModel model = floorPlan != null ? floorPlan.getModel() : null;
+        if (model == null || !floorMapMatrixValid) {
+            return false;
+        }
+        mappedPoints[0] = x;
+        mappedPoints[1] = y;
+        floorMapInverse.mapPoints(mappedPoints, 0, mappedPoints, 0, 1);
+        return model.isOccupied(mappedPoints[0], mappedPoints[1]);
+    }
+
+    // Pan or zoom changed
+    private void onViewportChanged() {
+        if (zoom <= 1.0f) {
+            viewportMatrix.reset(); // Zoomed all the way out, snap back to the fitted map
+        }
+        viewportMatrix.invert(viewportInverse);
+        invalidate();
+    }
+
     /**
      * Updates the position of the point by adding the given offsets to the current position.
      * Also adds the new position to the traveled path.
@@ -141,8 +374,46 @@ public class MapView extends View {
     public void updatePosition(float deltaX, float deltaY) {
         pointX += deltaX;
         pointY += deltaY;
-        pathPoints.add(new float[]{pointX, pointY}); // Add to the path
+        pathPoints.add(pointX, pointY); // Add to the path
         invalidate();
     }
 
+    /**
+     * Draws the traveled path. Kept segments are drawn once into the offscreen path
+     * layer, so each frame only adds the new segments and the live tail, however
+     * long the walk is. The viewport is applied to the canvas, not the layer.
+     */
+    private void drawPath(Canvas canvas) {
+        if (pathLayer == null || pathPoints.isEmpty()) {
+            return;
+        }
+
+        // Rasterise the segments between kept points that are not in the layer yet
+        int fixedSegments = pathPoints.fixedSize() - 1;
+        if (fixedSegments < drawnSegments) {
+            pathLayer.eraseColor(0);
+            drawnSegments = 0;
+        }
+        for (int i = drawnSegments; i < fixedSegments; i++) {
+            drawSegment(pathCanvas, i);
+        }
+        drawnSegments = Math.max(drawnSegments, fixedSegments);
+
+        canvas.save();
+        canvas.concat(viewportMatrix);
+        canvas.drawBitmap(pathLayer, 0, 0, bitmapPaint);
+
+        // The live segment to the newest point still moves, draw it directly
+        int last = pathPoints.size() - 1;
+        if (last > pathPoints.fixedSize() - 1) {
+            drawSegment(canvas, last - 1);
+        }
+        canvas.restore();
+    }
+
+    // Draws the segment from path point i to i + 1 in map coordinates
+    private void drawSegment(Canvas canvas, int i) {
+        canvas.drawLine(pathPoints.getX(i), pathPoints.getY(i), pathPoints.getX(i + 1), pathPoints.getY(i + 1), pathPaint);
+    }
+
 }
@@ -0,0 +1,76 @@
+package com.kisal.indoorsmart;
+
+import java.util.Arrays;
+
+/**
+ * Walked path stored as packed {x, y} floats, decimated as points arrive.
+ * A point is kept once it is at least the minimum distance away from the previous
+ * kept point; closer points only move the tail, a single live point after the kept
+ * ones. The buffer therefore grows with the distance walked rather than with the
+ * number of updates, and kept points never change, so they can be rendered once.
+ */
+class PathBuffer {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final float minDistanceSquared;
+    private float[] points = new float[2 * INITIAL_CAPACITY];
+    private int fixedCount;
+
+    private boolean hasTail;
+    private float tailX, tailY;
+
+    /**
+     * @param minDistance Minimum distance between kept points, in view pixels.
+     */
+    PathBuffer(float minDistance) {
+        this.minDistanceSquared = minDistance * minDistance;
+    }
+
+    void add(float x, float y) {
+        if (fixedCount > 0) {
+            float dx = x - points[2 * (fixedCount - 1)];
+            float dy = y - points[2 * (fixedCount - 1) + 1];
+            if (dx * dx + dy * dy < minDistanceSquared) {
+                hasTail = true;
+                tailX = x;
+                tailY = y;
+                return;
+            }
+        }
+        if (2 * fixedCount == points.length) {
+            points = Arrays.copyOf(points, points.length * 2);
+        }
+        points[2 * fixedCount] = x;
+        points[2 * fixedCount + 1] = y;
+        fixedCount++;
+        hasTail = false;
+    }
+
+    /** Number of points, including the tail. */
+    int size() {
+        return hasTail ? fixedCount + 1 : fixedCount;
+    }
+
+    /** Number of kept points, which will not change any more. */
+    int fixedSize() {
+        return fixedCount;
+    }
+
+    boolean isEmpty() {
+        return fixedCount == 0;
+    }
+
+    float getX(int i) {
+        return i == fixedCount ? tailX : points[2 * i];
+    }
+
+    float getY(int i) {
+        return i == fixedCount ? tailY : points[2 * i + 1];
+    }
+
+    void clear() {
+        fixedCount = 0;
+        hasTail = false;
+    }
+}
@@ -0,0 +1,15 @@
+package com.kisal.indoorsmart;
+
+import com.kisal.indoorsmart.fusion.PositionSnapshot;
+
+/**
+ * Receives navigation state from {@link SensorFusionService} on the main thread.
+ */
+public interface PositionListener {
+
+    /**
+     * Called with the latest state, at most once per subscription interval.
+     * The snapshot is reused after the call returns.
+     */
+    void onPositionUpdate(PositionSnapshot snapshot);
+}
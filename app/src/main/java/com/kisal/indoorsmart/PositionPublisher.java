@@ -0,0 +1,196 @@
+package com.kisal.indoorsmart;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.kisal.indoorsmart.fusion.FusionEngine;
+import com.kisal.indoorsmart.fusion.NavigationState;
+import com.kisal.indoorsmart.fusion.PipelineMetrics;
+import com.kisal.indoorsmart.fusion.PositionSnapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces engine updates from the fusion thread and delivers them to subscribers
+ * on the main thread, each at its own maximum rate. However many sensor events
+ * arrive, the main looper gets at most one dispatch per shortest subscription
+ * interval, and nothing is allocated per update.
+ */
+class PositionPublisher {
+
+    private final Dispatcher dispatcher;
+    private final PipelineMetrics metrics;
+
+    // written by the fusion thread, read lock-free by the main thread
+    private final NavigationState latest = new NavigationState();
+
+    // main thread only
+    private final PositionSnapshot published = new PositionSnapshot();
+    private final List<Subscription> subscriptions = new ArrayList<>();
+
+    private final AtomicBoolean dispatchPending = new AtomicBoolean(false);
+    private final Runnable dispatchTask = this::dispatch;
+    // catch-up dispatch for subscribers that were not due yet, main thread only
+    private final Runnable delayedDispatchTask = this::dispatch;
+
+    // shared with the fusion thread to throttle dispatches
+    private volatile long minIntervalMs = Long.MAX_VALUE;
+    private volatile long lastDispatch;
+
+    // main thread only, the last sequence the publish latency was recorded for
+    private long measuredSequence = -1;
+
+    PositionPublisher(PipelineMetrics metrics) {
+        this(metrics, new MainThreadDispatcher());
+    }
+
+    PositionPublisher(PipelineMetrics metrics, Dispatcher dispatcher) {
+        this.metrics = metrics;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Runs the dispatches and tells the time: the main looper and the system clocks
+     * in the app, a manual clock in tests.
+     */
+    interface Dispatcher {
+        long uptimeMillis();
+
+        long elapsedRealtimeNanos();
+
+        void post(Runnable task);
+
+        void postAtTime(Runnable task, long uptimeMillis);
+
+        void removeCallbacks(Runnable task);
+    }
+
+    private static class MainThreadDispatcher implements Dispatcher {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+
+        @Override
+        public void post(Runnable task) {
+            handler.post(task);
+        }
+
+        @Override
+        public void postAtTime(Runnable task, long uptimeMillis) {
+            handler.postAtTime(task, uptimeMillis);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            handler.removeCallbacks(task);
+        }
+    }
+
+    private static class Subscription {
+        final PositionListener listener;
+        final long intervalMs;
+        long lastDelivered;
+        long lastSequence = -1;
+
+        Subscription(PositionListener listener, long intervalMs) {
+            this.listener = listener;
+            this.intervalMs = intervalMs;
+        }
+    }
+
+    /**
+     * Fusion thread: captures the engine state after an event or a batch.
+     */
+    void update(FusionEngine engine, long timestampNs) {
+        latest.write(engine, timestampNs);
+        long interval = minIntervalMs;
+        if (interval != Long.MAX_VALUE && dispatchPending.compareAndSet(false, true)) {
+            dispatcher.postAtTime(dispatchTask, Math.max(dispatcher.uptimeMillis(), lastDispatch + interval));
+        }
+    }
+
+    /**
+     * Main thread: delivers the state to the listener at most once every intervalMs.
+     */
+    void subscribe(PositionListener listener, long intervalMs) {
+        unsubscribe(listener);
+        subscriptions.add(new Subscription(listener, intervalMs));
+        updateMinInterval();
+        // deliver the current state right away
+        dispatcher.post(delayedDispatchTask);
+    }
+
+    /** Main thread. */
+    void unsubscribe(PositionListener listener) {
+        for (int i = subscriptions.size() - 1; i >= 0; i--) {
+            if (subscriptions.get(i).listener == listener) {
+                subscriptions.remove(i);
+            }
+        }
+        updateMinInterval();
+    }
+
+    private void updateMinInterval() {
+        long interval = Long.MAX_VALUE;
+        for (int i = 0; i < subscriptions.size(); i++) {
+            interval = Math.min(interval, subscriptions.get(i).intervalMs);
+        }
+        minIntervalMs = interval;
+    }
+
+    /** Main thread: drops all subscriptions and pending deliveries. */
+    void clear() {
+        subscriptions.clear();
+        updateMinInterval();
+        dispatcher.removeCallbacks(dispatchTask);
+        dispatcher.removeCallbacks(delayedDispatchTask);
+        dispatchPending.set(false);
+    }
+
+    private void dispatch() {
+        // clear first so an update arriving while we deliver posts a new dispatch
+        dispatchPending.set(false);
+        latest.read(published);
+
+        if (published.getSequence() != measuredSequence && !subscriptions.isEmpty()) {
+            // sensor timestamps are on the elapsed realtime clock
+            measuredSequence = published.getSequence();
+            metrics.publish.record(dispatcher.elapsedRealtimeNanos() - published.getTimestampNs());
+        }
+
+        long now = dispatcher.uptimeMillis();
+        lastDispatch = now;
+        long nextDue = Long.MAX_VALUE;
+        for (int i = 0; i < subscriptions.size(); i++) {
+            Subscription subscription = subscriptions.get(i);
+            if (subscription.lastSequence == published.getSequence()) {
+                continue;
+            }
+            long due = subscription.lastDelivered + subscription.intervalMs;
+            if (now >= due) {
+                subscription.lastDelivered = now;
+                subscription.lastSequence = published.getSequence();
+                subscription.listener.onPositionUpdate(published);
+            } else {
+                nextDue = Math.min(nextDue, due);
+            }
+        }
+
+        // a slower subscriber still has to see the latest state once it is due
+        dispatcher.removeCallbacks(delayedDispatchTask);
+        if (nextDue != Long.MAX_VALUE) {
+            dispatcher.postAtTime(delayedDispatchTask, nextDue);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.kisal.indoorsmart;
+
+import com.kisal.indoorsmart.fusion.route.Route;
+
+/**
+ * Receives the route to the destination from {@link SensorFusionService} on the
+ * main thread.
+ */
+public interface RouteListener {
+
+    /**
+     * Called when a route is planned or repaired, when the user reaches a waypoint
+     * or has walked some way along it, and with null when there is no route any more.
+     */
+    void onRouteChanged(Route route);
+}
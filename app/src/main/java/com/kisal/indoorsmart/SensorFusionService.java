@@ -6,307 +6,702 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Build;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
-import java.util.Timer;
-import java.util.TimerTask;
 
+import com.kisal.indoorsmart.fusion.FloorListener;
+import com.kisal.indoorsmart.fusion.FusionEngine;
+import com.kisal.indoorsmart.fusion.FusionScheduler;
+import com.kisal.indoorsmart.fusion.MotionListener;
+import com.kisal.indoorsmart.fusion.MotionState;
+import com.kisal.indoorsmart.fusion.PipelineMetrics;
+import com.kisal.indoorsmart.fusion.SensorEventBuffer;
+import com.kisal.indoorsmart.fusion.SensorFusionEngine;
+import com.kisal.indoorsmart.fusion.SensorResampler;
+import com.kisal.indoorsmart.fusion.StepSource;
+import com.kisal.indoorsmart.fusion.journal.JournalDirectory;
+import com.kisal.indoorsmart.fusion.journal.JournalReader;
+import com.kisal.indoorsmart.fusion.journal.JournalWriter;
+import com.kisal.indoorsmart.fusion.map.Building;
+import com.kisal.indoorsmart.fusion.map.FloorCache;
+import com.kisal.indoorsmart.fusion.map.FloorData;
+import com.kisal.indoorsmart.fusion.map.ParticleFilter;
+import com.kisal.indoorsmart.fusion.route.OccupancyGrid;
+import com.kisal.indoorsmart.fusion.route.Route;
+import com.kisal.indoorsmart.fusion.route.RoutePlanner;
+import com.kisal.indoorsmart.fusion.stream.PositionStreamServer;
+import com.kisal.indoorsmart.fusion.trace.TraceWriter;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Android adapter around the {@link FusionEngine}: forwards sensor events to the
+ * engine and publishes the results to bound subscribers. Sensor events, the fusion
+ * steps the engine schedules from their timestamps and trace recording all run on
+ * one dedicated HandlerThread, so the engine state is only touched by that thread.
+ */
 public class SensorFusionService extends Service implements SensorEventListener {
 
     private SensorManager mSensorManager;
-    private final float[] gyro = new float[3];
-    private float[] gyroMatrix = new float[9];
-    private final float[] gyroOrientation = new float[3];
-    private final float[] magnet = new float[3];
-    private final float[] accel = new float[3];
-    private final float[] accMagOrientation = new float[3];
-    private final float[] rotationMatrix = new float[9];
-    private final float[] fusedOrientation = new float[3];
-    public static final float EPSILON = 0.000000001f;
-    private static final float NS2S = 1.0f / 1000000000.0f;
-    private boolean initState = true;
-    public static final int TIME_CONSTANT = 30;
-    private final Timer fuseTimer = new Timer();
-    private int timestamp;
-
-    // Initial position {x, y}
-    private final PositionUpdater positionUpdater = new PositionUpdater();
+    private HandlerThread fusionThread;
+    private Handler fusionHandler;
+
+    // Start the service with this extra set to record every sensor event to a trace file
+    public static final String EXTRA_RECORD_TRACE = "record_trace";
+    private TraceWriter traceWriter;
+
+    // Batching mode: sensors report through the hardware FIFO and every delivered
+    // burst is processed in one pass, so the CPU is not woken for every sample
+    public static final String EXTRA_BATCHING = "batching";
+    public static final String EXTRA_SAMPLING_PERIOD_US = "sampling_period_us";
+    public static final String EXTRA_MAX_REPORT_LATENCY_US = "max_report_latency_us";
+    public static final int DEFAULT_SAMPLING_PERIOD_US = 5000;
+    public static final int DEFAULT_MAX_REPORT_LATENCY_US = 1000000;
+    private static final int BATCH_CAPACITY = 8192;
+    private SensorEventBuffer batchBuffer;
+    private boolean batchDrainPosted = false;
+    private final Runnable drainBatchTask = this::drainBatch;
+
+    // Accelerometer, gyroscope and magnetometer are fused on a common 200 Hz timeline
+    private final FusionEngine fusionEngine = new SensorFusionEngine(new FusionScheduler(), new SensorResampler());
+
+    // While the engine finds the device stationary, the motion sensors run at this
+    // period at most and come back to the requested one as soon as it moves
+    public static final int STATIONARY_SAMPLING_PERIOD_US = (int) (SensorFusionEngine.STATIONARY_PERIOD_NS / 1000);
+    private int samplingPeriodUs;
+    private int maxReportLatencyUs;
+    private final MotionListener motionListener = this::onMotionStateChanged;
+
+    // Multi-storey sites: a building directory (see Building) in the "building"
+    // external files dir. The barometer counts the floors, and only the current and
+    // adjacent floors' walls and fingerprints are kept, loaded on their own thread.
+    public static final int PRESSURE_SAMPLING_PERIOD_US = 100000;
+    private static final int MAP_MATCH_PARTICLES = 2000;
+    private Building building;
+    private FloorCache<FloorData> floorCache;
+    private ExecutorService floorLoader;
+    private final FloorListener floorListener = this::onFloorChanged;
+    // Route to the destination on the current floor, fusion thread only. Planners are
+    // built and seeded on their own thread; a plan that comes back after a newer
+    // destination or a floor change is dropped.
+    private RoutePlanner routePlanner;
+    private ExecutorService routePlannerThread;
+    private int routeRequest = 0;
+    // Subscribers get a copy of the route when it is planned, repaired or dropped, when
+    // the next waypoint changes and every ROUTE_PUBLISH_DISTANCE metres walked along it
+    public static final float ROUTE_PUBLISH_DISTANCE = 1.0f;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<RouteListener> routeListeners = new ArrayList<>(); // main thread only
+    private Route route; // main thread only, as last delivered
+    // fusion thread only, the route as last published and where it was last checked
+    private int publishedRepairCount;
+    private int publishedNextWaypoint;
+    private float publishedRemainingLength;
+    private final float[] routePosition = new float[2];
+    private final float[] routeCheckedAt = {Float.NaN, Float.NaN};
+
+    // Every published position/heading/step update is appended here, fusion thread
+    // only: one segment per session, a new one past the size cap, the last few kept
+    public static final String JOURNAL_DIRECTORY = "journal";
+    public static final int MAX_JOURNAL_SEGMENTS = 8;
+    public static final long MAX_JOURNAL_SEGMENT_BYTES = 64L * 1024 * 1024;
+    // the single file journal of earlier versions
+    private static final String LEGACY_JOURNAL_FILE = "trajectory.journal";
+    private JournalDirectory journalDirectory;
+    private JournalWriter journalWriter;
+    private final float[] journalPosition = new float[2];
+
+    // Live positions for a dispatch console: start the service with a TCP port in
+    // this extra and clients connecting to it on the loopback interface, e.g.
+    // through adb forward, receive the binary frames of PositionStreamServer
+    public static final String EXTRA_STREAM_PORT = "stream_port";
+    private PositionStreamServer streamServer;
+
+    // Wi-Fi fingerprint fixes, when the site has a survey. Foreground apps may
+    // scan four times in two minutes, so this stays within the platform's budget.
+    public static final long WIFI_SCAN_INTERVAL_MS = 30000;
+    private WifiFingerprinter wifiFingerprinter;
+
+    // Name of a StepSource; the hardware step counter is used when it is not set
+    public static final String EXTRA_STEP_SOURCE = "step_source";
+
+    // Stage latencies and event rates, dumped with
+    // adb shell dumpsys activity service com.kisal.indoorsmart/.SensorFusionService
+    // and, when this extra is set, appended to a metrics file every so many milliseconds
+    public static final String EXTRA_METRICS_INTERVAL_MS = "metrics_interval_ms";
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private long metricsIntervalMs = 0;
+    private final Runnable metricsSnapshotTask = this::writeMetricsSnapshot;
+
+    // Subscribers bind to the service and receive coalesced state snapshots
+    public static final long PUBLISH_INTERVAL_FRAME_MS = 16;
+    private final PositionPublisher positionPublisher = new PositionPublisher(metrics);
+    private final IBinder binder = new LocalBinder();
+
+    /**
+     * Binder returned to clients in the same process.
+     */
+    public class LocalBinder extends Binder {
+        /**
+         * Delivers the navigation state to the listener on the main thread, at most
+         * once every intervalMs, e.g. {@link #PUBLISH_INTERVAL_FRAME_MS}.
+         */
+        public void subscribe(PositionListener listener, long intervalMs) {
+            positionPublisher.subscribe(listener, intervalMs);
+        }
+
+        public void unsubscribe(PositionListener listener) {
+            positionPublisher.unsubscribe(listener);
+        }
+
+        /**
+         * Opens the trajectory of this session, or of the last one while this one has
+         * no checkpoint yet, up to its last checkpoint. Returns null when nothing has
+         * been recorded. The caller closes the reader. Opening checks every frame of
+         * the segment, call it off the main thread.
+         */
+        public JournalReader openTrajectory() throws IOException {
+            return new JournalDirectory(new File(getFilesDir(), JOURNAL_DIRECTORY), MAX_JOURNAL_SEGMENTS).openLatest();
+        }
+
+        /**
+         * Plans a route from the current position to (x, y) in metres on the current
+         * floor, which the engine then follows and repairs step by step.
+         */
+        public void navigateTo(float x, float y) {
+            fusionHandler.post(() -> startRoute(x, y));
+        }
+
+        /**
+         * Delivers the route to the destination to the listener on the main thread,
+         * starting with the current one, or null while there is none.
+         */
+        public void subscribeRoute(RouteListener listener) {
+            routeListeners.remove(listener);
+            routeListeners.add(listener);
+            listener.onRouteChanged(route);
+        }
+
+        public void unsubscribeRoute(RouteListener listener) {
+            routeListeners.remove(listener);
+        }
+
+        /** Writes the current pipeline metrics, see {@link PipelineMetrics#dump}. */
+        public void dumpMetrics(Appendable out) throws IOException {
+            metrics.dump(out);
+        }
+    }
 
     @Override
     public void onCreate() {
         super.onCreate();
         mSensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
 
-        gyroOrientation[0] = 0.0f;
-        gyroOrientation[1] = 0.0f;
-        gyroOrientation[2] = 0.0f;
-
-        gyroMatrix[0] = 1.0f; gyroMatrix[1] = 0.0f; gyroMatrix[2] = 0.0f;
-        gyroMatrix[3] = 0.0f; gyroMatrix[4] = 1.0f; gyroMatrix[5] = 0.0f;
-        gyroMatrix[6] = 0.0f; gyroMatrix[7] = 0.0f; gyroMatrix[8] = 1.0f;
-
-        initListeners();
-
-        fuseTimer.scheduleAtFixedRate(new calculateFusedOrientationTask(), 5000, TIME_CONSTANT);
+        fusionThread = new HandlerThread("SensorFusion");
+        fusionThread.start();
+        fusionHandler = new Handler(fusionThread.getLooper());
+        fusionHandler.post(() -> {
+            fusionEngine.setMetrics(metrics);
+            fusionEngine.setMotionListener(motionListener);
+            openJournal();
+            openBuilding();
+            wifiFingerprinter = building != null
+                    ? new WifiFingerprinter(this, fusionHandler, fusionEngine, WIFI_SCAN_INTERVAL_MS)
+                    : WifiFingerprinter.load(this, fusionHandler, fusionEngine, WIFI_SCAN_INTERVAL_MS);
+            if (wifiFingerprinter != null) {
+                wifiFingerprinter.start();
+            }
+        });
         Log.d("SensorFusionService", "Service started");
     }
 
-    private void initListeners() {
-        mSensorManager.registerListener(this,
-                mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER),
-                SensorManager.SENSOR_DELAY_FASTEST);
+    private void initListeners(int samplingPeriodUs, int maxReportLatencyUs) {
+        this.samplingPeriodUs = samplingPeriodUs;
+        this.maxReportLatencyUs = maxReportLatencyUs;
+        int motionPeriodUs = fusionEngine.getMotionState() == MotionState.STATIONARY
+                ? Math.max(samplingPeriodUs, STATIONARY_SAMPLING_PERIOD_US)
+                : samplingPeriodUs;
+        registerSensor(Sensor.TYPE_ACCELEROMETER, motionPeriodUs, maxReportLatencyUs);
+        registerSensor(Sensor.TYPE_GYROSCOPE, motionPeriodUs, maxReportLatencyUs);
+        registerSensor(Sensor.TYPE_MAGNETIC_FIELD, motionPeriodUs, maxReportLatencyUs);
 
-        mSensorManager.registerListener(this,
-                mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE),
-                SensorManager.SENSOR_DELAY_FASTEST);
+        // Register the Step Counter sensor
+        registerSensor(Sensor.TYPE_STEP_COUNTER, samplingPeriodUs, maxReportLatencyUs);
 
-        mSensorManager.registerListener(this,
-                mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
-                SensorManager.SENSOR_DELAY_FASTEST);
+        // Floor changes take seconds, a few samples a second are plenty
+        registerSensor(Sensor.TYPE_PRESSURE, PRESSURE_SAMPLING_PERIOD_US, maxReportLatencyUs);
+    }
 
-        // Register the Step Counter sensor
-        mSensorManager.registerListener(this,
-                mSensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER),
-                SensorManager.SENSOR_DELAY_FASTEST);
+    // Fusion thread: moves the accelerometer, gyroscope and magnetometer to the rate
+    // the motion state needs, the step counter keeps running unchanged
+    private void onMotionStateChanged(MotionState state, long timestampNs) {
+        int periodUs = state == MotionState.STATIONARY
+                ? Math.max(samplingPeriodUs, STATIONARY_SAMPLING_PERIOD_US)
+                : samplingPeriodUs;
+        for (int type : new int[]{Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE, Sensor.TYPE_MAGNETIC_FIELD}) {
+            Sensor sensor = mSensorManager.getDefaultSensor(type);
+            if (sensor != null) {
+                mSensorManager.unregisterListener(this, sensor);
+                registerSensor(type, periodUs, maxReportLatencyUs);
+            }
+        }
+        Log.d("SensorFusionService", "Device " + state + ", motion sensors at " + periodUs + " us");
+    }
+
+    private void registerSensor(int type, int samplingPeriodUs, int maxReportLatencyUs) {
+        Sensor sensor = mSensorManager.getDefaultSensor(type);
+        if (sensor == null) {
+            return;
+        }
+        if (maxReportLatencyUs > 0 && sensor.getFifoMaxEventCount() == 0) {
+            Log.d("SensorFusionService", sensor.getName() + " has no FIFO, events are not batched");
+        }
+        mSensorManager.registerListener(this, sensor, samplingPeriodUs, maxReportLatencyUs, fusionHandler);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        boolean batching = intent != null && intent.getBooleanExtra(EXTRA_BATCHING, false);
+        int samplingPeriodUs = batching
+                ? intent.getIntExtra(EXTRA_SAMPLING_PERIOD_US, DEFAULT_SAMPLING_PERIOD_US)
+                : SensorManager.SENSOR_DELAY_FASTEST;
+        int maxReportLatencyUs = batching
+                ? intent.getIntExtra(EXTRA_MAX_REPORT_LATENCY_US, DEFAULT_MAX_REPORT_LATENCY_US)
+                : 0;
+        boolean recordTrace = intent != null && intent.getBooleanExtra(EXTRA_RECORD_TRACE, false);
+        String stepSourceName = intent != null ? intent.getStringExtra(EXTRA_STEP_SOURCE) : null;
+        StepSource stepSource = parseStepSource(stepSourceName);
+        long metricsInterval = intent != null ? intent.getLongExtra(EXTRA_METRICS_INTERVAL_MS, 0) : 0;
+        int streamPort = intent != null ? intent.getIntExtra(EXTRA_STREAM_PORT, 0) : 0;
+
+        // (re)register the sensors with the requested delivery mode
+        mSensorManager.unregisterListener(this);
+        fusionHandler.post(() -> {
+            drainBatch();
+            batchBuffer = batching ? new SensorEventBuffer(BATCH_CAPACITY) : null;
+            fusionEngine.setStepSource(stepSource);
+            if (recordTrace && traceWriter == null) {
+                startTraceRecording();
+            }
+            if (streamPort > 0 && streamServer == null) {
+                startStreaming(streamPort);
+            }
+            initListeners(samplingPeriodUs, maxReportLatencyUs);
+            metricsIntervalMs = metricsInterval;
+            fusionHandler.removeCallbacks(metricsSnapshotTask);
+            if (metricsIntervalMs > 0) {
+                fusionHandler.postDelayed(metricsSnapshotTask, metricsIntervalMs);
+            }
+        });
         return START_STICKY;
     }
 
+    private static StepSource parseStepSource(String name) {
+        if (name == null) {
+            return StepSource.HARDWARE_COUNTER;
+        }
+        try {
+            return StepSource.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            Log.e("SensorFusionService", "Unknown step source " + name + ", using the hardware step counter");
+            return StepSource.HARDWARE_COUNTER;
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
         mSensorManager.unregisterListener(this);
+        fusionHandler.removeCallbacks(drainBatchTask);
+        fusionHandler.removeCallbacks(metricsSnapshotTask);
+        fusionHandler.post(() -> {
+            // the sensors stay off, whatever the last events say
+            fusionEngine.setMotionListener(null);
+            if (wifiFingerprinter != null) {
+                wifiFingerprinter.stop();
+            }
+            closeBuilding();
+            drainBatch();
+            stopTraceRecording();
+            closeJournal();
+            stopStreaming();
+        });
+        fusionThread.quitSafely();
+        positionPublisher.clear();
+        routeListeners.clear();
         Log.d("SensorFusionService", "Service stopped");
     }
 
-    @Override
-    public IBinder onBind(Intent intent) {
-        return null;
+    private void startTraceRecording() {
+        File traceFile = new File(getExternalFilesDir("traces"), "trace-" + System.currentTimeMillis() + ".bin");
+        try {
+            traceWriter = new TraceWriter(traceFile);
+            Log.d("SensorFusionService", "Recording sensor trace to " + traceFile);
+        } catch (IOException e) {
+            Log.e("SensorFusionService", "Could not create sensor trace " + traceFile, e);
+        }
     }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        switch (event.sensor.getType()) {
-            case Sensor.TYPE_STEP_COUNTER:
-                int newStepCount = (int) event.values[0];
-                positionUpdater.updateStepCount(newStepCount);
-                break;
-
-            case Sensor.TYPE_ACCELEROMETER:
-                float ax = event.values[0];
-                float ay = event.values[1];
-                float az = event.values[2];
-
-                // Compute acceleration magnitude |A_k|
-                float magnitude = (float) Math.sqrt(ax * ax + ay * ay + az * az);
-                positionUpdater.addAccelerationSample(magnitude); // Pass acceleration data
-
-                System.arraycopy(event.values, 0, accel, 0, 3);
-                calculateAccMagOrientation();
-                break;
-
-            case Sensor.TYPE_MAGNETIC_FIELD:
-                System.arraycopy(event.values, 0, magnet, 0, 3);
-                break;
-
-            case Sensor.TYPE_GYROSCOPE:
-                gyroFunction(event);
-                break;
+    private void stopTraceRecording() {
+        if (traceWriter == null) {
+            return;
         }
+        try {
+            traceWriter.close();
+            Log.d("SensorFusionService", "Recorded " + traceWriter.getRecordCount() + " sensor events");
+        } catch (IOException e) {
+            Log.e("SensorFusionService", "Could not finish sensor trace", e);
+        }
+        traceWriter = null;
+    }
 
-        // omit negative angles
-        double theta;
-        if (fusedOrientation[2] * 180 / Math.PI<0){
-            theta = fusedOrientation[2] * 180 / Math.PI + 360;
-        } else {
-            theta = fusedOrientation[2] * 180 / Math.PI;
+    private void openBuilding() {
+        File directory = getExternalFilesDir("building");
+        if (directory == null || !new File(directory, Building.MANIFEST).isFile()) {
+            return;
+        }
+        try {
+            building = Building.read(directory);
+        } catch (IOException e) {
+            Log.e("SensorFusionService", "Could not read building " + directory, e);
+            return;
         }
+        floorLoader = Executors.newSingleThreadExecutor(task -> new Thread(task, "FloorLoader"));
+        routePlannerThread = Executors.newSingleThreadExecutor(task -> new Thread(task, "RoutePlanner"));
+        floorCache = new FloorCache<>(building, new FloorCache.Loader<FloorData>() {
+            @Override
+            public FloorData load(int floor) throws IOException {
+                return FloorData.load(building, floor);
+            }
 
-        // send orientation to position update module
-        positionUpdater.updateOrientation((float) (theta));
+            @Override
+            public void release(FloorData data) {}
+        }, floorLoader, new FloorCache.Listener<FloorData>() {
+            @Override
+            public void onFloorLoaded(int floor, FloorData data) {
+                fusionHandler.post(() -> applyFloor(floor));
+            }
 
-        // Send the data to the MainActivity
-        sendSensorData();
+            @Override
+            public void onFloorFailed(int floor, IOException e) {
+                Log.e("SensorFusionService", "Could not load floor " + floor, e);
+            }
+        });
+        fusionEngine.setFloor(building.getStartFloor(), building.getFloorHeight());
+        fusionEngine.setFloorListener(floorListener);
+        floorCache.setCurrentFloor(building.getStartFloor());
+        Log.d("SensorFusionService", "Building of floors " + building.getLowestFloor() + " to "
+                + building.getHighestFloor() + ", starting on " + building.getStartFloor());
     }
 
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+    // Fusion thread
+    private void onFloorChanged(int floor, long timestampNs) {
+        Log.d("SensorFusionService", "Now on floor " + floor);
+        // routes stay on their floor
+        dropRoute();
+        floorCache.setCurrentFloor(floor);
+        applyFloor(floor);
+    }
 
-    private void calculateAccMagOrientation() {
-        if (SensorManager.getRotationMatrix(rotationMatrix, null, accel, magnet)) {
-            SensorManager.getOrientation(rotationMatrix, accMagOrientation);
+    // Fusion thread: switches the map matching and the fingerprints to the floor,
+    // once its data is loaded; until then the engine dead reckons on its own
+    private void applyFloor(int floor) {
+        if (floorCache == null || floor != fusionEngine.getFloor()) {
+            return;
+        }
+        FloorData data = floorCache.get(floor);
+        fusionEngine.setMapMatcher(data != null && data.getWalls() != null
+                ? new ParticleFilter(data.getWalls(), MAP_MATCH_PARTICLES, floor) : null);
+        if (wifiFingerprinter != null) {
+            wifiFingerprinter.setIndex(data != null ? data.getFingerprints() : null);
         }
     }
 
-    private void sendSensorData() {
-
-        // omit negative angles
-        double theta;
-        if (fusedOrientation[2] * 180 / Math.PI<0){
-            theta = fusedOrientation[2] * 180 / Math.PI + 360;
-        } else {
-            theta = fusedOrientation[2] * 180 / Math.PI;
+    // Fusion thread. The grid and the planner's search state are only built for a
+    // destination, they take some tens of bytes per cell. Rasterising the walls and
+    // the searches of the whole floor take a few hundred ms on a large one, so they
+    // run on the route planner thread and only the repairs run here.
+    private void startRoute(float x, float y) {
+        FloorData data = floorCache != null ? floorCache.get(fusionEngine.getFloor()) : null;
+        if (data == null || data.getWalls() == null) {
+            Log.d("SensorFusionService", "No walls to plan a route on");
+            return;
         }
-        Intent intent = new Intent("SensorDataUpdate");
-
-        intent.putExtra("orientation", theta);
-        intent.putExtra("position", positionUpdater.getPosition());
-        intent.putExtra("step", positionUpdater.getStepCount());
-        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+        float[] position = new float[2];
+        fusionEngine.getPosition(position);
+        int request = ++routeRequest;
+        routePlannerThread.execute(() -> {
+            long start = System.nanoTime();
+            RoutePlanner planner = new RoutePlanner(
+                    OccupancyGrid.fromWalls(data.getWalls(), RoutePlanner.DEFAULT_CELL_SIZE));
+            boolean found = planner.setDestination(position[0], position[1], x, y);
+            long planNs = System.nanoTime() - start;
+            fusionHandler.post(() -> onRoutePlanned(request, found ? planner : null, x, y, planNs));
+        });
     }
 
-    public void gyroFunction(SensorEvent event) {
-        // don't start until first accelerometer/magnetometer orientation has been acquired
-
-        // initialisation of the gyroscope based rotation matrix
-        if(initState) {
-            float[] initMatrix;
-            initMatrix = getRotationMatrixFromOrientation(accMagOrientation);
-            float[] test = new float[3];
-            SensorManager.getOrientation(initMatrix, test);
-            gyroMatrix = matrixMultiplication(gyroMatrix, initMatrix);
-            initState = false;
+    // Fusion thread: hands the route to the engine. It starts where the user was when
+    // they asked for it, the next position updates follow it on or repair it from there
+    private void onRoutePlanned(int request, RoutePlanner planner, float x, float y, long planNs) {
+        if (request != routeRequest) {
+            return; // superseded, or the floor changed
         }
+        routePlanner = planner;
+        fusionEngine.setRoutePlanner(planner);
+        publishRoute();
+        if (planner == null) {
+            Log.d("SensorFusionService", "No route to " + x + ", " + y);
+            return;
+        }
+        Log.d("SensorFusionService", "Route of " + planner.getRemainingLength() + " m planned in "
+                + planNs / 1000 + " us");
+    }
 
-        // copy the new gyro values into the gyro array
-        // convert the raw gyro data into a rotation vector
-        float[] deltaVector = new float[4];
-        if(timestamp != 0) {
-            final float dT = (event.timestamp - timestamp) * NS2S;
-            System.arraycopy(event.values, 0, gyro, 0, 3);
-            getRotationVectorFromGyro(gyro, deltaVector, dT / 2.0f);
+    // Fusion thread: stops guiding and tells the subscribers, if there was a route
+    private void dropRoute() {
+        fusionEngine.setRoutePlanner(null);
+        routeRequest++;
+        if (routePlanner != null) {
+            routePlanner = null;
+            publishRoute();
         }
+    }
 
-        // measurement done, save current time for next interval
-        timestamp = (int) event.timestamp;
+    // Fusion thread: publishes the route once it changed enough for the subscribers
+    private void updateRoute() {
+        if (routePlanner == null) {
+            return;
+        }
+        // the route only follows the position
+        fusionEngine.getPosition(routePosition);
+        if (routePosition[0] == routeCheckedAt[0] && routePosition[1] == routeCheckedAt[1]) {
+            return;
+        }
+        routeCheckedAt[0] = routePosition[0];
+        routeCheckedAt[1] = routePosition[1];
+        if (routePlanner.getRepairCount() != publishedRepairCount
+                || routePlanner.getNextWaypoint() != publishedNextWaypoint
+                || Math.abs(routePlanner.getRemainingLength() - publishedRemainingLength) >= ROUTE_PUBLISH_DISTANCE) {
+            publishRoute();
+        }
+    }
 
-        // convert rotation vector into rotation matrix
-        float[] deltaMatrix = new float[9];
+    // Fusion thread: hands a copy of the current route, or null, to the main thread
+    private void publishRoute() {
+        Route published = Route.of(routePlanner);
+        if (published != null) {
+            publishedRepairCount = published.getRepairCount();
+            publishedNextWaypoint = published.getNextWaypoint();
+            publishedRemainingLength = published.getRemainingLength();
+        }
+        mainHandler.post(() -> onRouteChanged(published));
+    }
 
-        //The rotation vector can be converted into a matrix by calling the
-        // conversion function getRotationMatrixFromVector from the SensoManager
-        SensorManager.getRotationMatrixFromVector(deltaMatrix, deltaVector);
+    // Main thread
+    private void onRouteChanged(Route route) {
+        this.route = route;
+        for (int i = 0; i < routeListeners.size(); i++) {
+            routeListeners.get(i).onRouteChanged(route);
+        }
+    }
 
-        /*The gyroMatrix is the total orientation calculated from all
-        processed gyroscope measurements. The deltaMatrix holds the last rotation
-        interval which needs to be applied to the gyroMatrix in the next step.
-        This is done by multiplying gyroMatrix with deltaMatrix. This is equivalent
-        to the Rotation of gyroMatrix about deltaMatrix*/
-        // apply the new rotation interval on the gyroscope based rotation matrix
-        gyroMatrix = matrixMultiplication(gyroMatrix, deltaMatrix);
+    private void closeBuilding() {
+        if (floorCache == null) {
+            return;
+        }
+        fusionEngine.setFloorListener(null);
+        dropRoute();
+        routePlannerThread.shutdownNow();
+        floorCache.close();
+        floorLoader.shutdown();
+        floorCache = null;
+    }
 
-        // get the gyroscope based orientation from the rotation matrix
-        SensorManager.getOrientation(gyroMatrix, gyroOrientation);
+    // Restores the last consistent position of the previous run from its journal
+    // segment and starts this session's segment
+    private void openJournal() {
+        File directory = new File(getFilesDir(), JOURNAL_DIRECTORY);
+        try {
+            journalDirectory = new JournalDirectory(directory, MAX_JOURNAL_SEGMENTS);
+            File legacy = new File(getFilesDir(), LEGACY_JOURNAL_FILE);
+            if (legacy.exists() && (journalDirectory.newest() != null || !legacy.renameTo(journalDirectory.next()))) {
+                legacy.delete();
+            }
+            // the newest segment with a checkpoint, sessions may have ended before their first
+            File[] segments = journalDirectory.list();
+            boolean restored = false;
+            for (int i = segments.length - 1; i >= 0 && !restored; i--) {
+                try (JournalReader recovered = JournalReader.recover(segments[i])) {
+                    if (recovered != null) {
+                        float x = 0, y = 0;
+                        while (recovered.next()) {
+                            x = recovered.getX();
+                            y = recovered.getY();
+                        }
+                        fusionEngine.setPosition(x, y);
+                        Log.d("SensorFusionService", "Restored position " + x + ", " + y + " from the journal");
+                        restored = true;
+                    }
+                }
+            }
+            journalWriter = new JournalWriter(journalDirectory.next(), true);
+        } catch (IOException e) {
+            Log.e("SensorFusionService", "Could not open trajectory journal in " + directory, e);
+        }
     }
 
-    private void getRotationVectorFromGyro(float[] gyroValues,
-                                           float[] deltaRotationVector,
-                                           float timeFactor)
-    {
-        float[] normValues = new float[3];
-
-        // Calculate the angular speed of the sample
-        float omegaMagnitude =
-                (float)Math.sqrt(gyroValues[0] * gyroValues[0] +
-                        gyroValues[1] * gyroValues[1] +
-                        gyroValues[2] * gyroValues[2]);
-
-        // Normalize the rotation vector if it's big enough to get the axis
-        if(omegaMagnitude > EPSILON) {
-            normValues[0] = gyroValues[0] / omegaMagnitude;
-            normValues[1] = gyroValues[1] / omegaMagnitude;
-            normValues[2] = gyroValues[2] / omegaMagnitude;
-        }
-
-        // Integrate around this axis with the angular speed by the time step
-        // in order to get a delta rotation from this sample over the time step
-        // We will convert this axis-angle representation of the delta rotation
-        // into a quaternion before turning it into the rotation matrix.
-        float thetaOverTwo = omegaMagnitude * timeFactor;
-        float sinThetaOverTwo = (float)Math.sin(thetaOverTwo);
-        float cosThetaOverTwo = (float)Math.cos(thetaOverTwo);
-        deltaRotationVector[0] = sinThetaOverTwo * normValues[0];
-        deltaRotationVector[1] = sinThetaOverTwo * normValues[1];
-        deltaRotationVector[2] = sinThetaOverTwo * normValues[2];
-        deltaRotationVector[3] = cosThetaOverTwo;
+    private void appendJournal(long timestampNs) {
+        if (journalWriter == null) {
+            return;
+        }
+        fusionEngine.getPosition(journalPosition);
+        try {
+            journalWriter.append(timestampNs, journalPosition[0], journalPosition[1], fusionEngine.getHeading(), fusionEngine.getTotalStepCount());
+            if (journalWriter.getLength() >= MAX_JOURNAL_SEGMENT_BYTES) {
+                journalWriter.close();
+                journalWriter = new JournalWriter(journalDirectory.next(), true);
+            }
+        } catch (IOException e) {
+            Log.e("SensorFusionService", "Trajectory journal write failed", e);
+            closeJournal();
+        }
     }
 
-    private float[] getRotationMatrixFromOrientation(float[] o) {
-        float[] xM = new float[9];
-        float[] yM = new float[9];
-        float[] zM = new float[9];
-
-        float sinX = (float)Math.sin(o[1]);
-        float cosX = (float)Math.cos(o[1]);
-        float sinY = (float)Math.sin(o[2]);
-        float cosY = (float)Math.cos(o[2]);
-        float sinZ = (float)Math.sin(o[0]);
-        float cosZ = (float)Math.cos(o[0]);
-
-        // rotation about x-axis (pitch)
-        xM[0] = 1.0f; xM[1] = 0.0f; xM[2] = 0.0f;
-        xM[3] = 0.0f; xM[4] = cosX; xM[5] = sinX;
-        xM[6] = 0.0f; xM[7] = -sinX; xM[8] = cosX;
-
-        // rotation about y-axis (roll)
-        yM[0] = cosY; yM[1] = 0.0f; yM[2] = sinY;
-        yM[3] = 0.0f; yM[4] = 1.0f; yM[5] = 0.0f;
-        yM[6] = -sinY; yM[7] = 0.0f; yM[8] = cosY;
-
-        // rotation about z-axis (azimuth)
-        zM[0] = cosZ; zM[1] = sinZ; zM[2] = 0.0f;
-        zM[3] = -sinZ; zM[4] = cosZ; zM[5] = 0.0f;
-        zM[6] = 0.0f; zM[7] = 0.0f; zM[8] = 1.0f;
-
-        // rotation order is y, x, z (roll, pitch, azimuth)
-        float[] resultMatrix = matrixMultiplication(xM, yM);
-        resultMatrix = matrixMultiplication(zM, resultMatrix);
-        return resultMatrix;
+    private void startStreaming(int port) {
+        try {
+            streamServer = new PositionStreamServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            Log.d("SensorFusionService", "Streaming positions on port " + streamServer.getPort());
+        } catch (IOException e) {
+            Log.e("SensorFusionService", "Could not open position stream on port " + port, e);
+        }
     }
 
-    private float[] matrixMultiplication(float[] A, float[] B) {
-        float[] result = new float[9];
+    private void stopStreaming() {
+        if (streamServer == null) {
+            return;
+        }
+        try {
+            streamServer.close();
+            Log.d("SensorFusionService", "Position stream dropped " + streamServer.getDroppedFrameCount() + " frames");
+        } catch (IOException e) {
+            Log.e("SensorFusionService", "Could not close position stream", e);
+        }
+        streamServer = null;
+    }
 
-        result[0] = A[0] * B[0] + A[1] * B[3] + A[2] * B[6];
-        result[1] = A[0] * B[1] + A[1] * B[4] + A[2] * B[7];
-        result[2] = A[0] * B[2] + A[1] * B[5] + A[2] * B[8];
+    private void closeJournal() {
+        if (journalWriter == null) {
+            return;
+        }
+        try {
+            journalWriter.close();
+        } catch (IOException e) {
+            Log.e("SensorFusionService", "Could not finish trajectory journal", e);
+        }
+        journalWriter = null;
+    }
 
-        result[3] = A[3] * B[0] + A[4] * B[3] + A[5] * B[6];
-        result[4] = A[3] * B[1] + A[4] * B[4] + A[5] * B[7];
-        result[5] = A[3] * B[2] + A[4] * B[5] + A[5] * B[8];
+    // Appends the metrics to one file per installation, tagged with the device, so
+    // field recordings from different devices can be compared
+    private void writeMetricsSnapshot() {
+        File metricsFile = new File(getExternalFilesDir("metrics"), "metrics.txt");
+        try (Writer out = new FileWriter(metricsFile, true)) {
+            out.append("# ").append(Build.MANUFACTURER).append(' ').append(Build.MODEL)
+                    .append(" at ").append(Long.toString(System.currentTimeMillis())).append('\n');
+            metrics.dump(out);
+        } catch (IOException e) {
+            Log.e("SensorFusionService", "Could not write metrics to " + metricsFile, e);
+        }
+        if (metricsIntervalMs > 0) {
+            fusionHandler.postDelayed(metricsSnapshotTask, metricsIntervalMs);
+        }
+    }
 
-        result[6] = A[6] * B[0] + A[7] * B[3] + A[8] * B[6];
-        result[7] = A[6] * B[1] + A[7] * B[4] + A[8] * B[7];
-        result[8] = A[6] * B[2] + A[7] * B[5] + A[8] * B[8];
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        try {
+            metrics.dump(writer);
+        } catch (IOException e) {
+            writer.println("Could not dump metrics: " + e);
+        }
+    }
 
-        return result;
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
     }
 
-    class calculateFusedOrientationTask extends TimerTask {
-        private final KalmanFilter[] kalmanFilters = new KalmanFilter[3];
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        metrics.ingest.record(SystemClock.elapsedRealtimeNanos() - event.timestamp);
+
+        if (traceWriter != null) {
+            try {
+                traceWriter.record(event.sensor.getType(), event.timestamp, event.values);
+            } catch (IOException e) {
+                Log.e("SensorFusionService", "Sensor trace recording failed", e);
+                stopTraceRecording();
+            }
+        }
 
-        public calculateFusedOrientationTask() {
-            // Initialize one Kalman filter for each axis (yaw, pitch, roll)
-            for (int i = 0; i < 3; i++) {
-                kalmanFilters[i] = new KalmanFilter();
+        if (batchBuffer != null) {
+            // A FIFO flush delivers its events back to back within one looper message,
+            // so the drain posted behind them runs once the whole burst is buffered
+            if (batchBuffer.add(event.sensor.getType(), event.timestamp, event.values)) {
+                drainBatch();
+            } else if (!batchDrainPosted) {
+                batchDrainPosted = true;
+                fusionHandler.post(drainBatchTask);
             }
+            return;
         }
 
-        public void run() {
-            float dt = 0.03f; // Assume 33Hz update rate
+        // Sensor.TYPE_* ids are passed through unchanged, see SensorType
+        fusionEngine.onSensorEvent(event.sensor.getType(), event.timestamp, event.values);
 
-            for (int i = 0; i < 3; i++) {
-                fusedOrientation[i] = kalmanFilters[i].update(accMagOrientation[i], gyroOrientation[i], dt);
-            }
+        // Hand the new state to the subscribers
+        positionPublisher.update(fusionEngine, event.timestamp);
+        updateRoute();
+        appendJournal(event.timestamp);
+        if (streamServer != null) {
+            streamServer.publish(fusionEngine, event.timestamp);
+        }
+    }
 
-            // Update gyro matrix with the fused orientation
-            gyroMatrix = getRotationMatrixFromOrientation(fusedOrientation);
-            System.arraycopy(fusedOrientation, 0, gyroOrientation, 0, 3);
+    // Processes the buffered burst in timestamp order and publishes once
+    private void drainBatch() {
+        batchDrainPosted = false;
+        if (batchBuffer == null || batchBuffer.isEmpty()) {
+            return;
+        }
+        long timestamp = batchBuffer.getLatestTimestamp();
+        batchBuffer.drainTo(fusionEngine);
+        positionPublisher.update(fusionEngine, timestamp);
+        updateRoute();
+        appendJournal(timestamp);
+        if (streamServer != null) {
+            streamServer.publish(fusionEngine, timestamp);
         }
     }
 
-}
\ No newline at end of file
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+
+}
@@ -0,0 +1,120 @@
+package com.kisal.indoorsmart;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Memory bounded LRU cache of {@link FloorPlan} tiles. Missing tiles are decoded on
+ * the decoder thread the view shares between its plans; a tile that scrolled out
+ * of view before its turn came is skipped, and the view is notified when a tile
+ * becomes available.
+ */
+class TileCache {
+
+    /** Called on the decoder thread when a requested tile has been cached. */
+    interface Listener {
+        void onTileLoaded();
+    }
+
+    private final FloorPlan floorPlan;
+    private final Listener listener;
+    private final LruCache<Long, Bitmap> tiles;
+    private final Handler decoderHandler;
+
+    // Tiles queued for decoding and the missing tiles the last frame wanted, guarded by this
+    private final Set<Long> pending = new HashSet<>();
+    private Set<Long> visible = new HashSet<>();
+    private Set<Long> requested = new HashSet<>(); // Filled by the frame being drawn
+
+    TileCache(FloorPlan floorPlan, Handler decoderHandler, int maxBytes, Listener listener) {
+        this.floorPlan = floorPlan;
+        this.listener = listener;
+        tiles = new LruCache<Long, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap tile) {
+                return tile.getByteCount();
+            }
+        };
+        this.decoderHandler = decoderHandler;
+    }
+
+    /** Cache budget for tiles: an eighth of the heap the app may use. */
+    static int defaultMaxBytes() {
+        return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+    }
+
+    /** Packs a tile address into one cache key. */
+    static long key(int sampleSize, int column, int row) {
+        return ((long) Integer.numberOfTrailingZeros(sampleSize) << 48)
+                | ((long) row << 24) | column;
+    }
+
+    /** Starts collecting the tiles the frame being drawn needs. */
+    void beginFrame() {
+        requested.clear();
+    }
+
+    /**
+     * Ends the frame: queued tiles it did not ask for again are skipped.
+     */
+    synchronized void endFrame() {
+        Set<Long> swap = visible;
+        visible = requested;
+        requested = swap;
+    }
+
+    /**
+     * Returns the cached tile, or null after queueing it for decoding.
+     */
+    Bitmap get(int sampleSize, int column, int row) {
+        long key = key(sampleSize, column, row);
+        Bitmap tile = tiles.get(key);
+        if (tile != null) {
+            return tile;
+        }
+        requested.add(key);
+        synchronized (this) {
+            visible.add(key);
+            if (pending.add(key)) {
+                // this cache's tiles are the token, so release drops only them
+                decoderHandler.postAtTime(() -> decode(key, sampleSize, column, row), this,
+                        SystemClock.uptimeMillis());
+            }
+        }
+        return null;
+    }
+
+    private void decode(long key, int sampleSize, int column, int row) {
+        synchronized (this) {
+            if (!visible.contains(key)) {
+                // Scrolled or zoomed away before it was decoded
+                pending.remove(key);
+                return;
+            }
+        }
+        Bitmap tile = floorPlan.decodeTile(sampleSize, column, row);
+        synchronized (this) {
+            pending.remove(key);
+        }
+        if (tile != null) {
+            tiles.put(key, tile);
+            listener.onTileLoaded();
+        }
+    }
+
+    /** Stops decoding and drops the cached tiles, and the plan too when recyclePlan is set. */
+    void release(boolean recyclePlan) {
+        decoderHandler.removeCallbacksAndMessages(this);
+        decoderHandler.post(() -> {
+            tiles.evictAll();
+            if (recyclePlan) {
+                floorPlan.recycle();
+            }
+        });
+    }
+}
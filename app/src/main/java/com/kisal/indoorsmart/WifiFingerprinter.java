@@ -0,0 +1,152 @@
+package com.kisal.indoorsmart;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.kisal.indoorsmart.fusion.FusionEngine;
+import com.kisal.indoorsmart.fusion.wifi.FingerprintDatabase;
+import com.kisal.indoorsmart.fusion.wifi.FingerprintIndex;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Scans Wi-Fi every so often, matches the scan against the surveyed fingerprints
+ * of the site or of the current floor and hands the estimate to the engine as an
+ * absolute position fix, so the dead reckoning drift stays bounded. Scan results
+ * are received and matched on the fusion thread.
+ */
+class WifiFingerprinter extends BroadcastReceiver {
+
+    // Survey of the site, see FingerprintDatabase#read, in the "fingerprints" external files dir
+    static final String FINGERPRINT_FILE = "fingerprints.txt";
+
+    // Fewer known access points than this say little about the position
+    private static final int MIN_KNOWN_ACCESS_POINTS = 3;
+    private static final int MAX_SCAN_RESULTS = 128;
+    // Access points seen this long before the scan started still count as part of it
+    static final long SCAN_SLACK_MS = 500;
+
+    private final Context context;
+    private final Handler fusionHandler;
+    private final FusionEngine fusionEngine;
+    private final WifiManager wifiManager;
+    private final long intervalMs;
+    private final Runnable scanTask = this::scan;
+
+    // fusion thread only
+    private FingerprintIndex index;
+    private final String[] bssids = new String[MAX_SCAN_RESULTS];
+    private final float[] rssi = new float[MAX_SCAN_RESULTS];
+    private float[] vector;
+    private final float[] fix = new float[3];
+    private long lastScanRealtimeMs;
+
+    WifiFingerprinter(Context context, Handler fusionHandler, FusionEngine fusionEngine, long intervalMs) {
+        this.context = context;
+        this.fusionHandler = fusionHandler;
+        this.fusionEngine = fusionEngine;
+        this.wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Fusion thread: matches the following scans against index, e.g. the current
+     * floor's, or against nothing when it is null.
+     */
+    void setIndex(FingerprintIndex index) {
+        this.index = index;
+        if (index != null && (vector == null || vector.length < index.getDatabase().getDimension())) {
+            vector = new float[index.getDatabase().getDimension()];
+        }
+    }
+
+    /**
+     * Loads the single site survey, or returns null when the site has none.
+     */
+    static WifiFingerprinter load(Context context, Handler fusionHandler, FusionEngine fusionEngine, long intervalMs) {
+        File file = new File(context.getExternalFilesDir("fingerprints"), FINGERPRINT_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        try (Reader in = new FileReader(file)) {
+            FingerprintDatabase database = FingerprintDatabase.read(in);
+            Log.d("WifiFingerprinter", database.size() + " fingerprints of " + database.getDimension()
+                    + " access points loaded");
+            WifiFingerprinter fingerprinter = new WifiFingerprinter(context, fusionHandler, fusionEngine, intervalMs);
+            fingerprinter.setIndex(new FingerprintIndex(database));
+            return fingerprinter;
+        } catch (IOException | RuntimeException e) {
+            Log.e("WifiFingerprinter", "Could not read fingerprints " + file, e);
+            return null;
+        }
+    }
+
+    void start() {
+        context.registerReceiver(this, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION), null, fusionHandler);
+        fusionHandler.post(scanTask);
+    }
+
+    void stop() {
+        fusionHandler.removeCallbacks(scanTask);
+        context.unregisterReceiver(this);
+    }
+
+    // Fusion thread. The platform throttles scans, so a refused one just waits for the next turn.
+    private void scan() {
+        lastScanRealtimeMs = SystemClock.elapsedRealtime();
+        @SuppressWarnings("deprecation") // no replacement API, and the OS throttles the scans
+        boolean started = wifiManager.startScan();
+        if (!started) {
+            Log.d("WifiFingerprinter", "Wi-Fi scan refused");
+        }
+        fusionHandler.postDelayed(scanTask, intervalMs);
+    }
+
+    // Fusion thread
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (index == null) {
+            return;
+        }
+        List<ScanResult> results = wifiManager.getScanResults();
+        int count = 0;
+        for (int i = 0; i < results.size() && count < MAX_SCAN_RESULTS; i++) {
+            ScanResult result = results.get(i);
+            if (isFresh(result.timestamp, lastScanRealtimeMs)) {
+                bssids[count] = result.BSSID;
+                rssi[count] = result.level;
+                count++;
+            }
+        }
+        int known = index.getDatabase().toVector(bssids, rssi, count, vector);
+        if (known < MIN_KNOWN_ACCESS_POINTS) {
+            return;
+        }
+        if (!index.estimate(vector, FingerprintIndex.DEFAULT_K, fix)) {
+            return;
+        }
+        fusionEngine.correctPosition(fix[0], fix[1], fix[2]);
+        Log.d("WifiFingerprinter", "Fix " + fix[0] + ", " + fix[1] + " +/- " + fix[2] + " m from "
+                + known + " access points");
+    }
+
+    /**
+     * Whether a result last seen at timestampUs, in microseconds since boot, belongs
+     * to the scan started at scanRealtimeMs. Results cached from before the scan would
+     * pull the position back to where they were taken.
+     */
+    static boolean isFresh(long timestampUs, long scanRealtimeMs) {
+        return timestampUs >= (scanRealtimeMs - SCAN_SLACK_MS) * 1000;
+    }
+}
@@ -0,0 +1,24 @@
+package com.kisal.indoorsmart;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FloorPlanTest {
+
+    @Test
+    public void sampleSizeKeepsPreviewAtLeastViewSized() {
+        assertEquals(1, FloorPlan.sampleSizeFor(1080, 1920, 1080, 1920));
+        assertEquals(1, FloorPlan.sampleSizeFor(2000, 2000, 1080, 1920));
+        assertEquals(4, FloorPlan.sampleSizeFor(8000, 8000, 1080, 1920));
+        // The smaller ratio decides
+        assertEquals(2, FloorPlan.sampleSizeFor(16000, 4000, 1080, 1920));
+    }
+
+    @Test
+    public void sampleSizeSurvivesAViewWithoutSize() {
+        assertEquals(4096, FloorPlan.sampleSizeFor(4096, 4096, 0, 0));
+        assertEquals(4, FloorPlan.sampleSizeFor(8000, 8000, -1, 1920));
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.kisal.indoorsmart;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PathBufferTest {
+
+    @Test
+    public void closePointsOnlyMoveTheTail() {
+        PathBuffer path = new PathBuffer(4.0f);
+        path.add(0, 0);
+        path.add(1, 0);
+        path.add(3, 0);
+
+        assertEquals(2, path.size());
+        assertEquals(1, path.fixedSize());
+        assertEquals(3.0f, path.getX(1), 0.0f);
+
+        // far enough from the last kept point, the new point is kept
+        path.add(5, 0);
+        assertEquals(2, path.size());
+        assertEquals(2, path.fixedSize());
+        assertEquals(5.0f, path.getX(1), 0.0f);
+
+        path.add(6, 1);
+        assertEquals(3, path.size());
+        assertEquals(6.0f, path.getX(2), 0.0f);
+        assertEquals(1.0f, path.getY(2), 0.0f);
+    }
+
+    @Test
+    public void growthFollowsDistanceNotUpdates() {
+        PathBuffer path = new PathBuffer(5.0f);
+        // 100k position updates over a 1000 px walk
+        for (int i = 0; i < 100_000; i++) {
+            path.add(i * 0.01f, (float) Math.sin(i * 0.0001) * 10);
+        }
+        assertTrue("kept " + path.size(), path.size() <= 1000 / 5 + 2);
+        assertEquals(999.99f, path.getX(path.size() - 1), 1e-2f);
+    }
+}
@@ -0,0 +1,170 @@
+package com.kisal.indoorsmart;
+
+import com.kisal.indoorsmart.fusion.FusionEngine;
+import com.kisal.indoorsmart.fusion.PipelineMetrics;
+import com.kisal.indoorsmart.fusion.PositionSnapshot;
+import com.kisal.indoorsmart.fusion.SensorFusionEngine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PositionPublisherTest {
+
+    // Uptime when the tests start, well past boot
+    private static final long START = 60_000;
+
+    // A main looper on a manual clock
+    private static class ManualDispatcher implements PositionPublisher.Dispatcher {
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<Long> times = new ArrayList<>();
+        long now = START;
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+
+        @Override
+        public long elapsedRealtimeNanos() {
+            return now * 1_000_000L;
+        }
+
+        @Override
+        public void post(Runnable task) {
+            postAtTime(task, now);
+        }
+
+        @Override
+        public void postAtTime(Runnable task, long uptimeMillis) {
+            tasks.add(task);
+            times.add(uptimeMillis);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                if (tasks.get(i) == task) {
+                    tasks.remove(i);
+                    times.remove(i);
+                }
+            }
+        }
+
+        int pendingCount() {
+            return tasks.size();
+        }
+
+        // Runs everything due up to the time, earliest first
+        void advanceTo(long time) {
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < tasks.size(); i++) {
+                    if (times.get(i) <= time && (next < 0 || times.get(i) < times.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next < 0) {
+                    break;
+                }
+                now = Math.max(now, times.remove(next));
+                tasks.remove(next).run();
+            }
+            now = time;
+        }
+    }
+
+    private static class RecordingListener implements PositionListener {
+        private final ManualDispatcher dispatcher;
+        final List<Long> times = new ArrayList<>();
+        final List<Float> xs = new ArrayList<>();
+
+        RecordingListener(ManualDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        @Override
+        public void onPositionUpdate(PositionSnapshot snapshot) {
+            times.add(dispatcher.uptimeMillis());
+            xs.add(snapshot.getX());
+        }
+    }
+
+    private final ManualDispatcher dispatcher = new ManualDispatcher();
+    private final PositionPublisher publisher = new PositionPublisher(new PipelineMetrics(), dispatcher);
+    private final FusionEngine engine = new SensorFusionEngine();
+
+    // Fusion thread: the engine moved to x
+    private void update(float x) {
+        engine.setPosition(x, 0);
+        publisher.update(engine, dispatcher.uptimeMillis() * 1_000_000L);
+    }
+
+    @Test
+    public void fastUpdates_areCoalescedIntoTheLatest() {
+        RecordingListener listener = new RecordingListener(dispatcher);
+        publisher.subscribe(listener, 100);
+        dispatcher.advanceTo(START);
+        assertEquals(1, listener.times.size()); // the state as of subscribing
+
+        // 200 Hz of updates between two dispatches
+        for (int i = 1; i < 20; i++) {
+            dispatcher.advanceTo(START + i * 5);
+            update(i);
+            assertTrue("one dispatch pending at most", dispatcher.pendingCount() <= 1);
+        }
+        dispatcher.advanceTo(START + 1000);
+        assertEquals(2, listener.times.size());
+        assertEquals(START + 100, (long) listener.times.get(1));
+        assertEquals(19.0f, listener.xs.get(1), 0.0f);
+
+        // nothing new, nothing delivered
+        dispatcher.advanceTo(START + 2000);
+        assertEquals(2, listener.times.size());
+    }
+
+    @Test
+    public void deliveries_keepTheSubscriptionInterval() {
+        RecordingListener fast = new RecordingListener(dispatcher);
+        RecordingListener slow = new RecordingListener(dispatcher);
+        publisher.subscribe(fast, 100);
+        publisher.subscribe(slow, 250);
+        dispatcher.advanceTo(START);
+
+        for (int t = 1; t <= 1000; t++) {
+            dispatcher.advanceTo(START + t);
+            update(t);
+        }
+        dispatcher.advanceTo(START + 2000);
+
+        assertIntervals(fast, 100);
+        assertIntervals(slow, 250);
+        assertTrue(fast.times.size() >= 10);
+        assertTrue(slow.times.size() >= 4);
+        // both end up with the last update
+        assertEquals(1000.0f, fast.xs.get(fast.xs.size() - 1), 0.0f);
+        assertEquals(1000.0f, slow.xs.get(slow.xs.size() - 1), 0.0f);
+    }
+
+    @Test
+    public void unsubscribedListeners_getNothing() {
+        RecordingListener listener = new RecordingListener(dispatcher);
+        publisher.subscribe(listener, 100);
+        dispatcher.advanceTo(START);
+        publisher.unsubscribe(listener);
+        update(1);
+        dispatcher.advanceTo(START + 1000);
+        assertEquals(1, listener.times.size());
+        assertEquals(0, dispatcher.pendingCount());
+    }
+
+    private static void assertIntervals(RecordingListener listener, long intervalMs) {
+        for (int i = 1; i < listener.times.size(); i++) {
+            long gap = listener.times.get(i) - listener.times.get(i - 1);
+            assertTrue("delivered " + gap + " ms apart", gap >= intervalMs);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.kisal.indoorsmart;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WifiFingerprinterTest {
+
+    @Test
+    public void resultsFromTheScanAreFresh() {
+        long scanMs = 60_000;
+        assertTrue(WifiFingerprinter.isFresh(scanMs * 1000, scanMs));
+        assertTrue(WifiFingerprinter.isFresh((scanMs + 2_000) * 1000, scanMs));
+        // seen just before the scan started
+        assertTrue(WifiFingerprinter.isFresh((scanMs - WifiFingerprinter.SCAN_SLACK_MS) * 1000, scanMs));
+    }
+
+    @Test
+    public void resultsOlderThanTheScanAreDropped() {
+        long scanMs = 60_000;
+        // cached from the previous scan, one interval earlier
+        assertFalse(WifiFingerprinter.isFresh((scanMs - 10_000) * 1000, scanMs));
+        assertFalse(WifiFingerprinter.isFresh((scanMs - WifiFingerprinter.SCAN_SLACK_MS) * 1000 - 1, scanMs));
+    }
+
+}
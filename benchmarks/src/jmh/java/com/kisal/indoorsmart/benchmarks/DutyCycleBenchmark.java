@@ -0,0 +1,116 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.FusionScheduler;
+import com.kisal.indoorsmart.fusion.MotionState;
+import com.kisal.indoorsmart.fusion.SensorFusionEngine;
+import com.kisal.indoorsmart.fusion.SensorResampler;
+import com.kisal.indoorsmart.fusion.SensorType;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Replays a session of 10 s walking, 60 s standing at a desk and 10 s walking
+ * through the engine the service runs, once at full rate and once with duty
+ * cycling: while the engine reports {@link MotionState#STATIONARY}, only the
+ * samples the service's lower sampling rate would deliver are fed. One operation
+ * is the whole session, so the ratio of the two scores is the CPU saving; the
+ * sensorEvents and sessions counters give the events fed per session.
+ */
+@State(Scope.Thread)
+public class DutyCycleBenchmark {
+
+    private static final int WALK_TICKS = 2_000; // 10 s at 200 Hz
+    private static final int STILL_TICKS = 12_000; // 60 s
+    private static final int TICKS_PER_MAGNET = 4;
+    private static final int TICKS_PER_STEP = 100;
+    // the stationary sampling period is four ticks
+    private static final int STATIONARY_DECIMATION =
+            (int) (SensorFusionEngine.STATIONARY_PERIOD_NS / SyntheticStream.SAMPLE_INTERVAL_NS);
+
+    @Param({"false", "true"})
+    public boolean dutyCycling;
+
+    private final SyntheticStream walk = new SyntheticStream();
+    private final float[][] stillAccel = new float[STILL_TICKS][];
+    private final float[][] stillGyro = new float[STILL_TICKS][];
+    private final float[] stillMagnet = {0.0f, 22.0f, -40.0f};
+    private final float[] stepCount = new float[1];
+    private final float[] position = new float[2];
+
+    @Setup
+    public void setUp() {
+        // sensor noise of a phone lying on a desk
+        Random random = new Random(11);
+        for (int i = 0; i < STILL_TICKS; i++) {
+            stillAccel[i] = new float[]{
+                    0.02f * (float) random.nextGaussian(),
+                    0.02f * (float) random.nextGaussian(),
+                    9.81f + 0.02f * (float) random.nextGaussian()};
+            stillGyro[i] = new float[]{
+                    0.003f * (float) random.nextGaussian(),
+                    0.003f * (float) random.nextGaussian(),
+                    0.003f * (float) random.nextGaussian()};
+        }
+    }
+
+    /** Reported next to the score, summed over each iteration. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long sensorEvents;
+        public long sessions;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            sensorEvents = 0;
+            sessions = 0;
+        }
+    }
+
+    @Benchmark
+    public float[] session(Counters counters) {
+        long events = 0;
+        SensorFusionEngine engine = new SensorFusionEngine(new FusionScheduler(), new SensorResampler());
+        stepCount[0] = 0;
+        long timestamp = 1_000_000_000L;
+        int tick = 0;
+        for (int phase = 0; phase < 3; phase++) {
+            boolean walking = phase != 1;
+            int ticks = walking ? WALK_TICKS : STILL_TICKS;
+            for (int i = 0; i < ticks; i++, tick++) {
+                timestamp += SyntheticStream.SAMPLE_INTERVAL_NS;
+                if (dutyCycling && engine.getMotionState() == MotionState.STATIONARY
+                        && tick % STATIONARY_DECIMATION != 0) {
+                    continue;
+                }
+                float[] accel = walking ? walk.accel[SyntheticStream.sample(tick)] : stillAccel[i];
+                float[] gyro = walking ? walk.gyro[SyntheticStream.sample(tick)] : stillGyro[i];
+                float[] magnet = walking ? walk.magnet[SyntheticStream.sample(tick)] : stillMagnet;
+                engine.onSensorEvent(SensorType.ACCELEROMETER, timestamp, accel);
+                engine.onSensorEvent(SensorType.GYROSCOPE, timestamp, gyro);
+                events += 2;
+                if (tick % TICKS_PER_MAGNET == 0) {
+                    engine.onSensorEvent(SensorType.MAGNETIC_FIELD, timestamp, magnet);
+                    events++;
+                }
+                if (walking && i % TICKS_PER_STEP == 0) {
+                    stepCount[0]++;
+                    engine.onSensorEvent(SensorType.STEP_COUNTER, timestamp, stepCount);
+                    events++;
+                }
+            }
+        }
+        counters.sensorEvents += events;
+        counters.sessions++;
+        engine.getPosition(position);
+        return position;
+    }
+}
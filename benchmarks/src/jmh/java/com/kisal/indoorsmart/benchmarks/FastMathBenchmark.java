@@ -0,0 +1,125 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.FastMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * {@link FastMath} against java.lang.Math, each operation applying the function
+ * to a batch of arguments in the range the fusion code sees: angles of a few
+ * turns, accelerometer magnitudes and squared vector lengths.
+ */
+@State(Scope.Thread)
+public class FastMathBenchmark {
+
+    private static final int BATCH = 1024;
+
+    private final float[] angles = new float[BATCH];
+    private final float[] degrees = new float[BATCH];
+    private final float[] ratios = new float[BATCH];
+    private final float[] magnitudes = new float[BATCH];
+
+    public FastMathBenchmark() {
+        Random random = new Random(13);
+        for (int i = 0; i < BATCH; i++) {
+            angles[i] = (float) ((random.nextDouble() - 0.5) * 8 * Math.PI);
+            degrees[i] = (float) (random.nextDouble() * 360);
+            ratios[i] = (float) random.nextGaussian();
+            magnitudes[i] = 8.0f + 4.0f * (float) random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public float sinCosMath() {
+        float sum = 0;
+        for (float angle : angles) {
+            sum += (float) Math.sin(angle) + (float) Math.cos(angle);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float sinCosFast() {
+        float sum = 0;
+        for (float angle : angles) {
+            sum += FastMath.sin(angle) + FastMath.cos(angle);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float sinCosDegMath() {
+        float sum = 0;
+        for (float degree : degrees) {
+            sum += (float) Math.sin(Math.toRadians(degree)) + (float) Math.cos(Math.toRadians(degree));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float sinCosDegFast() {
+        float sum = 0;
+        for (float degree : degrees) {
+            sum += FastMath.sinDeg(degree) + FastMath.cosDeg(degree);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float atan2Math() {
+        float sum = 0;
+        for (int i = 0; i < BATCH; i++) {
+            sum += (float) Math.atan2(ratios[i], ratios[BATCH - 1 - i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float atan2Fast() {
+        float sum = 0;
+        for (int i = 0; i < BATCH; i++) {
+            sum += FastMath.atan2(ratios[i], ratios[BATCH - 1 - i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float invSqrtMath() {
+        float sum = 0;
+        for (float magnitude : magnitudes) {
+            sum += 1.0f / (float) Math.sqrt(magnitude);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float invSqrtFast() {
+        float sum = 0;
+        for (float magnitude : magnitudes) {
+            sum += FastMath.invSqrt(magnitude);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float cbrtMath() {
+        float sum = 0;
+        for (float magnitude : magnitudes) {
+            sum += (float) Math.cbrt(magnitude);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float cbrtFast() {
+        float sum = 0;
+        for (float magnitude : magnitudes) {
+            sum += FastMath.cbrt(magnitude);
+        }
+        return sum;
+    }
+}
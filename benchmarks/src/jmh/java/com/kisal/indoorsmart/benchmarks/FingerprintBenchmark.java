@@ -0,0 +1,102 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.wifi.FingerprintDatabase;
+import com.kisal.indoorsmart.fusion.wifi.FingerprintIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Weighted k-nearest-neighbour fix from one Wi-Fi scan: the {@link FingerprintIndex}
+ * KD-tree against a linear scan of every fingerprint, on a synthetic site with
+ * reference points every metre and access points every 15 m.
+ */
+@State(Scope.Thread)
+public class FingerprintBenchmark {
+
+    private static final int QUERIES = 64;
+    private static final float ACCESS_POINT_SPACING = 15.0f;
+
+    // Edge of the square site in metres, one reference point per square metre
+    @Param({"30", "100"})
+    public int siteSize;
+
+    private FingerprintDatabase database;
+    private FingerprintIndex index;
+    private float[][] queries;
+    private final float[] fix = new float[3];
+    private int query = 0;
+
+    @Setup
+    public void setUp() {
+        int perRow = (int) (siteSize / ACCESS_POINT_SPACING) + 1;
+        int dimension = perRow * perRow;
+        int count = siteSize * siteSize;
+        String[] bssids = new String[dimension];
+        for (int ap = 0; ap < dimension; ap++) {
+            bssids[ap] = "ap" + ap;
+        }
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        float[] rssi = new float[count * dimension];
+        for (int i = 0; i < count; i++) {
+            xs[i] = i % siteSize;
+            ys[i] = i / siteSize;
+            for (int ap = 0; ap < dimension; ap++) {
+                rssi[i * dimension + ap] = rssi(ap, perRow, xs[i], ys[i]);
+            }
+        }
+        database = new FingerprintDatabase(bssids, xs, ys, rssi);
+        index = new FingerprintIndex(database);
+
+        Random random = new Random(17);
+        queries = new float[QUERIES][dimension];
+        for (float[] q : queries) {
+            float x = random.nextFloat() * siteSize;
+            float y = random.nextFloat() * siteSize;
+            for (int ap = 0; ap < dimension; ap++) {
+                q[ap] = rssi(ap, perRow, x, y) + (float) random.nextGaussian() * 3;
+            }
+        }
+    }
+
+    // Log-distance path loss, heard down to -95 dBm
+    private static float rssi(int ap, int perRow, float x, float y) {
+        float dx = x - (ap % perRow) * ACCESS_POINT_SPACING;
+        float dy = y - (ap / perRow) * ACCESS_POINT_SPACING;
+        double level = -40 - 30 * Math.log10(Math.max(1.0, Math.sqrt(dx * dx + dy * dy)));
+        return level < -95 ? FingerprintDatabase.MISSING_RSSI : (float) level;
+    }
+
+    @Benchmark
+    public float[] kdTree() {
+        index.estimate(queries[query++ & (QUERIES - 1)], FingerprintIndex.DEFAULT_K, fix);
+        return fix;
+    }
+
+    // Nearest fingerprint by scanning all of them
+    @Benchmark
+    public int linearScan() {
+        float[] q = queries[query++ & (QUERIES - 1)];
+        int dimension = database.getDimension();
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < database.size(); i++) {
+            float distance = 0;
+            for (int ap = 0; ap < dimension; ap++) {
+                float d = q[ap] - database.getRssi(i, ap);
+                distance += d * d;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,59 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.FusionScheduler;
+import com.kisal.indoorsmart.fusion.SensorFusionEngine;
+import com.kisal.indoorsmart.fusion.SensorResampler;
+import com.kisal.indoorsmart.fusion.SensorType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * End to end cost of one 200 Hz tick through {@link SensorFusionEngine}: an
+ * accelerometer and a gyroscope event, a magnetometer event every fourth tick
+ * and a step counter update every half second, with the fusion steps the engine
+ * schedules itself. One operation is 5 ms of sensor time. With resample, the
+ * events go through a {@link SensorResampler} first, as in the app.
+ */
+@State(Scope.Thread)
+public class FusionPipelineBenchmark {
+
+    private static final int TICKS_PER_MAGNET = 4;
+    private static final int TICKS_PER_STEP = 100;
+
+    private final SyntheticStream stream = new SyntheticStream();
+    private SensorFusionEngine engine;
+    private final float[] stepCount = new float[1];
+    private final float[] position = new float[2];
+    private int tick = 0;
+    private long timestamp = 1_000_000_000L;
+
+    @Param({"false", "true"})
+    public boolean resample;
+
+    @Setup
+    public void setUp() {
+        engine = new SensorFusionEngine(new FusionScheduler(), resample ? new SensorResampler() : null);
+    }
+
+    @Benchmark
+    public float[] tick() {
+        int sample = SyntheticStream.sample(tick);
+        timestamp += SyntheticStream.SAMPLE_INTERVAL_NS;
+        if (tick % TICKS_PER_MAGNET == 0) {
+            engine.onSensorEvent(SensorType.MAGNETIC_FIELD, timestamp, stream.magnet[sample]);
+        }
+        engine.onSensorEvent(SensorType.ACCELEROMETER, timestamp, stream.accel[sample]);
+        engine.onSensorEvent(SensorType.GYROSCOPE, timestamp, stream.gyro[sample]);
+        if (tick % TICKS_PER_STEP == 0) {
+            stepCount[0]++;
+            engine.onSensorEvent(SensorType.STEP_COUNTER, timestamp, stepCount);
+        }
+        tick++;
+        engine.getPosition(position);
+        return position;
+    }
+}
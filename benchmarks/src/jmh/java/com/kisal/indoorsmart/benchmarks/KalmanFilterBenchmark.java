@@ -0,0 +1,28 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.KalmanFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One scalar Kalman filter update, three of which made up a fusion step before
+ * the quaternion filter.
+ */
+@State(Scope.Thread)
+public class KalmanFilterBenchmark {
+
+    private final KalmanFilter filter = new KalmanFilter();
+    private float measurement = 0.0f;
+
+    @Benchmark
+    public float update() {
+        // a slowly turning angle keeps the filter out of its trivial steady state
+        measurement += 0.001f;
+        if (measurement > 3.0f) {
+            measurement = -3.0f;
+        }
+        return filter.update(measurement, 0.033f, 0.03f);
+    }
+}
@@ -0,0 +1,68 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.GyroIntegrator;
+import com.kisal.indoorsmart.fusion.KalmanFilter;
+import com.kisal.indoorsmart.fusion.QuaternionOrientation;
+import com.kisal.indoorsmart.fusion.RotationMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Orientation work per 200 Hz sample tick, with a fusion step every 30 ms:
+ * the quaternion filter against the former Euler angle path, which extracted
+ * the accelerometer/magnetometer orientation on every accelerometer event and
+ * rebuilt the gyro matrix from three Kalman filtered angles on every fusion step.
+ */
+@State(Scope.Thread)
+public class OrientationBenchmark {
+
+    private static final int SAMPLES_PER_FUSION = 6;
+    private static final float FUSION_DT = 0.03f;
+
+    private final SyntheticStream stream = new SyntheticStream();
+    private int tick = 0;
+    private long timestamp = 1L;
+
+    private final QuaternionOrientation quaternion = new QuaternionOrientation();
+
+    private final GyroIntegrator gyroIntegrator = new GyroIntegrator();
+    private final KalmanFilter[] kalmanFilters = {new KalmanFilter(), new KalmanFilter(), new KalmanFilter()};
+    private final float[] rotationMatrix = new float[9];
+    private final float[] accMagOrientation = new float[3];
+    private final float[] gyroOrientation = new float[3];
+    private final float[] fusedOrientation = new float[3];
+
+    @Benchmark
+    public float quaternion() {
+        int sample = SyntheticStream.sample(tick);
+        timestamp += SyntheticStream.SAMPLE_INTERVAL_NS;
+        quaternion.integrate(stream.gyro[sample], timestamp);
+        if (tick++ % SAMPLES_PER_FUSION == 0) {
+            quaternion.correct(stream.accel[sample], stream.magnet[sample], FUSION_DT);
+            return quaternion.getRoll();
+        }
+        return 0.0f;
+    }
+
+    @Benchmark
+    public float eulerKalman() {
+        int sample = SyntheticStream.sample(tick);
+        timestamp += SyntheticStream.SAMPLE_INTERVAL_NS;
+        if (RotationMath.getRotationMatrix(rotationMatrix, stream.accel[sample], stream.magnet[sample])) {
+            RotationMath.getOrientation(rotationMatrix, accMagOrientation);
+        }
+        gyroIntegrator.integrate(stream.gyro[sample], timestamp);
+        if (tick++ % SAMPLES_PER_FUSION == 0) {
+            gyroIntegrator.getOrientation(gyroOrientation);
+            for (int axis = 0; axis < 3; axis++) {
+                fusedOrientation[axis] = kalmanFilters[axis].update(
+                        accMagOrientation[axis], gyroOrientation[axis], FUSION_DT);
+            }
+            gyroIntegrator.setOrientation(fusedOrientation);
+            return fusedOrientation[2];
+        }
+        return 0.0f;
+    }
+}
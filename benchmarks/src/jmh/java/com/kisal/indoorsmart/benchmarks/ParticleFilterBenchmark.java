@@ -0,0 +1,74 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.map.ParticleFilter;
+import com.kisal.indoorsmart.fusion.map.WallIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One map matched step on an office floor: a 60 x 40 m grid of 4 x 4 m rooms
+ * with 1 m doorways. A step interval is about 500 ms, so a step has to stay far
+ * below that with the particle counts we want to run.
+ */
+@State(Scope.Thread)
+public class ParticleFilterBenchmark {
+
+    private static final float ROOM_SIZE = 4.0f;
+    private static final float DOOR_WIDTH = 1.0f;
+
+    @Param({"1000", "5000", "10000"})
+    public int particles;
+
+    private ParticleFilter filter;
+    private final float[] estimate = new float[2];
+    private int step = 0;
+
+    @Setup
+    public void setUp() {
+        filter = new ParticleFilter(new WallIndex(officeWalls(15, 10), WallIndex.DEFAULT_CELL_SIZE), particles, 1);
+        filter.reset(2, 2, 0.5f);
+    }
+
+    @Benchmark
+    public float[] onStep() {
+        // a slow loop through the rooms; blocked particles are resampled away
+        step++;
+        filter.onStep(0.7f, (step / 8) * 90 % 360);
+        filter.getEstimate(estimate);
+        return estimate;
+    }
+
+    // Every room wall has a doorway in its middle
+    private static float[] officeWalls(int columns, int rows) {
+        float[] walls = new float[(columns * (rows + 1) + rows * (columns + 1)) * 8];
+        int n = 0;
+        float half = (ROOM_SIZE - DOOR_WIDTH) / 2;
+        for (int row = 0; row <= rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                float x = column * ROOM_SIZE, y = row * ROOM_SIZE;
+                n = put(walls, n, x, y, x + half, y);
+                n = put(walls, n, x + ROOM_SIZE - half, y, x + ROOM_SIZE, y);
+            }
+        }
+        for (int column = 0; column <= columns; column++) {
+            for (int row = 0; row < rows; row++) {
+                float x = column * ROOM_SIZE, y = row * ROOM_SIZE;
+                n = put(walls, n, x, y, x, y + half);
+                n = put(walls, n, x, y + ROOM_SIZE - half, x, y + ROOM_SIZE);
+            }
+        }
+        return walls;
+    }
+
+    private static int put(float[] walls, int n, float x1, float y1, float x2, float y2) {
+        walls[n] = x1;
+        walls[n + 1] = y1;
+        walls[n + 2] = x2;
+        walls[n + 3] = y2;
+        return n + 4;
+    }
+}
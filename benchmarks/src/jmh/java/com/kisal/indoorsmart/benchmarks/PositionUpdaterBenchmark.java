@@ -0,0 +1,49 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.PositionUpdater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The dead reckoning calls: one per accelerometer sample, and the stride and
+ * position update for every step.
+ */
+@State(Scope.Thread)
+public class PositionUpdaterBenchmark {
+
+    private final PositionUpdater positionUpdater = new PositionUpdater();
+    private final float[] accelerations = new float[64];
+    private final float[] position = new float[2];
+    private int sample = 0;
+    private float heading = 0.0f;
+
+    public PositionUpdaterBenchmark() {
+        for (int i = 0; i < accelerations.length; i++) {
+            accelerations[i] = 9.81f + 1.5f * (float) Math.sin(i * 0.2);
+        }
+        for (int i = 0; i < 10; i++) {
+            positionUpdater.addAccelerationSample(accelerations[i]);
+        }
+    }
+
+    @Benchmark
+    public PositionUpdater addAccelerationSample() {
+        positionUpdater.addAccelerationSample(accelerations[sample++ & (accelerations.length - 1)]);
+        return positionUpdater;
+    }
+
+    @Benchmark
+    public float[] addStep() {
+        // turn by a prime number of degrees so every quadrant of updatePosition runs
+        heading += 7.0f;
+        if (heading >= 360.0f) {
+            heading -= 360.0f;
+        }
+        positionUpdater.updateOrientation(heading);
+        positionUpdater.addSteps(1);
+        positionUpdater.getPosition(position);
+        return position;
+    }
+}
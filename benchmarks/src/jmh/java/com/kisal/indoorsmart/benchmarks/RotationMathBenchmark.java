@@ -0,0 +1,65 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.RotationMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The rotation helpers that run per gyro sample and per fusion step.
+ */
+@State(Scope.Thread)
+public class RotationMathBenchmark {
+
+    private final float[] matrix = {
+            1.0f, 0.0f, 0.0f,
+            0.0f, 1.0f, 0.0f,
+            0.0f, 0.0f, 1.0f
+    };
+    private final float[] deltaMatrix = new float[9];
+    private final float[] rotationVector = new float[4];
+    private final float[] gyro = {0.3f, -0.2f, 0.5f};
+    private final float[] orientation = {0.1f, 0.2f, 0.3f};
+    private final float[] angles = new float[3];
+    private final float[] gravity = {-1.2f, 0.8f, 9.7f};
+    private final float[] geomagnetic = {5.0f, 22.0f, -40.0f};
+
+    public RotationMathBenchmark() {
+        RotationMath.getRotationVectorFromGyro(gyro, rotationVector, 0.0025f);
+        RotationMath.getRotationMatrixFromVector(deltaMatrix, rotationVector);
+    }
+
+    @Benchmark
+    public float[] multiplyInPlace() {
+        // the delta is a rotation, so the product stays bounded however often it runs
+        RotationMath.multiplyInPlace(matrix, deltaMatrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public float[] getRotationVectorFromGyro() {
+        RotationMath.getRotationVectorFromGyro(gyro, rotationVector, 0.0025f);
+        return rotationVector;
+    }
+
+    @Benchmark
+    public float[] getRotationMatrixFromVector() {
+        RotationMath.getRotationMatrixFromVector(deltaMatrix, rotationVector);
+        return deltaMatrix;
+    }
+
+    @Benchmark
+    public float[] getRotationMatrixFromOrientation() {
+        RotationMath.getRotationMatrixFromOrientation(orientation, matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public float[] accMagOrientation() {
+        if (RotationMath.getRotationMatrix(matrix, gravity, geomagnetic)) {
+            RotationMath.getOrientation(matrix, angles);
+        }
+        return angles;
+    }
+}
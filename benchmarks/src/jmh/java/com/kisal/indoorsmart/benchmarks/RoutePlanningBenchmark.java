@@ -0,0 +1,209 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.route.CellPath;
+import com.kisal.indoorsmart.fusion.route.DStarLite;
+import com.kisal.indoorsmart.fusion.route.JumpPointSearch;
+import com.kisal.indoorsmart.fusion.route.OccupancyGrid;
+import com.kisal.indoorsmart.fusion.route.RoutePlanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Route planning across a synthetic maze of one-cell corridors with some walls
+ * knocked out, so there is more than one way round. The initial plan corner to
+ * corner by jump point search and by a from-scratch D* Lite search, against the
+ * D* Lite repairs: per position update while the user walks the route to and
+ * fro, and when a door on the route a few cells ahead of them closes or opens
+ * again. routePlannerStep is what the fusion thread pays per position update
+ * once a destination is set, following the route or repairing it when the walk
+ * turns back. At 0.5 m cells the 1025 maze is a 512 m square floor.
+ */
+@State(Scope.Thread)
+public class RoutePlanningBenchmark {
+
+    // Knocked out fraction of the walls left standing by the maze generator
+    private static final float LOOP_FRACTION = 0.1f;
+    // Cells between the user and the door
+    private static final int DOOR_AHEAD = 12;
+
+    // Edge of the square grid in cells, odd
+    @Param({"129", "513", "1025"})
+    public int mazeSize;
+
+    private OccupancyGrid grid;
+    private JumpPointSearch jumpPointSearch;
+    private DStarLite fromScratch;
+    private DStarLite walker;
+    private DStarLite doorRepair;
+    private RoutePlanner planner;
+    private final CellPath path = new CellPath();
+    private int start;
+    private int goal;
+
+    // The route cell by cell, walked to and fro
+    private int[] walk;
+    private int step = 0;
+    // A route cell whose closing leaves a way round
+    private int door;
+    private boolean doorClosed = false;
+
+    @Setup
+    public void setUp() {
+        grid = maze(mazeSize, new Random(5));
+        start = mazeSize + 1;
+        goal = (mazeSize - 2) * mazeSize + mazeSize - 2;
+        jumpPointSearch = new JumpPointSearch(grid);
+        fromScratch = new DStarLite(grid);
+
+        walker = new DStarLite(grid);
+        walker.reset(start, goal);
+        walker.computeShortestPath();
+        walker.extractPath(path);
+        walk = cells(path);
+
+        // the first door past the middle of the route that has a way round
+        int i = walk.length / 2;
+        while (true) {
+            door = walk[i];
+            grid.setBlocked(door % mazeSize, door / mazeSize, true);
+            boolean wayRound = jumpPointSearch.findPath(walk[i - DOOR_AHEAD], goal, path);
+            grid.setBlocked(door % mazeSize, door / mazeSize, false);
+            if (wayRound) {
+                break;
+            }
+            i++;
+        }
+        doorRepair = new DStarLite(grid);
+        doorRepair.reset(walk[i - DOOR_AHEAD], goal);
+        doorRepair.computeShortestPath();
+
+        // seeded as on the route planner thread, before the fusion thread gets it
+        planner = new RoutePlanner(grid);
+        planner.setDestination(grid.getCentreX(start), grid.getCentreY(start),
+                grid.getCentreX(goal), grid.getCentreY(goal));
+    }
+
+    @Benchmark
+    public CellPath jumpPointSearch() {
+        jumpPointSearch.findPath(start, goal, path);
+        return path;
+    }
+
+    @Benchmark
+    public CellPath dStarLiteFromScratch() {
+        fromScratch.reset(start, goal);
+        fromScratch.computeShortestPath();
+        fromScratch.extractPath(path);
+        return path;
+    }
+
+    @Benchmark
+    public CellPath dStarLiteWalk() {
+        int period = 2 * (walk.length - 1);
+        int i = step++ % period;
+        walker.moveStart(walk[i < walk.length ? i : period - i]);
+        walker.computeShortestPath();
+        walker.extractPath(path);
+        return path;
+    }
+
+    @Benchmark
+    public RoutePlanner routePlannerStep() {
+        int period = 2 * (walk.length - 1);
+        int i = step++ % period;
+        int cell = walk[i < walk.length ? i : period - i];
+        planner.onPosition(grid.getCentreX(cell), grid.getCentreY(cell));
+        return planner;
+    }
+
+    @Benchmark
+    public CellPath dStarLiteDoor() {
+        doorClosed = !doorClosed;
+        grid.setBlocked(door % mazeSize, door / mazeSize, doorClosed);
+        doorRepair.onCellChanged(door);
+        doorRepair.computeShortestPath();
+        doorRepair.extractPath(path);
+        return path;
+    }
+
+    // Every cell along the straight and diagonal legs between the turning cells
+    private int[] cells(CellPath turns) {
+        int length = 1;
+        for (int i = 0; i + 1 < turns.size(); i++) {
+            length += legLength(turns.get(i), turns.get(i + 1));
+        }
+        int[] cells = new int[length];
+        int n = 0;
+        cells[n++] = turns.get(0);
+        for (int i = 0; i + 1 < turns.size(); i++) {
+            int from = turns.get(i), to = turns.get(i + 1);
+            int dx = Integer.signum(to % mazeSize - from % mazeSize);
+            int dy = Integer.signum(to / mazeSize - from / mazeSize);
+            for (int k = 1; k <= legLength(from, to); k++) {
+                cells[n++] = from + k * (dy * mazeSize + dx);
+            }
+        }
+        return cells;
+    }
+
+    private int legLength(int from, int to) {
+        return Math.max(Math.abs(to % mazeSize - from % mazeSize), Math.abs(to / mazeSize - from / mazeSize));
+    }
+
+    // Depth first maze on the odd cells, then LOOP_FRACTION of the inner walls
+    // between two corridors removed
+    static OccupancyGrid maze(int size, Random random) {
+        OccupancyGrid grid = new OccupancyGrid(size, size, 0, 0, 0.5f);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                grid.setBlocked(x, y, true);
+            }
+        }
+        int[] stack = new int[size * size];
+        int top = 0;
+        stack[top++] = size + 1;
+        grid.setBlocked(1, 1, false);
+        int[] dx = {2, -2, 0, 0};
+        int[] dy = {0, 0, 2, -2};
+        int[] order = {0, 1, 2, 3};
+        while (top > 0) {
+            int cell = stack[top - 1];
+            int x = cell % size, y = cell / size;
+            for (int i = 3; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = order[i];
+                order[i] = order[j];
+                order[j] = swap;
+            }
+            boolean moved = false;
+            for (int d : order) {
+                int nx = x + dx[d], ny = y + dy[d];
+                if (nx > 0 && ny > 0 && nx < size - 1 && ny < size - 1 && grid.isBlocked(nx, ny)) {
+                    grid.setBlocked(x + dx[d] / 2, y + dy[d] / 2, false);
+                    grid.setBlocked(nx, ny, false);
+                    stack[top++] = ny * size + nx;
+                    moved = true;
+                    break;
+                }
+            }
+            if (!moved) {
+                top--;
+            }
+        }
+        for (int y = 1; y < size - 1; y++) {
+            for (int x = 1; x < size - 1; x++) {
+                boolean wallBetweenCorridors = ((x ^ y) & 1) == 1 && grid.isBlocked(x, y);
+                if (wallBetweenCorridors && random.nextFloat() < LOOP_FRACTION) {
+                    grid.setBlocked(x, y, false);
+                }
+            }
+        }
+        return grid;
+    }
+}
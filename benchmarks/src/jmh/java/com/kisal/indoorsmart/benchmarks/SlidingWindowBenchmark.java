@@ -0,0 +1,54 @@
+package com.kisal.indoorsmart.benchmarks;
+
+import com.kisal.indoorsmart.fusion.stats.SlidingWindow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+/**
+ * The add + mean pattern of the stride estimate: SlidingWindow against the
+ * LinkedList&lt;Float&gt; queue PositionUpdater used before. Compare the
+ * gc.alloc.rate.norm columns; on the JVM the queue's allocations are cheap, on
+ * a phone they turn into GC pauses.
+ */
+@State(Scope.Thread)
+public class SlidingWindowBenchmark {
+
+    private static final int WINDOW_SIZE = 10;
+
+    private final float[] stream = new float[4096];
+    private int sample = 0;
+
+    private final SlidingWindow window = new SlidingWindow(WINDOW_SIZE);
+
+    private final Queue<Float> queue = new LinkedList<>();
+    private float queueSum = 0.0f;
+
+    public SlidingWindowBenchmark() {
+        for (int i = 0; i < stream.length; i++) {
+            stream[i] = 9.81f + (float) Math.sin(i * 0.1);
+        }
+    }
+
+    @Benchmark
+    public float slidingWindow() {
+        window.add(stream[sample++ & (stream.length - 1)]);
+        return window.mean();
+    }
+
+    // The former PositionUpdater implementation
+    @Benchmark
+    public float linkedListQueue() {
+        float value = stream[sample++ & (stream.length - 1)];
+        if (queue.size() >= WINDOW_SIZE) {
+            queueSum -= queue.poll();
+        }
+        queue.add(value);
+        queueSum += value;
+        return queueSum / queue.size();
+    }
+}
@@ -0,0 +1,38 @@
+package com.kisal.indoorsmart.benchmarks;
+
+/**
+ * A repeating sensor stream of someone walking with the phone in hand: the
+ * accelerometer, gyroscope and magnetometer readings for 200 Hz ticks, with a
+ * step bounce every half second. Generated once, so the benchmarks only measure
+ * the consumer.
+ */
+final class SyntheticStream {
+
+    static final long SAMPLE_INTERVAL_NS = 5_000_000L; // 200 Hz
+    static final int SAMPLES = 4096; // power of two, see sample(int)
+
+    final float[][] accel = new float[SAMPLES][];
+    final float[][] gyro = new float[SAMPLES][];
+    final float[][] magnet = new float[SAMPLES][];
+
+    SyntheticStream() {
+        for (int i = 0; i < SAMPLES; i++) {
+            double t = i * SAMPLE_INTERVAL_NS / 1e9;
+            double roll = 0.5 * Math.sin(t);
+            double pitch = 0.3 * Math.sin(0.7 * t);
+            double bounce = 1.5 * Math.sin(2 * Math.PI * 2 * t); // two steps per second
+            accel[i] = new float[]{
+                    (float) (-9.81 * Math.sin(roll)),
+                    (float) (9.81 * Math.sin(pitch)),
+                    (float) (9.81 * Math.cos(roll) * Math.cos(pitch) + bounce)};
+            gyro[i] = new float[]{(float) (0.21 * Math.cos(0.7 * t)), (float) (0.5 * Math.cos(t)), 0.01f};
+            magnet[i] = new float[]{(float) (40 * Math.sin(roll)), 22.0f, (float) (-40 * Math.cos(roll))};
+        }
+    }
+
+    /** Index into the generated arrays for the n-th sample of an endless stream. */
+    static int sample(int n) {
+        return n & (SAMPLES - 1);
+    }
+
+}
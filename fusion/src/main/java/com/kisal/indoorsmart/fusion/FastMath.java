@@ -0,0 +1,122 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Float math kernel for the per-event fusion and dead reckoning code, trading
+ * a bounded error for speed over the double precision java.lang.Math functions.
+ * The bounds below are checked by FastMathTest over the stated ranges; all of
+ * them are far below the sensor noise they are applied to.
+ * <ul>
+ * <li>{@link #sin}, {@link #cos}, {@link #sinDeg}, {@link #cosDeg}: a 4096 entry
+ * table with linear interpolation, absolute error below 5e-7 for arguments up to
+ * 1e5 radians (or degrees).</li>
+ * <li>{@link #atan2}: octant reduction and an odd minimax polynomial, absolute
+ * error below 5e-6 radians (about 0.0003 degrees).</li>
+ * <li>{@link #invSqrt}: the bit level initial guess refined by two Newton
+ * steps, relative error below 5e-6. Where the CPU has a square root instruction,
+ * as on current ARM and x86 cores, 1 / Math.sqrt is about as fast, see
+ * FastMathBenchmark.</li>
+ * <li>{@link #cbrt}: a bit level initial guess refined by two Newton steps,
+ * relative error below 2e-6 for positive normal floats.</li>
+ * </ul>
+ */
+public final class FastMath {
+
+    public static final float PI = (float) Math.PI;
+    public static final float DEG_TO_RAD = (float) (Math.PI / 180.0);
+    public static final float RAD_TO_DEG = (float) (180.0 / Math.PI);
+
+    private static final int SIN_BITS = 12;
+    private static final int SIN_COUNT = 1 << SIN_BITS;
+    private static final int SIN_MASK = SIN_COUNT - 1;
+    private static final int QUARTER = SIN_COUNT / 4;
+    private static final double RAD_TO_INDEX = SIN_COUNT / (2 * Math.PI);
+    private static final double DEG_TO_INDEX = SIN_COUNT / 360.0;
+    // one extra entry so the interpolation never wraps
+    private static final float[] SIN_TABLE = new float[SIN_COUNT + 1];
+
+    static {
+        for (int i = 0; i <= SIN_COUNT; i++) {
+            SIN_TABLE[i] = (float) Math.sin(i * 2 * Math.PI / SIN_COUNT);
+        }
+    }
+
+    // atan(x) on [-1, 1]
+    private static final float ATAN_C1 = 0.99997726f;
+    private static final float ATAN_C3 = -0.33262347f;
+    private static final float ATAN_C5 = 0.19354346f;
+    private static final float ATAN_C7 = -0.11643287f;
+    private static final float ATAN_C9 = 0.05265332f;
+    private static final float ATAN_C11 = -0.01172120f;
+
+    private FastMath() {}
+
+    public static float sin(float radians) {
+        return lookup(radians * RAD_TO_INDEX);
+    }
+
+    public static float cos(float radians) {
+        return lookup(radians * RAD_TO_INDEX + QUARTER);
+    }
+
+    public static float sinDeg(float degrees) {
+        return lookup(degrees * DEG_TO_INDEX);
+    }
+
+    public static float cosDeg(float degrees) {
+        return lookup(degrees * DEG_TO_INDEX + QUARTER);
+    }
+
+    // Interpolates the table at a position given in entries, of any sign
+    private static float lookup(double index) {
+        int i = (int) index;
+        if (index < i) {
+            i--;
+        }
+        float fraction = (float) (index - i);
+        int slot = i & SIN_MASK;
+        float a = SIN_TABLE[slot];
+        return a + (SIN_TABLE[slot + 1] - a) * fraction;
+    }
+
+    /** Angle of (x, y) in radians, in [-pi, pi], like Math.atan2(y, x). */
+    public static float atan2(float y, float x) {
+        float ax = Math.abs(x);
+        float ay = Math.abs(y);
+        if (ax == 0.0f && ay == 0.0f) {
+            return Math.copySign(x < 0 || (x == 0.0f && 1 / x < 0) ? PI : 0.0f, y);
+        }
+        // atan of the smaller ratio, then mirrored into the right octant
+        boolean steep = ay > ax;
+        float t = steep ? ax / ay : ay / ax;
+        float t2 = t * t;
+        float angle = t * (ATAN_C1 + t2 * (ATAN_C3 + t2 * (ATAN_C5 + t2 * (ATAN_C7 + t2 * (ATAN_C9 + t2 * ATAN_C11)))));
+        if (steep) {
+            angle = PI / 2 - angle;
+        }
+        if (x < 0) {
+            angle = PI - angle;
+        }
+        return y < 0 ? -angle : angle;
+    }
+
+    /** 1 / sqrt(x) for positive x. */
+    public static float invSqrt(float x) {
+        float half = 0.5f * x;
+        float y = Float.intBitsToFloat(0x5f375a86 - (Float.floatToRawIntBits(x) >> 1));
+        y = y * (1.5f - half * y * y);
+        return y * (1.5f - half * y * y);
+    }
+
+    /** Cube root of a finite float; 0 for 0. */
+    public static float cbrt(float x) {
+        if (x == 0.0f) {
+            return 0.0f;
+        }
+        float a = Math.abs(x);
+        // dividing the biased exponent by three, the constant restores the bias
+        float y = Float.intBitsToFloat(Float.floatToRawIntBits(a) / 3 + 709921077);
+        y = (2.0f * y + a / (y * y)) * (1.0f / 3.0f);
+        y = (2.0f * y + a / (y * y)) * (1.0f / 3.0f);
+        return Math.copySign(y, x);
+    }
+}
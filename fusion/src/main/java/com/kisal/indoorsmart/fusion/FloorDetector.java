@@ -0,0 +1,122 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Counts floor changes from the barometer. The pressure is smoothed and turned
+ * into a height relative to the level of the current floor; once the height has
+ * settled again, a change by close to a whole number of floor heights moves the
+ * floor and makes the new level the reference.
+ * <p>
+ * Weather moves the pressure by about a hectopascal per hour, some 8 m. While the
+ * height is settled near the reference, the reference follows it slowly, so that
+ * drift is absorbed long before it adds up to a floor. Stairs and lifts climb a
+ * floor in seconds, far faster than the reference follows.
+ */
+public class FloorDetector {
+
+    /** Storey height in metres, when the building does not say otherwise. */
+    public static final float DEFAULT_FLOOR_HEIGHT = 3.5f;
+
+    /** Time constant of the pressure smoothing. */
+    static final long SMOOTHING_NS = 1_000_000_000L;
+    /** The height counts as settled when it moved less than SETTLE_TOLERANCE over this long. */
+    static final long SETTLE_NS = 2_000_000_000L;
+    static final float SETTLE_TOLERANCE = 0.3f; // m
+    /** Time constant with which the reference follows a settled height. */
+    static final long DRIFT_NS = 120_000_000_000L;
+    // A settled change must be within this fraction of a floor height of a whole
+    // number of floors, anything else is a mezzanine or noise and waits
+    private static final float FLOOR_TOLERANCE = 0.35f;
+
+    private float floorHeight;
+    private int floor;
+
+    private boolean initialized = false;
+    private long lastTimestampNs;
+    private double height; // smoothed, metres above an arbitrary origin
+    private double referenceHeight; // height of the current floor's level
+    private long settleStartNs;
+    private double settleStartHeight;
+
+    public FloorDetector() {
+        this(DEFAULT_FLOOR_HEIGHT);
+    }
+
+    public FloorDetector(float floorHeight) {
+        this.floorHeight = floorHeight;
+    }
+
+    /**
+     * Starts counting from floor with storeys of floorHeight metres, the next
+     * pressure sample becoming its level.
+     */
+    public void reset(int floor, float floorHeight) {
+        this.floor = floor;
+        this.floorHeight = floorHeight;
+        initialized = false;
+    }
+
+    /**
+     * Takes one barometer sample in hPa. Returns true when the floor changed.
+     */
+    public boolean onPressure(float pressureHpa, long timestampNs) {
+        double sampleHeight = heightOf(pressureHpa);
+        if (!initialized) {
+            initialized = true;
+            height = sampleHeight;
+            referenceHeight = sampleHeight;
+            settleStartNs = timestampNs;
+            settleStartHeight = sampleHeight;
+            lastTimestampNs = timestampNs;
+            return false;
+        }
+        long dtNs = timestampNs - lastTimestampNs;
+        lastTimestampNs = timestampNs;
+        if (dtNs <= 0) {
+            return false;
+        }
+        height += (sampleHeight - height) * dtNs / (double) (SMOOTHING_NS + dtNs);
+
+        if (timestampNs - settleStartNs < SETTLE_NS) {
+            return false;
+        }
+        boolean settled = Math.abs(height - settleStartHeight) < SETTLE_TOLERANCE;
+        settleStartNs = timestampNs;
+        settleStartHeight = height;
+        if (!settled) {
+            return false;
+        }
+
+        double offset = height - referenceHeight;
+        long floors = Math.round(offset / floorHeight);
+        if (floors == 0) {
+            // weather, follow it
+            referenceHeight += offset * Math.min(1.0, SETTLE_NS / (double) DRIFT_NS);
+            return false;
+        }
+        if (Math.abs(offset - floors * floorHeight) > FLOOR_TOLERANCE * floorHeight) {
+            return false;
+        }
+        floor += (int) floors;
+        referenceHeight = height;
+        return true;
+    }
+
+    // International barometric formula, metres above the 1013.25 hPa level. Only
+    // differences are used, so the real sea level pressure does not matter.
+    static double heightOf(float pressureHpa) {
+        return 44330.0 * (1.0 - Math.pow(pressureHpa / 1013.25, 1.0 / 5.255));
+    }
+
+    public int getFloor() {
+        return floor;
+    }
+
+    public float getFloorHeight() {
+        return floorHeight;
+    }
+
+    /** Smoothed height above the level of the current floor in metres. */
+    public float getHeightAboveFloor() {
+        return initialized ? (float) (height - referenceHeight) : 0.0f;
+    }
+}
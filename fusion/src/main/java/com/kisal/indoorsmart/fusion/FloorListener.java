@@ -0,0 +1,10 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Told by the {@link FusionEngine} when the floor changes, on the thread that
+ * feeds the events.
+ */
+public interface FloorListener {
+
+    void onFloorChanged(int floor, long timestampNs);
+}
@@ -0,0 +1,95 @@
+package com.kisal.indoorsmart.fusion;
+
+import com.kisal.indoorsmart.fusion.map.ParticleFilter;
+import com.kisal.indoorsmart.fusion.route.RoutePlanner;
+
+/**
+ * Orientation fusion and dead reckoning without any Android dependency.
+ * The platform side only feeds raw sensor samples in and reads the results out.
+ */
+public interface FusionEngine {
+
+    /**
+     * Feeds one raw sensor sample.
+     *
+     * @param sensorType  One of the {@link SensorType} ids.
+     * @param timestampNs Sample timestamp in nanoseconds.
+     * @param values      Sample values, in the units of the Android sensor.
+     */
+    void onSensorEvent(int sensorType, long timestampNs, float[] values);
+
+    /**
+     * Runs one fusion step, combining the gyro and accelerometer/magnetometer
+     * orientations. Engines that schedule their own fusion steps from the event
+     * timestamps do not need this to be called.
+     *
+     * @param dt Time since the previous fusion step in seconds.
+     */
+    void fuseOrientation(float dt);
+
+    /**
+     * Records stage timings and event rates into metrics, or stops recording when
+     * metrics is null.
+     */
+    void setMetrics(PipelineMetrics metrics);
+
+    /** Tells motionListener about motion state changes, or nobody when it is null. */
+    void setMotionListener(MotionListener motionListener);
+
+    /** Whether the device is currently moving or stationary. */
+    MotionState getMotionState();
+
+    /**
+     * Matches the following steps against the walls of a floor plan, or goes back
+     * to pure dead reckoning when mapMatcher is null.
+     */
+    void setMapMatcher(ParticleFilter mapMatcher);
+
+    /**
+     * Keeps the route of routePlanner up to date as the position moves, or stops
+     * when it is null.
+     */
+    void setRoutePlanner(RoutePlanner routePlanner);
+
+    /** Tells floorListener about floor changes, or nobody when it is null. */
+    void setFloorListener(FloorListener floorListener);
+
+    /**
+     * Sets the floor the device is on and the storey height in metres, from which
+     * the barometer counts floor changes.
+     */
+    void setFloor(int floor, float floorHeight);
+
+    /** Floor the device is on, counted from the barometer. */
+    int getFloor();
+
+    /** Selects where the dead reckoning takes its steps from. */
+    void setStepSource(StepSource stepSource);
+
+    /** Fused heading in degrees, in the range [0, 360). */
+    double getHeading();
+
+    /** Copies the fused {azimuth, pitch, roll} in radians into out. */
+    void getOrientation(float[] out);
+
+    /**
+     * Copies the current position {x, y} in metres into out. Like all getters, only
+     * for the thread that feeds the events; other threads read a {@link NavigationState}.
+     */
+    void getPosition(float[] out);
+
+    /** Moves the dead reckoning to {x, y} in metres, e.g. a position restored after a restart. */
+    void setPosition(float x, float y);
+
+    /**
+     * Pulls the dead reckoning towards an absolute position fix {x, y} in metres,
+     * e.g. from Wi-Fi fingerprints, whose accuracy is a standard deviation in metres.
+     */
+    void correctPosition(float x, float y, float accuracy);
+
+    /** Number of steps taken in the last step counter update. */
+    int getStepCount();
+
+    /** Number of steps taken since the engine started. */
+    int getTotalStepCount();
+}
@@ -0,0 +1,132 @@
+package com.kisal.indoorsmart.fusion;
+
+import java.util.Locale;
+
+/**
+ * Tuning parameters of the {@link SensorFusionEngine}, defaulting to the values
+ * the engine has always used. Parameters can be set by name, which is how the
+ * offline sweep ({@link com.kisal.indoorsmart.fusion.trace.ParameterSweep})
+ * varies them.
+ */
+public class FusionParameters {
+
+    /** Names accepted by {@link #set(String, double)}. */
+    public static final String CORRECTION_GAIN = "correctionGain";
+    public static final String BIAS_GAIN = "biasGain";
+    public static final String FUSION_PERIOD_MS = "fusionPeriodMs";
+    public static final String WINDOW_SIZE = "windowSize";
+    public static final String STRIDE_SCALE = "strideScale";
+    public static final String STRIDE_EXPONENT = "strideExponent";
+
+    public static final String[] NAMES = {
+            CORRECTION_GAIN, BIAS_GAIN, FUSION_PERIOD_MS, WINDOW_SIZE, STRIDE_SCALE, STRIDE_EXPONENT
+    };
+
+    private float correctionGain = QuaternionOrientation.DEFAULT_CORRECTION_GAIN;
+    private float biasGain = QuaternionOrientation.DEFAULT_BIAS_GAIN;
+    private long fusionPeriodNs = FusionScheduler.DEFAULT_PERIOD_NS;
+    private int windowSize = PositionUpdater.DEFAULT_WINDOW_SIZE;
+    private float strideScale = PositionUpdater.DEFAULT_STRIDE_SCALE;
+    private float strideExponent = PositionUpdater.DEFAULT_STRIDE_EXPONENT;
+
+    public FusionParameters() {}
+
+    public FusionParameters(FusionParameters other) {
+        correctionGain = other.correctionGain;
+        biasGain = other.biasGain;
+        fusionPeriodNs = other.fusionPeriodNs;
+        windowSize = other.windowSize;
+        strideScale = other.strideScale;
+        strideExponent = other.strideExponent;
+    }
+
+    /** Rate (1/s) at which the accelerometer/magnetometer error is corrected. */
+    public float getCorrectionGain() {
+        return correctionGain;
+    }
+
+    public void setCorrectionGain(float correctionGain) {
+        this.correctionGain = correctionGain;
+    }
+
+    /** Rate (1/s^2) at which the remaining error is learned as gyro bias. */
+    public float getBiasGain() {
+        return biasGain;
+    }
+
+    public void setBiasGain(float biasGain) {
+        this.biasGain = biasGain;
+    }
+
+    /** Sensor time between two orientation corrections. */
+    public long getFusionPeriodNs() {
+        return fusionPeriodNs;
+    }
+
+    public void setFusionPeriodNs(long fusionPeriodNs) {
+        this.fusionPeriodNs = fusionPeriodNs;
+    }
+
+    /** Accelerometer magnitudes the stride length is averaged over. */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /** Stride length is strideScale * mean(|a|) ^ strideExponent metres. */
+    public float getStrideScale() {
+        return strideScale;
+    }
+
+    public void setStrideScale(float strideScale) {
+        this.strideScale = strideScale;
+    }
+
+    public float getStrideExponent() {
+        return strideExponent;
+    }
+
+    public void setStrideExponent(float strideExponent) {
+        this.strideExponent = strideExponent;
+    }
+
+    /**
+     * Sets one of the {@link #NAMES}; integer parameters are rounded.
+     *
+     * @throws IllegalArgumentException for an unknown name.
+     */
+    public void set(String name, double value) {
+        switch (name) {
+            case CORRECTION_GAIN:
+                correctionGain = (float) value;
+                break;
+            case BIAS_GAIN:
+                biasGain = (float) value;
+                break;
+            case FUSION_PERIOD_MS:
+                fusionPeriodNs = Math.round(value * 1_000_000);
+                break;
+            case WINDOW_SIZE:
+                windowSize = Math.max(1, (int) Math.round(value));
+                break;
+            case STRIDE_SCALE:
+                strideScale = (float) value;
+                break;
+            case STRIDE_EXPONENT:
+                strideExponent = (float) value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown parameter " + name);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s=%.4g %s=%.4g %s=%.1f %s=%d %s=%.4g %s=%.4g",
+                CORRECTION_GAIN, correctionGain, BIAS_GAIN, biasGain, FUSION_PERIOD_MS, fusionPeriodNs / 1e6,
+                WINDOW_SIZE, windowSize, STRIDE_SCALE, strideScale, STRIDE_EXPONENT, strideExponent);
+    }
+}
@@ -0,0 +1,68 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Decides when the orientation fusion step runs, based on sensor event timestamps
+ * instead of a wall clock timer. A step is due once a fusion period of sensor time
+ * has passed since the previous one, and its dt is the sensor time that actually
+ * passed, so a late step does not build up drift.
+ */
+public class FusionScheduler {
+
+    /** Fusion period, same as the former timer period of 30 ms. */
+    public static final long DEFAULT_PERIOD_NS = 30_000_000L;
+    /** Sensor time before the first step, so the gyro and acc/mag orientation can settle. */
+    public static final long DEFAULT_START_DELAY_NS = 5_000_000_000L;
+
+    private static final float NS2S = 1.0f / 1000000000.0f;
+
+    private final long periodNs;
+    private final long startDelayNs;
+
+    private boolean started = false;
+    private long lastFusion;
+    private long lastLatenessNs;
+
+    public FusionScheduler() {
+        this(DEFAULT_PERIOD_NS, DEFAULT_START_DELAY_NS);
+    }
+
+    public FusionScheduler(long periodNs, long startDelayNs) {
+        this.periodNs = periodNs;
+        this.startDelayNs = startDelayNs;
+    }
+
+    /**
+     * Called with the timestamp of every sensor event. Returns the dt in seconds of a
+     * fusion step that is due now, or 0 when no step is due.
+     */
+    public float onTimestamp(long timestampNs) {
+        if (!started) {
+            started = true;
+            // the first step runs one period after the start delay
+            lastFusion = timestampNs + startDelayNs - periodNs;
+            return 0.0f;
+        }
+        long elapsed = timestampNs - lastFusion;
+        if (elapsed < periodNs) {
+            return 0.0f;
+        }
+        lastFusion = timestampNs;
+        lastLatenessNs = elapsed - periodNs;
+        return elapsed * NS2S;
+    }
+
+    /**
+     * Restarts the period at timestampNs after the steps were paused, so the first
+     * step does not span the pause.
+     */
+    public void resume(long timestampNs) {
+        if (started) {
+            lastFusion = timestampNs;
+        }
+    }
+
+    /** Sensor time the last due step ran after its period had passed. */
+    public long getLastLatenessNs() {
+        return lastLatenessNs;
+    }
+}
@@ -0,0 +1,66 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Integrates gyroscope samples into the gyro based rotation matrix and orientation.
+ * The delta rotation, the matrix compose and the orientation extraction all run on
+ * preallocated buffers, so integrating a sample never allocates.
+ * <p>
+ * The engine now uses {@link QuaternionOrientation}; this Euler angle path is kept
+ * as the baseline of OrientationBenchmark.
+ */
+public class GyroIntegrator {
+
+    private static final float NS2S = 1.0f / 1000000000.0f;
+
+    private final float[] gyroMatrix = {
+            1.0f, 0.0f, 0.0f,
+            0.0f, 1.0f, 0.0f,
+            0.0f, 0.0f, 1.0f
+    };
+    private final float[] gyroOrientation = new float[3];
+
+    // scratch buffers reused for every sample
+    private final float[] deltaVector = new float[4];
+    private final float[] deltaMatrix = new float[9];
+
+    private long timestamp;
+
+    /**
+     * Applies one gyroscope sample (rad/s) taken at timestampNs.
+     */
+    public synchronized void integrate(float[] gyroValues, long timestampNs) {
+        // the first sample only provides the start of the interval
+        if (timestamp != 0) {
+            final float dT = (timestampNs - timestamp) * NS2S;
+            RotationMath.getRotationVectorFromGyro(gyroValues, deltaVector, dT / 2.0f);
+
+            // convert rotation vector into rotation matrix
+            RotationMath.getRotationMatrixFromVector(deltaMatrix, deltaVector);
+
+            // apply the new rotation interval on the gyroscope based rotation matrix
+            RotationMath.multiplyInPlace(gyroMatrix, deltaMatrix);
+        }
+
+        // measurement done, save current time for next interval
+        timestamp = timestampNs;
+
+        // get the gyroscope based orientation from the rotation matrix
+        RotationMath.getOrientation(gyroMatrix, gyroOrientation);
+    }
+
+    /**
+     * Replaces the integrated rotation with the one described by the given
+     * {azimuth, pitch, roll} orientation.
+     */
+    public synchronized void setOrientation(float[] orientation) {
+        RotationMath.getRotationMatrixFromOrientation(orientation, gyroMatrix);
+        System.arraycopy(orientation, 0, gyroOrientation, 0, 3);
+    }
+
+    /**
+     * Copies the current gyro based orientation into out.
+     */
+    public synchronized void getOrientation(float[] out) {
+        System.arraycopy(gyroOrientation, 0, out, 0, 3);
+    }
+}
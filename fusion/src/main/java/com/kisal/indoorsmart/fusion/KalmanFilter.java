@@ -1,4 +1,4 @@
-package com.kisal.indoorsmart;
+package com.kisal.indoorsmart.fusion;
 
 public class KalmanFilter {
 
@@ -0,0 +1,110 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Decides between {@link MotionState#MOVING} and {@link MotionState#STATIONARY}
+ * from the variance of the accelerometer magnitude over the short window the
+ * {@link PositionUpdater} keeps, and from the gyroscope rate. The device counts as
+ * stationary once both stayed below their still thresholds for
+ * {@link #DEFAULT_STILL_DELAY_NS}, and as moving again on the first sample above
+ * the motion thresholds, so leaving the stationary state takes a fraction of a
+ * step. The gap between the two thresholds keeps sensor noise from toggling the
+ * state.
+ */
+public class MotionDetector {
+
+    /** (m/s^2)^2, a phone on a desk stays well below this. */
+    public static final float DEFAULT_STILL_VARIANCE = 0.05f;
+    /** (m/s^2)^2, a step swings the magnitude far above this. */
+    public static final float DEFAULT_MOTION_VARIANCE = 0.2f;
+    /** rad/s, so turning on the spot counts as motion. */
+    public static final float DEFAULT_STILL_ROTATION = 0.15f;
+    public static final float DEFAULT_MOTION_ROTATION = 0.3f;
+    public static final long DEFAULT_STILL_DELAY_NS = 2_000_000_000L;
+
+    private final float stillVariance;
+    private final float motionVariance;
+    private final float stillRotation;
+    private final float motionRotation;
+    private final long stillDelayNs;
+
+    private MotionState state = MotionState.MOVING;
+    // start of the current still period in either sensor, -1 while not still
+    private long stillAccelSince = -1;
+    private long stillGyroSince = -1;
+    // without a gyroscope only the accelerometer decides
+    private boolean hasGyro = false;
+
+    public MotionDetector() {
+        this(DEFAULT_STILL_VARIANCE, DEFAULT_MOTION_VARIANCE, DEFAULT_STILL_ROTATION, DEFAULT_MOTION_ROTATION,
+                DEFAULT_STILL_DELAY_NS);
+    }
+
+    public MotionDetector(float stillVariance, float motionVariance, float stillRotation, float motionRotation,
+                          long stillDelayNs) {
+        this.stillVariance = stillVariance;
+        this.motionVariance = motionVariance;
+        this.stillRotation = stillRotation;
+        this.motionRotation = motionRotation;
+        this.stillDelayNs = stillDelayNs;
+    }
+
+    /**
+     * Takes the variance of the recent accelerometer magnitudes. Returns true when
+     * the state changed.
+     */
+    public boolean onAccelerationVariance(float variance, long timestampNs) {
+        if (variance > motionVariance) {
+            stillAccelSince = -1;
+            return setState(MotionState.MOVING);
+        }
+        if (variance < stillVariance) {
+            if (stillAccelSince < 0) {
+                stillAccelSince = timestampNs;
+            }
+        } else if (state == MotionState.MOVING) {
+            // in between: not still enough to start the still period
+            stillAccelSince = -1;
+        }
+        return checkStill(timestampNs);
+    }
+
+    /**
+     * Takes the magnitude of a gyroscope sample in rad/s. Returns true when the
+     * state changed.
+     */
+    public boolean onRotationRate(float rate, long timestampNs) {
+        hasGyro = true;
+        if (rate > motionRotation) {
+            stillGyroSince = -1;
+            return setState(MotionState.MOVING);
+        }
+        if (rate < stillRotation) {
+            if (stillGyroSince < 0) {
+                stillGyroSince = timestampNs;
+            }
+        } else if (state == MotionState.MOVING) {
+            stillGyroSince = -1;
+        }
+        return checkStill(timestampNs);
+    }
+
+    private boolean checkStill(long timestampNs) {
+        if (state == MotionState.STATIONARY || stillAccelSince < 0 || (hasGyro && stillGyroSince < 0)) {
+            return false;
+        }
+        long stillSince = hasGyro ? Math.max(stillAccelSince, stillGyroSince) : stillAccelSince;
+        return timestampNs - stillSince >= stillDelayNs && setState(MotionState.STATIONARY);
+    }
+
+    private boolean setState(MotionState newState) {
+        if (state == newState) {
+            return false;
+        }
+        state = newState;
+        return true;
+    }
+
+    public MotionState getState() {
+        return state;
+    }
+}
@@ -0,0 +1,10 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Told by the {@link FusionEngine} when the {@link MotionState} changes, on the
+ * thread that feeds the events.
+ */
+public interface MotionListener {
+
+    void onMotionStateChanged(MotionState state, long timestampNs);
+}
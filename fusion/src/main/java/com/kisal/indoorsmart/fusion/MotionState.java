@@ -0,0 +1,15 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Whether the device is being carried around or lies still, see
+ * {@link MotionDetector}.
+ */
+public enum MotionState {
+    /** Sensors at full rate, orientation fusion running. */
+    MOVING,
+    /**
+     * Still for a while: the sensors can run at a lower rate, the fusion steps
+     * pause and the gyroscope bias estimate is frozen.
+     */
+    STATIONARY
+}
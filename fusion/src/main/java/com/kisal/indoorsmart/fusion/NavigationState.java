@@ -0,0 +1,92 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Latest orientation, position, floor and step state, written by the fusion thread
+ * and read from any other thread without locking. The single writer bumps a
+ * sequence number to odd before and back to even after each write, and readers
+ * retry until they saw the same even sequence on both sides of their copy (a
+ * seqlock). Neither side blocks or allocates; a reader only spins while a write is
+ * in progress.
+ * <p>
+ * The fields are volatile so the stores and loads cannot move across the sequence
+ * updates.
+ */
+public class NavigationState {
+
+    // odd while a write is in progress
+    private volatile long sequence;
+
+    private volatile long timestampNs;
+    private volatile double heading;
+    private volatile float azimuth;
+    private volatile float pitch;
+    private volatile float roll;
+    private volatile float x;
+    private volatile float y;
+    private volatile int stepCount;
+    private volatile int floor;
+
+    // writer only
+    private final float[] orientation = new float[3];
+    private final float[] position = new float[2];
+
+    /**
+     * Fusion thread: captures the current state of the engine.
+     */
+    public void write(FusionEngine engine, long timestampNs) {
+        engine.getOrientation(orientation);
+        engine.getPosition(position);
+        write(timestampNs, engine.getHeading(), orientation[0], orientation[1], orientation[2],
+                position[0], position[1], engine.getStepCount(), engine.getFloor());
+    }
+
+    /**
+     * Writer thread only, there must never be two writers at a time.
+     */
+    public void write(long timestampNs, double heading, float azimuth, float pitch, float roll,
+                      float x, float y, int stepCount, int floor) {
+        long s = sequence;
+        sequence = s + 1;
+        this.timestampNs = timestampNs;
+        this.heading = heading;
+        this.azimuth = azimuth;
+        this.pitch = pitch;
+        this.roll = roll;
+        this.x = x;
+        this.y = y;
+        this.stepCount = stepCount;
+        this.floor = floor;
+        sequence = s + 2;
+    }
+
+    /**
+     * Any thread: copies a consistent state into out, whose sequence becomes the
+     * number of writes so far.
+     */
+    public void read(PositionSnapshot out) {
+        while (true) {
+            long before = sequence;
+            if ((before & 1) != 0) {
+                continue;
+            }
+            long timestampNs = this.timestampNs;
+            double heading = this.heading;
+            float azimuth = this.azimuth;
+            float pitch = this.pitch;
+            float roll = this.roll;
+            float x = this.x;
+            float y = this.y;
+            int stepCount = this.stepCount;
+            int floor = this.floor;
+            if (sequence == before) {
+                out.set(before >> 1, timestampNs, heading, azimuth, pitch, roll, x, y, stepCount, floor);
+                return;
+            }
+        }
+    }
+
+    /** Number of completed writes, without reading the state. */
+    public long getSequence() {
+        return sequence >> 1;
+    }
+}
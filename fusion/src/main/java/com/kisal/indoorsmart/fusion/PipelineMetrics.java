@@ -0,0 +1,78 @@
+package com.kisal.indoorsmart.fusion;
+
+import com.kisal.indoorsmart.fusion.stats.LatencyHistogram;
+import com.kisal.indoorsmart.fusion.stats.RateCounter;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Latency histograms and event rates along the sensor pipeline, from the sensor
+ * event timestamp to the position reaching the UI. Everything is preallocated, so
+ * recording costs no allocation. Each histogram has one recording thread: the
+ * fusion thread for all stages except {@link #publish}, which the main thread
+ * records.
+ */
+public class PipelineMetrics {
+
+    /** Sensor event timestamp to delivery on the fusion thread, including any FIFO batching. */
+    public final LatencyHistogram ingest = new LatencyHistogram("ingest");
+    /** Time spent integrating one gyroscope sample. */
+    public final LatencyHistogram gyroIntegration = new LatencyHistogram("gyro_integration");
+    /** Time spent in one accelerometer/magnetometer correction of the orientation. */
+    public final LatencyHistogram orientationUpdate = new LatencyHistogram("orientation_update");
+    /** Sensor time a fusion step ran after it was due. */
+    public final LatencyHistogram fusionLateness = new LatencyHistogram("fusion_lateness");
+    /** Time spent turning steps into a position, including map matching. */
+    public final LatencyHistogram positionUpdate = new LatencyHistogram("position_update");
+    /** Sensor event timestamp to the position being delivered to the UI. */
+    public final LatencyHistogram publish = new LatencyHistogram("publish");
+
+    private final LatencyHistogram[] histograms = {
+            ingest, gyroIntegration, orientationUpdate, fusionLateness, positionUpdate, publish
+    };
+
+    private final RateCounter accelerometer = new RateCounter("accelerometer");
+    private final RateCounter gyroscope = new RateCounter("gyroscope");
+    private final RateCounter magneticField = new RateCounter("magnetic_field");
+    private final RateCounter stepCounter = new RateCounter("step_counter");
+    private final RateCounter other = new RateCounter("other");
+
+    private final RateCounter[] rates = {accelerometer, gyroscope, magneticField, stepCounter, other};
+
+    /** Fusion thread: counts one event of a {@link SensorType}. */
+    public void countEvent(int sensorType, long timestampNs) {
+        rateFor(sensorType).record(timestampNs);
+    }
+
+    public RateCounter rateFor(int sensorType) {
+        switch (sensorType) {
+            case SensorType.ACCELEROMETER:
+                return accelerometer;
+            case SensorType.GYROSCOPE:
+                return gyroscope;
+            case SensorType.MAGNETIC_FIELD:
+                return magneticField;
+            case SensorType.STEP_COUNTER:
+                return stepCounter;
+            default:
+                return other;
+        }
+    }
+
+    /**
+     * Writes one line per histogram and one per sensor rate. Can be called from any
+     * thread.
+     */
+    public void dump(Appendable out) throws IOException {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.dump(out);
+        }
+        for (RateCounter rate : rates) {
+            out.append(rate.getName())
+                    .append(" events=").append(Long.toString(rate.getCount()))
+                    .append(" rate=").append(String.format(Locale.ROOT, "%.1f", rate.getRate()))
+                    .append(" /s\n");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Copy of the navigation state handed to subscribers: heading, orientation, position,
+ * floor and steps at one sensor timestamp, usually read from a {@link NavigationState}.
+ * Snapshots are reused, so a subscriber that needs a value later has to copy it.
+ */
+public class PositionSnapshot {
+
+    private long sequence;
+    private long timestampNs;
+    private double heading;
+    private float azimuth;
+    private float pitch;
+    private float roll;
+    private float x;
+    private float y;
+    private int stepCount;
+    private int floor;
+
+    void set(long sequence, long timestampNs, double heading, float azimuth, float pitch, float roll,
+             float x, float y, int stepCount, int floor) {
+        this.sequence = sequence;
+        this.timestampNs = timestampNs;
+        this.heading = heading;
+        this.azimuth = azimuth;
+        this.pitch = pitch;
+        this.roll = roll;
+        this.x = x;
+        this.y = y;
+        this.stepCount = stepCount;
+        this.floor = floor;
+    }
+
+    public void copyFrom(PositionSnapshot other) {
+        sequence = other.sequence;
+        timestampNs = other.timestampNs;
+        heading = other.heading;
+        azimuth = other.azimuth;
+        pitch = other.pitch;
+        roll = other.roll;
+        x = other.x;
+        y = other.y;
+        stepCount = other.stepCount;
+        floor = other.floor;
+    }
+
+    /** Increases with every update, so readers can tell whether anything changed. */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /** Timestamp of the sensor event the state was captured after, in nanoseconds. */
+    public long getTimestampNs() {
+        return timestampNs;
+    }
+
+    /** Heading in degrees, in the range [0, 360). */
+    public double getHeading() {
+        return heading;
+    }
+
+    /** Fused azimuth in radians, see {@link SensorFusionEngine#getOrientation(float[])}. */
+    public float getAzimuth() {
+        return azimuth;
+    }
+
+    public float getPitch() {
+        return pitch;
+    }
+
+    public float getRoll() {
+        return roll;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    /** Floor counted from the barometer, see {@link FusionEngine#setFloor}. */
+    public int getFloor() {
+        return floor;
+    }
+}
@@ -0,0 +1,182 @@
+package com.kisal.indoorsmart.fusion;
+
+import com.kisal.indoorsmart.fusion.map.ParticleFilter;
+import com.kisal.indoorsmart.fusion.route.RoutePlanner;
+import com.kisal.indoorsmart.fusion.stats.SlidingWindow;
+
+public class PositionUpdater {
+    private int previousStepCount = -1;
+    private int stepDifference = 0;
+    private int totalStepCount = 0;
+    private final float[] position = {0.0f, 0.0f}; // Initial position {X, Y}
+
+    public static final int DEFAULT_WINDOW_SIZE = 10; // Number of samples for averaging
+    private final SlidingWindow accelerationWindow;
+
+    // Stride model: scale * mean(|a|) ^ exponent
+    public static final float DEFAULT_STRIDE_SCALE = 0.98f;
+    public static final float DEFAULT_STRIDE_EXPONENT = 1.0f / 3.0f;
+    private final float strideScale;
+    private final float strideExponent;
+
+    private float orientation = 0.0f; // Stores current orientation in degrees
+
+    private ParticleFilter mapMatcher; // Keeps the position out of walls, null for pure dead reckoning
+    private RoutePlanner routePlanner; // Follows or repairs its route as the position moves, may be null
+
+    // Uncertainty of the position in m^2. Heading errors make the dead reckoning
+    // drift in proportion to the distance walked, so its standard deviation grows
+    // by a fraction of every stride, and every absolute fix shrinks it again.
+    public static final float DEFAULT_DRIFT_RATE = 0.1f; // m per metre walked
+    private float positionVariance = 0.0f;
+    private static final float MIN_FIX_ACCURACY = 0.5f; // m, no fix is trusted more than this
+
+    public PositionUpdater() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_STRIDE_SCALE, DEFAULT_STRIDE_EXPONENT);
+    }
+
+    public PositionUpdater(int windowSize, float strideScale, float strideExponent) {
+        this.accelerationWindow = new SlidingWindow(windowSize);
+        this.strideScale = strideScale;
+        this.strideExponent = strideExponent;
+    }
+
+    public void updateStepCount(int newStepCount) {
+        if (previousStepCount != -1) {
+            addSteps(newStepCount - previousStepCount);
+        }
+        previousStepCount = newStepCount;
+    }
+
+    // Forget the last counter value, the next one becomes the new reference
+    public void resetStepCount() {
+        previousStepCount = -1;
+    }
+
+    // Advance the position by a number of steps from any step source
+    public void addSteps(int steps) {
+        stepDifference = steps;
+        if (stepDifference > 0) {
+            totalStepCount += stepDifference;
+            float strideLength = calculateStrideLength();
+            updatePosition(stepDifference, strideLength);
+        }
+    }
+
+    // Collect sample accelerations
+    public void addAccelerationSample(float accelerationMagnitude) {
+        accelerationWindow.add(accelerationMagnitude); // Evicts the oldest sample
+    }
+
+    // Stride length calculation
+    private float calculateStrideLength() {
+        if (accelerationWindow.isEmpty()) {
+            return 0.75f; // Default stride length
+        }
+        float meanAcceleration = accelerationWindow.mean();
+        if (strideExponent == DEFAULT_STRIDE_EXPONENT) {
+            return strideScale * FastMath.cbrt(meanAcceleration);
+        }
+        return strideScale * (float) Math.pow(meanAcceleration, strideExponent);
+    }
+
+    // Update position based on angle
+    private void updatePosition(int stepDifference, float strideLength) {
+        float distance = stepDifference * strideLength;
+        float deviation = (float) Math.sqrt(positionVariance) + DEFAULT_DRIFT_RATE * distance;
+        positionVariance = deviation * deviation;
+        float X0 = position[0]; // Previous X position
+        float Y0 = position[1]; // Previous Y position
+        float θ = orientation;  // Angle in degrees
+
+        // Heading clockwise from +Y, the same in every quadrant
+        position[0] = X0 + distance * FastMath.sinDeg(θ);
+        position[1] = Y0 + distance * FastMath.cosDeg(θ);
+
+        // With a map, the particle filter replaces the dead reckoning position
+        if (mapMatcher != null) {
+            for (int i = 0; i < stepDifference; i++) {
+                mapMatcher.onStep(strideLength, θ);
+            }
+            mapMatcher.getEstimate(position);
+        }
+        onPositionChanged();
+    }
+
+    // Match the following steps against the walls of a map, starting around the current position
+    public void setMapMatcher(ParticleFilter mapMatcher) {
+        this.mapMatcher = mapMatcher;
+        if (mapMatcher != null) {
+            mapMatcher.reset(position[0], position[1], ParticleFilter.DEFAULT_RESET_SPREAD);
+        }
+    }
+
+    // Guide along a route from now on, or stop guiding when null
+    public void setRoutePlanner(RoutePlanner routePlanner) {
+        this.routePlanner = routePlanner;
+    }
+
+    private void onPositionChanged() {
+        if (routePlanner != null) {
+            routePlanner.onPosition(position[0], position[1]);
+        }
+    }
+
+    // Update orientation (angle) from sensor fusion
+    public void updateOrientation(float newOrientation) {
+        this.orientation = newOrientation; // Angle in degrees
+    }
+
+    // Copies {x, y} into out, the position itself stays private to the fusion thread
+    public void getPosition(float[] out) {
+        out[0] = position[0];
+        out[1] = position[1];
+    }
+
+    // Moves the position, the map matcher restarts around it
+    public void setPosition(float x, float y) {
+        position[0] = x;
+        position[1] = y;
+        positionVariance = 0.0f;
+        if (mapMatcher != null) {
+            mapMatcher.reset(x, y, ParticleFilter.DEFAULT_RESET_SPREAD);
+        }
+        onPositionChanged();
+    }
+
+    // Pulls the position towards an absolute fix with a scalar Kalman update, so a
+    // fix counts for more the further we walked since the last one. With a map the
+    // particles are weighed by the fix instead.
+    public void correctPosition(float x, float y, float accuracy) {
+        accuracy = Math.max(accuracy, MIN_FIX_ACCURACY);
+        float gain = positionVariance / (positionVariance + accuracy * accuracy);
+        positionVariance *= 1.0f - gain;
+        if (mapMatcher != null) {
+            mapMatcher.onFix(x, y, accuracy);
+            mapMatcher.getEstimate(position);
+        } else {
+            position[0] += gain * (x - position[0]);
+            position[1] += gain * (y - position[1]);
+        }
+        onPositionChanged();
+    }
+
+    // Position variance in m^2
+    public float getPositionVariance() {
+        return positionVariance;
+    }
+
+    // Window of recent acceleration magnitudes, shared with other stream consumers
+    public SlidingWindow getAccelerationWindow() {
+        return accelerationWindow;
+    }
+
+    public int getStepCount() {
+        return stepDifference;
+    }
+
+    // Steps taken since the updater was created, from every source
+    public int getTotalStepCount() {
+        return totalStepCount;
+    }
+}
@@ -0,0 +1,190 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Device orientation kept as a unit quaternion that rotates device coordinates
+ * into world (east, north, up) coordinates, the same frame as
+ * {@link RotationMath#getRotationMatrix}.
+ * <p>
+ * Gyro samples are integrated incrementally and the accelerometer/magnetometer
+ * orientation pulls the estimate back as a complementary filter with a
+ * proportional and an integral (gyro bias) term. Neither step calls any trig
+ * function, and since the state is never converted to Euler angles it stays
+ * continuous through +-90 degrees of pitch. Euler angles are only computed by
+ * {@link #getOrientation} when a consumer asks for them.
+ * <p>
+ * Not thread safe, feed it from the sensor thread only.
+ */
+public class QuaternionOrientation {
+
+    private static final float NS2S = 1.0f / 1000000000.0f;
+
+    /** Default rate (1/s) at which the accelerometer/magnetometer error is corrected. */
+    public static final float DEFAULT_CORRECTION_GAIN = 2.0f;
+    /** Default rate (1/s^2) at which the remaining error is learned as gyro bias. */
+    public static final float DEFAULT_BIAS_GAIN = 0.05f;
+
+    private final float correctionGain;
+    private final float biasGain;
+
+    // Orientation quaternion w + xi + yj + zk
+    private float qw = 1.0f, qx, qy, qz;
+
+    // Estimated gyro bias correction in rad/s, device frame
+    private float biasX, biasY, biasZ;
+
+    private long timestamp;
+
+    // Accelerometer/magnetometer rotation matrix, reused for every correction
+    private final float[] measured = new float[9];
+
+    public QuaternionOrientation() {
+        this(DEFAULT_CORRECTION_GAIN, DEFAULT_BIAS_GAIN);
+    }
+
+    public QuaternionOrientation(float correctionGain, float biasGain) {
+        this.correctionGain = correctionGain;
+        this.biasGain = biasGain;
+    }
+
+    /**
+     * Applies one gyroscope sample (rad/s) taken at timestampNs. The first sample
+     * only provides the start of the interval.
+     */
+    public void integrate(float[] gyroValues, long timestampNs) {
+        if (timestamp != 0 && timestampNs > timestamp) {
+            float halfDt = (timestampNs - timestamp) * NS2S * 0.5f;
+            rotate((gyroValues[0] + biasX) * halfDt,
+                    (gyroValues[1] + biasY) * halfDt,
+                    (gyroValues[2] + biasZ) * halfDt);
+        }
+        timestamp = timestampNs;
+    }
+
+    /**
+     * Pulls the orientation towards the one given by gravity and the geomagnetic
+     * field, by the share of the error the gains allow for dt seconds. Returns
+     * false, changing nothing, when the two vectors do not define an orientation.
+     */
+    public boolean correct(float[] gravity, float[] geomagnetic, float dt) {
+        if (!RotationMath.getRotationMatrix(measured, gravity, geomagnetic)) {
+            return false;
+        }
+
+        // The rows of both matrices are the east, north and up axes seen from the
+        // device. For a small rotation theta between them, the sum of the cross
+        // products of matching rows is 2 * theta.
+        float[] m = measured;
+        float r0 = 1 - 2 * (qy * qy + qz * qz), r1 = 2 * (qx * qy - qw * qz), r2 = 2 * (qx * qz + qw * qy);
+        float r3 = 2 * (qx * qy + qw * qz), r4 = 1 - 2 * (qx * qx + qz * qz), r5 = 2 * (qy * qz - qw * qx);
+        float r6 = 2 * (qx * qz - qw * qy), r7 = 2 * (qy * qz + qw * qx), r8 = 1 - 2 * (qx * qx + qy * qy);
+        float ex = 0.5f * ((r1 * m[2] - r2 * m[1]) + (r4 * m[5] - r5 * m[4]) + (r7 * m[8] - r8 * m[7]));
+        float ey = 0.5f * ((r2 * m[0] - r0 * m[2]) + (r5 * m[3] - r3 * m[5]) + (r8 * m[6] - r6 * m[8]));
+        float ez = 0.5f * ((r0 * m[1] - r1 * m[0]) + (r3 * m[4] - r4 * m[3]) + (r6 * m[7] - r7 * m[6]));
+
+        // The measured world axes appear rotated by theta in the device frame, so the
+        // device is rotated by -theta relative to the estimate
+        float share = Math.min(1.0f, correctionGain * dt);
+        rotate(-0.5f * share * ex, -0.5f * share * ey, -0.5f * share * ez);
+
+        biasX -= biasGain * ex * dt;
+        biasY -= biasGain * ey * dt;
+        biasZ -= biasGain * ez * dt;
+        return true;
+    }
+
+    /**
+     * Replaces the orientation with the one given by gravity and the geomagnetic
+     * field. Returns false, changing nothing, when they do not define one.
+     */
+    public boolean reset(float[] gravity, float[] geomagnetic) {
+        if (!RotationMath.getRotationMatrix(measured, gravity, geomagnetic)) {
+            return false;
+        }
+        setRotationMatrix(measured);
+        return true;
+    }
+
+    // Multiplies q by the rotation with the half angle vector (hx, hy, hz) on the
+    // right, to first order, and renormalises
+    private void rotate(float hx, float hy, float hz) {
+        float w = qw - qx * hx - qy * hy - qz * hz;
+        float x = qx + qw * hx + qy * hz - qz * hy;
+        float y = qy + qw * hy + qz * hx - qx * hz;
+        float z = qz + qw * hz + qx * hy - qy * hx;
+        float invNorm = 1.0f / (float) Math.sqrt(w * w + x * x + y * y + z * z);
+        qw = w * invNorm;
+        qx = x * invNorm;
+        qy = y * invNorm;
+        qz = z * invNorm;
+    }
+
+    // Shepperd's method, branching on the largest diagonal term for precision
+    private void setRotationMatrix(float[] R) {
+        float trace = R[0] + R[4] + R[8];
+        if (trace > 0) {
+            float s = 2.0f * (float) Math.sqrt(trace + 1.0f);
+            qw = 0.25f * s;
+            qx = (R[7] - R[5]) / s;
+            qy = (R[2] - R[6]) / s;
+            qz = (R[3] - R[1]) / s;
+        } else if (R[0] > R[4] && R[0] > R[8]) {
+            float s = 2.0f * (float) Math.sqrt(1.0f + R[0] - R[4] - R[8]);
+            qw = (R[7] - R[5]) / s;
+            qx = 0.25f * s;
+            qy = (R[1] + R[3]) / s;
+            qz = (R[2] + R[6]) / s;
+        } else if (R[4] > R[8]) {
+            float s = 2.0f * (float) Math.sqrt(1.0f + R[4] - R[0] - R[8]);
+            qw = (R[2] - R[6]) / s;
+            qx = (R[1] + R[3]) / s;
+            qy = 0.25f * s;
+            qz = (R[5] + R[7]) / s;
+        } else {
+            float s = 2.0f * (float) Math.sqrt(1.0f + R[8] - R[0] - R[4]);
+            qw = (R[3] - R[1]) / s;
+            qx = (R[2] + R[6]) / s;
+            qy = (R[5] + R[7]) / s;
+            qz = 0.25f * s;
+        }
+    }
+
+    /**
+     * Writes the device to world rotation matrix into R.
+     */
+    public void getRotationMatrix(float[] R) {
+        R[0] = 1 - 2 * (qy * qy + qz * qz);
+        R[1] = 2 * (qx * qy - qw * qz);
+        R[2] = 2 * (qx * qz + qw * qy);
+        R[3] = 2 * (qx * qy + qw * qz);
+        R[4] = 1 - 2 * (qx * qx + qz * qz);
+        R[5] = 2 * (qy * qz - qw * qx);
+        R[6] = 2 * (qx * qz - qw * qy);
+        R[7] = 2 * (qy * qz + qw * qx);
+        R[8] = 1 - 2 * (qx * qx + qy * qy);
+    }
+
+    /**
+     * Writes {azimuth, pitch, roll} in radians into values, like
+     * {@link RotationMath#getOrientation}.
+     */
+    public void getOrientation(float[] values) {
+        values[0] = FastMath.atan2(2 * (qx * qy - qw * qz), 1 - 2 * (qx * qx + qz * qz));
+        values[1] = (float) Math.asin(Math.max(-1.0f, Math.min(1.0f, -2 * (qy * qz + qw * qx))));
+        values[2] = getRoll();
+    }
+
+    /**
+     * Roll in radians, the third element of {@link #getOrientation}.
+     */
+    public float getRoll() {
+        return FastMath.atan2(-2 * (qx * qz - qw * qy), 1 - 2 * (qx * qx + qy * qy));
+    }
+
+    /** Writes the quaternion {w, x, y, z} into out. */
+    public void getQuaternion(float[] out) {
+        out[0] = qw;
+        out[1] = qx;
+        out[2] = qy;
+        out[3] = qz;
+    }
+}
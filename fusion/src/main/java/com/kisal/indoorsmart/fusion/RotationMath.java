@@ -0,0 +1,177 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Rotation helpers used on the fusion path. Every method writes into an array
+ * supplied by the caller so the sensor thread does not allocate per event.
+ * getRotationMatrix, getRotationMatrixFromVector and getOrientation are Java ports
+ * of the SensorManager helpers for 3x3 matrices, so they also run off-device.
+ */
+public final class RotationMath {
+
+    public static final float EPSILON = 0.000000001f;
+
+    // SensorManager.STANDARD_GRAVITY
+    private static final float STANDARD_GRAVITY = 9.80665f;
+
+    private RotationMath() {}
+
+    /**
+     * Computes A = A * B in place. B must not be the same array as A.
+     */
+    public static void multiplyInPlace(float[] A, float[] B) {
+        // each row of the result only depends on the same row of A
+        for (int row = 0; row < 9; row += 3) {
+            float a0 = A[row], a1 = A[row + 1], a2 = A[row + 2];
+            A[row]     = a0 * B[0] + a1 * B[3] + a2 * B[6];
+            A[row + 1] = a0 * B[1] + a1 * B[4] + a2 * B[7];
+            A[row + 2] = a0 * B[2] + a1 * B[5] + a2 * B[8];
+        }
+    }
+
+    /**
+     * Writes the delta rotation quaternion {x, y, z, w} for one gyro sample into
+     * deltaRotationVector. timeFactor is half of the sample interval in seconds.
+     */
+    public static void getRotationVectorFromGyro(float[] gyroValues,
+                                          float[] deltaRotationVector,
+                                          float timeFactor) {
+        // Calculate the angular speed of the sample
+        float omegaMagnitude =
+                (float) Math.sqrt(gyroValues[0] * gyroValues[0] +
+                        gyroValues[1] * gyroValues[1] +
+                        gyroValues[2] * gyroValues[2]);
+
+        // Normalize the rotation vector if it's big enough to get the axis
+        float normX = 0.0f, normY = 0.0f, normZ = 0.0f;
+        if (omegaMagnitude > EPSILON) {
+            normX = gyroValues[0] / omegaMagnitude;
+            normY = gyroValues[1] / omegaMagnitude;
+            normZ = gyroValues[2] / omegaMagnitude;
+        }
+
+        // Integrate around this axis with the angular speed by the time step
+        float thetaOverTwo = omegaMagnitude * timeFactor;
+        float sinThetaOverTwo = FastMath.sin(thetaOverTwo);
+        float cosThetaOverTwo = FastMath.cos(thetaOverTwo);
+        deltaRotationVector[0] = sinThetaOverTwo * normX;
+        deltaRotationVector[1] = sinThetaOverTwo * normY;
+        deltaRotationVector[2] = sinThetaOverTwo * normZ;
+        deltaRotationVector[3] = cosThetaOverTwo;
+    }
+
+    /**
+     * Writes the rotation matrix for the {azimuth, pitch, roll} angles in o into R.
+     * This is the closed form of zM * xM * yM (rotation order y, x, z).
+     */
+    public static void getRotationMatrixFromOrientation(float[] o, float[] R) {
+        float sinX = FastMath.sin(o[1]);
+        float cosX = FastMath.cos(o[1]);
+        float sinY = FastMath.sin(o[2]);
+        float cosY = FastMath.cos(o[2]);
+        float sinZ = FastMath.sin(o[0]);
+        float cosZ = FastMath.cos(o[0]);
+
+        R[0] = cosZ * cosY - sinZ * sinX * sinY;
+        R[1] = sinZ * cosX;
+        R[2] = cosZ * sinY + sinZ * sinX * cosY;
+
+        R[3] = -sinZ * cosY - cosZ * sinX * sinY;
+        R[4] = cosZ * cosX;
+        R[5] = -sinZ * sinY + cosZ * sinX * cosY;
+
+        R[6] = -cosX * sinY;
+        R[7] = -sinX;
+        R[8] = cosX * cosY;
+    }
+
+    /**
+     * Port of SensorManager.getRotationMatrix without the inclination matrix.
+     * Returns false, leaving R untouched, when the device is in free fall or the
+     * gravity and geomagnetic vectors are close to parallel.
+     */
+    public static boolean getRotationMatrix(float[] R, float[] gravity, float[] geomagnetic) {
+        float Ax = gravity[0];
+        float Ay = gravity[1];
+        float Az = gravity[2];
+
+        final float normsqA = (Ax * Ax + Ay * Ay + Az * Az);
+        final float freeFallGravitySquared = 0.01f * STANDARD_GRAVITY * STANDARD_GRAVITY;
+        if (normsqA < freeFallGravitySquared) {
+            // gravity less than 10% of normal value
+            return false;
+        }
+
+        final float Ex = geomagnetic[0];
+        final float Ey = geomagnetic[1];
+        final float Ez = geomagnetic[2];
+        float Hx = Ey * Az - Ez * Ay;
+        float Hy = Ez * Ax - Ex * Az;
+        float Hz = Ex * Ay - Ey * Ax;
+        final float normH = (float) Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+        if (normH < 0.1f) {
+            // device is close to free fall (or in space?), or close to
+            // magnetic north pole. Typical values are  > 100.
+            return false;
+        }
+
+        final float invH = 1.0f / normH;
+        Hx *= invH;
+        Hy *= invH;
+        Hz *= invH;
+        final float invA = 1.0f / (float) Math.sqrt(Ax * Ax + Ay * Ay + Az * Az);
+        Ax *= invA;
+        Ay *= invA;
+        Az *= invA;
+        final float Mx = Ay * Hz - Az * Hy;
+        final float My = Az * Hx - Ax * Hz;
+        final float Mz = Ax * Hy - Ay * Hx;
+
+        R[0] = Hx; R[1] = Hy; R[2] = Hz;
+        R[3] = Mx; R[4] = My; R[5] = Mz;
+        R[6] = Ax; R[7] = Ay; R[8] = Az;
+        return true;
+    }
+
+    /**
+     * Port of SensorManager.getRotationMatrixFromVector for a 4 element
+     * rotation vector and a 3x3 matrix.
+     */
+    public static void getRotationMatrixFromVector(float[] R, float[] rotationVector) {
+        float q1 = rotationVector[0];
+        float q2 = rotationVector[1];
+        float q3 = rotationVector[2];
+        float q0 = rotationVector[3];
+
+        float sq_q1 = 2 * q1 * q1;
+        float sq_q2 = 2 * q2 * q2;
+        float sq_q3 = 2 * q3 * q3;
+        float q1_q2 = 2 * q1 * q2;
+        float q3_q0 = 2 * q3 * q0;
+        float q1_q3 = 2 * q1 * q3;
+        float q2_q0 = 2 * q2 * q0;
+        float q2_q3 = 2 * q2 * q3;
+        float q1_q0 = 2 * q1 * q0;
+
+        R[0] = 1 - sq_q2 - sq_q3;
+        R[1] = q1_q2 - q3_q0;
+        R[2] = q1_q3 + q2_q0;
+
+        R[3] = q1_q2 + q3_q0;
+        R[4] = 1 - sq_q1 - sq_q3;
+        R[5] = q2_q3 - q1_q0;
+
+        R[6] = q1_q3 - q2_q0;
+        R[7] = q2_q3 + q1_q0;
+        R[8] = 1 - sq_q1 - sq_q2;
+    }
+
+    /**
+     * Port of SensorManager.getOrientation for a 3x3 rotation matrix.
+     * values receives {azimuth, pitch, roll} in radians.
+     */
+    public static void getOrientation(float[] R, float[] values) {
+        values[0] = (float) Math.atan2(R[1], R[4]);
+        values[1] = (float) Math.asin(-R[7]);
+        values[2] = (float) Math.atan2(-R[6], R[8]);
+    }
+}
@@ -0,0 +1,112 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Holds a burst of sensor events delivered from the hardware FIFO and replays them
+ * into a {@link FusionEngine} in timestamp order. A FIFO flush usually hands over
+ * each sensor's samples as one run, so the events are merged back into the order
+ * they were sampled in, which makes the result the same as unbatched delivery.
+ * <p>
+ * Storage is preallocated, so buffering and draining a burst does not allocate.
+ */
+public class SensorEventBuffer {
+
+    private static final int VALUE_COUNT = 3;
+
+    private final int capacity;
+    private final int[] types;
+    private final long[] timestamps;
+    private final float[] values;
+    private final float[] eventValues = new float[VALUE_COUNT];
+
+    // index permutation sorted by timestamp, and merge sort scratch
+    private final int[] order;
+    private final int[] mergeScratch;
+
+    private int size;
+
+    public SensorEventBuffer(int capacity) {
+        this.capacity = capacity;
+        types = new int[capacity];
+        timestamps = new long[capacity];
+        values = new float[capacity * VALUE_COUNT];
+        order = new int[capacity];
+        mergeScratch = new int[capacity];
+    }
+
+    /**
+     * Buffers one event. Returns true when the buffer is full and has to be drained
+     * before the next event is added.
+     */
+    public boolean add(int sensorType, long timestampNs, float[] eventValues) {
+        types[size] = sensorType;
+        timestamps[size] = timestampNs;
+        int base = size * VALUE_COUNT;
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            values[base + i] = i < eventValues.length ? eventValues[i] : 0.0f;
+        }
+        size++;
+        return size == capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Newest timestamp in the buffer, or 0 when it is empty. */
+    public long getLatestTimestamp() {
+        long latest = size == 0 ? 0 : timestamps[0];
+        for (int i = 1; i < size; i++) {
+            latest = Math.max(latest, timestamps[i]);
+        }
+        return latest;
+    }
+
+    /**
+     * Feeds all buffered events into the engine, oldest first, and empties the buffer.
+     */
+    public void drainTo(FusionEngine engine) {
+        sortByTimestamp();
+        for (int i = 0; i < size; i++) {
+            int index = order[i];
+            System.arraycopy(values, index * VALUE_COUNT, eventValues, 0, VALUE_COUNT);
+            engine.onSensorEvent(types[index], timestamps[index], eventValues);
+        }
+        size = 0;
+    }
+
+    // Stable bottom-up merge sort of the index permutation. Events of the same
+    // timestamp keep their delivery order.
+    private void sortByTimestamp() {
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] src = order;
+        int[] dst = mergeScratch;
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size; lo += 2 * width) {
+                int mid = Math.min(lo + width, size);
+                int hi = Math.min(lo + 2 * width, size);
+                int left = lo, right = mid, out = lo;
+                while (left < mid && right < hi) {
+                    dst[out++] = timestamps[src[right]] < timestamps[src[left]] ? src[right++] : src[left++];
+                }
+                while (left < mid) {
+                    dst[out++] = src[left++];
+                }
+                while (right < hi) {
+                    dst[out++] = src[right++];
+                }
+            }
+            int[] swap = src;
+            src = dst;
+            dst = swap;
+        }
+        if (src != order) {
+            System.arraycopy(src, 0, order, 0, size);
+        }
+    }
+}
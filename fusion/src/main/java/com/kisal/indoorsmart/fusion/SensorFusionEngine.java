@@ -0,0 +1,356 @@
+package com.kisal.indoorsmart.fusion;
+
+import com.kisal.indoorsmart.fusion.map.ParticleFilter;
+import com.kisal.indoorsmart.fusion.route.RoutePlanner;
+import com.kisal.indoorsmart.fusion.stats.SlidingWindow;
+
+/**
+ * Default {@link FusionEngine}: a {@link QuaternionOrientation} integrated from the
+ * gyroscope and corrected from the accelerometer/magnetometer, driving a
+ * {@link PositionUpdater}. The correction step runs from the sensor event
+ * timestamps, see {@link FusionScheduler}. With a {@link SensorResampler}, the
+ * accelerometer, gyroscope and magnetometer are first aligned on a fixed-rate
+ * timeline and fused frame by frame, so every step sees values of the same time.
+ * <p>
+ * While the {@link MotionDetector} finds the device stationary, the fusion steps
+ * pause, which also freezes the gyroscope bias estimate, and the resampler drops to
+ * {@link #STATIONARY_PERIOD_NS}. A {@link MotionListener} can lower the sensor
+ * rates at the same time.
+ */
+public class SensorFusionEngine implements FusionEngine {
+
+    private final QuaternionOrientation orientation;
+    private final float[] magnet = new float[3];
+    private final float[] accel = new float[3];
+    private boolean initState = true;
+
+    // Heading and Euler angles derived from the quaternion on demand, cached until it changes
+    private double heading;
+    private boolean headingValid = false;
+    private final float[] orientationAngles = new float[3];
+    private boolean orientationValid = false;
+
+    private final PositionUpdater positionUpdater;
+    private final FusionScheduler fusionScheduler;
+
+    private StepSource stepSource = StepSource.HARDWARE_COUNTER;
+    private final StepDetector stepDetector = new StepDetector();
+    private int lastHardwareStepCount = -1;
+    private long detectedAtLastHardwareCount;
+
+    /** Frame period while stationary, 50 Hz. */
+    public static final long STATIONARY_PERIOD_NS = 20_000_000L;
+    private final MotionDetector motionDetector = new MotionDetector();
+    private MotionListener motionListener;
+
+    private final FloorDetector floorDetector = new FloorDetector();
+    private FloorListener floorListener;
+
+    // Stage timings, null when not instrumented
+    private PipelineMetrics metrics;
+
+    // Time alignment, null to fuse the events as they arrive
+    private static final int FRAME_BATCH = 16;
+    private final SensorResampler resampler;
+    private final long[] frameTimes = new long[FRAME_BATCH];
+    private final float[] frameAccel = new float[FRAME_BATCH * 3];
+    private final float[] frameGyro = new float[FRAME_BATCH * 3];
+    private final float[] frameMagnet = new float[FRAME_BATCH * 3];
+    private final float[] frameValues = new float[3];
+
+    public SensorFusionEngine() {
+        this(new FusionScheduler());
+    }
+
+    public SensorFusionEngine(FusionScheduler fusionScheduler) {
+        this(fusionScheduler, null);
+    }
+
+    public SensorFusionEngine(FusionScheduler fusionScheduler, SensorResampler resampler) {
+        this(new FusionParameters(), fusionScheduler, resampler);
+    }
+
+    /**
+     * An engine tuned with parameters, which also set the fusion period.
+     */
+    public SensorFusionEngine(FusionParameters parameters, SensorResampler resampler) {
+        this(parameters, new FusionScheduler(parameters.getFusionPeriodNs(), FusionScheduler.DEFAULT_START_DELAY_NS),
+                resampler);
+    }
+
+    private SensorFusionEngine(FusionParameters parameters, FusionScheduler fusionScheduler, SensorResampler resampler) {
+        this.orientation = new QuaternionOrientation(parameters.getCorrectionGain(), parameters.getBiasGain());
+        this.positionUpdater = new PositionUpdater(parameters.getWindowSize(), parameters.getStrideScale(),
+                parameters.getStrideExponent());
+        this.fusionScheduler = fusionScheduler;
+        this.resampler = resampler;
+    }
+
+    @Override
+    public void onSensorEvent(int sensorType, long timestampNs, float[] values) {
+        PipelineMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.countEvent(sensorType, timestampNs);
+        }
+        if (resampler == null || !resampler.add(sensorType, timestampNs, values)) {
+            process(sensorType, timestampNs, values, metrics);
+            schedule(timestampNs, metrics);
+            return;
+        }
+
+        int frames;
+        while ((frames = resampler.poll(frameTimes, frameAccel, frameGyro, frameMagnet, FRAME_BATCH)) > 0) {
+            for (int i = 0; i < frames; i++) {
+                System.arraycopy(frameAccel, i * 3, frameValues, 0, 3);
+                process(SensorType.ACCELEROMETER, frameTimes[i], frameValues, metrics);
+                System.arraycopy(frameMagnet, i * 3, frameValues, 0, 3);
+                process(SensorType.MAGNETIC_FIELD, frameTimes[i], frameValues, metrics);
+                System.arraycopy(frameGyro, i * 3, frameValues, 0, 3);
+                process(SensorType.GYROSCOPE, frameTimes[i], frameValues, metrics);
+                // a correction due now sees the gyro integrated up to the same time
+                schedule(frameTimes[i], metrics);
+            }
+        }
+    }
+
+    private void process(int sensorType, long timestampNs, float[] values, PipelineMetrics metrics) {
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        switch (sensorType) {
+            case SensorType.STEP_COUNTER:
+                int newStepCount = (int) values[0];
+                positionUpdater.updateOrientation((float) getHeading());
+                if (stepSource == StepSource.HARDWARE_COUNTER) {
+                    positionUpdater.updateStepCount(newStepCount);
+                } else {
+                    correctDetectedSteps(newStepCount, timestampNs);
+                }
+                if (metrics != null) {
+                    metrics.positionUpdate.record(System.nanoTime() - start);
+                }
+                break;
+
+            case SensorType.ACCELEROMETER:
+                float ax = values[0];
+                float ay = values[1];
+                float az = values[2];
+
+                // Compute acceleration magnitude |A_k|
+                float magnitude = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+                positionUpdater.addAccelerationSample(magnitude); // Pass acceleration data
+                SlidingWindow window = positionUpdater.getAccelerationWindow();
+                if (window.isFull() && motionDetector.onAccelerationVariance(window.variance(), timestampNs)) {
+                    onMotionStateChanged(timestampNs);
+                }
+                if (stepDetector.onAcceleration(magnitude, timestampNs) && stepSource == StepSource.ACCELEROMETER) {
+                    long stepStart = metrics != null ? System.nanoTime() : 0;
+                    positionUpdater.updateOrientation((float) getHeading());
+                    positionUpdater.addSteps(1);
+                    if (metrics != null) {
+                        metrics.positionUpdate.record(System.nanoTime() - stepStart);
+                    }
+                }
+
+                System.arraycopy(values, 0, accel, 0, 3);
+                break;
+
+            case SensorType.MAGNETIC_FIELD:
+                System.arraycopy(values, 0, magnet, 0, 3);
+                break;
+
+            case SensorType.PRESSURE:
+                // lifts carry a stationary device, so this runs in either motion state
+                if (floorDetector.onPressure(values[0], timestampNs) && floorListener != null) {
+                    floorListener.onFloorChanged(floorDetector.getFloor(), timestampNs);
+                }
+                break;
+
+            case SensorType.GYROSCOPE:
+                float rate = (float) Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+                if (motionDetector.onRotationRate(rate, timestampNs)) {
+                    onMotionStateChanged(timestampNs);
+                }
+                gyroFunction(values, timestampNs);
+                if (metrics != null) {
+                    metrics.gyroIntegration.record(System.nanoTime() - start);
+                }
+                break;
+        }
+    }
+
+    private void onMotionStateChanged(long timestampNs) {
+        MotionState state = motionDetector.getState();
+        if (state == MotionState.MOVING) {
+            fusionScheduler.resume(timestampNs);
+        }
+        if (resampler != null) {
+            resampler.setPeriodNs(state == MotionState.MOVING ? SensorResampler.DEFAULT_PERIOD_NS : STATIONARY_PERIOD_NS);
+        }
+        if (motionListener != null) {
+            motionListener.onMotionStateChanged(state, timestampNs);
+        }
+    }
+
+    // Runs the fusion step when one is due in sensor time, not while stationary
+    private void schedule(long timestampNs, PipelineMetrics metrics) {
+        if (motionDetector.getState() == MotionState.STATIONARY) {
+            return;
+        }
+        float dt = fusionScheduler.onTimestamp(timestampNs);
+        if (dt > 0) {
+            if (metrics == null) {
+                fuseOrientation(dt);
+            } else {
+                metrics.fusionLateness.record(fusionScheduler.getLastLatenessNs());
+                long fusionStart = System.nanoTime();
+                fuseOrientation(dt);
+                metrics.orientationUpdate.record(System.nanoTime() - fusionStart);
+            }
+        }
+    }
+
+    /**
+     * Call from the thread that feeds the events, which then records all stages.
+     */
+    @Override
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Selects where steps come from. The detector always runs, so switching is
+     * possible at any time.
+     */
+    @Override
+    public void setStepSource(StepSource stepSource) {
+        this.stepSource = stepSource;
+        // both sources restart from the next hardware count
+        lastHardwareStepCount = -1;
+        positionUpdater.resetStepCount();
+    }
+
+    @Override
+    public void setMotionListener(MotionListener motionListener) {
+        this.motionListener = motionListener;
+    }
+
+    @Override
+    public MotionState getMotionState() {
+        return motionDetector.getState();
+    }
+
+    @Override
+    public void setFloorListener(FloorListener floorListener) {
+        this.floorListener = floorListener;
+    }
+
+    @Override
+    public void setFloor(int floor, float floorHeight) {
+        floorDetector.reset(floor, floorHeight);
+    }
+
+    @Override
+    public int getFloor() {
+        return floorDetector.getFloor();
+    }
+
+    public StepSource getStepSource() {
+        return stepSource;
+    }
+
+    @Override
+    public void setMapMatcher(ParticleFilter mapMatcher) {
+        positionUpdater.setMapMatcher(mapMatcher);
+    }
+
+    @Override
+    public void setRoutePlanner(RoutePlanner routePlanner) {
+        positionUpdater.setRoutePlanner(routePlanner);
+    }
+
+    // The hardware counter arrives late but does not miss steps. Compare it with the
+    // steps the detector found up to the same timestamp and add the ones it missed.
+    // Extra detected steps cannot be taken back, they only reset the comparison.
+    private void correctDetectedSteps(int hardwareStepCount, long timestampNs) {
+        long detectedAtEvent = stepDetector.getStepCount() - stepDetector.countStepsAfter(timestampNs);
+        if (lastHardwareStepCount != -1) {
+            int hardwareSteps = hardwareStepCount - lastHardwareStepCount;
+            int detectedSteps = (int) (detectedAtEvent - detectedAtLastHardwareCount);
+            int missedSteps = hardwareSteps - detectedSteps;
+            if (missedSteps > 0) {
+                positionUpdater.addSteps(missedSteps);
+            }
+        }
+        lastHardwareStepCount = hardwareStepCount;
+        detectedAtLastHardwareCount = detectedAtEvent;
+    }
+
+    @Override
+    public void fuseOrientation(float dt) {
+        if (!initState && orientation.correct(accel, magnet, dt)) {
+            headingValid = false;
+            orientationValid = false;
+        }
+    }
+
+    @Override
+    public double getHeading() {
+        if (!headingValid) {
+            // omit negative angles
+            double theta = orientation.getRoll() * FastMath.RAD_TO_DEG;
+            if (theta < 0) {
+                theta += 360;
+            }
+            heading = theta;
+            headingValid = true;
+        }
+        return heading;
+    }
+
+    @Override
+    public void getOrientation(float[] out) {
+        if (!orientationValid) {
+            orientation.getOrientation(orientationAngles);
+            orientationValid = true;
+        }
+        System.arraycopy(orientationAngles, 0, out, 0, 3);
+    }
+
+    @Override
+    public void getPosition(float[] out) {
+        positionUpdater.getPosition(out);
+    }
+
+    @Override
+    public void setPosition(float x, float y) {
+        positionUpdater.setPosition(x, y);
+    }
+
+    @Override
+    public void correctPosition(float x, float y, float accuracy) {
+        positionUpdater.correctPosition(x, y, accuracy);
+    }
+
+    @Override
+    public int getStepCount() {
+        return positionUpdater.getStepCount();
+    }
+
+    @Override
+    public int getTotalStepCount() {
+        return positionUpdater.getTotalStepCount();
+    }
+
+    private void gyroFunction(float[] values, long timestampNs) {
+        // initialisation of the gyroscope based orientation
+        // from the first accelerometer/magnetometer orientation
+        if (initState && orientation.reset(accel, magnet)) {
+            initState = false;
+        }
+
+        // integrate the sample into the orientation quaternion
+        orientation.integrate(values, timestampNs);
+        headingValid = false;
+        orientationValid = false;
+    }
+}
@@ -0,0 +1,207 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Aligns the accelerometer, gyroscope and magnetometer streams on one fixed-rate
+ * timeline. Each stream is kept in a bounded ring of 64-bit timestamps and
+ * values; a frame at time t is interpolated linearly between the samples of every
+ * stream that bracket t, once all streams have reached t. A stream that falls
+ * more than {@link #DEFAULT_MAX_HOLD_NS} behind the others, e.g. a magnetometer
+ * that stopped reporting, is held at its last value instead of stalling the
+ * timeline.
+ * <p>
+ * Frames are handed out in batches as parallel arrays, so the fusion can run over
+ * them in one pass with a constant dt. Nothing is allocated after construction.
+ */
+public class SensorResampler {
+
+    /** 200 Hz, about the rate the sensors deliver at SENSOR_DELAY_FASTEST. */
+    public static final long DEFAULT_PERIOD_NS = 5_000_000L;
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final long DEFAULT_MAX_HOLD_NS = 100_000_000L;
+    // a pause of this many hold times in all streams is skipped, not interpolated over
+    private static final int MAX_GAP_HOLDS = 10;
+
+    private static final int VALUE_COUNT = 3;
+    private static final int ACCEL = 0;
+    private static final int GYRO = 1;
+    private static final int MAGNET = 2;
+    private static final int STREAM_COUNT = 3;
+
+    private long periodNs;
+    private final long maxHoldNs;
+    private final int capacity;
+
+    // one ring per stream: timestamps and VALUE_COUNT values per sample
+    private final long[][] times = new long[STREAM_COUNT][];
+    private final float[][] values = new float[STREAM_COUNT][];
+    private final int[] head = new int[STREAM_COUNT];
+    private final int[] size = new int[STREAM_COUNT];
+
+    private boolean started = false;
+    private long nextFrame;
+
+    public SensorResampler() {
+        this(DEFAULT_PERIOD_NS, DEFAULT_CAPACITY, DEFAULT_MAX_HOLD_NS);
+    }
+
+    public SensorResampler(long periodNs, int capacity, long maxHoldNs) {
+        this.periodNs = periodNs;
+        this.capacity = capacity;
+        this.maxHoldNs = maxHoldNs;
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            times[s] = new long[capacity];
+            values[s] = new float[capacity * VALUE_COUNT];
+        }
+    }
+
+    public long getPeriodNs() {
+        return periodNs;
+    }
+
+    /**
+     * Changes the frame rate, e.g. to follow the sensors to a lower sampling rate.
+     * Applies from the frame after the next one.
+     */
+    public void setPeriodNs(long periodNs) {
+        this.periodNs = periodNs;
+    }
+
+    /**
+     * Buffers one sample. Returns false for sensor types that are not resampled,
+     * which the caller handles directly. Samples that are not newer than the last
+     * one of their stream are dropped, and a full ring drops its oldest sample.
+     */
+    public boolean add(int sensorType, long timestampNs, float[] sampleValues) {
+        int stream = streamOf(sensorType);
+        if (stream < 0) {
+            return false;
+        }
+        int n = size[stream];
+        if (n > 0 && timestampNs <= times[stream][slot(stream, n - 1)]) {
+            return true;
+        }
+        if (n == capacity) {
+            head[stream] = (head[stream] + 1) % capacity;
+            n--;
+        }
+        int slot = slot(stream, n);
+        times[stream][slot] = timestampNs;
+        int base = slot * VALUE_COUNT;
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            values[stream][base + i] = i < sampleValues.length ? sampleValues[i] : 0.0f;
+        }
+        size[stream] = n + 1;
+        return true;
+    }
+
+    private static int streamOf(int sensorType) {
+        switch (sensorType) {
+            case SensorType.ACCELEROMETER:
+                return ACCEL;
+            case SensorType.GYROSCOPE:
+                return GYRO;
+            case SensorType.MAGNETIC_FIELD:
+                return MAGNET;
+            default:
+                return -1;
+        }
+    }
+
+    private int slot(int stream, int index) {
+        return (head[stream] + index) % capacity;
+    }
+
+    /**
+     * Takes up to maxFrames frames that are ready. Frame i has its timestamp in
+     * frameTimes[i] and its three values of each stream at [3 * i] in accel, gyro
+     * and magnet. Returns the number of frames written.
+     */
+    public int poll(long[] frameTimes, float[] accel, float[] gyro, float[] magnet, int maxFrames) {
+        if (!started && !start()) {
+            return 0;
+        }
+        long newest = Long.MIN_VALUE;
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            newest = Math.max(newest, times[s][slot(s, size[s] - 1)]);
+        }
+        if (newest - nextFrame > MAX_GAP_HOLDS * maxHoldNs) {
+            // the sensors were paused: restart the timeline after the newest sample
+            for (int s = 0; s < STREAM_COUNT; s++) {
+                head[s] = slot(s, size[s] - 1);
+                size[s] = 1;
+            }
+            nextFrame = Math.floorDiv(newest + periodNs - 1, periodNs) * periodNs;
+        }
+
+        int frames = 0;
+        while (frames < maxFrames && isReady(nextFrame, newest)) {
+            long t = nextFrame;
+            frameTimes[frames] = t;
+            interpolate(ACCEL, t, accel, frames * VALUE_COUNT);
+            interpolate(GYRO, t, gyro, frames * VALUE_COUNT);
+            interpolate(MAGNET, t, magnet, frames * VALUE_COUNT);
+            frames++;
+            nextFrame += periodNs;
+        }
+        return frames;
+    }
+
+    // The timeline starts at the first period boundary all streams have reached
+    private boolean start() {
+        long first = Long.MIN_VALUE;
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            if (size[s] == 0) {
+                return false;
+            }
+            first = Math.max(first, times[s][head[s]]);
+        }
+        nextFrame = Math.floorDiv(first + periodNs - 1, periodNs) * periodNs;
+        started = true;
+        return true;
+    }
+
+    private boolean isReady(long t, long newest) {
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            long latest = times[s][slot(s, size[s] - 1)];
+            if (latest < t && newest - latest < maxHoldNs) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Writes the stream's value at t into out, dropping the samples before the
+    // bracket, which later frames no longer need
+    private void interpolate(int stream, long t, float[] out, int offset) {
+        long[] streamTimes = times[stream];
+        float[] streamValues = values[stream];
+        while (size[stream] > 1 && streamTimes[slot(stream, 1)] <= t) {
+            head[stream] = (head[stream] + 1) % capacity;
+            size[stream]--;
+        }
+
+        int a = head[stream];
+        long ta = streamTimes[a];
+        if (size[stream] == 1 || t <= ta) {
+            // held at the only sample left, or before the first one after an overflow
+            System.arraycopy(streamValues, a * VALUE_COUNT, out, offset, VALUE_COUNT);
+            return;
+        }
+        int b = slot(stream, 1);
+        float w = (float) (t - ta) / (streamTimes[b] - ta);
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            float va = streamValues[a * VALUE_COUNT + i];
+            float vb = streamValues[b * VALUE_COUNT + i];
+            out[offset + i] = va + w * (vb - va);
+        }
+    }
+
+    /** Drops all buffered samples; the timeline restarts with the next samples. */
+    public void clear() {
+        for (int s = 0; s < STREAM_COUNT; s++) {
+            head[s] = 0;
+            size[s] = 0;
+        }
+        started = false;
+    }
+}
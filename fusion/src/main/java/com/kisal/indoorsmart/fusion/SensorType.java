@@ -0,0 +1,17 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Sensor type ids understood by the fusion engine. The values are the same as the
+ * android.hardware.Sensor TYPE_* constants, so an adapter can pass
+ * Sensor.getType() straight through.
+ */
+public final class SensorType {
+
+    public static final int ACCELEROMETER = 1;
+    public static final int MAGNETIC_FIELD = 2;
+    public static final int GYROSCOPE = 4;
+    public static final int PRESSURE = 6;
+    public static final int STEP_COUNTER = 19;
+
+    private SensorType() {}
+}
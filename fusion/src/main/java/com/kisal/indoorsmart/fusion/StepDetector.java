@@ -0,0 +1,126 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Streaming step detector on the accelerometer magnitude, as a low latency
+ * alternative to the hardware step counter, which many chipsets batch and deliver
+ * seconds late.
+ * <p>
+ * Each sample is smoothed with a low pass filter and the slowly moving gravity
+ * baseline is removed. A step is a peak that rises above the lowest point since
+ * the previous step by more than an adaptive threshold, at least
+ * {@link #MIN_STEP_INTERVAL_NS} after that step. The threshold follows the
+ * amplitude of recent steps, so gentle and heavy walkers are both counted. The cost
+ * per sample is constant and nothing is allocated.
+ */
+public class StepDetector {
+
+    /** Shortest time between two steps, i.e. at most 4 steps per second. */
+    public static final long MIN_STEP_INTERVAL_NS = 250_000_000L;
+    /** After a pause this long the threshold falls back to its initial value. */
+    public static final long MAX_STEP_INTERVAL_NS = 2_000_000_000L;
+
+    private static final float SMOOTHING_CUTOFF_HZ = 3.0f;
+    private static final float GRAVITY_CUTOFF_HZ = 0.25f;
+    // m/s^2, below this a peak to valley swing is never a step
+    private static final float MIN_THRESHOLD = 1.0f;
+    // fraction of the recent step amplitude a swing has to reach
+    private static final float THRESHOLD_RATIO = 0.5f;
+    private static final float AMPLITUDE_SMOOTHING = 0.2f;
+
+    private static final float NS2S = 1.0f / 1000000000.0f;
+    private static final int HISTORY = 64;
+
+    private boolean initialized = false;
+    private long lastTimestamp;
+    private float smoothed;
+    private float gravity;
+
+    private float previous;
+    private boolean rising = false;
+    private float valley = Float.MAX_VALUE;
+    private float amplitude = 2 * MIN_THRESHOLD;
+    private long lastStepTimestamp = Long.MIN_VALUE / 2;
+
+    private long stepCount;
+    // timestamps of the latest steps, to line them up with late hardware counts
+    private final long[] stepTimestamps = new long[HISTORY];
+
+    /**
+     * Feeds one accelerometer magnitude sample (m/s^2). Returns true when the
+     * sample completes a step.
+     */
+    public boolean onAcceleration(float magnitude, long timestampNs) {
+        if (!initialized) {
+            initialized = true;
+            lastTimestamp = timestampNs;
+            smoothed = magnitude;
+            gravity = magnitude;
+            previous = 0.0f;
+            return false;
+        }
+
+        float dt = (timestampNs - lastTimestamp) * NS2S;
+        lastTimestamp = timestampNs;
+        if (dt <= 0.0f) {
+            return false;
+        }
+
+        // first order low pass filters for the signal and the gravity baseline
+        smoothed += lowPassAlpha(dt, SMOOTHING_CUTOFF_HZ) * (magnitude - smoothed);
+        gravity += lowPassAlpha(dt, GRAVITY_CUTOFF_HZ) * (magnitude - gravity);
+        float signal = smoothed - gravity;
+
+        boolean step = false;
+        if (rising && signal < previous) {
+            // previous sample was a local maximum
+            step = onPeak(previous, timestampNs);
+        }
+        rising = signal > previous;
+        valley = Math.min(valley, signal);
+        previous = signal;
+        return step;
+    }
+
+    /** Number of steps detected so far. */
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Number of detected steps with a timestamp after the given one. Only the latest
+     * {@value #HISTORY} steps are remembered.
+     */
+    public int countStepsAfter(long timestampNs) {
+        int count = 0;
+        int limit = (int) Math.min(stepCount, HISTORY);
+        while (count < limit && stepTimestamps[(int) ((stepCount - 1 - count) % HISTORY)] > timestampNs) {
+            count++;
+        }
+        return count;
+    }
+
+    private boolean onPeak(float peak, long timestampNs) {
+        long sinceLastStep = timestampNs - lastStepTimestamp;
+        if (sinceLastStep > MAX_STEP_INTERVAL_NS) {
+            amplitude = 2 * MIN_THRESHOLD;
+        }
+
+        float swing = peak - valley;
+        float threshold = Math.max(MIN_THRESHOLD, THRESHOLD_RATIO * amplitude);
+        if (swing < threshold || sinceLastStep < MIN_STEP_INTERVAL_NS) {
+            return false;
+        }
+
+        amplitude += AMPLITUDE_SMOOTHING * (swing - amplitude);
+        lastStepTimestamp = timestampNs;
+        valley = Float.MAX_VALUE;
+        stepTimestamps[(int) (stepCount % HISTORY)] = timestampNs;
+        stepCount++;
+        return true;
+    }
+
+    private static float lowPassAlpha(float dt, float cutoffHz) {
+        float rc = 1.0f / (2.0f * (float) Math.PI * cutoffHz);
+        return dt / (rc + dt);
+    }
+}
@@ -0,0 +1,14 @@
+package com.kisal.indoorsmart.fusion;
+
+/**
+ * Where the dead reckoning takes its steps from.
+ */
+public enum StepSource {
+    /** Sensor.TYPE_STEP_COUNTER, accurate but often delivered seconds late. */
+    HARDWARE_COUNTER,
+    /**
+     * The {@link StepDetector} on the accelerometer magnitude, with the hardware
+     * counter adding steps the detector missed.
+     */
+    ACCELEROMETER
+}
@@ -0,0 +1,91 @@
+package com.kisal.indoorsmart.fusion.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The trajectory journal as a directory of segments, one per session and another
+ * whenever a session's segment outgrows its cap. Segments are numbered in the
+ * order they were started, and only the newest few are kept, so the journal
+ * neither grows without bound nor has to be read whole.
+ */
+public class JournalDirectory {
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".journal";
+
+    private final File directory;
+    private final int maxSegments;
+
+    public JournalDirectory(File directory, int maxSegments) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.maxSegments = maxSegments;
+    }
+
+    /** The segments, oldest first. */
+    public File[] list() {
+        File[] files = directory.listFiles((dir, name) -> sequenceOf(name) >= 0);
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(sequenceOf(a.getName()), sequenceOf(b.getName())));
+        return files;
+    }
+
+    /** The newest segment, or null when there is none. */
+    public File newest() {
+        File[] segments = list();
+        return segments.length > 0 ? segments[segments.length - 1] : null;
+    }
+
+    /**
+     * Names the segment after the newest one; the writer creates it. The oldest
+     * segments beyond the limit, counting the new one, are deleted.
+     */
+    public File next() {
+        File[] segments = list();
+        long sequence = segments.length > 0 ? sequenceOf(segments[segments.length - 1].getName()) + 1 : 0;
+        for (int i = 0; i < segments.length - (maxSegments - 1); i++) {
+            segments[i].delete();
+        }
+        return new File(directory, PREFIX + sequence + SUFFIX);
+    }
+
+    /**
+     * Reads the newest segment with at least one complete frame, that of the
+     * current session or, while it has none yet, of the last one. Returns null when
+     * there is none. The caller closes the reader.
+     */
+    public JournalReader openLatest() throws IOException {
+        File[] segments = list();
+        for (int i = segments.length - 1; i >= 0; i--) {
+            JournalReader reader;
+            try {
+                reader = new JournalReader(segments[i]);
+            } catch (IOException e) {
+                continue; // never finished its header, or pruned meanwhile
+            }
+            if (!reader.isEmpty()) {
+                return reader;
+            }
+            reader.close();
+        }
+        return null;
+    }
+
+    // Number of a segment file name, -1 for other files
+    private static long sequenceOf(String name) {
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.kisal.indoorsmart.fusion.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the trajectory journal, an append-only file of position updates.
+ *
+ * <pre>
+ * header : int magic, short version, short reserved                  (8 bytes)
+ * frame  : int payload length, int CRC-32 of the payload, payload
+ * payload: one key record, then delta records until the end of the payload
+ * key    : varint time (us), zigzag x (mm), zigzag y (mm),
+ *          varint heading (centidegrees), varint step count
+ * delta  : varint time delta, zigzag x delta, zigzag y delta,
+ *          zigzag heading delta (wrapped to +-180 degrees), zigzag step count delta
+ * </pre>
+ *
+ * Fixed size fields are little endian. A frame is a checkpoint: it is written and
+ * synced in one go, starts from absolute values and carries its own checksum, so
+ * every complete frame decodes on its own and a crash can only tear the last one.
+ * A typical delta record takes 6 - 8 bytes.
+ */
+public final class JournalFormat {
+
+    public static final int MAGIC = 0x524A5349; // "ISJR"
+    public static final short VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int HEADER_SIZE = 8;
+    public static final int FRAME_HEADER_SIZE = 8;
+
+    /** Largest frame payload; larger lengths can only come from damage. */
+    public static final int MAX_FRAME_SIZE = 16 * 1024;
+
+    /** Largest encoded record: five varints of at most ten bytes. */
+    public static final int MAX_RECORD_SIZE = 50;
+
+    static final int FULL_CIRCLE = 36000; // centidegrees
+
+    private JournalFormat() {}
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static void putZigZag(ByteBuffer buffer, long value) {
+        putVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    static long getZigZag(ByteBuffer buffer) {
+        long encoded = getVarLong(buffer);
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+}
@@ -0,0 +1,205 @@
+package com.kisal.indoorsmart.fusion.journal;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a {@link JournalFormat} file one frame at a time through positioned reads,
+ * so a long history can be streamed without holding it on the heap, whatever the
+ * size of the file. Only complete frames with a matching checksum are read; a torn
+ * frame at the end and anything after it are ignored.
+ */
+public class JournalReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long validLength;
+    private final long lastFrameStart;
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(JournalFormat.FRAME_HEADER_SIZE)
+            .order(JournalFormat.BYTE_ORDER);
+
+    // Cursor: the payload of the current frame, and the decoded record
+    private final ByteBuffer payload = ByteBuffer.allocate(JournalFormat.MAX_FRAME_SIZE).order(JournalFormat.BYTE_ORDER);
+    private long nextFrame = JournalFormat.HEADER_SIZE;
+    private long timeUs;
+    private long x;
+    private long y;
+    private int heading;
+    private int stepCount;
+
+    public JournalReader(File journalFile) throws IOException {
+        file = new RandomAccessFile(journalFile, "r");
+        try {
+            channel = file.getChannel();
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(JournalFormat.HEADER_SIZE).order(JournalFormat.BYTE_ORDER);
+            if (size < JournalFormat.HEADER_SIZE) {
+                throw new IOException("Not a trajectory journal: " + journalFile);
+            }
+            read(header, 0, JournalFormat.HEADER_SIZE);
+            if (header.getInt() != JournalFormat.MAGIC) {
+                throw new IOException("Not a trajectory journal: " + journalFile);
+            }
+            short version = header.getShort();
+            if (version != JournalFormat.VERSION) {
+                throw new IOException("Unsupported journal version " + version + " in " + journalFile);
+            }
+
+            // Walk the frames up to the first incomplete or damaged one
+            CRC32 crc = new CRC32();
+            long position = JournalFormat.HEADER_SIZE;
+            long lastFrame = -1;
+            while (size - position >= JournalFormat.FRAME_HEADER_SIZE) {
+                read(frameHeader, position, JournalFormat.FRAME_HEADER_SIZE);
+                int length = frameHeader.getInt();
+                int expected = frameHeader.getInt();
+                long start = position + JournalFormat.FRAME_HEADER_SIZE;
+                if (length <= 0 || length > JournalFormat.MAX_FRAME_SIZE || length > size - start) {
+                    break;
+                }
+                read(payload, start, length);
+                crc.reset();
+                crc.update(payload.array(), 0, length);
+                if ((int) crc.getValue() != expected) {
+                    break;
+                }
+                lastFrame = position;
+                position = start + length;
+            }
+            validLength = position;
+            lastFrameStart = lastFrame;
+            payload.limit(0);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    // Reads length bytes at the file position into the buffer, ready to get
+    private void read(ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Prepares the journal for appending after a crash: cuts off a torn last frame
+     * and returns a reader positioned on the last frame, whose final record is the
+     * last consistent state. Returns null when there is no journal, or when it has
+     * no complete frame yet; an unreadable journal is deleted.
+     */
+    public static JournalReader recover(File journalFile) throws IOException {
+        if (!journalFile.exists()) {
+            return null;
+        }
+        JournalReader reader;
+        try {
+            reader = new JournalReader(journalFile);
+        } catch (IOException e) {
+            // a foreign, older or never finished file: start over
+            if (!journalFile.delete()) {
+                throw new IOException("Could not delete unreadable journal " + journalFile, e);
+            }
+            return null;
+        }
+        if (reader.validLength < reader.channel.size()) {
+            try (RandomAccessFile out = new RandomAccessFile(journalFile, "rw")) {
+                out.setLength(reader.validLength);
+                out.getFD().sync();
+            }
+        }
+        if (reader.lastFrameStart < 0) {
+            reader.close();
+            return null;
+        }
+        reader.nextFrame = reader.lastFrameStart;
+        return reader;
+    }
+
+    /** Length of the part of the file that holds complete frames. */
+    public long getValidLength() {
+        return validLength;
+    }
+
+    /** True when the journal has no complete frame. */
+    public boolean isEmpty() {
+        return lastFrameStart < 0;
+    }
+
+    /**
+     * Moves to the next record. Returns false at the end of the journal.
+     */
+    public boolean next() throws IOException {
+        if (payload.hasRemaining()) {
+            long timeDelta = JournalFormat.getVarLong(payload);
+            timeUs += timeDelta;
+            x += JournalFormat.getZigZag(payload);
+            y += JournalFormat.getZigZag(payload);
+            heading = (int) Math.floorMod(heading + JournalFormat.getZigZag(payload), (long) JournalFormat.FULL_CIRCLE);
+            stepCount += (int) JournalFormat.getZigZag(payload);
+            return true;
+        }
+        if (nextFrame >= validLength) {
+            return false;
+        }
+
+        // Start the next frame from its key record
+        read(frameHeader, nextFrame, JournalFormat.FRAME_HEADER_SIZE);
+        int length = frameHeader.getInt();
+        long start = nextFrame + JournalFormat.FRAME_HEADER_SIZE;
+        read(payload, start, length);
+        nextFrame = start + length;
+
+        timeUs = JournalFormat.getVarLong(payload);
+        x = JournalFormat.getZigZag(payload);
+        y = JournalFormat.getZigZag(payload);
+        heading = (int) JournalFormat.getVarLong(payload);
+        stepCount = (int) JournalFormat.getVarLong(payload);
+        return true;
+    }
+
+    /** Moves the cursor back before the first record. */
+    public void rewind() {
+        payload.limit(0);
+        nextFrame = JournalFormat.HEADER_SIZE;
+    }
+
+    /** Timestamp of the record, microsecond resolution, in nanoseconds. */
+    public long getTimestampNs() {
+        return timeUs * 1000;
+    }
+
+    /** x in metres, millimetre resolution. */
+    public float getX() {
+        return x / 1000.0f;
+    }
+
+    /** y in metres, millimetre resolution. */
+    public float getY() {
+        return y / 1000.0f;
+    }
+
+    /** Heading in degrees in [0, 360), centidegree resolution. */
+    public double getHeading() {
+        return heading / 100.0;
+    }
+
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,294 @@
+package com.kisal.indoorsmart.fusion.journal;
+
+import com.kisal.indoorsmart.fusion.PositionSnapshot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Appends position updates to a {@link JournalFormat} file. Records are delta
+ * encoded into a reusable frame buffer; a checkpoint writes the frame with its
+ * checksum and syncs it to storage. Appending does not allocate.
+ * <p>
+ * A writer opened with background sync hands the sync to a thread of its own,
+ * so a checkpoint only costs the write on the caller's thread and the last
+ * frames are durable shortly after it returns rather than when it returns.
+ * <p>
+ * Updates that change nothing after quantisation are dropped, as are heading
+ * changes below {@link #MIN_HEADING_CHANGE} while standing still, so the journal
+ * grows with the walk and not with the sensor rate.
+ */
+public class JournalWriter implements Closeable {
+
+    /** Sensor time between checkpoints. */
+    public static final long CHECKPOINT_INTERVAL_NS = 2_000_000_000L;
+    /** Smallest heading change, in centidegrees, that is recorded on its own. */
+    public static final int MIN_HEADING_CHANGE = 100;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer frame = ByteBuffer.allocateDirect(JournalFormat.MAX_FRAME_SIZE).order(JournalFormat.BYTE_ORDER);
+    private final ByteBuffer frameHeader = ByteBuffer.allocateDirect(JournalFormat.FRAME_HEADER_SIZE)
+            .order(JournalFormat.BYTE_ORDER);
+    private final ByteBuffer payload = frame.duplicate(); // view of the frame for the checksum
+    private final byte[] crcChunk = new byte[1024];
+    private final CRC32 crc = new CRC32();
+
+    // Background sync, null when checkpoints sync on the caller's thread
+    private final Thread syncThread;
+    private final Object syncLock = new Object();
+    private boolean syncRequested;
+    private boolean syncStopped;
+    private IOException syncFailure;
+
+    // Last recorded values, in journal units
+    private long lastTimeUs;
+    private long lastX;
+    private long lastY;
+    private int lastHeading;
+    private int lastSteps;
+    private boolean frameEmpty = true;
+    private long lastCheckpointNs;
+    private long recordCount;
+    private long length; // of the file, up to the last checkpoint
+
+    /**
+     * Opens the journal for appending, creating it when it does not exist. Call
+     * {@link JournalReader#recover} first so a torn frame from a crash is gone.
+     */
+    public JournalWriter(File journalFile) throws IOException {
+        this(journalFile, false);
+    }
+
+    /**
+     * Opens the journal for appending, syncing checkpoints on a background thread
+     * when {@code backgroundSync} is set.
+     */
+    public JournalWriter(File journalFile, boolean backgroundSync) throws IOException {
+        file = new RandomAccessFile(journalFile, "rw");
+        try {
+            channel = file.getChannel();
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(JournalFormat.HEADER_SIZE).order(JournalFormat.BYTE_ORDER);
+                header.putInt(JournalFormat.MAGIC);
+                header.putShort(JournalFormat.VERSION);
+                header.putShort((short) 0);
+                header.flip();
+                channel.write(header, 0);
+                channel.force(true);
+            }
+            length = channel.size();
+            channel.position(length);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        if (backgroundSync) {
+            syncThread = new Thread(this::runSync, "JournalSync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        } else {
+            syncThread = null;
+        }
+    }
+
+    /** Appends the snapshot's state. */
+    public void append(PositionSnapshot snapshot) throws IOException {
+        append(snapshot.getTimestampNs(), snapshot.getX(), snapshot.getY(), snapshot.getHeading(),
+                snapshot.getStepCount());
+    }
+
+    /**
+     * Appends one update, x and y in metres and heading in degrees, and writes a
+     * checkpoint when one is due in sensor time.
+     */
+    public void append(long timestampNs, float x, float y, double heading, int stepCount) throws IOException {
+        long timeUs = timestampNs / 1000;
+        long xMm = Math.round(x * 1000.0);
+        long yMm = Math.round(y * 1000.0);
+        int headingCd = (int) Math.round(heading * 100) % JournalFormat.FULL_CIRCLE;
+        if (headingCd < 0) {
+            headingCd += JournalFormat.FULL_CIRCLE;
+        }
+
+        int headingDelta = wrap(headingCd - lastHeading);
+        if (recordCount == 0) {
+            lastCheckpointNs = timestampNs;
+        } else {
+            boolean moved = xMm != lastX || yMm != lastY || stepCount != lastSteps;
+            if (!moved && Math.abs(headingDelta) < MIN_HEADING_CHANGE) {
+                return;
+            }
+        }
+
+        if (frame.remaining() < JournalFormat.MAX_RECORD_SIZE) {
+            checkpoint();
+        }
+        if (frameEmpty) {
+            // every frame starts from absolute values
+            JournalFormat.putVarLong(frame, timeUs);
+            JournalFormat.putZigZag(frame, xMm);
+            JournalFormat.putZigZag(frame, yMm);
+            JournalFormat.putVarLong(frame, headingCd);
+            JournalFormat.putVarLong(frame, stepCount);
+            frameEmpty = false;
+            lastTimeUs = timeUs;
+        } else {
+            // out of order updates are recorded at the previous time
+            long timeDelta = Math.max(0, timeUs - lastTimeUs);
+            JournalFormat.putVarLong(frame, timeDelta);
+            JournalFormat.putZigZag(frame, xMm - lastX);
+            JournalFormat.putZigZag(frame, yMm - lastY);
+            JournalFormat.putZigZag(frame, headingDelta);
+            JournalFormat.putZigZag(frame, stepCount - lastSteps);
+            lastTimeUs += timeDelta;
+        }
+        lastX = xMm;
+        lastY = yMm;
+        lastHeading = headingCd;
+        lastSteps = stepCount;
+        recordCount++;
+
+        if (timestampNs - lastCheckpointNs >= CHECKPOINT_INTERVAL_NS) {
+            checkpoint();
+            lastCheckpointNs = timestampNs;
+        }
+    }
+
+    // Shortest signed difference between two headings, in centidegrees
+    private static int wrap(int delta) {
+        if (delta >= JournalFormat.FULL_CIRCLE / 2) {
+            return delta - JournalFormat.FULL_CIRCLE;
+        }
+        if (delta < -JournalFormat.FULL_CIRCLE / 2) {
+            return delta + JournalFormat.FULL_CIRCLE;
+        }
+        return delta;
+    }
+
+    /**
+     * Writes the pending records as one frame and syncs it, so they survive a
+     * crash from here on. With background sync the sync is only requested, and
+     * a failure of an earlier one is thrown here.
+     */
+    public void checkpoint() throws IOException {
+        if (frameEmpty) {
+            return;
+        }
+        frame.flip();
+        crc.reset();
+        payload.limit(frame.limit());
+        payload.position(0);
+        while (payload.hasRemaining()) {
+            int length = Math.min(crcChunk.length, payload.remaining());
+            payload.get(crcChunk, 0, length);
+            crc.update(crcChunk, 0, length);
+        }
+
+        length += JournalFormat.FRAME_HEADER_SIZE + frame.remaining();
+        frameHeader.clear();
+        frameHeader.putInt(frame.remaining());
+        frameHeader.putInt((int) crc.getValue());
+        frameHeader.flip();
+        while (frameHeader.hasRemaining()) {
+            channel.write(frameHeader);
+        }
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+        frame.clear();
+        frameEmpty = true;
+
+        if (syncThread == null) {
+            channel.force(false);
+        } else {
+            requestSync();
+        }
+    }
+
+    private void requestSync() throws IOException {
+        synchronized (syncLock) {
+            IOException failure = syncFailure;
+            syncFailure = null;
+            syncRequested = true;
+            syncLock.notify();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    // Body of the sync thread: one sync per batch of requests until stopped
+    private void runSync() {
+        while (true) {
+            synchronized (syncLock) {
+                try {
+                    while (!syncRequested && !syncStopped) {
+                        syncLock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (!syncRequested) {
+                    return;
+                }
+                syncRequested = false;
+            }
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (syncLock) {
+                    syncFailure = e;
+                }
+            }
+        }
+    }
+
+    // Lets the sync thread finish its pending sync and waits for it
+    private void stopSync() throws IOException {
+        synchronized (syncLock) {
+            syncStopped = true;
+            syncLock.notify();
+        }
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (syncLock) {
+            if (syncFailure != null) {
+                throw syncFailure;
+            }
+        }
+    }
+
+    /** Size of the journal up to the last checkpoint, in bytes. */
+    public long getLength() {
+        return length;
+    }
+
+    /** Number of records appended through this writer. */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            try {
+                checkpoint();
+            } finally {
+                if (syncThread != null) {
+                    stopSync();
+                }
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
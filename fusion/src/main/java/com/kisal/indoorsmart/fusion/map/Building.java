@@ -0,0 +1,117 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import com.kisal.indoorsmart.fusion.FloorDetector;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * A building of several floors, described by the {@link #MANIFEST} in its
+ * directory. The files of a floor sit next to it, named after the floor number:
+ * floor&lt;n&gt;.png, the plan image; floor&lt;n&gt;.walls, see {@link WallIndex#read};
+ * and floor&lt;n&gt;.fingerprints, see the Wi-Fi FingerprintDatabase. Each of them
+ * is optional.
+ */
+public class Building {
+
+    public static final String MANIFEST = "building.txt";
+
+    public static final String IMAGE_SUFFIX = ".png";
+    public static final String WALLS_SUFFIX = ".walls";
+    public static final String FINGERPRINTS_SUFFIX = ".fingerprints";
+
+    private final File directory;
+    private final int lowestFloor;
+    private final int highestFloor;
+    private final int startFloor;
+    private final float floorHeight;
+
+    public Building(File directory, int lowestFloor, int highestFloor, int startFloor, float floorHeight) {
+        if (lowestFloor > highestFloor || startFloor < lowestFloor || startFloor > highestFloor) {
+            throw new IllegalArgumentException("Start floor " + startFloor + " outside floors "
+                    + lowestFloor + " to " + highestFloor);
+        }
+        this.directory = directory;
+        this.lowestFloor = lowestFloor;
+        this.highestFloor = highestFloor;
+        this.startFloor = startFloor;
+        this.floorHeight = floorHeight;
+    }
+
+    /**
+     * Reads the manifest of the building in directory, lines of
+     * <pre>
+     * floors &lt;lowest&gt; &lt;highest&gt;
+     * floorHeight &lt;metres&gt;     (optional, 3.5)
+     * startFloor &lt;floor&gt;       (optional, the entrance, 0 or the lowest floor)
+     * </pre>
+     * Blank lines and lines starting with # are skipped.
+     */
+    public static Building read(File directory) throws IOException {
+        Integer lowest = null, highest = null, start = null;
+        float floorHeight = FloorDetector.DEFAULT_FLOOR_HEIGHT;
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(directory, MANIFEST)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                try {
+                    if (fields[0].equals("floors") && fields.length == 3) {
+                        lowest = Integer.parseInt(fields[1]);
+                        highest = Integer.parseInt(fields[2]);
+                    } else if (fields[0].equals("floorHeight") && fields.length == 2) {
+                        floorHeight = Float.parseFloat(fields[1]);
+                    } else if (fields[0].equals("startFloor") && fields.length == 2) {
+                        start = Integer.parseInt(fields[1]);
+                    } else {
+                        throw new IOException("Unknown building line: " + line);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException("Bad number in building line: " + line, e);
+                }
+            }
+        }
+        if (lowest == null) {
+            throw new IOException("Building without floors line");
+        }
+        if (start == null) {
+            start = Math.max(lowest, Math.min(highest, 0));
+        }
+        try {
+            return new Building(directory, lowest, highest, start, floorHeight);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /** File of the floor with the given suffix, which may not exist. */
+    public File getFile(int floor, String suffix) {
+        return new File(directory, "floor" + floor + suffix);
+    }
+
+    public boolean hasFloor(int floor) {
+        return floor >= lowestFloor && floor <= highestFloor;
+    }
+
+    public int getLowestFloor() {
+        return lowestFloor;
+    }
+
+    public int getHighestFloor() {
+        return highestFloor;
+    }
+
+    public int getStartFloor() {
+        return startFloor;
+    }
+
+    /** Storey height in metres. */
+    public float getFloorHeight() {
+        return floorHeight;
+    }
+}
@@ -0,0 +1,161 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the data of the current floor of a {@link Building} and of the floors
+ * directly above and below it, so a floor change finds its maps already loaded.
+ * Moving to another floor loads the missing neighbours on the executor and
+ * releases the floors that are no longer adjacent; nothing else stays in memory,
+ * however many storeys the building has. A floor that failed to load is tried
+ * again the next time it joins the window.
+ * <p>
+ * Thread safe. The listener is called on the executor, which is handed the loads
+ * under the cache's lock.
+ *
+ * @param <T> What a floor loads to, e.g. {@link FloorData} or a plan image.
+ */
+public class FloorCache<T> {
+
+    /** Loads and frees the data of one floor. */
+    public interface Loader<T> {
+        T load(int floor) throws IOException;
+
+        /** Frees data that was evicted or is no longer wanted; may do nothing. */
+        void release(T data);
+    }
+
+    /** Told when a floor of the current window has loaded or failed to load. */
+    public interface Listener<T> {
+        void onFloorLoaded(int floor, T data);
+
+        void onFloorFailed(int floor, IOException e);
+    }
+
+    // A floor of the window, loaded once data is set
+    private static final class Entry<T> {
+        T data;
+    }
+
+    private final Building building;
+    private final Loader<T> loader;
+    private final Executor executor;
+    private final Listener<T> listener;
+
+    // guarded by this
+    private final Map<Integer, Entry<T>> entries = new HashMap<>();
+    private int currentFloor;
+    private boolean closed = false;
+    private long loads = 0;
+
+    public FloorCache(Building building, Loader<T> loader, Executor executor, Listener<T> listener) {
+        this.building = building;
+        this.loader = loader;
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    /**
+     * Makes floor the current one: starts loading it and its neighbours when they
+     * are not loaded yet, and releases every other floor.
+     */
+    public synchronized void setCurrentFloor(int floor) {
+        if (closed) {
+            return;
+        }
+        currentFloor = floor;
+        for (Iterator<Map.Entry<Integer, Entry<T>>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Entry<T>> entry = it.next();
+            if (Math.abs(entry.getKey() - floor) > 1) {
+                it.remove();
+                if (entry.getValue().data != null) {
+                    loader.release(entry.getValue().data);
+                }
+            }
+        }
+        // the current floor first, it is the one needed right away; started under
+        // the lock so a later floor change or close sees every load of this window
+        load(floor);
+        load(floor + 1);
+        load(floor - 1);
+    }
+
+    // Called with the lock held
+    private void load(int floor) {
+        if (closed || !building.hasFloor(floor) || entries.containsKey(floor)) {
+            return;
+        }
+        Entry<T> entry = new Entry<>();
+        entries.put(floor, entry);
+        loads++;
+        executor.execute(() -> {
+            T data = null;
+            IOException failure = null;
+            try {
+                data = loader.load(floor);
+            } catch (IOException e) {
+                failure = e;
+            }
+            synchronized (this) {
+                // evicted while it was loading
+                if (entries.get(floor) != entry) {
+                    if (data != null) {
+                        loader.release(data);
+                    }
+                    return;
+                }
+                if (failure != null) {
+                    // forgotten, so the floor is tried again when it next joins the window
+                    entries.remove(floor);
+                } else {
+                    entry.data = data;
+                }
+            }
+            if (listener != null) {
+                if (failure != null) {
+                    listener.onFloorFailed(floor, failure);
+                } else {
+                    listener.onFloorLoaded(floor, data);
+                }
+            }
+        });
+    }
+
+    /**
+     * Data of the floor, or null while it is loading, failed or is outside the
+     * current window. Never blocks.
+     */
+    public synchronized T get(int floor) {
+        Entry<T> entry = entries.get(floor);
+        return entry != null ? entry.data : null;
+    }
+
+    public synchronized int getCurrentFloor() {
+        return currentFloor;
+    }
+
+    /** Floors loaded or loading, at most three. */
+    public synchronized int getResidentCount() {
+        return entries.size();
+    }
+
+    /** Loads started so far, for the tests and the metrics. */
+    public synchronized long getLoadCount() {
+        return loads;
+    }
+
+    /** Releases every floor; loads still running are released when they finish. */
+    public synchronized void close() {
+        closed = true;
+        for (Entry<T> entry : entries.values()) {
+            if (entry.data != null) {
+                loader.release(entry.data);
+            }
+        }
+        entries.clear();
+    }
+}
@@ -0,0 +1,60 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import com.kisal.indoorsmart.fusion.wifi.FingerprintDatabase;
+import com.kisal.indoorsmart.fusion.wifi.FingerprintIndex;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * What the fusion needs of one floor of a {@link Building}: its walls for map
+ * matching and its Wi-Fi fingerprint index, each null when the floor has none.
+ */
+public class FloorData {
+
+    private final int floor;
+    private final WallIndex walls;
+    private final FingerprintIndex fingerprints;
+
+    public FloorData(int floor, WallIndex walls, FingerprintIndex fingerprints) {
+        this.floor = floor;
+        this.walls = walls;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Reads the floor's files. Runs blocking I/O and builds the indexes, call it
+     * off the fusion thread, e.g. from a {@link FloorCache}.
+     */
+    public static FloorData load(Building building, int floor) throws IOException {
+        WallIndex walls = null;
+        File wallsFile = building.getFile(floor, Building.WALLS_SUFFIX);
+        if (wallsFile.isFile()) {
+            try (Reader in = new FileReader(wallsFile)) {
+                walls = WallIndex.read(in, WallIndex.DEFAULT_CELL_SIZE);
+            }
+        }
+        FingerprintIndex fingerprints = null;
+        File fingerprintsFile = building.getFile(floor, Building.FINGERPRINTS_SUFFIX);
+        if (fingerprintsFile.isFile()) {
+            try (Reader in = new FileReader(fingerprintsFile)) {
+                fingerprints = new FingerprintIndex(FingerprintDatabase.read(in));
+            }
+        }
+        return new FloorData(floor, walls, fingerprints);
+    }
+
+    public int getFloor() {
+        return floor;
+    }
+
+    public WallIndex getWalls() {
+        return walls;
+    }
+
+    public FingerprintIndex getFingerprints() {
+        return fingerprints;
+    }
+}
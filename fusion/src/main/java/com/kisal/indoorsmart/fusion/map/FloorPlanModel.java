@@ -0,0 +1,104 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * What the navigation needs to know about a floor plan image: its wall line
+ * segments and a coarse occupancy grid, both in image pixel coordinates of the
+ * full resolution image. Built once by {@link FloorPlanVectorizer} and then read
+ * straight from a memory mapped {@link FloorPlanModelFile}.
+ */
+public class FloorPlanModel {
+
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    private final int bytesPerRow;
+
+    // {x1, y1, x2, y2} per wall, and one bit per grid cell, row by row
+    private final FloatBuffer walls;
+    private final ByteBuffer occupancy;
+
+    FloorPlanModel(int imageWidth, int imageHeight, int cellSize, int columns, int rows,
+                   FloatBuffer walls, ByteBuffer occupancy) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.cellSize = cellSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.bytesPerRow = bytesPerRow(columns);
+        this.walls = walls;
+        this.occupancy = occupancy;
+    }
+
+    static int bytesPerRow(int columns) {
+        return (columns + 7) / 8;
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /** Edge of an occupancy grid cell in image pixels. */
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getWallCount() {
+        return walls.limit() / 4;
+    }
+
+    /** Writes wall i as {x1, y1, x2, y2} in image pixels into out. */
+    public void getWall(int i, float[] out) {
+        for (int k = 0; k < 4; k++) {
+            out[k] = walls.get(i * 4 + k);
+        }
+    }
+
+    /** True when the grid cell contains wall pixels. */
+    public boolean isOccupiedCell(int column, int row) {
+        if (column < 0 || row < 0 || column >= columns || row >= rows) {
+            return true; // Outside the plan is not walkable
+        }
+        return (occupancy.get(row * bytesPerRow + (column >> 3)) & (1 << (column & 7))) != 0;
+    }
+
+    /** True when the image pixel falls into an occupied grid cell. */
+    public boolean isOccupied(float x, float y) {
+        return isOccupiedCell((int) Math.floor(x / cellSize), (int) Math.floor(y / cellSize));
+    }
+
+    /**
+     * Indexes the walls for map matching, scaled from image pixels to metres.
+     */
+    public WallIndex toWallIndex(float metresPerPixel, float cellSize) {
+        float[] scaled = new float[walls.limit()];
+        for (int i = 0; i < scaled.length; i++) {
+            scaled[i] = walls.get(i) * metresPerPixel;
+        }
+        return new WallIndex(scaled, cellSize);
+    }
+
+    FloatBuffer getWalls() {
+        return walls.duplicate();
+    }
+
+    ByteBuffer getOccupancy() {
+        return occupancy.duplicate();
+    }
+}
@@ -0,0 +1,73 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Directory of {@link FloorPlanModelFile}s, one per image content hash, so a floor
+ * plan is only vectorised the first time it is used.
+ */
+public class FloorPlanModelCache {
+
+    private final File directory;
+
+    public FloorPlanModelCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Hashes the image bytes: the first {@link FloorPlanModelFile#HASH_SIZE} bytes
+     * of their SHA-256.
+     */
+    public static byte[] hash(InputStream image) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        byte[] chunk = new byte[64 * 1024];
+        int read;
+        while ((read = image.read(chunk)) != -1) {
+            digest.update(chunk, 0, read);
+        }
+        return Arrays.copyOf(digest.digest(), FloorPlanModelFile.HASH_SIZE);
+    }
+
+    File fileFor(byte[] imageHash) {
+        StringBuilder name = new StringBuilder(imageHash.length * 2 + 4);
+        for (byte b : imageHash) {
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return new File(directory, name.append(".fpm").toString());
+    }
+
+    /**
+     * Returns the cached model of the image, or null when there is none that this
+     * version can read.
+     */
+    public FloorPlanModel load(byte[] imageHash) {
+        File file = fileFor(imageHash);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return FloorPlanModelFile.read(file, imageHash);
+        } catch (IOException e) {
+            // stale or damaged, it is rebuilt and replaced
+            return null;
+        }
+    }
+
+    /** Stores the model of the image, replacing an older one. */
+    public void store(byte[] imageHash, FloorPlanModel model) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        FloorPlanModelFile.write(fileFor(imageHash), imageHash, model);
+    }
+}
@@ -0,0 +1,130 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Binary file of a {@link FloorPlanModel}, keyed by the hash of the image it was
+ * built from.
+ *
+ * <pre>
+ * header    : int magic, short version, short header size, byte[16] image hash,
+ *             int image width, int image height, int cell size, int columns,
+ *             int rows, int wall count                                  (48 bytes)
+ * walls     : float[4] x1, y1, x2, y2 per wall                           (16 bytes each)
+ * occupancy : one bit per cell, rows of (columns + 7) / 8 bytes
+ * </pre>
+ *
+ * All fields are little endian. Reading maps the file and hands out views of the
+ * mapping, so a cached model is usable without parsing or copying it.
+ */
+public final class FloorPlanModelFile {
+
+    public static final int MAGIC = 0x4D465349; // "ISFM"
+    public static final short VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int HASH_SIZE = 16;
+    public static final int HEADER_SIZE = 4 + 2 + 2 + HASH_SIZE + 6 * 4;
+
+    private FloorPlanModelFile() {}
+
+    /**
+     * Writes the model. The file is written in full before it is renamed into
+     * place, so a crash never leaves a torn model behind.
+     */
+    public static void write(File file, byte[] imageHash, FloorPlanModel model) throws IOException {
+        if (imageHash.length != HASH_SIZE) {
+            throw new IllegalArgumentException("image hash must be " + HASH_SIZE + " bytes");
+        }
+        FloatBuffer walls = model.getWalls();
+        ByteBuffer occupancy = model.getOccupancy();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + walls.limit() * 4 + occupancy.limit())
+                .order(BYTE_ORDER);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) HEADER_SIZE);
+        buffer.put(imageHash);
+        buffer.putInt(model.getImageWidth());
+        buffer.putInt(model.getImageHeight());
+        buffer.putInt(model.getCellSize());
+        buffer.putInt(model.getColumns());
+        buffer.putInt(model.getRows());
+        buffer.putInt(model.getWallCount());
+        while (walls.hasRemaining()) {
+            buffer.putFloat(walls.get());
+        }
+        buffer.put(occupancy);
+        buffer.flip();
+
+        File temporary = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temporary, "rw")) {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("Could not move floor plan model into place: " + file);
+        }
+    }
+
+    /**
+     * Maps the model in the file. Throws an IOException when the file is not a
+     * model of this version or was built from another image, so the caller can
+     * rebuild it.
+     */
+    public static FloorPlanModel read(File file, byte[] imageHash) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            // the mapping stays valid after the file is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(BYTE_ORDER);
+
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a floor plan model: " + file);
+        }
+        short version = buffer.getShort();
+        short headerSize = buffer.getShort();
+        if (version != VERSION || headerSize != HEADER_SIZE) {
+            throw new IOException("Unsupported floor plan model version " + version + " in " + file);
+        }
+        byte[] hash = new byte[HASH_SIZE];
+        buffer.get(hash);
+        if (!Arrays.equals(hash, imageHash)) {
+            throw new IOException("Floor plan model " + file + " belongs to another image");
+        }
+        int imageWidth = buffer.getInt();
+        int imageHeight = buffer.getInt();
+        int cellSize = buffer.getInt();
+        int columns = buffer.getInt();
+        int rows = buffer.getInt();
+        int wallCount = buffer.getInt();
+
+        long wallBytes = wallCount * 16L;
+        long occupancyBytes = (long) FloorPlanModel.bytesPerRow(columns) * rows;
+        if (wallCount < 0 || columns < 0 || rows < 0
+                || buffer.remaining() != wallBytes + occupancyBytes) {
+            throw new IOException("Truncated floor plan model: " + file);
+        }
+
+        buffer.limit(HEADER_SIZE + (int) wallBytes);
+        FloatBuffer walls = buffer.slice().order(BYTE_ORDER).asFloatBuffer();
+        buffer.limit(buffer.capacity());
+        buffer.position(HEADER_SIZE + (int) wallBytes);
+        ByteBuffer occupancy = buffer.slice();
+        return new FloorPlanModel(imageWidth, imageHeight, cellSize, columns, rows, walls, occupancy);
+    }
+}
@@ -0,0 +1,231 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Turns a floor plan image into a {@link FloorPlanModel}: dark pixels are walls,
+ * straight horizontal and vertical wall strokes become line segments along their
+ * centre, and every grid cell holding wall pixels is marked occupied.
+ * <p>
+ * Floor plans are drawn almost entirely with axis aligned walls; diagonal walls
+ * produce no segments but still show up in the occupancy grid.
+ */
+public class FloorPlanVectorizer {
+
+    /** Source of the image, one row of ARGB pixels at a time. */
+    public interface RowSource {
+        int getWidth();
+
+        int getHeight();
+
+        void readRow(int y, int[] argb);
+    }
+
+    /** Pixels darker than this luminance (0 - 255) are walls. */
+    public static final int DEFAULT_THRESHOLD = 128;
+    /** Shortest stroke, in source pixels, that becomes a wall segment. */
+    public static final int DEFAULT_MIN_WALL_LENGTH = 12;
+    /** Occupancy grid cell edge in source pixels. */
+    public static final int DEFAULT_CELL_SIZE = 8;
+
+    // Runs on neighbouring lines whose ends are this close belong to one thick stroke
+    private static final int MERGE_TOLERANCE = 2;
+
+    private int threshold = DEFAULT_THRESHOLD;
+    private int minWallLength = DEFAULT_MIN_WALL_LENGTH;
+    private int cellSize = DEFAULT_CELL_SIZE;
+
+    public FloorPlanVectorizer setThreshold(int threshold) {
+        this.threshold = threshold;
+        return this;
+    }
+
+    public FloorPlanVectorizer setMinWallLength(int minWallLength) {
+        this.minWallLength = minWallLength;
+        return this;
+    }
+
+    public FloorPlanVectorizer setCellSize(int cellSize) {
+        this.cellSize = cellSize;
+        return this;
+    }
+
+    /**
+     * Vectorises the source. scale maps source pixels to the pixels of the full
+     * resolution image the model describes, e.g. the sample size the source was
+     * decoded with.
+     */
+    public FloorPlanModel vectorize(RowSource source, int scale) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int wordsPerRow = (width + 63) >>> 6;
+        long[] wall = new long[wordsPerRow * height];
+
+        // Threshold into one bit per pixel
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            source.readRow(y, row);
+            int base = y * wordsPerRow;
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                int alpha = argb >>> 24;
+                // Luminance with integer Rec. 601 weights; transparent pixels are paper
+                int luminance = (77 * ((argb >> 16) & 0xFF) + 150 * ((argb >> 8) & 0xFF) + 29 * (argb & 0xFF)) >> 8;
+                if (alpha >= 128 && luminance < threshold) {
+                    wall[base + (x >>> 6)] |= 1L << x;
+                }
+            }
+        }
+        BitImage bits = new BitImage(wall, width, height, wordsPerRow);
+
+        Segments segments = new Segments();
+        extractStrokes(bits, false, segments);
+        extractStrokes(bits, true, segments);
+        float[] coordinates = Arrays.copyOf(segments.coordinates, segments.size);
+        for (int i = 0; i < coordinates.length; i++) {
+            coordinates[i] *= scale;
+        }
+
+        // A cell is occupied when any of its pixels is a wall
+        int columns = (width + cellSize - 1) / cellSize;
+        int rows = (height + cellSize - 1) / cellSize;
+        int bytesPerRow = FloorPlanModel.bytesPerRow(columns);
+        byte[] occupancy = new byte[bytesPerRow * rows];
+        for (int y = 0; y < height; y++) {
+            int gridRow = y / cellSize;
+            for (int x = 0; x < width; x++) {
+                if (bits.get(x, y)) {
+                    int column = x / cellSize;
+                    occupancy[gridRow * bytesPerRow + (column >> 3)] |= 1 << (column & 7);
+                }
+            }
+        }
+
+        return new FloorPlanModel(width * scale, height * scale, cellSize * scale, columns, rows,
+                FloatBuffer.wrap(coordinates), ByteBuffer.wrap(occupancy));
+    }
+
+    // Finds runs of wall pixels along each line (rows, or columns when vertical) and
+    // merges runs with matching ends on consecutive lines into one stroke, emitted
+    // as a segment along the stroke's centre line
+    private void extractStrokes(BitImage bits, boolean vertical, Segments out) {
+        int lines = vertical ? bits.width : bits.height;
+        int length = vertical ? bits.height : bits.width;
+
+        // Open strokes: run start, run end (exclusive), first and last line
+        int[] start = new int[16], end = new int[16], first = new int[16], last = new int[16];
+        int open = 0;
+
+        for (int line = 0; line < lines; line++) {
+            int position = 0;
+            while (position < length) {
+                if (!get(bits, vertical, line, position)) {
+                    position++;
+                    continue;
+                }
+                int runStart = position;
+                while (position < length && get(bits, vertical, line, position)) {
+                    position++;
+                }
+                if (position - runStart < minWallLength) {
+                    continue;
+                }
+
+                int match = -1;
+                for (int k = 0; k < open; k++) {
+                    if (last[k] == line - 1
+                            && Math.abs(start[k] - runStart) <= MERGE_TOLERANCE
+                            && Math.abs(end[k] - position) <= MERGE_TOLERANCE) {
+                        match = k;
+                        break;
+                    }
+                }
+                if (match >= 0) {
+                    start[match] = Math.min(start[match], runStart);
+                    end[match] = Math.max(end[match], position);
+                    last[match] = line;
+                } else {
+                    if (open == start.length) {
+                        start = Arrays.copyOf(start, open * 2);
+                        end = Arrays.copyOf(end, open * 2);
+                        first = Arrays.copyOf(first, open * 2);
+                        last = Arrays.copyOf(last, open * 2);
+                    }
+                    start[open] = runStart;
+                    end[open] = position;
+                    first[open] = line;
+                    last[open] = line;
+                    open++;
+                }
+            }
+
+            // Strokes that did not continue on this line are complete
+            int kept = 0;
+            for (int k = 0; k < open; k++) {
+                if (last[k] < line) {
+                    emit(out, vertical, start[k], end[k], first[k], last[k]);
+                } else {
+                    start[kept] = start[k];
+                    end[kept] = end[k];
+                    first[kept] = first[k];
+                    last[kept] = last[k];
+                    kept++;
+                }
+            }
+            open = kept;
+        }
+        for (int k = 0; k < open; k++) {
+            emit(out, vertical, start[k], end[k], first[k], last[k]);
+        }
+    }
+
+    private static boolean get(BitImage bits, boolean vertical, int line, int position) {
+        return vertical ? bits.get(line, position) : bits.get(position, line);
+    }
+
+    private static void emit(Segments out, boolean vertical, int start, int end, int first, int last) {
+        float centre = (first + last + 1) * 0.5f;
+        if (vertical) {
+            out.add(centre, start, centre, end);
+        } else {
+            out.add(start, centre, end, centre);
+        }
+    }
+
+    // One bit per source pixel, set for walls
+    private static final class BitImage {
+        final long[] words;
+        final int width;
+        final int height;
+        final int wordsPerRow;
+
+        BitImage(long[] words, int width, int height, int wordsPerRow) {
+            this.words = words;
+            this.width = width;
+            this.height = height;
+            this.wordsPerRow = wordsPerRow;
+        }
+
+        boolean get(int x, int y) {
+            return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+        }
+    }
+
+    // Growable {x1, y1, x2, y2} list
+    private static final class Segments {
+        float[] coordinates = new float[256];
+        int size = 0;
+
+        void add(float x1, float y1, float x2, float y2) {
+            if (size + 4 > coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+            }
+            coordinates[size++] = x1;
+            coordinates[size++] = y1;
+            coordinates[size++] = x2;
+            coordinates[size++] = y2;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import com.kisal.indoorsmart.fusion.FastMath;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Map matching particle filter over step events. Every particle takes the step
+ * with its own stride and heading noise; a particle whose step crosses a wall
+ * is killed, and the survivors are resampled when too few carry the weight.
+ * <p>
+ * Particles are stored as parallel float arrays and propagated in fixed size
+ * chunks on a {@link ForkJoinPool}. Each chunk draws from its own generator,
+ * seeded from the step number and the chunk index, so the result does not depend
+ * on how the chunks were scheduled. Not thread safe, call it from one thread.
+ */
+public class ParticleFilter {
+
+    /** Particles propagated by one task. */
+    static final int CHUNK_SIZE = 512;
+
+    // Draws per particle before a reset falls back to the centre
+    private static final int RESET_ATTEMPTS = 8;
+
+    /** Relative standard deviation of the stride length. */
+    public static final float DEFAULT_STRIDE_NOISE = 0.1f;
+    /** Standard deviation of the step heading in radians, about 8 degrees. */
+    public static final float DEFAULT_HEADING_NOISE = 0.14f;
+    /** Standard deviation of the spread around a reset position, in metres. */
+    public static final float DEFAULT_RESET_SPREAD = 0.5f;
+
+    private final WallIndex walls;
+    private final ForkJoinPool pool;
+    private final int count;
+    private final long seed;
+    private float strideNoise = DEFAULT_STRIDE_NOISE;
+    private float headingNoise = DEFAULT_HEADING_NOISE;
+
+    private float[] x;
+    private float[] y;
+    private float[] nextX; // Resampling target, swapped with x and y
+    private float[] nextY;
+    private final float[] weight;
+    private final float[] chunkWeight;
+
+    private long stepNumber = 0;
+    private final float[] estimate = new float[2];
+
+    // Per step timing, for the replay tooling
+    private long steps = 0;
+    private long stepNs = 0;
+    private long resets = 0;
+
+    public ParticleFilter(WallIndex walls, int count, long seed) {
+        this(walls, count, seed, ForkJoinPool.commonPool());
+    }
+
+    public ParticleFilter(WallIndex walls, int count, long seed, ForkJoinPool pool) {
+        this.walls = walls;
+        this.count = count;
+        this.seed = seed;
+        this.pool = pool;
+        x = new float[count];
+        y = new float[count];
+        nextX = new float[count];
+        nextY = new float[count];
+        weight = new float[count];
+        chunkWeight = new float[(count + CHUNK_SIZE - 1) / CHUNK_SIZE];
+    }
+
+    public void setNoise(float strideNoise, float headingNoise) {
+        this.strideNoise = strideNoise;
+        this.headingNoise = headingNoise;
+    }
+
+    /**
+     * Scatters all particles around (x0, y0) with the given spread in metres. A
+     * particle is never placed behind a wall as seen from (x0, y0).
+     */
+    public void reset(float x0, float y0, float spread) {
+        SplittableRandom random = new SplittableRandom(seed ^ (stepNumber * 0x9E3779B97F4A7C15L));
+        float w = 1.0f / count;
+        for (int i = 0; i < count; i++) {
+            float px = x0, py = y0;
+            for (int attempt = 0; attempt < RESET_ATTEMPTS; attempt++) {
+                px = x0 + spread * (float) gaussian(random);
+                py = y0 + spread * (float) gaussian(random);
+                if (!walls.crossesWall(x0, y0, px, py)) {
+                    break;
+                }
+                px = x0;
+                py = y0;
+            }
+            x[i] = px;
+            y[i] = py;
+            weight[i] = w;
+        }
+        estimate[0] = x0;
+        estimate[1] = y0;
+    }
+
+    /**
+     * Moves every particle by one step of strideLength metres towards heading
+     * degrees (0 along +y, 90 along +x, as in PositionUpdater) and updates the
+     * position estimate. When every particle hits a wall, the filter restarts
+     * around the previous estimate.
+     */
+    public void onStep(float strideLength, float headingDegrees) {
+        long start = System.nanoTime();
+        stepNumber++;
+        float heading = headingDegrees * FastMath.DEG_TO_RAD;
+        pool.invoke(new Propagate(0, chunkWeight.length, strideLength, heading));
+
+        float total = 0;
+        for (float w : chunkWeight) {
+            total += w;
+        }
+        if (total <= 0) {
+            // Every particle walked into a wall: the map and the walk disagree
+            resets++;
+            reset(estimate[0], estimate[1], DEFAULT_RESET_SPREAD);
+        } else {
+            normalizeAndEstimate(total);
+        }
+        steps++;
+        stepNs += System.nanoTime() - start;
+    }
+
+    /**
+     * Weighs the particles by their distance to an absolute position fix (x, y),
+     * e.g. from Wi-Fi fingerprints, with a Gaussian of accuracy metres standard
+     * deviation. When no particle is anywhere near the fix, the filter restarts
+     * around it.
+     */
+    public void onFix(float fixX, float fixY, float accuracy) {
+        float scale = -0.5f / (accuracy * accuracy);
+        float total = 0;
+        for (int i = 0; i < count; i++) {
+            if (weight[i] == 0) {
+                continue;
+            }
+            float dx = x[i] - fixX;
+            float dy = y[i] - fixY;
+            weight[i] *= (float) Math.exp(scale * (dx * dx + dy * dy));
+            total += weight[i];
+        }
+        if (total <= 0) {
+            resets++;
+            reset(fixX, fixY, accuracy);
+        } else {
+            normalizeAndEstimate(total);
+        }
+    }
+
+    private void normalizeAndEstimate(float total) {
+        float inverse = 1.0f / total;
+        double sumX = 0, sumY = 0, sumSquares = 0;
+        for (int i = 0; i < count; i++) {
+            float w = weight[i] * inverse;
+            weight[i] = w;
+            sumX += w * x[i];
+            sumY += w * y[i];
+            sumSquares += w * w;
+        }
+        estimate[0] = (float) sumX;
+        estimate[1] = (float) sumY;
+
+        // Resample once fewer than half of the particles carry the weight
+        if (1.0 / sumSquares < count / 2.0) {
+            resample();
+        }
+    }
+
+    // Systematic resampling: one random offset, count evenly spaced pointers
+    private void resample() {
+        SplittableRandom random = new SplittableRandom(seed ^ ~(stepNumber * 0x9E3779B97F4A7C15L));
+        float step = 1.0f / count;
+        float pointer = (float) random.nextDouble() * step;
+        float cumulative = weight[0];
+        int source = 0;
+        for (int i = 0; i < count; i++) {
+            while (pointer > cumulative && source < count - 1) {
+                cumulative += weight[++source];
+            }
+            nextX[i] = x[source];
+            nextY[i] = y[source];
+            pointer += step;
+        }
+        float[] swap = x;
+        x = nextX;
+        nextX = swap;
+        swap = y;
+        y = nextY;
+        nextY = swap;
+        Arrays.fill(weight, step);
+    }
+
+    // Propagates the chunks [from, to), splitting in halves down to one chunk
+    private final class Propagate extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // never serialised, ForkJoinTask is Serializable
+        private final int from;
+        private final int to;
+        private final float strideLength;
+        private final float heading;
+
+        Propagate(int from, int to, float strideLength, float heading) {
+            this.from = from;
+            this.to = to;
+            this.strideLength = strideLength;
+            this.heading = heading;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Propagate(from, middle, strideLength, heading),
+                        new Propagate(middle, to, strideLength, heading));
+                return;
+            }
+            int chunk = from;
+            SplittableRandom random = new SplittableRandom(
+                    seed ^ (stepNumber * 0x9E3779B97F4A7C15L) ^ ((long) chunk << 32));
+            float[] px = x;
+            float[] py = y;
+            float total = 0;
+            int end = Math.min(count, (chunk + 1) * CHUNK_SIZE);
+            for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                if (weight[i] == 0) {
+                    continue; // Dead until the next resampling
+                }
+                // One Box-Muller pair gives the stride and the heading noise
+                float radius = (float) Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()));
+                float angle = 2.0f * FastMath.PI * (float) random.nextDouble();
+                float stride = strideLength * (1.0f + strideNoise * radius * FastMath.cos(angle));
+                float direction = heading + headingNoise * radius * FastMath.sin(angle);
+                float x1 = px[i] + stride * FastMath.sin(direction);
+                float y1 = py[i] + stride * FastMath.cos(direction);
+                if (walls.crossesWall(px[i], py[i], x1, y1)) {
+                    weight[i] = 0;
+                } else {
+                    px[i] = x1;
+                    py[i] = y1;
+                    total += weight[i];
+                }
+            }
+            chunkWeight[chunk] = total;
+        }
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        double radius = Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()));
+        return radius * Math.cos(2.0 * Math.PI * random.nextDouble());
+    }
+
+    /** Copies the weighted mean position {x, y} in metres into out. */
+    public void getEstimate(float[] out) {
+        out[0] = estimate[0];
+        out[1] = estimate[1];
+    }
+
+    public int getParticleCount() {
+        return count;
+    }
+
+    public float getX(int i) {
+        return x[i];
+    }
+
+    public float getY(int i) {
+        return y[i];
+    }
+
+    public float getWeight(int i) {
+        return weight[i];
+    }
+
+    /** Steps taken so far. */
+    public long getStepCount() {
+        return steps;
+    }
+
+    /** Mean wall clock time of one step in nanoseconds. */
+    public double getMeanStepNs() {
+        return steps == 0 ? 0 : (double) stepNs / steps;
+    }
+
+    /** Number of times every particle hit a wall and the filter restarted. */
+    public long getResetCount() {
+        return resets;
+    }
+}
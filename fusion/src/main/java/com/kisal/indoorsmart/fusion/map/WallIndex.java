@@ -0,0 +1,198 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Wall segments of a floor plan in a uniform grid, so testing a step against the
+ * walls only looks at the few cells the step passes through. Coordinates are in
+ * metres, in the same frame as the dead reckoning position.
+ * <p>
+ * Immutable once built; {@link #crossesWall} may be called from many threads.
+ */
+public class WallIndex {
+
+    /** Default grid cell edge in metres, about one stride. */
+    public static final float DEFAULT_CELL_SIZE = 1.0f;
+
+    // Wall i runs from (walls[4i], walls[4i+1]) to (walls[4i+2], walls[4i+3])
+    private final float[] walls;
+
+    private final float originX;
+    private final float originY;
+    private final float cellSize;
+    private final float invCellSize;
+    private final int columns;
+    private final int rows;
+
+    // Compressed cell lists: the walls of cell c are cellWalls[cellStart[c] .. cellStart[c + 1])
+    private final int[] cellStart;
+    private final int[] cellWalls;
+
+    /**
+     * Indexes the walls, given as {x1, y1, x2, y2} quadruples.
+     */
+    public WallIndex(float[] walls, float cellSize) {
+        if (walls.length % 4 != 0) {
+            throw new IllegalArgumentException("walls must hold x1, y1, x2, y2 quadruples");
+        }
+        this.walls = walls.clone();
+        this.cellSize = cellSize;
+        this.invCellSize = 1.0f / cellSize;
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < walls.length; i += 2) {
+            minX = Math.min(minX, walls[i]);
+            maxX = Math.max(maxX, walls[i]);
+            minY = Math.min(minY, walls[i + 1]);
+            maxY = Math.max(maxY, walls[i + 1]);
+        }
+        if (walls.length == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        originX = minX;
+        originY = minY;
+        columns = (int) ((maxX - minX) * invCellSize) + 1;
+        rows = (int) ((maxY - minY) * invCellSize) + 1;
+
+        // Two passes over the cells each wall touches: count, then fill
+        cellStart = new int[columns * rows + 1];
+        int wallCount = walls.length / 4;
+        for (int wall = 0; wall < wallCount; wall++) {
+            forEachCell(wall, null);
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        cellWalls = new int[cellStart[columns * rows]];
+        int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int wall = 0; wall < wallCount; wall++) {
+            forEachCell(wall, fill);
+        }
+    }
+
+    // Visits the cells in the bounding box of the wall. Without fill it counts
+    // into cellStart[cell + 1], with fill it writes the wall into the cell lists.
+    private void forEachCell(int wall, int[] fill) {
+        int i = wall * 4;
+        int firstColumn = column(Math.min(walls[i], walls[i + 2]));
+        int lastColumn = column(Math.max(walls[i], walls[i + 2]));
+        int firstRow = row(Math.min(walls[i + 1], walls[i + 3]));
+        int lastRow = row(Math.max(walls[i + 1], walls[i + 3]));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                if (fill == null) {
+                    cellStart[cell + 1]++;
+                } else {
+                    cellWalls[fill[cell]++] = wall;
+                }
+            }
+        }
+    }
+
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((x - originX) * invCellSize)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((y - originY) * invCellSize)));
+    }
+
+    /**
+     * Reads walls as lines of "x1 y1 x2 y2" in metres. Blank lines and lines
+     * starting with # are skipped.
+     */
+    public static WallIndex read(Reader in, float cellSize) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        float[] walls = new float[64];
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 4) {
+                throw new IOException("Expected x1 y1 x2 y2: " + line);
+            }
+            if (count + 4 > walls.length) {
+                walls = Arrays.copyOf(walls, walls.length * 2);
+            }
+            try {
+                for (String field : fields) {
+                    walls[count++] = Float.parseFloat(field);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Expected x1 y1 x2 y2: " + line, e);
+            }
+        }
+        return new WallIndex(Arrays.copyOf(walls, count), cellSize);
+    }
+
+    public int getWallCount() {
+        return walls.length / 4;
+    }
+
+    /** Writes wall i as {x1, y1, x2, y2} in metres into out. */
+    public void getWall(int i, float[] out) {
+        System.arraycopy(walls, i * 4, out, 0, 4);
+    }
+
+    /**
+     * Returns true when the segment from (x0, y0) to (x1, y1) intersects a wall.
+     * Only the walls of the cells in the segment's bounding box are tested, which
+     * for a step shorter than a cell is at most four cells.
+     */
+    public boolean crossesWall(float x0, float y0, float x1, float y1) {
+        if (walls.length == 0) {
+            return false;
+        }
+        int firstColumn = column(Math.min(x0, x1));
+        int lastColumn = column(Math.max(x0, x1));
+        int firstRow = row(Math.min(y0, y1));
+        int lastRow = row(Math.max(y0, y1));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int cell = row * columns + column;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int i = cellWalls[k] * 4;
+                    if (intersects(x0, y0, x1, y1, walls[i], walls[i + 1], walls[i + 2], walls[i + 3])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Proper or touching intersection of segments p0p1 and q0q1
+    static boolean intersects(float p0x, float p0y, float p1x, float p1y,
+                              float q0x, float q0y, float q1x, float q1y) {
+        float d1 = cross(q0x, q0y, q1x, q1y, p0x, p0y);
+        float d2 = cross(q0x, q0y, q1x, q1y, p1x, p1y);
+        if ((d1 > 0 && d2 > 0) || (d1 < 0 && d2 < 0)) {
+            return false;
+        }
+        float d3 = cross(p0x, p0y, p1x, p1y, q0x, q0y);
+        float d4 = cross(p0x, p0y, p1x, p1y, q1x, q1y);
+        if ((d3 > 0 && d4 > 0) || (d3 < 0 && d4 < 0)) {
+            return false;
+        }
+        if (d1 == 0 && d2 == 0) {
+            // Collinear: overlap of the projections
+            return Math.max(Math.min(p0x, p1x), Math.min(q0x, q1x)) <= Math.min(Math.max(p0x, p1x), Math.max(q0x, q1x))
+                    && Math.max(Math.min(p0y, p1y), Math.min(q0y, q1y)) <= Math.min(Math.max(p0y, p1y), Math.max(q0y, q1y));
+        }
+        return true;
+    }
+
+    // z of (b - a) x (c - a)
+    private static float cross(float ax, float ay, float bx, float by, float cx, float cy) {
+        return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+    }
+}
@@ -0,0 +1,156 @@
+package com.kisal.indoorsmart.fusion.route;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of grid cells keyed by (key1, key2) pairs, compared key1 first.
+ * Each cell is in it at most once and knows its slot, so a key changes or a cell
+ * leaves in O(log n). Sized for every cell of the grid once and never allocates
+ * afterwards.
+ */
+final class CellHeap {
+
+    private final int[] cells;
+    private final float[] key1;
+    private final float[] key2;
+    // slot of each cell, -1 when it is not in the heap
+    private final int[] slots;
+    private int size = 0;
+
+    CellHeap(int cellCount) {
+        cells = new int[cellCount];
+        key1 = new float[cellCount];
+        key2 = new float[cellCount];
+        slots = new int[cellCount];
+        Arrays.fill(slots, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int cell) {
+        return slots[cell] >= 0;
+    }
+
+    /** Cell with the smallest key, the heap must not be empty. */
+    int peek() {
+        return cells[0];
+    }
+
+    /** key1 of the top, infinity when empty. */
+    float peekKey1() {
+        return size > 0 ? key1[0] : Float.POSITIVE_INFINITY;
+    }
+
+    float peekKey2() {
+        return size > 0 ? key2[0] : Float.POSITIVE_INFINITY;
+    }
+
+    /** Inserts the cell, or moves it to its new key when it is in already. */
+    void put(int cell, float k1, float k2) {
+        int slot = slots[cell];
+        if (slot < 0) {
+            slot = size++;
+            cells[slot] = cell;
+            slots[cell] = slot;
+        } else if (less(key1[slot], key2[slot], k1, k2)) {
+            key1[slot] = k1;
+            key2[slot] = k2;
+            siftDown(slot);
+            return;
+        }
+        key1[slot] = k1;
+        key2[slot] = k2;
+        siftUp(slot);
+    }
+
+    int poll() {
+        int top = cells[0];
+        removeSlot(0);
+        return top;
+    }
+
+    void remove(int cell) {
+        int slot = slots[cell];
+        if (slot >= 0) {
+            removeSlot(slot);
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            slots[cells[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void removeSlot(int slot) {
+        slots[cells[slot]] = -1;
+        size--;
+        if (slot == size) {
+            return;
+        }
+        move(size, slot);
+        int cell = cells[slot];
+        siftDown(slot);
+        if (slots[cell] == slot) {
+            siftUp(slot);
+        }
+    }
+
+    private void siftUp(int slot) {
+        int cell = cells[slot];
+        float k1 = key1[slot], k2 = key2[slot];
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (!less(k1, k2, key1[parent], key2[parent])) {
+                break;
+            }
+            move(parent, slot);
+            slot = parent;
+        }
+        cells[slot] = cell;
+        key1[slot] = k1;
+        key2[slot] = k2;
+        slots[cell] = slot;
+    }
+
+    private void siftDown(int slot) {
+        int cell = cells[slot];
+        float k1 = key1[slot], k2 = key2[slot];
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(key1[child + 1], key2[child + 1], key1[child], key2[child])) {
+                child++;
+            }
+            if (!less(key1[child], key2[child], k1, k2)) {
+                break;
+            }
+            move(child, slot);
+            slot = child;
+        }
+        cells[slot] = cell;
+        key1[slot] = k1;
+        key2[slot] = k2;
+        slots[cell] = slot;
+    }
+
+    private void move(int from, int to) {
+        cells[to] = cells[from];
+        key1[to] = key1[from];
+        key2[to] = key2[from];
+        slots[cells[to]] = to;
+    }
+
+    static boolean less(float a1, float a2, float b1, float b2) {
+        return a1 < b1 || (a1 == b1 && a2 < b2);
+    }
+}
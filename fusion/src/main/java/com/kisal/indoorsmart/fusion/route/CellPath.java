@@ -0,0 +1,45 @@
+package com.kisal.indoorsmart.fusion.route;
+
+import java.util.Arrays;
+
+/**
+ * The cells a route turns at, from its start to its goal; consecutive cells are
+ * joined by straight or diagonal runs of free cells. Grows as needed and is
+ * reused between plans.
+ */
+public class CellPath {
+
+    private int[] cells = new int[64];
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int i) {
+        return cells[i];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(int cell) {
+        if (size == cells.length) {
+            cells = Arrays.copyOf(cells, size * 2);
+        }
+        cells[size++] = cell;
+    }
+
+    void set(int i, int cell) {
+        cells[i] = cell;
+    }
+
+    void reverse() {
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            int swap = cells[i];
+            cells[i] = cells[j];
+            cells[j] = swap;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.kisal.indoorsmart.fusion.route;
+
+import java.util.Arrays;
+
+/**
+ * Incremental shortest routes to a fixed goal on an {@link OccupancyGrid} (D* Lite,
+ * Koenig and Likhachev). The search runs backwards from the goal and keeps its
+ * cost-to-goal estimates between plans, so when the start moves or cells are
+ * blocked or freed, {@link #computeShortestPath} only repairs the estimates the
+ * change made inconsistent instead of searching from scratch. Moves are those of
+ * {@link JumpPointSearch}: 8-connected, without cutting corners.
+ * <p>
+ * Sized for the grid once; plans do not allocate. Not thread safe.
+ */
+public class DStarLite {
+
+    private static final float INFINITY = Float.POSITIVE_INFINITY;
+
+    // Keys sum costs, the heuristic and km in different orders, so keys that tie
+    // exactly, as along a straight route, can differ in their last bits. Ties within
+    // this fraction of the start's key are broken on key2, as exact ones would be.
+    private static final float KEY_TOLERANCE = 1e-4f;
+
+    private final OccupancyGrid grid;
+    private final int columns;
+
+    // Cost to goal: g as of the last expansion, rhs from the neighbours' g
+    private final float[] g;
+    private final float[] rhs;
+    private final CellHeap open;
+
+    private int start = -1;
+    private int goal = -1;
+    private int lastStart;
+    // Sum of the heuristic changes from the start moving, added to new keys so the
+    // queued ones stay valid lower bounds
+    private float km;
+    private int expanded;
+
+    public DStarLite(OccupancyGrid grid) {
+        this.grid = grid;
+        this.columns = grid.getColumns();
+        g = new float[grid.getCellCount()];
+        rhs = new float[grid.getCellCount()];
+        open = new CellHeap(grid.getCellCount());
+    }
+
+    /**
+     * Forgets every estimate and plans to a new goal. The next
+     * {@link #computeShortestPath} is a full search.
+     */
+    public void reset(int start, int goal) {
+        Arrays.fill(g, INFINITY);
+        Arrays.fill(rhs, INFINITY);
+        open.clear();
+        km = 0;
+        this.start = start;
+        this.lastStart = start;
+        this.goal = goal;
+        rhs[goal] = 0;
+        open.put(goal, heuristic(goal), 0);
+    }
+
+    /** The user moved to the cell. */
+    public void moveStart(int cell) {
+        if (cell == start) {
+            return;
+        }
+        start = cell;
+        km += distance(lastStart, start);
+        lastStart = start;
+    }
+
+    /**
+     * The cell was blocked or freed in the grid: updates the cells whose moves it
+     * changes, which are its own and its neighbours', since no diagonal may cut past
+     * a blocked cell either.
+     */
+    public void onCellChanged(int cell) {
+        int x = cell % columns, y = cell / columns;
+        for (int ny = y - 1; ny <= y + 1; ny++) {
+            for (int nx = x - 1; nx <= x + 1; nx++) {
+                if (nx < 0 || ny < 0 || nx >= columns || ny >= grid.getRows()) {
+                    continue;
+                }
+                int neighbour = ny * columns + nx;
+                if (neighbour != goal) {
+                    rhs[neighbour] = lookahead(neighbour);
+                }
+                updateVertex(neighbour);
+            }
+        }
+    }
+
+    /**
+     * Brings the estimates up to date for the current start. Returns false when
+     * the goal cannot be reached from it.
+     */
+    public boolean computeShortestPath() {
+        expanded = 0;
+        while (queuedBeforeStart() || rhs[start] != g[start]) {
+            int u = open.peek();
+            float oldKey1 = open.peekKey1(), oldKey2 = open.peekKey2();
+            float newKey1 = key1(u), newKey2 = key2(u);
+            expanded++;
+            if (CellHeap.less(oldKey1, oldKey2, newKey1, newKey2)) {
+                open.put(u, newKey1, newKey2);
+            } else if (g[u] > rhs[u]) {
+                g[u] = rhs[u];
+                open.remove(u);
+                for (int d = 0; d < 8; d++) {
+                    int s = neighbour(u, d);
+                    if (s >= 0 && s != goal) {
+                        float cost = cost(s, u, d);
+                        if (cost + g[u] < rhs[s]) {
+                            rhs[s] = cost + g[u];
+                        }
+                        updateVertex(s);
+                    }
+                }
+            } else {
+                float oldG = g[u];
+                g[u] = INFINITY;
+                for (int d = 0; d < 8; d++) {
+                    int s = neighbour(u, d);
+                    if (s >= 0 && s != goal && rhs[s] == cost(s, u, d) + oldG) {
+                        rhs[s] = lookahead(s);
+                    }
+                    if (s >= 0) {
+                        updateVertex(s);
+                    }
+                }
+                if (u != goal && rhs[u] == oldG) {
+                    rhs[u] = lookahead(u);
+                }
+                updateVertex(u);
+            }
+        }
+        return g[start] < INFINITY;
+    }
+
+    /**
+     * Writes the turning cells of the route from the start to the goal into out by
+     * following the cheapest neighbours. Returns false when there is none.
+     */
+    public boolean extractPath(CellPath out) {
+        out.clear();
+        if (g[start] == INFINITY) {
+            return false;
+        }
+        out.add(start);
+        int cell = start;
+        int lastDirection = -1;
+        for (int steps = 0; cell != goal && steps < g.length; steps++) {
+            int best = -1, bestDirection = -1;
+            float bestCost = INFINITY;
+            for (int d = 0; d < 8; d++) {
+                int s = neighbour(cell, d);
+                if (s < 0) {
+                    continue;
+                }
+                float cost = cost(cell, s, d) + g[s];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = s;
+                    bestDirection = d;
+                }
+            }
+            if (best < 0) {
+                out.clear();
+                return false;
+            }
+            // keep only the cells where the direction changes
+            if (bestDirection == lastDirection) {
+                out.set(out.size() - 1, best);
+            } else {
+                out.add(best);
+            }
+            lastDirection = bestDirection;
+            cell = best;
+        }
+        return cell == goal;
+    }
+
+    /** Cost of the route from the start in cells, infinite without one. */
+    public float getCost() {
+        return g[start];
+    }
+
+    /** Queue entries processed by the last {@link #computeShortestPath}. */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    public int getGoal() {
+        return goal;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    // The top of the queue comes before the start, counting near ties of key1 as ties
+    private boolean queuedBeforeStart() {
+        float top1 = open.peekKey1(), start1 = key1(start);
+        if (top1 < start1) {
+            return true;
+        }
+        return top1 <= start1 + KEY_TOLERANCE * start1 && open.peekKey2() < key2(start);
+    }
+
+    private void updateVertex(int u) {
+        if (g[u] != rhs[u]) {
+            open.put(u, key1(u), key2(u));
+        } else {
+            open.remove(u);
+        }
+    }
+
+    // Best cost to goal through a neighbour
+    private float lookahead(int u) {
+        float best = INFINITY;
+        for (int d = 0; d < 8; d++) {
+            int s = neighbour(u, d);
+            if (s >= 0) {
+                best = Math.min(best, cost(u, s, d) + g[s]);
+            }
+        }
+        return best;
+    }
+
+    private float key1(int u) {
+        return Math.min(g[u], rhs[u]) + heuristic(u) + km;
+    }
+
+    private float key2(int u) {
+        return Math.min(g[u], rhs[u]);
+    }
+
+    private float heuristic(int u) {
+        return distance(start, u);
+    }
+
+    private float distance(int a, int b) {
+        return JumpPointSearch.distance(a % columns, a / columns, b % columns, b / columns);
+    }
+
+    // The eight neighbours, straight ones at even d
+    private static final int[] DX = {1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] DY = {0, 1, 1, 1, 0, -1, -1, -1};
+
+    // Neighbour of u in direction d, or -1 outside the grid
+    private int neighbour(int u, int d) {
+        int x = u % columns + DX[d], y = u / columns + DY[d];
+        if (x < 0 || y < 0 || x >= columns || y >= grid.getRows()) {
+            return -1;
+        }
+        return y * columns + x;
+    }
+
+    // Cost of the move between u and its neighbour v in direction d (either way
+    // round, moves are symmetric)
+    private float cost(int u, int v, int d) {
+        if (grid.isBlocked(u) || grid.isBlocked(v)) {
+            return INFINITY;
+        }
+        if ((d & 1) == 0) {
+            return 1;
+        }
+        int x = u % columns, y = u / columns;
+        int vx = v % columns, vy = v / columns;
+        if (grid.isBlocked(vx, y) || grid.isBlocked(x, vy)) {
+            return INFINITY;
+        }
+        return JumpPointSearch.SQRT2;
+    }
+}
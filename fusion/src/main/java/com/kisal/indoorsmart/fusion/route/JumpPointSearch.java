@@ -0,0 +1,205 @@
+package com.kisal.indoorsmart.fusion.route;
+
+import java.util.Arrays;
+
+/**
+ * Shortest routes on an {@link OccupancyGrid} from scratch: A* with jump point
+ * pruning over the 8-connected grid. Moves cost 1 straight and sqrt(2)
+ * diagonally, and a diagonal move needs both cells beside it free, so routes do
+ * not cut wall corners. Instead of every neighbour, a node only queues the next
+ * cell in each direction where a straight run has to turn, which on open floors
+ * skips all but a handful of the cells A* would expand.
+ * <p>
+ * Scratch arrays are sized for the grid once; a search does not allocate. Not
+ * thread safe.
+ */
+public class JumpPointSearch {
+
+    static final float SQRT2 = (float) Math.sqrt(2);
+
+    private final OccupancyGrid grid;
+    private final int columns;
+
+    // Per cell search state, valid while its stamp is the current search's
+    private final float[] g;
+    private final int[] parent;
+    private final int[] stamp;
+    private final boolean[] closed;
+    private final CellHeap open;
+    private int search = 0;
+
+    private int goalColumn;
+    private int goalRow;
+    private int expanded;
+
+    public JumpPointSearch(OccupancyGrid grid) {
+        this.grid = grid;
+        this.columns = grid.getColumns();
+        int cells = grid.getCellCount();
+        g = new float[cells];
+        parent = new int[cells];
+        stamp = new int[cells];
+        closed = new boolean[cells];
+        open = new CellHeap(cells);
+    }
+
+    /**
+     * Finds a shortest route from cell start to cell goal and writes its turning
+     * cells into out. Returns false, leaving out empty, when either cell is
+     * blocked or the goal cannot be reached.
+     */
+    public boolean findPath(int start, int goal, CellPath out) {
+        out.clear();
+        expanded = 0;
+        if (grid.isBlocked(start) || grid.isBlocked(goal)) {
+            return false;
+        }
+        if (++search == 0) {
+            Arrays.fill(stamp, 0);
+            search = 1;
+        }
+        open.clear();
+        goalColumn = goal % columns;
+        goalRow = goal / columns;
+
+        visit(start, 0, -1);
+        open.put(start, heuristic(start), 0);
+        while (!open.isEmpty()) {
+            int cell = open.poll();
+            if (cell == goal) {
+                for (int c = goal; c >= 0; c = parent[c]) {
+                    out.add(c);
+                }
+                out.reverse();
+                return true;
+            }
+            closed[cell] = true;
+            expanded++;
+            expand(cell);
+        }
+        return false;
+    }
+
+    /** Cost of the last route found, in cells. */
+    public float getCost(int goal) {
+        return stamp[goal] == search ? g[goal] : Float.POSITIVE_INFINITY;
+    }
+
+    /** Jump points taken off the open list by the last search. */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    // Queues the jump points reachable from the cell in its pruned directions
+    private void expand(int cell) {
+        int x = cell % columns, y = cell / columns;
+        int from = parent[cell];
+        if (from < 0) {
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    if (dx != 0 || dy != 0) {
+                        tryDirection(cell, x, y, dx, dy);
+                    }
+                }
+            }
+            return;
+        }
+        int dx = Integer.signum(x - from % columns);
+        int dy = Integer.signum(y - from / columns);
+        if (dx != 0 && dy != 0) {
+            tryDirection(cell, x, y, dx, 0);
+            tryDirection(cell, x, y, 0, dy);
+            tryDirection(cell, x, y, dx, dy);
+        } else if (dx != 0) {
+            tryDirection(cell, x, y, dx, 0);
+            tryDirection(cell, x, y, 0, 1);
+            tryDirection(cell, x, y, 0, -1);
+            tryDirection(cell, x, y, dx, 1);
+            tryDirection(cell, x, y, dx, -1);
+        } else {
+            tryDirection(cell, x, y, 0, dy);
+            tryDirection(cell, x, y, 1, 0);
+            tryDirection(cell, x, y, -1, 0);
+            tryDirection(cell, x, y, 1, dy);
+            tryDirection(cell, x, y, -1, dy);
+        }
+    }
+
+    private void tryDirection(int cell, int x, int y, int dx, int dy) {
+        if (!canMove(x, y, dx, dy)) {
+            return;
+        }
+        int jumpPoint = jump(x + dx, y + dy, dx, dy);
+        if (jumpPoint < 0 || (stamp[jumpPoint] == search && closed[jumpPoint])) {
+            return;
+        }
+        float cost = g[cell] + distance(x, y, jumpPoint % columns, jumpPoint / columns);
+        if (stamp[jumpPoint] != search || cost < g[jumpPoint]) {
+            visit(jumpPoint, cost, cell);
+            float h = heuristic(jumpPoint);
+            // ties go to the node closer to the goal
+            open.put(jumpPoint, cost + h, h);
+        }
+    }
+
+    private void visit(int cell, float cost, int from) {
+        stamp[cell] = search;
+        closed[cell] = false;
+        g[cell] = cost;
+        parent[cell] = from;
+    }
+
+    // A free target cell, and for a diagonal both cells beside the move free
+    private boolean canMove(int x, int y, int dx, int dy) {
+        if (grid.isBlocked(x + dx, y + dy)) {
+            return false;
+        }
+        return dx == 0 || dy == 0 || (!grid.isBlocked(x + dx, y) && !grid.isBlocked(x, y + dy));
+    }
+
+    // Runs from (x, y) in the direction until a cell where the route may have to
+    // turn: the goal, a forced neighbour, or for a diagonal a straight run that
+    // finds one. Returns that cell, or -1 when the run ends in a wall.
+    private int jump(int x, int y, int dx, int dy) {
+        while (true) {
+            if (grid.isBlocked(x, y)) {
+                return -1;
+            }
+            if (x == goalColumn && y == goalRow) {
+                return y * columns + x;
+            }
+            if (dx != 0 && dy != 0) {
+                if ((canMove(x, y, dx, 0) && jump(x + dx, y, dx, 0) >= 0)
+                        || (canMove(x, y, 0, dy) && jump(x, y + dy, 0, dy) >= 0)) {
+                    return y * columns + x;
+                }
+            } else if (dx != 0) {
+                if ((!grid.isBlocked(x, y - 1) && grid.isBlocked(x - dx, y - 1))
+                        || (!grid.isBlocked(x, y + 1) && grid.isBlocked(x - dx, y + 1))) {
+                    return y * columns + x;
+                }
+            } else {
+                if ((!grid.isBlocked(x - 1, y) && grid.isBlocked(x - 1, y - dy))
+                        || (!grid.isBlocked(x + 1, y) && grid.isBlocked(x + 1, y - dy))) {
+                    return y * columns + x;
+                }
+            }
+            if (!canMove(x, y, dx, dy)) {
+                return -1;
+            }
+            x += dx;
+            y += dy;
+        }
+    }
+
+    private float heuristic(int cell) {
+        return distance(cell % columns, cell / columns, goalColumn, goalRow);
+    }
+
+    // Octile distance: the cost of the shortest 8-connected route without walls
+    static float distance(int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0);
+        int dy = Math.abs(y1 - y0);
+        return Math.max(dx, dy) + (SQRT2 - 1) * Math.min(dx, dy);
+    }
+}
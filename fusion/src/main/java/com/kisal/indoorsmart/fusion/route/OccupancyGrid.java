@@ -0,0 +1,165 @@
+package com.kisal.indoorsmart.fusion.route;
+
+import com.kisal.indoorsmart.fusion.map.FloorPlanModel;
+import com.kisal.indoorsmart.fusion.map.WallIndex;
+
+/**
+ * Walkable and blocked square cells of a floor for route planning, in metres in
+ * the frame of the dead reckoning position. Cell (column, row) has index
+ * row * columns + column; everything outside the grid counts as blocked.
+ * <p>
+ * Cells can be blocked and freed later, e.g. a closed door; tell the planners
+ * about it, see {@link RoutePlanner#setBlocked}. Not thread safe.
+ */
+public class OccupancyGrid {
+
+    private final int columns;
+    private final int rows;
+    private final float originX;
+    private final float originY;
+    private final float cellSize;
+    private final float invCellSize;
+
+    // one bit per cell, set when blocked
+    private final long[] blocked;
+
+    /**
+     * An all walkable grid whose cell (0, 0) has its lower corner at the origin.
+     */
+    public OccupancyGrid(int columns, int rows, float originX, float originY, float cellSize) {
+        if (columns <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("Empty grid of " + columns + " x " + rows);
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.originX = originX;
+        this.originY = originY;
+        this.cellSize = cellSize;
+        this.invCellSize = 1.0f / cellSize;
+        blocked = new long[(columns * rows + 63) >>> 6];
+    }
+
+    /**
+     * The occupancy grid of a vectorised floor plan, scaled from image pixels to
+     * metres; a cell with wall pixels is blocked.
+     */
+    public static OccupancyGrid fromModel(FloorPlanModel model, float metresPerPixel) {
+        OccupancyGrid grid = new OccupancyGrid(model.getColumns(), model.getRows(), 0, 0,
+                model.getCellSize() * metresPerPixel);
+        for (int row = 0; row < model.getRows(); row++) {
+            for (int column = 0; column < model.getColumns(); column++) {
+                if (model.isOccupiedCell(column, row)) {
+                    grid.setBlocked(column, row, true);
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Rasterises the walls into cells of cellSize metres, with a free border of
+     * one cell around them.
+     */
+    public static OccupancyGrid fromWalls(WallIndex walls, float cellSize) {
+        float[] wall = new float[4];
+        float minX = 0, minY = 0, maxX = 0, maxY = 0;
+        for (int i = 0; i < walls.getWallCount(); i++) {
+            walls.getWall(i, wall);
+            if (i == 0) {
+                minX = maxX = wall[0];
+                minY = maxY = wall[1];
+            }
+            minX = Math.min(minX, Math.min(wall[0], wall[2]));
+            maxX = Math.max(maxX, Math.max(wall[0], wall[2]));
+            minY = Math.min(minY, Math.min(wall[1], wall[3]));
+            maxY = Math.max(maxY, Math.max(wall[1], wall[3]));
+        }
+        int columns = (int) ((maxX - minX) / cellSize) + 3;
+        int rows = (int) ((maxY - minY) / cellSize) + 3;
+        OccupancyGrid grid = new OccupancyGrid(columns, rows, minX - cellSize, minY - cellSize, cellSize);
+        for (int i = 0; i < walls.getWallCount(); i++) {
+            walls.getWall(i, wall);
+            // samples every half cell, so no cell the wall passes through is skipped
+            float length = (float) Math.hypot(wall[2] - wall[0], wall[3] - wall[1]);
+            int samples = (int) (2 * length / cellSize) + 1;
+            for (int s = 0; s <= samples; s++) {
+                float t = s / (float) samples;
+                float x = wall[0] + t * (wall[2] - wall[0]);
+                float y = wall[1] + t * (wall[3] - wall[1]);
+                grid.setBlocked(grid.columnOf(x), grid.rowOf(y), true);
+            }
+        }
+        return grid;
+    }
+
+    public boolean isBlocked(int column, int row) {
+        if (column < 0 || row < 0 || column >= columns || row >= rows) {
+            return true;
+        }
+        int cell = row * columns + column;
+        return (blocked[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    public boolean isBlocked(int cell) {
+        return (blocked[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    public void setBlocked(int column, int row, boolean isBlocked) {
+        if (column < 0 || row < 0 || column >= columns || row >= rows) {
+            return;
+        }
+        int cell = row * columns + column;
+        if (isBlocked) {
+            blocked[cell >>> 6] |= 1L << cell;
+        } else {
+            blocked[cell >>> 6] &= ~(1L << cell);
+        }
+    }
+
+    /** Column of x, which may be outside the grid. */
+    public int columnOf(float x) {
+        return (int) Math.floor((x - originX) * invCellSize);
+    }
+
+    /** Row of y, which may be outside the grid. */
+    public int rowOf(float y) {
+        return (int) Math.floor((y - originY) * invCellSize);
+    }
+
+    /** Cell of the point, or -1 outside the grid. */
+    public int cellOf(float x, float y) {
+        int column = columnOf(x);
+        int row = rowOf(y);
+        if (column < 0 || row < 0 || column >= columns || row >= rows) {
+            return -1;
+        }
+        return row * columns + column;
+    }
+
+    /** x of the centre of the cell. */
+    public float getCentreX(int cell) {
+        return originX + (cell % columns + 0.5f) * cellSize;
+    }
+
+    /** y of the centre of the cell. */
+    public float getCentreY(int cell) {
+        return originY + (cell / columns + 0.5f) * cellSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCellCount() {
+        return columns * rows;
+    }
+
+    /** Edge of a cell in metres. */
+    public float getCellSize() {
+        return cellSize;
+    }
+}
@@ -0,0 +1,66 @@
+package com.kisal.indoorsmart.fusion.route;
+
+/**
+ * Copy of a {@link RoutePlanner}'s route at one moment, for threads other than the
+ * fusion thread: its waypoints, the one the user is walking towards and the
+ * distance left. Routes never change once taken.
+ */
+public class Route {
+
+    private final float[] waypoints; // x, y pairs
+    private final int nextWaypoint;
+    private final float remainingLength;
+    private final int repairCount;
+
+    private Route(float[] waypoints, int nextWaypoint, float remainingLength, int repairCount) {
+        this.waypoints = waypoints;
+        this.nextWaypoint = nextWaypoint;
+        this.remainingLength = remainingLength;
+        this.repairCount = repairCount;
+    }
+
+    /**
+     * Fusion thread: copies the planner's current route, or returns null when it has
+     * none.
+     */
+    public static Route of(RoutePlanner planner) {
+        if (planner == null || !planner.hasRoute()) {
+            return null;
+        }
+        float[] waypoints = new float[planner.getWaypointCount() * 2];
+        for (int i = 0; i < planner.getWaypointCount(); i++) {
+            waypoints[2 * i] = planner.getWaypointX(i);
+            waypoints[2 * i + 1] = planner.getWaypointY(i);
+        }
+        return new Route(waypoints, planner.getNextWaypoint(), planner.getRemainingLength(),
+                planner.getRepairCount());
+    }
+
+    /** Turning points of the route, the first being where it was last planned from. */
+    public int getWaypointCount() {
+        return waypoints.length / 2;
+    }
+
+    public float getWaypointX(int i) {
+        return waypoints[2 * i];
+    }
+
+    public float getWaypointY(int i) {
+        return waypoints[2 * i + 1];
+    }
+
+    /** Waypoint the user is walking towards. */
+    public int getNextWaypoint() {
+        return nextWaypoint;
+    }
+
+    /** Distance left to the destination along the route, in metres. */
+    public float getRemainingLength() {
+        return remainingLength;
+    }
+
+    /** Repairs of the route before this copy was taken. */
+    public int getRepairCount() {
+        return repairCount;
+    }
+}
@@ -0,0 +1,241 @@
+package com.kisal.indoorsmart.fusion.route;
+
+/**
+ * Guides the user to a destination on one floor. The first route comes from a
+ * {@link JumpPointSearch}; after that the position updates only advance along it
+ * while the user follows it. Once they leave it, or a cell on the floor is
+ * blocked or freed, {@link DStarLite} repairs the route from where they are,
+ * reusing the cost estimates of its earlier plans.
+ * <p>
+ * {@link #setDestination} also seeds those estimates with a search of the whole
+ * floor, some hundreds of ms on a large one, so every later repair is
+ * incremental. Set the destination on a worker thread, then hand the planner to
+ * {@link com.kisal.indoorsmart.fusion.FusionEngine#setRoutePlanner} and call it
+ * from the fusion thread only.
+ */
+public class RoutePlanner {
+
+    /** Grid cell edge in metres, well under a stride and a door width. */
+    public static final float DEFAULT_CELL_SIZE = 0.5f;
+
+    /** A position further than this from the route has left it, in metres. */
+    public static final float DEFAULT_OFF_ROUTE_DISTANCE = 1.5f;
+
+    // Drift can put the position into a wall; the nearest free cell this many
+    // cells around it stands in for it
+    private static final int SNAP_RADIUS = 3;
+
+    private final OccupancyGrid grid;
+    private final float offRouteDistance;
+    private final JumpPointSearch initialSearch;
+    private final DStarLite repair;
+    private final CellPath path = new CellPath();
+
+    private int goal = -1;
+    private int userCell = -1;
+    private float userX;
+    private float userY;
+    // leg of the route the user is on, from path cell leg to leg + 1
+    private int leg = 0;
+
+    private long lastPlanNs;
+    private int repairCount;
+
+    public RoutePlanner(OccupancyGrid grid) {
+        this(grid, DEFAULT_OFF_ROUTE_DISTANCE);
+    }
+
+    public RoutePlanner(OccupancyGrid grid, float offRouteDistance) {
+        this.grid = grid;
+        this.offRouteDistance = offRouteDistance;
+        this.initialSearch = new JumpPointSearch(grid);
+        this.repair = new DStarLite(grid);
+    }
+
+    /**
+     * Plans a route from (fromX, fromY) to (toX, toY) and seeds the repairs for it.
+     * Returns false when there is none, e.g. the destination is outside the floor or
+     * walled in.
+     */
+    public boolean setDestination(float fromX, float fromY, float toX, float toY) {
+        long start = System.nanoTime();
+        clearDestination();
+        int from = freeCellNear(fromX, fromY);
+        int to = freeCellNear(toX, toY);
+        boolean found = from >= 0 && to >= 0 && initialSearch.findPath(from, to, path);
+        if (found) {
+            repair.reset(from, to);
+            repair.computeShortestPath();
+            goal = to;
+            userCell = from;
+            userX = fromX;
+            userY = fromY;
+        }
+        lastPlanNs = System.nanoTime() - start;
+        return found;
+    }
+
+    public void clearDestination() {
+        goal = -1;
+        userCell = -1;
+        leg = 0;
+        repairCount = 0;
+        path.clear();
+    }
+
+    /**
+     * The position moved: follows the route, or repairs it when the user left it.
+     */
+    public void onPosition(float x, float y) {
+        if (goal < 0) {
+            return;
+        }
+        userX = x;
+        userY = y;
+        if (followRoute(x, y)) {
+            return;
+        }
+        int cell = freeCellNear(x, y);
+        if (cell >= 0) {
+            userCell = cell;
+            replan();
+        }
+    }
+
+    /**
+     * Blocks or frees the cell at (x, y), e.g. a door found closed, and repairs the
+     * route around it.
+     */
+    public void setBlocked(float x, float y, boolean blocked) {
+        int column = grid.columnOf(x);
+        int row = grid.rowOf(y);
+        int cell = grid.cellOf(x, y);
+        if (cell < 0 || grid.isBlocked(column, row) == blocked) {
+            return;
+        }
+        grid.setBlocked(column, row, blocked);
+        if (goal < 0) {
+            return; // the next destination starts from the grid as it is
+        }
+        repair.onCellChanged(cell);
+        if (userCell >= 0 && !grid.isBlocked(userCell)) {
+            replan();
+        }
+    }
+
+    private void replan() {
+        long start = System.nanoTime();
+        repair.moveStart(userCell);
+        repair.computeShortestPath();
+        repair.extractPath(path);
+        leg = 0;
+        repairCount++;
+        lastPlanNs = System.nanoTime() - start;
+    }
+
+    // Moves on to the following legs the user has reached; true while they are
+    // still close enough to the route
+    private boolean followRoute(float x, float y) {
+        if (path.size() == 0) {
+            return false;
+        }
+        if (path.size() == 1) {
+            return distance(x, y, path.get(0), path.get(0)) <= offRouteDistance;
+        }
+        float current = distance(x, y, path.get(leg), path.get(leg + 1));
+        while (leg + 2 < path.size()) {
+            float next = distance(x, y, path.get(leg + 1), path.get(leg + 2));
+            if (next > current) {
+                break;
+            }
+            leg++;
+            current = next;
+        }
+        return current <= offRouteDistance;
+    }
+
+    // Distance from the point to the leg between the centres of cells a and b
+    private float distance(float x, float y, int a, int b) {
+        float ax = grid.getCentreX(a), ay = grid.getCentreY(a);
+        float dx = grid.getCentreX(b) - ax, dy = grid.getCentreY(b) - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared > 0 ? ((x - ax) * dx + (y - ay) * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        return (float) Math.hypot(x - (ax + t * dx), y - (ay + t * dy));
+    }
+
+    // The free cell closest to the point within SNAP_RADIUS cells, or -1
+    private int freeCellNear(float x, float y) {
+        int column = grid.columnOf(x);
+        int row = grid.rowOf(y);
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        for (int r = row - SNAP_RADIUS; r <= row + SNAP_RADIUS; r++) {
+            for (int c = column - SNAP_RADIUS; c <= column + SNAP_RADIUS; c++) {
+                if (grid.isBlocked(c, r)) {
+                    continue;
+                }
+                float distance = (c - column) * (c - column) + (r - row) * (r - row);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    best = r * grid.getColumns() + c;
+                }
+            }
+        }
+        return best;
+    }
+
+    public boolean hasRoute() {
+        return goal >= 0 && path.size() > 0;
+    }
+
+    /** Turning points of the route, the first being where it was last planned from. */
+    public int getWaypointCount() {
+        return path.size();
+    }
+
+    public float getWaypointX(int i) {
+        return grid.getCentreX(path.get(i));
+    }
+
+    public float getWaypointY(int i) {
+        return grid.getCentreY(path.get(i));
+    }
+
+    /** Waypoint the user is walking towards. */
+    public int getNextWaypoint() {
+        return Math.min(leg + 1, path.size() - 1);
+    }
+
+    /** Distance left to the destination along the route, in metres. */
+    public float getRemainingLength() {
+        if (path.size() == 0) {
+            return 0;
+        }
+        int next = getNextWaypoint();
+        float length = (float) Math.hypot(getWaypointX(next) - userX, getWaypointY(next) - userY);
+        for (int i = next; i + 1 < path.size(); i++) {
+            length += (float) Math.hypot(getWaypointX(i + 1) - getWaypointX(i), getWaypointY(i + 1) - getWaypointY(i));
+        }
+        return length;
+    }
+
+    /** Time the last plan or repair took. */
+    public long getLastPlanNs() {
+        return lastPlanNs;
+    }
+
+    /** Repairs since the destination was set. */
+    public int getRepairCount() {
+        return repairCount;
+    }
+
+    /** Cells the last plan or repair expanded, for the tests and the metrics. */
+    public int getLastExpandedCount() {
+        return repair.getExpandedCount();
+    }
+
+    public OccupancyGrid getGrid() {
+        return grid;
+    }
+}
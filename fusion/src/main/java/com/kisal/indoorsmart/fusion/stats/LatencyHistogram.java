@@ -0,0 +1,149 @@
+package com.kisal.indoorsmart.fusion.stats;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with fixed log-linear buckets, in the
+ * style of HdrHistogram: values below 64 ns are counted exactly, larger ones in
+ * 32 sub-buckets per power of two, so every value is kept to within 1/32 (about
+ * 3%). Values of {@link #MAX_TRACKABLE_NS} and more land in the last bucket.
+ * <p>
+ * Recording is a few shifts and one array write and never allocates. There must
+ * be a single recording thread; other threads may read at any time and see each
+ * count either before or after a concurrent record, never a torn value.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values below this are their own bucket
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+    private static final int LINEAR_BITS = SUB_BUCKET_BITS + 1;
+    private static final int MAX_EXPONENT = 36;
+
+    /** About 68.7 s, far above anything the pipeline should take. */
+    public static final long MAX_TRACKABLE_NS = (1L << MAX_EXPONENT) - 1;
+
+    static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_EXPONENT - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    // count, sum and max, same single writer rule as the buckets
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MAX = 2;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Records one duration; negative values, e.g. from clock skew, count as 0. */
+    public void record(long valueNs) {
+        long value = Math.max(0, Math.min(valueNs, MAX_TRACKABLE_NS));
+        int index = bucketIndex(value);
+        // single writer, so a plain read-increment-write is enough
+        counts.lazySet(index, counts.get(index) + 1);
+        totals.lazySet(COUNT, totals.get(COUNT) + 1);
+        totals.lazySet(SUM, totals.get(SUM) + value);
+        if (value > totals.get(MAX)) {
+            totals.lazySet(MAX, value);
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (exponent - LINEAR_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    // Smallest value that falls into the bucket
+    static long bucketLowerBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = LINEAR_BITS + (index - LINEAR_LIMIT) / SUB_BUCKETS;
+        long subBucket = SUB_BUCKETS + (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        return subBucket << (exponent - SUB_BUCKET_BITS);
+    }
+
+    // Largest value that falls into the bucket
+    static long bucketUpperBound(int index) {
+        return index + 1 < BUCKET_COUNT ? bucketLowerBound(index + 1) - 1 : MAX_TRACKABLE_NS;
+    }
+
+    public long getCount() {
+        return totals.get(COUNT);
+    }
+
+    public long getMax() {
+        return totals.get(MAX);
+    }
+
+    public double getMean() {
+        long count = totals.get(COUNT);
+        return count == 0 ? 0.0 : (double) totals.get(SUM) / count;
+    }
+
+    /**
+     * Value below or at which the given percentage of the recorded values lie, as
+     * the upper bound of its bucket, or 0 when nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /** Clears all counts. Only safe from the recording thread. */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.lazySet(i, 0);
+        }
+        for (int i = 0; i < totals.length(); i++) {
+            totals.lazySet(i, 0);
+        }
+    }
+
+    /**
+     * Appends one line: name, count, mean, p50, p90, p99, p99.9 and max in
+     * microseconds.
+     */
+    public void dump(Appendable out) throws IOException {
+        out.append(name)
+                .append(" count=").append(Long.toString(getCount()))
+                .append(" mean=").append(micros(Math.round(getMean())))
+                .append(" p50=").append(micros(getValueAtPercentile(50)))
+                .append(" p90=").append(micros(getValueAtPercentile(90)))
+                .append(" p99=").append(micros(getValueAtPercentile(99)))
+                .append(" p99.9=").append(micros(getValueAtPercentile(99.9)))
+                .append(" max=").append(micros(getMax()))
+                .append(" us\n");
+    }
+
+    private static String micros(long ns) {
+        return String.format(Locale.ROOT, "%.1f", ns / 1000.0);
+    }
+}
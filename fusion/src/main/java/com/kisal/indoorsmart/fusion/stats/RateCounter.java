@@ -0,0 +1,62 @@
+package com.kisal.indoorsmart.fusion.stats;
+
+/**
+ * Counts events and their rate per second of event time, measured over
+ * consecutive windows of {@link #WINDOW_NS}. Recording never allocates; there
+ * must be a single recording thread, readers see the last completed window.
+ */
+public class RateCounter {
+
+    public static final long WINDOW_NS = 1_000_000_000L;
+
+    private final String name;
+    private volatile long count;
+    private volatile float rate;
+
+    // recording thread only
+    private long windowStart = Long.MIN_VALUE;
+    private long windowCount;
+
+    public RateCounter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Counts one event at the given timestamp in nanoseconds. */
+    public void record(long timestampNs) {
+        count++;
+        if (windowStart == Long.MIN_VALUE || timestampNs < windowStart) {
+            // first event, or the clock went back
+            windowStart = timestampNs;
+            windowCount = 0;
+        }
+        long elapsed = timestampNs - windowStart;
+        if (elapsed >= WINDOW_NS) {
+            rate = windowCount * 1e9f / elapsed;
+            windowStart = timestampNs;
+            windowCount = 0;
+        }
+        windowCount++;
+    }
+
+    /** Events since construction or the last reset. */
+    public long getCount() {
+        return count;
+    }
+
+    /** Events per second over the last completed window. */
+    public float getRate() {
+        return rate;
+    }
+
+    /** Only safe from the recording thread. */
+    public void reset() {
+        count = 0;
+        rate = 0;
+        windowStart = Long.MIN_VALUE;
+        windowCount = 0;
+    }
+}
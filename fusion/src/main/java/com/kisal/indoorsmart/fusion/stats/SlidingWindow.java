@@ -0,0 +1,221 @@
+package com.kisal.indoorsmart.fusion.stats;
+
+/**
+ * Fixed size sliding window over a float stream, backed by a primitive ring buffer.
+ * Mean and variance are O(1), min and max are amortized O(1) through monotonic
+ * queues, and adding a sample never allocates. The min/max queues are only kept
+ * when requested at construction, since they roughly double the cost of add.
+ * <p>
+ * The running sums are kept in double precision around a shift value and are
+ * recomputed from the buffer at least once every {@link #MIN_RESYNC_INTERVAL}
+ * samples, so rounding error cannot accumulate over long sessions. The recompute is
+ * O(capacity) once every max(capacity, MIN_RESYNC_INTERVAL) samples, which keeps
+ * the cost per sample constant.
+ */
+public class SlidingWindow {
+
+    static final int MIN_RESYNC_INTERVAL = 1024;
+
+    private final int capacity;
+    private final float[] values;
+    private final boolean trackMinMax;
+    private final int resyncInterval;
+
+    // slot the next sample is written to, which is the oldest slot once the window is full
+    private int next;
+    private int size;
+
+    // sums of (value - shift) and (value - shift)^2 over the window
+    private double shift;
+    private double sum;
+    private double sumOfSquares;
+    private int samplesSinceResync;
+
+    // monotonic queues of slots, increasing values for min, decreasing for max
+    private final int[] minQueue;
+    private int minHead, minSize;
+    private final int[] maxQueue;
+    private int maxHead, maxSize;
+
+    public SlidingWindow(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * @param capacity    Number of samples in the window.
+     * @param trackMinMax Whether {@link #min()} and {@link #max()} are supported.
+     */
+    public SlidingWindow(int capacity, boolean trackMinMax) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.trackMinMax = trackMinMax;
+        resyncInterval = Math.max(capacity, MIN_RESYNC_INTERVAL);
+        values = new float[capacity];
+        minQueue = trackMinMax ? new int[capacity] : null;
+        maxQueue = trackMinMax ? new int[capacity] : null;
+    }
+
+    /**
+     * Adds a sample, evicting the oldest one once the window is full.
+     */
+    public void add(float value) {
+        if (size == capacity) {
+            double old = values[next] - shift;
+            sum -= old;
+            sumOfSquares -= old * old;
+
+            // the oldest sample leaves the min/max queues with its slot
+            if (trackMinMax) {
+                if (minQueue[minHead] == next) {
+                    minHead = wrap(minHead + 1);
+                    minSize--;
+                }
+                if (maxQueue[maxHead] == next) {
+                    maxHead = wrap(maxHead + 1);
+                    maxSize--;
+                }
+            }
+        } else {
+            size++;
+        }
+        values[next] = value;
+
+        double shifted = value - shift;
+        sum += shifted;
+        sumOfSquares += shifted * shifted;
+
+        if (trackMinMax) {
+            pushMin(next, value);
+            pushMax(next, value);
+        }
+        next = wrap(next + 1);
+
+        if (++samplesSinceResync >= resyncInterval) {
+            resync();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Returns the i-th sample of the window, 0 being the oldest.
+     */
+    public float get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        }
+        int slot = next - size + i;
+        return values[slot < 0 ? slot + capacity : slot];
+    }
+
+    /** Returns the newest sample. */
+    public float last() {
+        return get(size - 1);
+    }
+
+    /** Mean of the window, 0 when it is empty. */
+    public float mean() {
+        if (size == 0) {
+            return 0.0f;
+        }
+        return (float) (shift + sum / size);
+    }
+
+    /** Population variance of the window, 0 when it is empty. */
+    public float variance() {
+        if (size == 0) {
+            return 0.0f;
+        }
+        double mean = sum / size;
+        return (float) Math.max(0.0, sumOfSquares / size - mean * mean);
+    }
+
+    public float standardDeviation() {
+        return (float) Math.sqrt(variance());
+    }
+
+    /** Smallest sample in the window, NaN when it is empty. */
+    public float min() {
+        checkMinMax();
+        return minSize == 0 ? Float.NaN : values[minQueue[minHead]];
+    }
+
+    /** Largest sample in the window, NaN when it is empty. */
+    public float max() {
+        checkMinMax();
+        return maxSize == 0 ? Float.NaN : values[maxQueue[maxHead]];
+    }
+
+    public void clear() {
+        next = 0;
+        size = 0;
+        shift = 0.0;
+        sum = 0.0;
+        sumOfSquares = 0.0;
+        samplesSinceResync = 0;
+        minHead = minSize = 0;
+        maxHead = maxSize = 0;
+    }
+
+    private void checkMinMax() {
+        if (!trackMinMax) {
+            throw new IllegalStateException("window was created without min/max tracking");
+        }
+    }
+
+    private int wrap(int index) {
+        return index >= capacity ? index - capacity : index;
+    }
+
+    // Recomputes the sums exactly around the current mean. Order does not matter
+    // here, so the occupied slots are summed directly.
+    private void resync() {
+        samplesSinceResync = 0;
+        double total = 0.0;
+        for (int i = 0; i < size; i++) {
+            total += values[i];
+        }
+        shift = total / size;
+
+        sum = 0.0;
+        sumOfSquares = 0.0;
+        for (int i = 0; i < size; i++) {
+            double shifted = values[i] - shift;
+            sum += shifted;
+            sumOfSquares += shifted * shifted;
+        }
+    }
+
+    private void pushMin(int slot, float value) {
+        // drop samples from the tail that can never be the minimum again
+        while (minSize > 0 && values[minQueue[wrap(minHead + minSize - 1)]] >= value) {
+            minSize--;
+        }
+        minQueue[wrap(minHead + minSize)] = slot;
+        minSize++;
+    }
+
+    private void pushMax(int slot, float value) {
+        while (maxSize > 0 && values[maxQueue[wrap(maxHead + maxSize - 1)]] <= value) {
+            maxSize--;
+        }
+        maxQueue[wrap(maxHead + maxSize)] = slot;
+        maxSize++;
+    }
+}
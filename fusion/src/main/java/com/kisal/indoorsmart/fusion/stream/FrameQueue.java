@@ -0,0 +1,92 @@
+package com.kisal.indoorsmart.fusion.stream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded queue of position frames for one stream client. When it is full the
+ * oldest frame makes room for the new one, so the producer never waits for the
+ * consumer; the discarded frames are counted and reported with the next batch.
+ * <p>
+ * The frames live in parallel primitive arrays sized once, so neither side
+ * allocates. One producer and one consumer thread; the lock is only held to copy
+ * a frame in or a batch out.
+ */
+class FrameQueue {
+
+    private final long[] timestamps;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] headings;
+    private final int[] stepCounts;
+    private final int[] floors;
+
+    private int head = 0; // oldest frame
+    private int size = 0;
+    private int dropped = 0; // since the last drain
+    private long droppedTotal = 0;
+
+    FrameQueue(int capacity) {
+        timestamps = new long[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+        headings = new float[capacity];
+        stepCounts = new int[capacity];
+        floors = new int[capacity];
+    }
+
+    synchronized void offer(long timestampNs, float x, float y, float heading, int stepCount, int floor) {
+        if (size == timestamps.length) {
+            head = next(head);
+            size--;
+            dropped++;
+            droppedTotal++;
+        }
+        int tail = (head + size) % timestamps.length;
+        timestamps[tail] = timestampNs;
+        xs[tail] = x;
+        ys[tail] = y;
+        headings[tail] = heading;
+        stepCounts[tail] = stepCount;
+        floors[tail] = floor;
+        size++;
+    }
+
+    /**
+     * Moves as many frames as fit into out, up to maxFrames, as one batch. Writes
+     * nothing and returns false when there is nothing to report.
+     */
+    synchronized boolean drainTo(ByteBuffer out, int maxFrames) {
+        if ((size == 0 && dropped == 0) || out.remaining() < StreamFormat.BATCH_HEADER_SIZE) {
+            return false;
+        }
+        int room = (out.remaining() - StreamFormat.BATCH_HEADER_SIZE) / StreamFormat.FRAME_SIZE;
+        int count = Math.min(size, Math.min(maxFrames, room));
+        out.putInt(count);
+        out.putInt(dropped);
+        for (int i = 0; i < count; i++) {
+            out.putLong(timestamps[head]);
+            out.putFloat(xs[head]);
+            out.putFloat(ys[head]);
+            out.putFloat(headings[head]);
+            out.putInt(stepCounts[head]);
+            out.putInt(floors[head]);
+            head = next(head);
+        }
+        size -= count;
+        dropped = 0;
+        return true;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /** Frames discarded since the queue was created. */
+    synchronized long getDroppedCount() {
+        return droppedTotal;
+    }
+
+    private int next(int i) {
+        return i + 1 == timestamps.length ? 0 : i + 1;
+    }
+}
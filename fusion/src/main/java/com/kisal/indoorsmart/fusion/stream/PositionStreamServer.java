@@ -0,0 +1,310 @@
+package com.kisal.indoorsmart.fusion.stream;
+
+import com.kisal.indoorsmart.fusion.FusionEngine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Streams the position to TCP clients, e.g. a dispatch console, in the binary
+ * {@link StreamFormat}. The fusion thread {@link #publish publishes} into one
+ * {@link FrameQueue} per client and returns at once; a sender thread writes the
+ * queued frames to every client as one batch each batch interval, with
+ * non-blocking writes. A client that reads too slowly has its unsent batch held
+ * back until its socket takes it, while its queue keeps the newest frames and
+ * drops the oldest, so it can never hold up the fusion or the other clients.
+ * <p>
+ * Publishing is rate limited to one frame per frame interval, except that step
+ * and floor changes always go out. It does not allocate.
+ */
+public class PositionStreamServer implements Closeable {
+
+    /** Frames queued per client, 12 s at the default frame rate. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    public static final long DEFAULT_BATCH_INTERVAL_MS = 100;
+
+    /** Shortest time between two frames, 20 Hz. */
+    public static final long DEFAULT_FRAME_INTERVAL_NS = 50_000_000L;
+
+    /** Further connections are closed as soon as they are accepted. */
+    public static final int MAX_CLIENTS = 4;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread sender;
+    private final int queueCapacity;
+    private final long batchIntervalMs;
+    private final long frameIntervalNs;
+    private volatile boolean running = true;
+
+    // Replaced, never modified, by the sender thread so the fusion thread can walk it
+    private volatile Client[] clients = new Client[0];
+    private volatile long retiredDropCount = 0;
+
+    // fusion thread only
+    private final float[] position = new float[2];
+    private boolean published = false;
+    private long lastTimestampNs;
+    private int lastStepCount;
+    private int lastFloor;
+
+    public PositionStreamServer(InetSocketAddress address) throws IOException {
+        this(address, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_INTERVAL_MS, DEFAULT_FRAME_INTERVAL_NS);
+    }
+
+    /**
+     * Binds to the address, port 0 for any free one, and starts sending.
+     */
+    public PositionStreamServer(InetSocketAddress address, int queueCapacity, long batchIntervalMs,
+                                long frameIntervalNs) throws IOException {
+        this.queueCapacity = queueCapacity;
+        this.batchIntervalMs = batchIntervalMs;
+        this.frameIntervalNs = frameIntervalNs;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        sender = new Thread(this::run, "PositionStream");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Fusion thread: queues the current state of the engine.
+     */
+    public void publish(FusionEngine engine, long timestampNs) {
+        if (clients.length == 0) {
+            return;
+        }
+        engine.getPosition(position);
+        publish(timestampNs, position[0], position[1], (float) engine.getHeading(), engine.getTotalStepCount(),
+                engine.getFloor());
+    }
+
+    /**
+     * Fusion thread only: queues one frame for every connected client, x and y in
+     * metres, heading in degrees and stepCount the steps taken since the engine
+     * started.
+     */
+    public void publish(long timestampNs, float x, float y, float heading, int stepCount, int floor) {
+        Client[] current = clients;
+        if (current.length == 0) {
+            return;
+        }
+        if (published && timestampNs - lastTimestampNs < frameIntervalNs
+                && stepCount == lastStepCount && floor == lastFloor) {
+            return;
+        }
+        published = true;
+        lastTimestampNs = timestampNs;
+        lastStepCount = stepCount;
+        lastFloor = floor;
+        for (Client client : current) {
+            client.queue.offer(timestampNs, x, y, heading, stepCount, floor);
+        }
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getClientCount() {
+        return clients.length;
+    }
+
+    /** Frames dropped for clients that did not keep up, since the server started. */
+    public long getDroppedFrameCount() {
+        long dropped = retiredDropCount;
+        for (Client client : clients) {
+            dropped += client.queue.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    /** Stops sending and disconnects every client. */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long nextBatchNs = System.nanoTime();
+        try {
+            while (running) {
+                long waitMs = (nextBatchNs - System.nanoTime()) / 1_000_000;
+                if (waitMs > 0) {
+                    selector.select(waitMs);
+                } else {
+                    selector.selectNow();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    if (key.isReadable()) {
+                        client.discardInput();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        client.flush();
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.nanoTime();
+                if (now - nextBatchNs >= 0) {
+                    for (Client client : clients) {
+                        client.sendBatch();
+                    }
+                    nextBatchNs = Math.max(nextBatchNs + batchIntervalMs * 1_000_000, now);
+                }
+            }
+        } catch (IOException e) {
+            // the selector failed, the stream ends
+        } finally {
+            for (Client client : clients) {
+                disconnect(client);
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // A connection that fails while being set up is closed, the others keep going
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            if (clients.length >= MAX_CLIENTS) {
+                channel.close();
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(channel);
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+            Client[] current = clients;
+            Client[] added = Arrays.copyOf(current, current.length + 1);
+            added[current.length] = client;
+            clients = added;
+            client.flush();
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void disconnect(Client client) {
+        if (client.key != null) {
+            client.key.cancel();
+        }
+        try {
+            client.channel.close();
+        } catch (IOException ignored) {
+        }
+        Client[] current = clients;
+        int index = Arrays.asList(current).indexOf(client);
+        if (index < 0) {
+            return;
+        }
+        Client[] removed = new Client[current.length - 1];
+        System.arraycopy(current, 0, removed, 0, index);
+        System.arraycopy(current, index + 1, removed, index, removed.length - index);
+        retiredDropCount += client.queue.getDroppedCount();
+        clients = removed;
+    }
+
+    // One connection: its queue and the batch being written to it, sender thread
+    // only apart from the queue
+    private final class Client {
+
+        final SocketChannel channel;
+        final FrameQueue queue = new FrameQueue(queueCapacity);
+        final ByteBuffer out;
+        final ByteBuffer in = ByteBuffer.allocate(256);
+        SelectionKey key;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+            out = ByteBuffer.allocateDirect(StreamFormat.HEADER_SIZE + StreamFormat.BATCH_HEADER_SIZE
+                    + queueCapacity * StreamFormat.FRAME_SIZE).order(StreamFormat.BYTE_ORDER);
+            StreamFormat.putHeader(out);
+            out.flip();
+        }
+
+        // Starts the next batch unless the last one is still going out
+        void sendBatch() {
+            if (!out.hasRemaining()) {
+                out.clear();
+                queue.drainTo(out, queueCapacity);
+                out.flip();
+            }
+            flush();
+        }
+
+        // Writes what the socket takes and waits to be writable for the rest
+        void flush() {
+            try {
+                if (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                key.interestOps(out.hasRemaining()
+                        ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                        : SelectionKey.OP_READ);
+            } catch (IOException e) {
+                disconnect(this);
+            }
+        }
+
+        // Clients have nothing to say; reading only notices when they hang up
+        void discardInput() {
+            try {
+                int read;
+                do {
+                    in.clear();
+                    read = channel.read(in);
+                } while (read > 0);
+                if (read < 0) {
+                    disconnect(this);
+                }
+            } catch (IOException e) {
+                disconnect(this);
+            }
+        }
+    }
+}
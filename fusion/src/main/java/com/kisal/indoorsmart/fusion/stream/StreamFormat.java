@@ -0,0 +1,38 @@
+package com.kisal.indoorsmart.fusion.stream;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Wire format of the live position stream, see {@link PositionStreamServer}.
+ *
+ * <pre>
+ * header: int magic, short version, short frame size                  (8 bytes, once)
+ * batch : int frame count, int frames dropped since the previous batch,
+ *         then that many frames                                      (8 bytes + frames)
+ * frame : long time (ns), float x (m), float y (m), float heading (degrees),
+ *         int steps since start, int floor                            (28 bytes)
+ * </pre>
+ *
+ * Little endian throughout. The frames of a batch are in time order, oldest first;
+ * the dropped count says how many the server discarded for that client because it
+ * did not keep up.
+ */
+public final class StreamFormat {
+
+    public static final int MAGIC = 0x53505349; // "ISPS"
+    public static final short VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int HEADER_SIZE = 8;
+    public static final int BATCH_HEADER_SIZE = 8;
+    public static final int FRAME_SIZE = 28;
+
+    private StreamFormat() {}
+
+    static void putHeader(ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) FRAME_SIZE);
+    }
+}
@@ -0,0 +1,85 @@
+package com.kisal.indoorsmart.fusion.trace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Surveyed checkpoints of a recorded walk: where the walker really was at a few
+ * sensor timestamps. The first checkpoint is the start of the walk.
+ */
+public class GroundTruth {
+
+    private final long[] timestamps;
+    private final float[] xs;
+    private final float[] ys;
+
+    public GroundTruth(long[] timestamps, float[] xs, float[] ys) {
+        if (timestamps.length == 0 || xs.length != timestamps.length || ys.length != timestamps.length) {
+            throw new IllegalArgumentException("Need matching, non-empty checkpoint arrays");
+        }
+        this.timestamps = timestamps;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    /**
+     * Reads checkpoints as lines of "timestampNs x y", x and y in metres, in
+     * timestamp order. Blank lines and lines starting with # are skipped.
+     */
+    public static GroundTruth read(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        long[] timestamps = new long[16];
+        float[] xs = new float[16];
+        float[] ys = new float[16];
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length != 3) {
+                throw new IOException("Expected timestampNs x y: " + line);
+            }
+            if (count == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+            }
+            try {
+                timestamps[count] = Long.parseLong(fields[0]);
+                xs[count] = Float.parseFloat(fields[1]);
+                ys[count] = Float.parseFloat(fields[2]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Expected timestampNs x y: " + line, e);
+            }
+            if (count > 0 && timestamps[count] < timestamps[count - 1]) {
+                throw new IOException("Checkpoints out of order: " + line);
+            }
+            count++;
+        }
+        if (count == 0) {
+            throw new IOException("No checkpoints");
+        }
+        return new GroundTruth(Arrays.copyOf(timestamps, count), Arrays.copyOf(xs, count), Arrays.copyOf(ys, count));
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    public float getX(int i) {
+        return xs[i];
+    }
+
+    public float getY(int i) {
+        return ys[i];
+    }
+}
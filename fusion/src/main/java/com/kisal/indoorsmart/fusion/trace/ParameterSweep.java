@@ -0,0 +1,325 @@
+package com.kisal.indoorsmart.fusion.trace;
+
+import com.kisal.indoorsmart.fusion.FusionParameters;
+import com.kisal.indoorsmart.fusion.SensorFusionEngine;
+import com.kisal.indoorsmart.fusion.SensorResampler;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Tunes {@link FusionParameters} offline: replays a corpus of recorded walks
+ * through an engine per parameter set and ranks the sets by the error against
+ * the walks' ground truth checkpoints. Every (parameter set, walk) replay is an
+ * independent task on a fork-join pool, and the traces are memory mapped, so a
+ * sweep scales with the cores and the page cache rather than the heap.
+ */
+public class ParameterSweep {
+
+    /** A walk is a trace file next to a checkpoint file of the same name with this suffix. */
+    public static final String TRUTH_SUFFIX = ".truth";
+    public static final String TRACE_SUFFIX = ".bin";
+
+    /** One recorded walk of the corpus. */
+    public static class Walk {
+        public final File trace;
+        public final GroundTruth truth;
+
+        public Walk(File trace, GroundTruth truth) {
+            this.trace = trace;
+            this.truth = truth;
+        }
+    }
+
+    /** Errors of one parameter set, averaged over the corpus, in metres. */
+    public static class Score implements Comparable<Score> {
+        public final FusionParameters parameters;
+        /** Distance to the last checkpoint. */
+        public final double endpointError;
+        /** Distance to each checkpoint after the start. */
+        public final double meanError;
+
+        Score(FusionParameters parameters, double endpointError, double meanError) {
+            this.parameters = parameters;
+            this.endpointError = endpointError;
+            this.meanError = meanError;
+        }
+
+        @Override
+        public int compareTo(Score other) {
+            int byEndpoint = Double.compare(endpointError, other.endpointError);
+            return byEndpoint != 0 ? byEndpoint : Double.compare(meanError, other.meanError);
+        }
+    }
+
+    private final List<Walk> walks;
+    private final ForkJoinPool pool;
+
+    public ParameterSweep(List<Walk> walks, ForkJoinPool pool) {
+        this.walks = walks;
+        this.pool = pool;
+    }
+
+    /**
+     * Loads every trace in dir that has a checkpoint file, e.g. walk-12.bin and
+     * walk-12.truth.
+     */
+    public static List<Walk> loadCorpus(File dir) throws IOException {
+        File[] traces = dir.listFiles((d, name) -> name.endsWith(TRACE_SUFFIX));
+        if (traces == null) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        Arrays.sort(traces);
+        List<Walk> walks = new ArrayList<>();
+        for (File trace : traces) {
+            String name = trace.getName();
+            File truthFile = new File(dir, name.substring(0, name.length() - TRACE_SUFFIX.length()) + TRUTH_SUFFIX);
+            if (!truthFile.exists()) {
+                continue;
+            }
+            try (Reader in = new FileReader(truthFile)) {
+                walks.add(new Walk(trace, GroundTruth.read(in)));
+            }
+        }
+        return walks;
+    }
+
+    /** Every combination of the given values, on top of base. */
+    public static List<FusionParameters> grid(FusionParameters base, Map<String, double[]> values) {
+        List<FusionParameters> candidates = new ArrayList<>();
+        candidates.add(new FusionParameters(base));
+        for (Map.Entry<String, double[]> parameter : values.entrySet()) {
+            List<FusionParameters> expanded = new ArrayList<>(candidates.size() * parameter.getValue().length);
+            for (FusionParameters candidate : candidates) {
+                for (double value : parameter.getValue()) {
+                    FusionParameters next = new FusionParameters(candidate);
+                    next.set(parameter.getKey(), value);
+                    expanded.add(next);
+                }
+            }
+            candidates = expanded;
+        }
+        return candidates;
+    }
+
+    /**
+     * count parameter sets drawn uniformly from the {min, max} ranges, on top of
+     * base.
+     */
+    public static List<FusionParameters> random(FusionParameters base, Map<String, double[]> ranges, int count,
+                                                long seed) {
+        Random random = new Random(seed);
+        List<FusionParameters> candidates = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            FusionParameters candidate = new FusionParameters(base);
+            for (Map.Entry<String, double[]> range : ranges.entrySet()) {
+                double min = range.getValue()[0];
+                double max = range.getValue()[range.getValue().length - 1];
+                candidate.set(range.getKey(), min + random.nextDouble() * (max - min));
+            }
+            candidates.add(candidate);
+        }
+        return candidates;
+    }
+
+    /**
+     * Replays every walk with every candidate and returns the scores, best
+     * first.
+     */
+    public List<Score> run(List<FusionParameters> candidates) {
+        double[] endpointErrors = new double[candidates.size() * walks.size()];
+        double[] meanErrors = new double[endpointErrors.length];
+        pool.invoke(new Replay(candidates, endpointErrors, meanErrors, 0, endpointErrors.length));
+
+        List<Score> scores = new ArrayList<>(candidates.size());
+        for (int c = 0; c < candidates.size(); c++) {
+            double endpoint = 0, mean = 0;
+            for (int w = 0; w < walks.size(); w++) {
+                endpoint += endpointErrors[c * walks.size() + w];
+                mean += meanErrors[c * walks.size() + w];
+            }
+            scores.add(new Score(candidates.get(c), endpoint / walks.size(), mean / walks.size()));
+        }
+        Collections.sort(scores);
+        return scores;
+    }
+
+    // Splits the (candidate, walk) pairs down to single replays
+    private class Replay extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // never serialised, ForkJoinTask is Serializable
+
+        private final List<FusionParameters> candidates;
+        private final double[] endpointErrors;
+        private final double[] meanErrors;
+        private final int from;
+        private final int to;
+
+        Replay(List<FusionParameters> candidates, double[] endpointErrors, double[] meanErrors, int from, int to) {
+            this.candidates = candidates;
+            this.endpointErrors = endpointErrors;
+            this.meanErrors = meanErrors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Replay(candidates, endpointErrors, meanErrors, from, mid),
+                        new Replay(candidates, endpointErrors, meanErrors, mid, to));
+                return;
+            }
+            try {
+                double[] errors = evaluate(walks.get(from % walks.size()), candidates.get(from / walks.size()));
+                endpointErrors[from] = errors[0];
+                meanErrors[from] = errors[1];
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Replays one walk from its first checkpoint and returns the distance to the
+     * last checkpoint and the mean distance to all checkpoints after the start.
+     * A checkpoint is compared with the position just before the first event at
+     * or after its timestamp. Events before the first checkpoint only settle the
+     * engine; the position is set to the checkpoint when it is reached.
+     */
+    public static double[] evaluate(Walk walk, FusionParameters parameters) throws IOException {
+        GroundTruth truth = walk.truth;
+        SensorFusionEngine engine = new SensorFusionEngine(parameters, new SensorResampler());
+
+        float[] position = new float[2];
+        int next = 0;
+        double sum = 0, last = 0;
+        try (TraceReader reader = new TraceReader(walk.trace)) {
+            while (reader.next()) {
+                long timestamp = reader.getTimestamp();
+                if (next == 0 && truth.getTimestamp(0) <= timestamp) {
+                    engine.setPosition(truth.getX(0), truth.getY(0));
+                    next = 1;
+                }
+                while (next > 0 && next < truth.size() && truth.getTimestamp(next) <= timestamp) {
+                    engine.getPosition(position);
+                    last = distance(position, truth, next++);
+                    sum += last;
+                }
+                engine.onSensorEvent(reader.getSensorType(), timestamp, reader.getValues());
+            }
+        }
+        // checkpoints after the end of the trace see the final position
+        if (next == 0) {
+            engine.setPosition(truth.getX(0), truth.getY(0));
+            next = 1;
+        }
+        engine.getPosition(position);
+        while (next < truth.size()) {
+            last = distance(position, truth, next++);
+            sum += last;
+        }
+        return new double[]{last, truth.size() > 1 ? sum / (truth.size() - 1) : 0};
+    }
+
+    private static double distance(float[] position, GroundTruth truth, int i) {
+        double dx = position[0] - truth.getX(i);
+        double dy = position[1] - truth.getY(i);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Usage: ParameterSweep &lt;corpus dir&gt; name=v1,v2,... | name=min:max ...
+     * [--random count] [--seed seed] [--top k] [--threads n]
+     * <p>
+     * Without --random, every combination of the listed values is replayed; with
+     * it, count parameter sets are drawn from the min:max ranges. The names are
+     * {@link FusionParameters#NAMES}, unnamed parameters keep their defaults. The
+     * best k sets are printed, best first.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ParameterSweep <corpus dir> name=v1,v2,...|name=min:max ... "
+                    + "[--random count] [--seed seed] [--top k] [--threads n]");
+            System.err.println("Parameters: " + String.join(", ", FusionParameters.NAMES));
+            System.exit(2);
+        }
+        Map<String, double[]> specs = new LinkedHashMap<>();
+        int randomCount = 0;
+        long seed = 1;
+        int top = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean ranges = false;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--random":
+                    randomCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--top":
+                    top = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    int eq = arg.indexOf('=');
+                    if (eq < 0) {
+                        throw new IllegalArgumentException("Expected name=values: " + arg);
+                    }
+                    String value = arg.substring(eq + 1);
+                    ranges |= value.contains(":");
+                    String[] fields = value.split("[,:]");
+                    double[] values = new double[fields.length];
+                    for (int f = 0; f < fields.length; f++) {
+                        values[f] = Double.parseDouble(fields[f]);
+                    }
+                    // checks the name
+                    new FusionParameters().set(arg.substring(0, eq), values[0]);
+                    specs.put(arg.substring(0, eq), values);
+            }
+        }
+        if (ranges && randomCount == 0) {
+            throw new IllegalArgumentException("min:max ranges need --random");
+        }
+
+        List<Walk> walks = loadCorpus(new File(args[0]));
+        if (walks.isEmpty()) {
+            System.err.println("No traces with " + TRUTH_SUFFIX + " checkpoints in " + args[0]);
+            System.exit(1);
+        }
+        List<FusionParameters> candidates = randomCount > 0
+                ? random(new FusionParameters(), specs, randomCount, seed)
+                : grid(new FusionParameters(), specs);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        List<Score> scores = new ParameterSweep(walks, pool).run(candidates);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        System.out.println(String.format(Locale.US, "%d parameter sets x %d walks in %.1f s on %d threads, %.1f replays/s",
+                candidates.size(), walks.size(), seconds, threads, candidates.size() * walks.size() / seconds));
+        for (int i = 0; i < Math.min(top, scores.size()); i++) {
+            Score score = scores.get(i);
+            System.out.println(String.format(Locale.US, "%3d. end %.3f m, mean %.3f m: %s",
+                    i + 1, score.endpointError, score.meanError, score.parameters));
+        }
+    }
+}
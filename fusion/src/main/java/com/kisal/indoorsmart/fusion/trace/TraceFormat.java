@@ -0,0 +1,27 @@
+package com.kisal.indoorsmart.fusion.trace;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of a binary sensor trace file.
+ *
+ * <pre>
+ * header : int magic, short version, short record size        (8 bytes)
+ * record : int sensor type, long timestamp (ns), float[3] values (24 bytes)
+ * </pre>
+ *
+ * All fields are little endian. Sensors with fewer than three values (step counter)
+ * leave the remaining floats at zero.
+ */
+public final class TraceFormat {
+
+    public static final int MAGIC = 0x52545349; // "ISTR"
+    public static final short VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int HEADER_SIZE = 8;
+    public static final int VALUE_COUNT = 3;
+    public static final int RECORD_SIZE = 4 + 8 + 4 * VALUE_COUNT;
+
+    private TraceFormat() {}
+}
@@ -0,0 +1,88 @@
+package com.kisal.indoorsmart.fusion.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a {@link TraceFormat} file through a memory mapping. The reader is a cursor:
+ * {@link #next()} moves to the following record and the getters describe it.
+ */
+public class TraceReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final long recordCount;
+
+    private int sensorType;
+    private long timestamp;
+    private final float[] values = new float[TraceFormat.VALUE_COUNT];
+
+    public TraceReader(File traceFile) throws IOException {
+        file = new RandomAccessFile(traceFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(TraceFormat.BYTE_ORDER);
+
+            if (buffer.remaining() < TraceFormat.HEADER_SIZE || buffer.getInt() != TraceFormat.MAGIC) {
+                throw new IOException("Not a sensor trace: " + traceFile);
+            }
+            short version = buffer.getShort();
+            short recordSize = buffer.getShort();
+            if (version != TraceFormat.VERSION || recordSize != TraceFormat.RECORD_SIZE) {
+                throw new IOException("Unsupported trace version " + version + " in " + traceFile);
+            }
+            // a torn last record from a crashed recording is ignored
+            recordCount = buffer.remaining() / TraceFormat.RECORD_SIZE;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Moves to the next record. Returns false at the end of the trace.
+     */
+    public boolean next() {
+        if (buffer.remaining() < TraceFormat.RECORD_SIZE) {
+            return false;
+        }
+        sensorType = buffer.getInt();
+        timestamp = buffer.getLong();
+        for (int i = 0; i < TraceFormat.VALUE_COUNT; i++) {
+            values[i] = buffer.getFloat();
+        }
+        return true;
+    }
+
+    /** Moves the cursor back to the first record. */
+    public void rewind() {
+        buffer.position(TraceFormat.HEADER_SIZE);
+    }
+
+    public int getSensorType() {
+        return sensorType;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /** Values of the current record. The array is reused by the next call to next(). */
+    public float[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.kisal.indoorsmart.fusion.trace;
+
+import com.kisal.indoorsmart.fusion.FusionEngine;
+import com.kisal.indoorsmart.fusion.SensorFusionEngine;
+import com.kisal.indoorsmart.fusion.map.ParticleFilter;
+import com.kisal.indoorsmart.fusion.map.WallIndex;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+
+/**
+ * Replays a recorded trace through a {@link FusionEngine} as fast as the CPU allows.
+ * The engine schedules its fusion steps from the trace timestamps, exactly as on the
+ * device, so a replay reproduces the recorded session.
+ */
+public class TraceReplayer {
+
+    /**
+     * Feeds every record of the trace into the engine and returns the throughput.
+     */
+    public Result replay(TraceReader reader, FusionEngine engine) {
+        long events = 0;
+
+        long start = System.nanoTime();
+        while (reader.next()) {
+            engine.onSensorEvent(reader.getSensorType(), reader.getTimestamp(), reader.getValues());
+            events++;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return new Result(events, elapsed);
+    }
+
+    /** Outcome of one replay. */
+    public static class Result {
+        public final long events;
+        public final long elapsedNs;
+
+        Result(long events, long elapsedNs) {
+            this.events = events;
+            this.elapsedNs = elapsedNs;
+        }
+
+        public double getEventsPerSecond() {
+            return elapsedNs == 0 ? 0 : events * 1e9 / elapsedNs;
+        }
+    }
+
+    /** Particles used when replaying against a wall file. */
+    public static final int DEFAULT_PARTICLES = 5000;
+
+    /**
+     * Usage: TraceReplayer &lt;trace file&gt; [passes] [wall file] [particles]
+     * <p>
+     * Replays the trace the given number of times, each through a fresh engine, and
+     * prints the throughput and the final position of every pass. With a wall file
+     * (see {@link WallIndex#read}) the steps are map matched and the mean cost of a
+     * particle filter step is printed too. Floor changes the barometer events cause
+     * are printed as they happen.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceReplayer <trace file> [passes] [wall file] [particles]");
+            System.exit(2);
+        }
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        WallIndex walls = null;
+        if (args.length > 2 && !args[2].isEmpty()) {
+            try (Reader in = new FileReader(args[2])) {
+                walls = WallIndex.read(in, WallIndex.DEFAULT_CELL_SIZE);
+            }
+        }
+        int particles = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PARTICLES;
+
+        TraceReplayer replayer = new TraceReplayer();
+        try (TraceReader reader = new TraceReader(new File(args[0]))) {
+            for (int pass = 1; pass <= passes; pass++) {
+                reader.rewind();
+                SensorFusionEngine engine = new SensorFusionEngine();
+                ParticleFilter mapMatcher = null;
+                if (walls != null) {
+                    mapMatcher = new ParticleFilter(walls, particles, pass);
+                    engine.setMapMatcher(mapMatcher);
+                }
+                int passNumber = pass;
+                engine.setFloorListener((floor, timestampNs) -> System.out.println(String.format(Locale.US,
+                        "pass %d: floor %d at %.1f s", passNumber, floor, timestampNs / 1e9)));
+                Result result = replayer.replay(reader, engine);
+                float[] position = new float[2];
+                engine.getPosition(position);
+                System.out.println(String.format(Locale.US,
+                        "pass %d: %d events in %.1f ms, %.0f events/s, position (%.3f, %.3f), heading %.2f",
+                        pass, result.events, result.elapsedNs / 1e6, result.getEventsPerSecond(),
+                        position[0], position[1], engine.getHeading()));
+                if (mapMatcher != null) {
+                    System.out.println(String.format(Locale.US,
+                            "        %d map matched steps of %d particles, %.1f us/step, %d resets",
+                            mapMatcher.getStepCount(), particles, mapMatcher.getMeanStepNs() / 1e3,
+                            mapMatcher.getResetCount()));
+                }
+            }
+        }
+    }
+}
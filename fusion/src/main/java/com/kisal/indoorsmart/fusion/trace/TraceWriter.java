@@ -0,0 +1,71 @@
+package com.kisal.indoorsmart.fusion.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records sensor events into a {@link TraceFormat} file. Records are packed into a
+ * reusable buffer and written out in large chunks, so recording an event does not
+ * allocate.
+ */
+public class TraceWriter implements Closeable {
+
+    private static final int BUFFER_RECORDS = 2048;
+
+    private final FileOutputStream outputStream;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer
+            .allocateDirect(TraceFormat.RECORD_SIZE * BUFFER_RECORDS)
+            .order(TraceFormat.BYTE_ORDER);
+    private long recordCount;
+
+    public TraceWriter(File file) throws IOException {
+        outputStream = new FileOutputStream(file);
+        channel = outputStream.getChannel();
+
+        buffer.putInt(TraceFormat.MAGIC);
+        buffer.putShort(TraceFormat.VERSION);
+        buffer.putShort((short) TraceFormat.RECORD_SIZE);
+    }
+
+    /**
+     * Appends one sensor event. Only the first {@link TraceFormat#VALUE_COUNT}
+     * values are kept.
+     */
+    public void record(int sensorType, long timestampNs, float[] values) throws IOException {
+        if (buffer.remaining() < TraceFormat.RECORD_SIZE) {
+            flush();
+        }
+        buffer.putInt(sensorType);
+        buffer.putLong(timestampNs);
+        for (int i = 0; i < TraceFormat.VALUE_COUNT; i++) {
+            buffer.putFloat(i < values.length ? values[i] : 0.0f);
+        }
+        recordCount++;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            outputStream.close();
+        }
+    }
+}
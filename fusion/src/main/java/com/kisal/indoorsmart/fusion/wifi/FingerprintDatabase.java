@@ -0,0 +1,146 @@
+package com.kisal.indoorsmart.fusion.wifi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Surveyed Wi-Fi fingerprints of one site: at each reference point, the signal
+ * strength of every access point seen anywhere on the site. An access point not
+ * heard at a point counts as {@link #MISSING_RSSI}, so all fingerprints are vectors
+ * of the same dimension, one per access point.
+ * <p>
+ * Immutable once read; {@link #toVector} may be called from many threads.
+ */
+public class FingerprintDatabase {
+
+    /** Signal strength in dBm of an access point that was not heard. */
+    public static final float MISSING_RSSI = -100.0f;
+
+    private final String[] bssids;
+    private final Map<String, Integer> accessPoints = new HashMap<>();
+    private final float[] xs;
+    private final float[] ys;
+    // Fingerprint of point i is rssi[i * dimension .. (i + 1) * dimension)
+    private final float[] rssi;
+
+    public FingerprintDatabase(String[] bssids, float[] xs, float[] ys, float[] rssi) {
+        if (xs.length != ys.length || rssi.length != xs.length * bssids.length) {
+            throw new IllegalArgumentException("Need one x, y and fingerprint per reference point");
+        }
+        this.bssids = bssids;
+        this.xs = xs;
+        this.ys = ys;
+        this.rssi = rssi;
+        for (int i = 0; i < bssids.length; i++) {
+            accessPoints.put(bssids[i], i);
+        }
+    }
+
+    /**
+     * Reads reference points as lines of "x y bssid=rssi bssid=rssi ...", x and y in
+     * metres and rssi in dBm. The access points are numbered in the order they first
+     * appear. Blank lines and lines starting with # are skipped.
+     */
+    public static FingerprintDatabase read(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        List<String> bssids = new ArrayList<>();
+        Map<String, Integer> accessPoints = new HashMap<>();
+        List<String[]> lines = new ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (fields.length < 3) {
+                throw new IOException("Expected x y bssid=rssi ...: " + line);
+            }
+            for (int i = 2; i < fields.length; i++) {
+                int separator = fields[i].indexOf('=');
+                if (separator <= 0) {
+                    throw new IOException("Expected bssid=rssi: " + line);
+                }
+                String bssid = fields[i].substring(0, separator);
+                if (!accessPoints.containsKey(bssid)) {
+                    accessPoints.put(bssid, bssids.size());
+                    bssids.add(bssid);
+                }
+            }
+            lines.add(fields);
+        }
+        if (lines.isEmpty()) {
+            throw new IOException("No reference points");
+        }
+
+        int dimension = bssids.size();
+        float[] xs = new float[lines.size()];
+        float[] ys = new float[lines.size()];
+        float[] rssi = new float[lines.size() * dimension];
+        Arrays.fill(rssi, MISSING_RSSI);
+        for (int point = 0; point < lines.size(); point++) {
+            String[] fields = lines.get(point);
+            try {
+                xs[point] = Float.parseFloat(fields[0]);
+                ys[point] = Float.parseFloat(fields[1]);
+                for (int i = 2; i < fields.length; i++) {
+                    int separator = fields[i].indexOf('=');
+                    int ap = accessPoints.get(fields[i].substring(0, separator));
+                    rssi[point * dimension + ap] = Float.parseFloat(fields[i].substring(separator + 1));
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Expected x y bssid=rssi ...: " + String.join(" ", fields), e);
+            }
+        }
+        return new FingerprintDatabase(bssids.toArray(new String[0]), xs, ys, rssi);
+    }
+
+    /**
+     * Turns one scan of count access points into a fingerprint vector in out, of
+     * {@link #getDimension()} values. Access points the survey never saw are
+     * ignored. Returns the number of access points of the scan that are known.
+     */
+    public int toVector(String[] scanBssids, float[] scanRssi, int count, float[] out) {
+        Arrays.fill(out, 0, bssids.length, MISSING_RSSI);
+        int known = 0;
+        for (int i = 0; i < count; i++) {
+            Integer ap = accessPoints.get(scanBssids[i]);
+            if (ap != null) {
+                out[ap] = scanRssi[i];
+                known++;
+            }
+        }
+        return known;
+    }
+
+    /** Number of access points, the length of a fingerprint. */
+    public int getDimension() {
+        return bssids.length;
+    }
+
+    public String getBssid(int accessPoint) {
+        return bssids[accessPoint];
+    }
+
+    public int size() {
+        return xs.length;
+    }
+
+    public float getX(int point) {
+        return xs[point];
+    }
+
+    public float getY(int point) {
+        return ys[point];
+    }
+
+    public float getRssi(int point, int accessPoint) {
+        return rssi[point * bssids.length + accessPoint];
+    }
+}
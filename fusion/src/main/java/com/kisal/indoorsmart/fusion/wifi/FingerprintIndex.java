@@ -0,0 +1,253 @@
+package com.kisal.indoorsmart.fusion.wifi;
+
+/**
+ * KD-tree over the fingerprints of a {@link FingerprintDatabase}, answering
+ * k-nearest-neighbour queries in signal space and turning them into a position.
+ * <p>
+ * The tree is implicit: the fingerprints are reordered so that every subtree is a
+ * contiguous range whose median splits it on the access point with the widest
+ * spread, and ranges of at most {@link #LEAF_SIZE} points are scanned. Queries use
+ * preallocated scratch arrays and do not allocate. Not thread safe, call it from
+ * one thread.
+ */
+public class FingerprintIndex {
+
+    /** Neighbours averaged into a position estimate. */
+    public static final int DEFAULT_K = 4;
+
+    /** Largest range that is scanned instead of split. */
+    static final int LEAF_SIZE = 8;
+
+    // Added to the signal distance of the weights, in dB, so an exact match does
+    // not take all the weight
+    private static final float WEIGHT_OFFSET_DB = 1.0f;
+
+    private final FingerprintDatabase database;
+    private final int dimension;
+    private final int count;
+
+    // Fingerprint of tree slot s is points[s * dimension ..], from database point ids[s]
+    private final float[] points;
+    private final int[] ids;
+    // Access point that splits the range whose median is slot s, for split ranges only
+    private final int[] splitAccessPoint;
+
+    // Query scratch: the k best so far, sorted by squared distance
+    private final int maxK;
+    private final int[] bestSlot;
+    private final float[] bestDistance;
+    // Per access point distance from the query to the current range's cell, so a
+    // range is skipped once the cell is further away than the k-th best
+    private final float[] offsets;
+    private int found;
+    private int k;
+    private float[] query;
+
+    public FingerprintIndex(FingerprintDatabase database) {
+        this(database, DEFAULT_K);
+    }
+
+    /**
+     * Indexes the database for queries of up to maxK neighbours.
+     */
+    public FingerprintIndex(FingerprintDatabase database, int maxK) {
+        this.database = database;
+        this.dimension = database.getDimension();
+        this.count = database.size();
+        this.maxK = maxK;
+        bestSlot = new int[maxK];
+        bestDistance = new float[maxK];
+        offsets = new float[dimension];
+
+        ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+        }
+        splitAccessPoint = new int[count];
+        build(0, count);
+
+        points = new float[count * dimension];
+        for (int slot = 0; slot < count; slot++) {
+            for (int ap = 0; ap < dimension; ap++) {
+                points[slot * dimension + ap] = database.getRssi(ids[slot], ap);
+            }
+        }
+    }
+
+    private void build(int from, int to) {
+        if (to - from <= LEAF_SIZE) {
+            return;
+        }
+        // split on the access point whose signal varies most in the range
+        int split = 0;
+        float widest = -1;
+        for (int ap = 0; ap < dimension; ap++) {
+            float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+            for (int i = from; i < to; i++) {
+                float value = database.getRssi(ids[i], ap);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                split = ap;
+            }
+        }
+        int median = (from + to) >>> 1;
+        select(from, to - 1, median, split);
+        splitAccessPoint[median] = split;
+        build(from, median);
+        build(median + 1, to);
+    }
+
+    // Quickselect on ids[left..right]: the median-th smallest on the access point
+    // lands at median, smaller ones before and larger ones after it
+    private void select(int left, int right, int median, int ap) {
+        while (left < right) {
+            float pivot = database.getRssi(ids[(left + right) >>> 1], ap);
+            int i = left, j = right;
+            while (i <= j) {
+                while (database.getRssi(ids[i], ap) < pivot) {
+                    i++;
+                }
+                while (database.getRssi(ids[j], ap) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = ids[i];
+                    ids[i++] = ids[j];
+                    ids[j--] = swap;
+                }
+            }
+            if (median <= j) {
+                right = j;
+            } else if (median >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the k fingerprints closest to query, a vector from
+     * {@link FingerprintDatabase#toVector}, by Euclidean distance in dB. Returns
+     * the number found, k unless the database is smaller; see {@link #getNeighbor}.
+     */
+    public int findNearest(float[] query, int k) {
+        if (k > maxK) {
+            throw new IllegalArgumentException("k " + k + " is above the " + maxK + " the index was built for");
+        }
+        this.query = query;
+        this.k = k;
+        found = 0;
+        search(0, count, 0);
+        this.query = null;
+        return found;
+    }
+
+    // cellDistance is the squared distance from the query to the cell of the range
+    private void search(int from, int to, float cellDistance) {
+        if (to - from <= LEAF_SIZE) {
+            for (int slot = from; slot < to; slot++) {
+                offer(slot);
+            }
+            return;
+        }
+        int median = (from + to) >>> 1;
+        int ap = splitAccessPoint[median];
+        offer(median);
+        float difference = query[ap] - points[median * dimension + ap];
+        if (difference < 0) {
+            search(from, median, cellDistance);
+        } else {
+            search(median + 1, to, cellDistance);
+        }
+        // the other side is at least |difference| away on this access point
+        float offset = offsets[ap];
+        float farDistance = cellDistance - offset * offset + difference * difference;
+        if (found < k || farDistance < bestDistance[found - 1]) {
+            offsets[ap] = difference;
+            if (difference < 0) {
+                search(median + 1, to, farDistance);
+            } else {
+                search(from, median, farDistance);
+            }
+            offsets[ap] = offset;
+        }
+    }
+
+    // Inserts the slot into the sorted best list when it is among the k closest
+    private void offer(int slot) {
+        float distance = 0;
+        int base = slot * dimension;
+        float worst = found == k ? bestDistance[found - 1] : Float.MAX_VALUE;
+        for (int ap = 0; ap < dimension && distance < worst; ap++) {
+            float d = query[ap] - points[base + ap];
+            distance += d * d;
+        }
+        if (distance >= worst) {
+            return;
+        }
+        int i = found < k ? found++ : found - 1;
+        while (i > 0 && bestDistance[i - 1] > distance) {
+            bestDistance[i] = bestDistance[i - 1];
+            bestSlot[i] = bestSlot[i - 1];
+            i--;
+        }
+        bestDistance[i] = distance;
+        bestSlot[i] = slot;
+    }
+
+    /** Database point of the i-th nearest fingerprint of the last query. */
+    public int getNeighbor(int i) {
+        return ids[bestSlot[i]];
+    }
+
+    /** Signal distance of the i-th nearest fingerprint of the last query, in dB. */
+    public float getNeighborDistance(int i) {
+        return (float) Math.sqrt(bestDistance[i]);
+    }
+
+    /**
+     * Weighted k-nearest-neighbour position of the scan fingerprint query: the
+     * reference points of the k closest fingerprints, weighted by their inverse
+     * signal distance. Writes {x, y} in metres into out, followed by the weighted
+     * spread of the neighbours around it in metres, a rough accuracy. Returns false,
+     * leaving out as it was, when there is no neighbour to place the scan, e.g. in an
+     * empty database.
+     */
+    public boolean estimate(float[] query, int k, float[] out) {
+        int n = findNearest(query, k);
+        float totalWeight = 0, x = 0, y = 0;
+        for (int i = 0; i < n; i++) {
+            float weight = 1.0f / (getNeighborDistance(i) + WEIGHT_OFFSET_DB);
+            int point = getNeighbor(i);
+            x += weight * database.getX(point);
+            y += weight * database.getY(point);
+            totalWeight += weight;
+        }
+        if (n == 0 || totalWeight <= 0) {
+            return false;
+        }
+        x /= totalWeight;
+        y /= totalWeight;
+
+        float spread = 0;
+        for (int i = 0; i < n; i++) {
+            float weight = 1.0f / (getNeighborDistance(i) + WEIGHT_OFFSET_DB);
+            int point = getNeighbor(i);
+            float dx = database.getX(point) - x;
+            float dy = database.getY(point) - y;
+            spread += weight * (dx * dx + dy * dy);
+        }
+        out[0] = x;
+        out[1] = y;
+        out[2] = (float) Math.sqrt(spread / totalWeight);
+        return true;
+    }
+
+    public FingerprintDatabase getDatabase() {
+        return database;
+    }
+}
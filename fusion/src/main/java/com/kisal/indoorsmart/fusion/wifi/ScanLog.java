@@ -0,0 +1,98 @@
+package com.kisal.indoorsmart.fusion.wifi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Wi-Fi scans recorded along a walk, already turned into fingerprint vectors of
+ * one {@link FingerprintDatabase}, so a walk can be replayed with its absolute
+ * fixes without any radio.
+ */
+public class ScanLog {
+
+    private final int dimension;
+    private final long[] timestamps;
+    private final float[] vectors;
+    private final int[] knownCounts;
+
+    private ScanLog(int dimension, long[] timestamps, float[] vectors, int[] knownCounts) {
+        this.dimension = dimension;
+        this.timestamps = timestamps;
+        this.vectors = vectors;
+        this.knownCounts = knownCounts;
+    }
+
+    /**
+     * Reads scans as lines of "timestampNs bssid=rssi bssid=rssi ...", timestamps on
+     * the sensor clock, in order. Blank lines and lines starting with # are skipped.
+     */
+    public static ScanLog read(Reader in, FingerprintDatabase database) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        int dimension = database.getDimension();
+        long[] timestamps = new long[16];
+        float[] vectors = new float[16 * dimension];
+        int[] knownCounts = new int[16];
+        String[] bssids = new String[16];
+        float[] rssi = new float[16];
+        float[] vector = new float[dimension];
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            if (count == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                vectors = Arrays.copyOf(vectors, count * 2 * dimension);
+                knownCounts = Arrays.copyOf(knownCounts, count * 2);
+            }
+            if (fields.length - 1 > bssids.length) {
+                bssids = new String[fields.length - 1];
+                rssi = new float[fields.length - 1];
+            }
+            try {
+                timestamps[count] = Long.parseLong(fields[0]);
+                for (int i = 1; i < fields.length; i++) {
+                    int separator = fields[i].indexOf('=');
+                    if (separator <= 0) {
+                        throw new IOException("Expected bssid=rssi: " + line);
+                    }
+                    bssids[i - 1] = fields[i].substring(0, separator);
+                    rssi[i - 1] = Float.parseFloat(fields[i].substring(separator + 1));
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Expected timestampNs bssid=rssi ...: " + line, e);
+            }
+            if (count > 0 && timestamps[count] < timestamps[count - 1]) {
+                throw new IOException("Scans out of order: " + line);
+            }
+            knownCounts[count] = database.toVector(bssids, rssi, fields.length - 1, vector);
+            System.arraycopy(vector, 0, vectors, count * dimension, dimension);
+            count++;
+        }
+        return new ScanLog(dimension, Arrays.copyOf(timestamps, count), Arrays.copyOf(vectors, count * dimension),
+                Arrays.copyOf(knownCounts, count));
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    /** Copies the fingerprint of scan i into out. */
+    public void getVector(int i, float[] out) {
+        System.arraycopy(vectors, i * dimension, out, 0, dimension);
+    }
+
+    /** Number of access points of scan i that the database knows. */
+    public int getKnownCount(int i) {
+        return knownCounts[i];
+    }
+}
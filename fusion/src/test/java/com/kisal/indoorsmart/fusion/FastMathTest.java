@@ -0,0 +1,73 @@
+package com.kisal.indoorsmart.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FastMathTest {
+
+    @Test
+    public void sinCos_withinBound() {
+        double error = 0;
+        for (float x = -1e5f; x < 1e5f; x += 0.0731f) {
+            error = Math.max(error, Math.abs(FastMath.sin(x) - Math.sin(x)));
+            error = Math.max(error, Math.abs(FastMath.cos(x) - Math.cos(x)));
+        }
+        assertTrue("error " + error, error < 5e-7);
+    }
+
+    @Test
+    public void sinCosDeg_withinBound() {
+        double error = 0;
+        for (float x = -1e5f; x < 1e5f; x += 0.0731f) {
+            error = Math.max(error, Math.abs(FastMath.sinDeg(x) - Math.sin(Math.toRadians(x))));
+            error = Math.max(error, Math.abs(FastMath.cosDeg(x) - Math.cos(Math.toRadians(x))));
+        }
+        assertTrue("error " + error, error < 5e-7);
+        // exact at the quadrant boundaries the dead reckoning used to branch on
+        assertEquals(1.0f, FastMath.sinDeg(90), 0.0f);
+        assertEquals(-1.0f, FastMath.cosDeg(180), 0.0f);
+        assertEquals(-1.0f, FastMath.sinDeg(-90), 0.0f);
+    }
+
+    @Test
+    public void atan2_withinBound() {
+        Random random = new Random(5);
+        double error = 0;
+        for (int i = 0; i < 2_000_000; i++) {
+            float scale = random.nextBoolean() ? 1 : 1000;
+            float y = (float) random.nextGaussian() * scale;
+            float x = (float) random.nextGaussian();
+            error = Math.max(error, Math.abs(FastMath.atan2(y, x) - Math.atan2(y, x)));
+        }
+        assertTrue("error " + error, error < 5e-6);
+    }
+
+    @Test
+    public void atan2_axesAndSigns() {
+        assertEquals(0.0f, FastMath.atan2(0, 1), 0.0f);
+        assertEquals(Math.PI / 2, FastMath.atan2(1, 0), 1e-6);
+        assertEquals(-Math.PI / 2, FastMath.atan2(-1, 0), 1e-6);
+        assertEquals(Math.PI, FastMath.atan2(0, -1), 1e-6);
+        assertEquals((float) Math.atan2(0.0, 0.0), FastMath.atan2(0.0f, 0.0f), 0.0f);
+        assertEquals((float) Math.atan2(-0.0, -0.0), FastMath.atan2(-0.0f, -0.0f), 0.0f);
+    }
+
+    @Test
+    public void invSqrtAndCbrt_withinRelativeBound() {
+        double invSqrtError = 0;
+        double cbrtError = 0;
+        int last = Float.floatToIntBits(Float.MAX_VALUE);
+        for (int bits = Float.floatToIntBits(Float.MIN_NORMAL); bits > 0 && bits < last; bits += 997) {
+            float x = Float.intBitsToFloat(bits);
+            invSqrtError = Math.max(invSqrtError, Math.abs(FastMath.invSqrt(x) * Math.sqrt(x) - 1));
+            cbrtError = Math.max(cbrtError, Math.abs(FastMath.cbrt(x) / Math.cbrt(x) - 1));
+        }
+        assertTrue("invSqrt error " + invSqrtError, invSqrtError < 5e-6);
+        assertTrue("cbrt error " + cbrtError, cbrtError < 2e-6);
+        assertEquals(-2.0f, FastMath.cbrt(-8.0f), 1e-5f);
+        assertEquals(0.0f, FastMath.cbrt(0.0f), 0.0f);
+    }
+}
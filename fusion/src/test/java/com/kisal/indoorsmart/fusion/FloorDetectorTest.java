@@ -0,0 +1,118 @@
+package com.kisal.indoorsmart.fusion;
+
+import com.kisal.indoorsmart.fusion.trace.TraceReader;
+import com.kisal.indoorsmart.fusion.trace.TraceReplayer;
+import com.kisal.indoorsmart.fusion.trace.TraceWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FloorDetectorTest {
+
+    private static final long SAMPLE_NS = 100_000_000L; // 10 Hz
+    private static final float FLOOR_HEIGHT = 3.5f;
+    private static final double GROUND_HPA = 1013.0;
+    // Typical barometer noise, some 0.3 m
+    private static final double NOISE_HPA = 0.03;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Pressure at height metres above the ground, plus drift and noise
+    private static float pressure(double height, double driftHpa, Random random) {
+        return (float) (GROUND_HPA * Math.pow(1 - height / 44330.0, 5.255) + driftHpa
+                + random.nextGaussian() * NOISE_HPA);
+    }
+
+    @Test
+    public void weatherDrift_keepsTheFloor() {
+        FloorDetector detector = new FloorDetector(FLOOR_HEIGHT);
+        detector.reset(0, FLOOR_HEIGHT);
+        Random random = new Random(3);
+        // a falling barometer, 1 hPa an hour for two hours, about 16 m of apparent climb
+        for (long t = 0; t < 7200_000_000_000L; t += SAMPLE_NS) {
+            double drift = -t / 3600e9;
+            assertFalse(detector.onPressure(pressure(0, drift, random), t));
+        }
+        assertEquals(0, detector.getFloor());
+        assertEquals(0, detector.getHeightAboveFloor(), 1.0f);
+    }
+
+    @Test
+    public void lift_climbsTwoFloors() {
+        FloorDetector detector = new FloorDetector(FLOOR_HEIGHT);
+        detector.reset(3, FLOOR_HEIGHT);
+        Random random = new Random(5);
+        List<Integer> floors = new ArrayList<>();
+        // 10 s waiting, 10 s at 0.7 m/s, 10 s on the new floor
+        for (long t = 0; t < 30_000_000_000L; t += SAMPLE_NS) {
+            double seconds = t / 1e9;
+            double height = Math.min(Math.max(seconds - 10, 0), 10) * 0.7;
+            if (detector.onPressure(pressure(height, 0, random), t)) {
+                floors.add(detector.getFloor());
+            }
+        }
+        assertEquals(1, floors.size());
+        assertEquals(5, detector.getFloor());
+    }
+
+    @Test
+    public void stairs_descendOneFloor() {
+        FloorDetector detector = new FloorDetector(FLOOR_HEIGHT);
+        detector.reset(2, FLOOR_HEIGHT);
+        Random random = new Random(7);
+        int changes = 0;
+        // down a flight in 12 s, then walking on along the corridor
+        for (long t = 0; t < 40_000_000_000L; t += SAMPLE_NS) {
+            double seconds = t / 1e9;
+            double height = FLOOR_HEIGHT - Math.min(Math.max(seconds - 10, 0), 12) * FLOOR_HEIGHT / 12;
+            if (detector.onPressure(pressure(height, 0, random), t)) {
+                changes++;
+            }
+        }
+        assertEquals(1, changes);
+        assertEquals(1, detector.getFloor());
+    }
+
+    @Test
+    public void replayedTrace_reportsTheTransitions() throws IOException {
+        File file = folder.newFile("floors.bin");
+        Random random = new Random(11);
+        try (TraceWriter writer = new TraceWriter(file)) {
+            // up two floors by lift, then down one by the stairs
+            for (long t = 0; t < 80_000_000_000L; t += SAMPLE_NS) {
+                double seconds = t / 1e9;
+                double height = Math.min(Math.max(seconds - 10, 0), 10) * 0.7
+                        - Math.min(Math.max(seconds - 40, 0), 12) * FLOOR_HEIGHT / 12;
+                writer.record(SensorType.PRESSURE, t, new float[]{pressure(height, 0, random)});
+            }
+        }
+
+        FusionEngine engine = new SensorFusionEngine();
+        engine.setFloor(0, FLOOR_HEIGHT);
+        List<Integer> floors = new ArrayList<>();
+        engine.setFloorListener((floor, timestampNs) -> floors.add(floor));
+        try (TraceReader reader = new TraceReader(file)) {
+            new TraceReplayer().replay(reader, engine);
+        }
+        assertEquals(2, floors.size());
+        assertEquals(2, (int) floors.get(0));
+        assertEquals(1, (int) floors.get(1));
+        assertEquals(1, engine.getFloor());
+
+        NavigationState state = new NavigationState();
+        state.write(engine, 0);
+        PositionSnapshot snapshot = new PositionSnapshot();
+        state.read(snapshot);
+        assertEquals(1, snapshot.getFloor());
+    }
+}
@@ -0,0 +1,109 @@
+package com.kisal.indoorsmart.fusion;
+
+import com.kisal.indoorsmart.fusion.trace.TraceReader;
+import com.kisal.indoorsmart.fusion.trace.TraceWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FusionSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void dtFollowsSensorTime() {
+        FusionScheduler scheduler = new FusionScheduler(30_000_000L, 100_000_000L);
+
+        assertEquals(0.0f, scheduler.onTimestamp(1_000_000_000L), 0.0f);
+        // nothing is due during the start delay
+        assertEquals(0.0f, scheduler.onTimestamp(1_090_000_000L), 0.0f);
+        // the first step covers one period
+        assertEquals(0.031f, scheduler.onTimestamp(1_101_000_000L), 1e-6f);
+        assertEquals(0.0f, scheduler.onTimestamp(1_120_000_000L), 0.0f);
+        // a late step gets the time that actually passed instead of a fixed 30 ms
+        assertEquals(0.149f, scheduler.onTimestamp(1_250_000_000L), 1e-6f);
+        // out of order timestamps never produce a negative dt
+        assertEquals(0.0f, scheduler.onTimestamp(1_200_000_000L), 0.0f);
+    }
+
+    /**
+     * Replays a five minute trace of a device rocking in roll, with jittered sample
+     * intervals and random delivery stalls, and checks that the heading error stays
+     * bounded and does not grow over the session.
+     */
+    @Test
+    public void headingErrorStaysBoundedUnderJitter() throws IOException {
+        File file = folder.newFile("jitter.bin");
+        double[] truth = writeRockingTrace(file, 60_000);
+
+        SensorFusionEngine engine = new SensorFusionEngine();
+        double firstMinuteError = 0, lastMinuteError = 0;
+        try (TraceReader reader = new TraceReader(file)) {
+            long start = -1;
+            int sample = 0;
+            while (reader.next()) {
+                if (start < 0) {
+                    start = reader.getTimestamp();
+                }
+                engine.onSensorEvent(reader.getSensorType(), reader.getTimestamp(), reader.getValues());
+                if (reader.getSensorType() != SensorType.GYROSCOPE) {
+                    continue;
+                }
+
+                double seconds = (reader.getTimestamp() - start) / 1e9;
+                double heading = engine.getHeading();
+                if (heading > 180) {
+                    heading -= 360;
+                }
+                double error = Math.abs(heading - truth[sample++]);
+                if (seconds > 10 && seconds < 70) {
+                    firstMinuteError = Math.max(firstMinuteError, error);
+                } else if (seconds > 240) {
+                    lastMinuteError = Math.max(lastMinuteError, error);
+                }
+            }
+        }
+
+        assertTrue("first minute error " + firstMinuteError, firstMinuteError < 10);
+        assertTrue("last minute error " + lastMinuteError, lastMinuteError < 10);
+        assertTrue("error grew from " + firstMinuteError + " to " + lastMinuteError,
+                lastMinuteError < firstMinuteError + 2);
+    }
+
+    // Roll oscillating by +-30 degrees with a 20 s period. Returns the true roll in
+    // degrees for every sample.
+    private static double[] writeRockingTrace(File file, int samples) throws IOException {
+        double[] truth = new double[samples];
+        Random random = new Random(7);
+        try (TraceWriter writer = new TraceWriter(file)) {
+            long timestamp = 1_000_000_000L;
+            long start = timestamp;
+            for (int i = 0; i < samples; i++) {
+                timestamp += 5_000_000L + (long) (random.nextGaussian() * 1_000_000L);
+                if (random.nextInt(200) == 0) {
+                    // delivery stall of 150 - 350 ms
+                    timestamp += 150_000_000L + random.nextInt(200) * 1_000_000L;
+                }
+                double seconds = (timestamp - start) / 1e9;
+                double roll = Math.toRadians(30) * Math.sin(2 * Math.PI * seconds / 20);
+                double rollRate = Math.toRadians(30) * 2 * Math.PI / 20 * Math.cos(2 * Math.PI * seconds / 20);
+                float sin = (float) Math.sin(roll);
+                float cos = (float) Math.cos(roll);
+
+                writer.record(SensorType.ACCELEROMETER, timestamp, new float[]{-9.81f * sin, 0, 9.81f * cos});
+                writer.record(SensorType.MAGNETIC_FIELD, timestamp, new float[]{40 * sin, 22, -40 * cos});
+                writer.record(SensorType.GYROSCOPE, timestamp, new float[]{0, (float) rollRate, 0});
+                truth[i] = Math.toDegrees(roll);
+            }
+        }
+        return truth;
+    }
+}
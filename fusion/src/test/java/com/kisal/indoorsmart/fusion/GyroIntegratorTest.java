@@ -0,0 +1,100 @@
+package com.kisal.indoorsmart.fusion;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Local unit tests for the allocation-free gyro integration path.
+ */
+public class GyroIntegratorTest {
+
+    private static final long SAMPLE_INTERVAL_NS = 2_500_000L; // 400 Hz
+
+    @Test
+    public void integrate_doesNotAllocateAfterWarmUp() {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeAllocationCounting(threadBean);
+        long threadId = Thread.currentThread().getId();
+
+        GyroIntegrator integrator = new GyroIntegrator();
+        float[] gyro = {0.3f, -0.2f, 0.5f};
+        float[] fused = {0.1f, 0.2f, 0.3f};
+        long timestamp = 1L;
+
+        // warm up so the measurement is not polluted by class loading and JIT compilation
+        for (int i = 0; i < 200_000; i++) {
+            timestamp += SAMPLE_INTERVAL_NS;
+            integrator.integrate(gyro, timestamp);
+            if (i % 12 == 0) {
+                integrator.setOrientation(fused);
+            }
+        }
+
+        int events = 100_000;
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < events; i++) {
+            timestamp += SAMPLE_INTERVAL_NS;
+            integrator.integrate(gyro, timestamp);
+            if (i % 12 == 0) {
+                integrator.setOrientation(fused);
+            }
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        // a single array per event would be at least 16 bytes per event
+        assertTrue("allocated " + allocated + " bytes for " + events + " events", allocated < events);
+    }
+
+    @Test
+    public void integrate_constantYawRate() {
+        GyroIntegrator integrator = new GyroIntegrator();
+        float[] gyro = {0.0f, 0.0f, 1.0f}; // 1 rad/s around z
+        long timestamp = 1L;
+
+        // half a second of samples
+        for (int i = 0; i <= 200; i++) {
+            integrator.integrate(gyro, timestamp);
+            timestamp += SAMPLE_INTERVAL_NS;
+        }
+
+        float[] orientation = new float[3];
+        integrator.getOrientation(orientation);
+        assertEquals(0.5f, Math.abs(orientation[0]), 1e-3f);
+        assertEquals(0.0f, orientation[1], 1e-4f);
+        assertEquals(0.0f, orientation[2], 1e-4f);
+    }
+
+    @Test
+    public void getRotationMatrixFromOrientation_matchesAxisProduct() {
+        float[] o = {0.7f, -0.4f, 1.1f};
+        float[] R = new float[9];
+        RotationMath.getRotationMatrixFromOrientation(o, R);
+
+        float sinX = (float) Math.sin(o[1]), cosX = (float) Math.cos(o[1]);
+        float sinY = (float) Math.sin(o[2]), cosY = (float) Math.cos(o[2]);
+        float sinZ = (float) Math.sin(o[0]), cosZ = (float) Math.cos(o[0]);
+        float[] xM = {1, 0, 0, 0, cosX, sinX, 0, -sinX, cosX};
+        float[] yM = {cosY, 0, sinY, 0, 1, 0, -sinY, 0, cosY};
+        float[] zM = {cosZ, sinZ, 0, -sinZ, cosZ, 0, 0, 0, 1};
+
+        // zM * xM * yM using the in-place multiply
+        RotationMath.multiplyInPlace(xM, yM);
+        RotationMath.multiplyInPlace(zM, xM);
+
+        assertArrayEquals(zM, R, 1e-6f);
+
+        float[] roundTrip = new float[3];
+        RotationMath.getOrientation(R, roundTrip);
+        assertArrayEquals(o, roundTrip, 1e-5f);
+    }
+
+    private static void assumeAllocationCounting(com.sun.management.ThreadMXBean threadBean) {
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+}
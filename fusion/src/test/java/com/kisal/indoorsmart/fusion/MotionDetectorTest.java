@@ -0,0 +1,118 @@
+package com.kisal.indoorsmart.fusion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MotionDetectorTest {
+
+    private static final long SAMPLE_NS = 5_000_000L;
+
+    @Test
+    public void stillDevice_becomesStationaryAfterDelay() {
+        MotionDetector detector = new MotionDetector();
+        long t = 0;
+        while (t < MotionDetector.DEFAULT_STILL_DELAY_NS) {
+            assertFalse(detector.onAccelerationVariance(0.001f, t));
+            assertFalse(detector.onRotationRate(0.01f, t));
+            t += SAMPLE_NS;
+        }
+        assertEquals(MotionState.MOVING, detector.getState());
+        assertTrue(detector.onAccelerationVariance(0.001f, t));
+        assertEquals(MotionState.STATIONARY, detector.getState());
+    }
+
+    @Test
+    public void oneSample_ofMotion_resumes() {
+        MotionDetector detector = stationary();
+        assertTrue(detector.onAccelerationVariance(1.0f, 10_000_000_000L));
+        assertEquals(MotionState.MOVING, detector.getState());
+
+        detector = stationary();
+        // turning on the spot
+        assertTrue(detector.onRotationRate(0.5f, 10_000_000_000L));
+        assertEquals(MotionState.MOVING, detector.getState());
+    }
+
+    @Test
+    public void noiseBetweenThresholds_keepsTheState() {
+        MotionDetector detector = stationary();
+        long t = 10_000_000_000L;
+        for (int i = 0; i < 1000; i++, t += SAMPLE_NS) {
+            assertFalse(detector.onAccelerationVariance(0.1f, t));
+            assertFalse(detector.onRotationRate(0.2f, t));
+        }
+        assertEquals(MotionState.STATIONARY, detector.getState());
+
+        detector = new MotionDetector();
+        for (int i = 0; i < 1000; i++, t += SAMPLE_NS) {
+            detector.onAccelerationVariance(i % 2 == 0 ? 0.001f : 0.1f, t);
+            detector.onRotationRate(0.01f, t);
+        }
+        assertEquals(MotionState.MOVING, detector.getState());
+    }
+
+    @Test
+    public void withoutGyroscope_accelerometerDecides() {
+        MotionDetector detector = new MotionDetector();
+        boolean changed = false;
+        for (long t = 0; t <= MotionDetector.DEFAULT_STILL_DELAY_NS; t += SAMPLE_NS) {
+            changed |= detector.onAccelerationVariance(0.001f, t);
+        }
+        assertTrue(changed);
+        assertEquals(MotionState.STATIONARY, detector.getState());
+    }
+
+    @Test
+    public void engine_pausesFusionWhileStationary() {
+        SensorFusionEngine engine = new SensorFusionEngine(new FusionScheduler(30_000_000L, 0), new SensorResampler());
+        MotionState[] reported = new MotionState[1];
+        long[] changedAt = new long[1];
+        engine.setMotionListener((state, timestampNs) -> {
+            reported[0] = state;
+            changedAt[0] = timestampNs;
+        });
+        float[] gravity = {0.0f, 0.0f, 9.81f};
+        float[] north = {0.0f, 22.0f, -40.0f};
+        float[] still = {0, 0, 0};
+
+        long t = 1_000_000_000L;
+        for (int i = 0; i < 800; i++, t += SAMPLE_NS) {
+            engine.onSensorEvent(SensorType.ACCELEROMETER, t, gravity);
+            engine.onSensorEvent(SensorType.GYROSCOPE, t, still);
+            engine.onSensorEvent(SensorType.MAGNETIC_FIELD, t, north);
+        }
+        assertEquals(MotionState.STATIONARY, reported[0]);
+        assertEquals(MotionState.STATIONARY, engine.getMotionState());
+
+        // A tilted magnetic field would pull the heading if fusion were running
+        float[] east = {22.0f, 0.0f, -40.0f};
+        for (int i = 0; i < 100; i++, t += 4 * SAMPLE_NS) {
+            engine.onSensorEvent(SensorType.ACCELEROMETER, t, gravity);
+            engine.onSensorEvent(SensorType.GYROSCOPE, t, still);
+            engine.onSensorEvent(SensorType.MAGNETIC_FIELD, t, east);
+        }
+        assertEquals(0.0, engine.getHeading(), 1e-3);
+
+        // the first bounce of a step brings full rate back
+        long stepStart = t;
+        for (int i = 0; i < 100 && engine.getMotionState() == MotionState.STATIONARY; i++, t += SAMPLE_NS) {
+            float bounce = 9.81f + 3.0f * (float) Math.sin(i * 2 * Math.PI * SAMPLE_NS / 5e8);
+            engine.onSensorEvent(SensorType.ACCELEROMETER, t, new float[]{0, 0, bounce});
+            engine.onSensorEvent(SensorType.GYROSCOPE, t, still);
+            engine.onSensorEvent(SensorType.MAGNETIC_FIELD, t, north);
+        }
+        assertEquals(MotionState.MOVING, reported[0]);
+        assertTrue(changedAt[0] - stepStart < StepDetector.MIN_STEP_INTERVAL_NS);
+    }
+
+    private static MotionDetector stationary() {
+        MotionDetector detector = new MotionDetector();
+        for (long t = 0; t <= MotionDetector.DEFAULT_STILL_DELAY_NS; t += SAMPLE_NS) {
+            detector.onAccelerationVariance(0.001f, t);
+            detector.onRotationRate(0.01f, t);
+        }
+        assertEquals(MotionState.STATIONARY, detector.getState());
+        return detector;
+    }
+}
@@ -0,0 +1,124 @@
+package com.kisal.indoorsmart.fusion;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class NavigationStateTest {
+
+    private static final int WRITES = 2_000_000;
+    private static final int READERS = 3;
+
+    // every field of write i is derived from i, so a mix of two writes shows up
+    private static void write(NavigationState state, int i) {
+        state.write(i, i, i, -i, i * 0.5f, i, -i, i, -i);
+    }
+
+    @Test
+    public void readsTheLastWrite() {
+        NavigationState state = new NavigationState();
+        PositionSnapshot snapshot = new PositionSnapshot();
+        state.read(snapshot);
+        assertEquals(0, snapshot.getSequence());
+
+        write(state, 7);
+        write(state, 8);
+        state.read(snapshot);
+        assertEquals(2, snapshot.getSequence());
+        assertEquals(2, state.getSequence());
+        assertEquals(8, snapshot.getTimestampNs());
+        assertEquals(8.0, snapshot.getHeading(), 0.0);
+        assertEquals(-8.0f, snapshot.getPitch(), 0.0f);
+        assertEquals(4.0f, snapshot.getRoll(), 0.0f);
+        assertEquals(8.0f, snapshot.getX(), 0.0f);
+        assertEquals(-8.0f, snapshot.getY(), 0.0f);
+        assertEquals(8, snapshot.getStepCount());
+        assertEquals(-8, snapshot.getFloor());
+    }
+
+    @Test
+    public void concurrentReadersNeverSeeTornState() throws InterruptedException {
+        final NavigationState state = new NavigationState();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final CountDownLatch started = new CountDownLatch(READERS);
+        final long[] reads = new long[READERS];
+
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            final int reader = r;
+            readers[r] = new Thread(() -> {
+                PositionSnapshot snapshot = new PositionSnapshot();
+                long lastSequence = 0;
+                started.countDown();
+                while (!done.get() && failure.get() == null) {
+                    state.read(snapshot);
+                    reads[reader]++;
+                    String error = check(snapshot, lastSequence);
+                    if (error != null) {
+                        failure.compareAndSet(null, error);
+                    }
+                    lastSequence = snapshot.getSequence();
+                }
+            });
+            readers[r].start();
+        }
+
+        started.await();
+        for (int i = 1; i <= WRITES && failure.get() == null; i++) {
+            write(state, i);
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        for (long count : reads) {
+            assertTrue(count > 0);
+        }
+    }
+
+    private static String check(PositionSnapshot snapshot, long lastSequence) {
+        long i = snapshot.getSequence();
+        if (i < lastSequence) {
+            return "sequence went back from " + lastSequence + " to " + i;
+        }
+        if (snapshot.getTimestampNs() != i || snapshot.getHeading() != i || snapshot.getAzimuth() != i
+                || snapshot.getPitch() != -i || snapshot.getRoll() != i * 0.5f || snapshot.getX() != i
+                || snapshot.getY() != -i || snapshot.getStepCount() != i || snapshot.getFloor() != -i) {
+            return "torn read at sequence " + i + ": timestamp " + snapshot.getTimestampNs()
+                    + ", x " + snapshot.getX() + ", y " + snapshot.getY() + ", steps " + snapshot.getStepCount();
+        }
+        return null;
+    }
+
+    @Test
+    public void writeAndRead_doNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        long thread = Thread.currentThread().getId();
+
+        NavigationState state = new NavigationState();
+        PositionSnapshot snapshot = new PositionSnapshot();
+        for (int i = 0; i < 100_000; i++) {
+            write(state, i);
+            state.read(snapshot);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100_000; i++) {
+            write(state, i);
+            state.read(snapshot);
+        }
+        assertTrue(threads.getThreadAllocatedBytes(thread) - before < 100_000);
+    }
+}
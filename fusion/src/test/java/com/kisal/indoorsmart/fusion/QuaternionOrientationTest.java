@@ -0,0 +1,147 @@
+package com.kisal.indoorsmart.fusion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the quaternion filter against synthetic sensors generated from a known
+ * device rotation.
+ */
+public class QuaternionOrientationTest {
+
+    private static final long SAMPLE_INTERVAL_NS = 5_000_000L; // 200 Hz
+    private static final float[] WORLD_GRAVITY = {0.0f, 0.0f, 9.81f};
+    private static final float[] WORLD_FIELD = {0.0f, 22.0f, -40.0f};
+
+    @Test
+    public void reset_matchesAccMagOrientation() {
+        float[] R = new float[9];
+        rotationAboutX(0.4, R);
+        float[] gravity = toDevice(R, WORLD_GRAVITY);
+        float[] field = toDevice(R, WORLD_FIELD);
+
+        QuaternionOrientation orientation = new QuaternionOrientation();
+        assertTrue(orientation.reset(gravity, field));
+
+        float[] expected = new float[3];
+        float[] actual = new float[3];
+        float[] accMag = new float[9];
+        assertTrue(RotationMath.getRotationMatrix(accMag, gravity, field));
+        RotationMath.getOrientation(accMag, expected);
+        orientation.getOrientation(actual);
+        assertArrayEquals(expected, actual, 1e-5f);
+    }
+
+    @Test
+    public void integrate_matchesGyroIntegrator() {
+        QuaternionOrientation orientation = new QuaternionOrientation();
+        GyroIntegrator integrator = new GyroIntegrator();
+        float[] gyro = {0.3f, -0.2f, 0.5f};
+        long timestamp = 1L;
+        for (int i = 0; i < 400; i++) {
+            timestamp += SAMPLE_INTERVAL_NS;
+            orientation.integrate(gyro, timestamp);
+            integrator.integrate(gyro, timestamp);
+        }
+
+        float[] expected = new float[3];
+        float[] actual = new float[3];
+        integrator.getOrientation(expected);
+        orientation.getOrientation(actual);
+        assertArrayEquals(expected, actual, 1e-3f);
+    }
+
+    /**
+     * Tilts the device about its x axis through upright (pitch -90 degrees) and
+     * on, where the Euler angles flip, and checks the estimate follows the true
+     * rotation the whole way without a jump.
+     */
+    @Test
+    public void followsPitchThroughVertical() {
+        QuaternionOrientation orientation = new QuaternionOrientation();
+        float[] R = new float[9];
+        float[] estimate = new float[9];
+        double rate = 0.5; // rad/s
+        long timestamp = 1L;
+
+        rotationAboutX(0, R);
+        assertTrue(orientation.reset(toDevice(R, WORLD_GRAVITY), toDevice(R, WORLD_FIELD)));
+        orientation.integrate(new float[]{(float) rate, 0, 0}, timestamp);
+
+        double worstError = 0;
+        for (int i = 1; i <= 1000; i++) { // 5 s, up to 143 degrees
+            timestamp += SAMPLE_INTERVAL_NS;
+            double angle = rate * i * SAMPLE_INTERVAL_NS / 1e9;
+            rotationAboutX(angle, R);
+            orientation.integrate(new float[]{(float) rate, 0, 0}, timestamp);
+            if (i % 6 == 0) {
+                assertTrue(orientation.correct(toDevice(R, WORLD_GRAVITY), toDevice(R, WORLD_FIELD), 0.03f));
+            }
+            orientation.getRotationMatrix(estimate);
+            worstError = Math.max(worstError, angleBetween(R, estimate));
+        }
+        assertTrue("worst error " + Math.toDegrees(worstError) + " deg", worstError < Math.toRadians(0.5));
+    }
+
+    @Test
+    public void correct_learnsGyroBias() {
+        QuaternionOrientation orientation = new QuaternionOrientation();
+        float[] R = new float[9];
+        float[] estimate = new float[9];
+        rotationAboutX(0.3, R);
+        float[] gravity = toDevice(R, WORLD_GRAVITY);
+        float[] field = toDevice(R, WORLD_FIELD);
+        assertTrue(orientation.reset(gravity, field));
+
+        // stationary device with a biased gyro
+        float[] biasedGyro = {0.02f, -0.03f, 0.05f};
+        long timestamp = 1L;
+        for (int i = 0; i < 200 * 120; i++) { // two minutes
+            timestamp += SAMPLE_INTERVAL_NS;
+            orientation.integrate(biasedGyro, timestamp);
+            if (i % 6 == 0) {
+                orientation.correct(gravity, field, 0.03f);
+            }
+        }
+
+        // with the correction off for a second, the learned bias keeps the estimate
+        // within a tenth of the 3.5 degrees the raw bias would drift
+        for (int i = 0; i < 200; i++) {
+            timestamp += SAMPLE_INTERVAL_NS;
+            orientation.integrate(biasedGyro, timestamp);
+        }
+        orientation.getRotationMatrix(estimate);
+        double drift = Math.toDegrees(angleBetween(R, estimate));
+        assertTrue("drift " + drift + " deg", drift < 0.35);
+    }
+
+    // Rotation angle between two rotation matrices
+    private static double angleBetween(float[] A, float[] B) {
+        double trace = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int k = 0; k < 3; k++) {
+                trace += A[i * 3 + k] * B[i * 3 + k];
+            }
+        }
+        return Math.acos(Math.max(-1, Math.min(1, (trace - 1) / 2)));
+    }
+
+    // Device to world rotation for a device tilted by angle about its x axis
+    private static void rotationAboutX(double angle, float[] R) {
+        float c = (float) Math.cos(angle);
+        float s = (float) Math.sin(angle);
+        R[0] = 1; R[1] = 0; R[2] = 0;
+        R[3] = 0; R[4] = c; R[5] = -s;
+        R[6] = 0; R[7] = s; R[8] = c;
+    }
+
+    // R^T v, a world vector as the device sensors see it
+    private static float[] toDevice(float[] R, float[] v) {
+        return new float[]{
+                R[0] * v[0] + R[3] * v[1] + R[6] * v[2],
+                R[1] * v[0] + R[4] * v[1] + R[7] * v[2],
+                R[2] * v[0] + R[5] * v[1] + R[8] * v[2]
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package com.kisal.indoorsmart.fusion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SensorEventBufferTest {
+
+    private static final int SAMPLES = 1000;
+    private static final long PERIOD_NS = 5_000_000L;
+
+    @Test
+    public void batchedBursts_matchUnbatchedDelivery() {
+        FusionEngine unbatched = new SensorFusionEngine();
+        FusionEngine batched = new SensorFusionEngine();
+        SensorEventBuffer buffer = new SensorEventBuffer(256);
+
+        unbatched.onSensorEvent(SensorType.STEP_COUNTER, 0, new float[]{0});
+        batched.onSensorEvent(SensorType.STEP_COUNTER, 0, new float[]{0});
+
+        // the FIFO hands over each sensor's samples of a burst as one run
+        int burst = 40;
+        for (int start = 0; start < SAMPLES; start += burst) {
+            for (int i = start; i < start + burst; i++) {
+                feed(unbatched, i);
+            }
+            for (int i = start; i < start + burst; i++) {
+                addIfFull(buffer, batched, SensorType.ACCELEROMETER, timestamp(i), accel(i));
+            }
+            for (int i = start; i < start + burst; i++) {
+                addIfFull(buffer, batched, SensorType.GYROSCOPE, timestamp(i), gyro(i));
+            }
+            for (int i = start; i < start + burst; i++) {
+                addIfFull(buffer, batched, SensorType.MAGNETIC_FIELD, timestamp(i), MAGNET);
+                if (i % 100 == 99) {
+                    addIfFull(buffer, batched, SensorType.STEP_COUNTER, timestamp(i), new float[]{i / 100 + 1});
+                }
+            }
+            buffer.drainTo(batched);
+            assertTrue(buffer.isEmpty());
+
+            unbatched.fuseOrientation(0.03f);
+            batched.fuseOrientation(0.03f);
+        }
+
+        assertTrue(position(batched)[1] > 0);
+        assertArrayEquals(position(unbatched), position(batched), 0.0f);
+        assertEquals(unbatched.getHeading(), batched.getHeading(), 0.0);
+    }
+
+    @Test
+    public void batchedDelivery_fusesLikePerEventDelivery() {
+        // as the service builds the engine: scheduled fusion on a resampled timeline
+        assertBatchedMatchesPerEvent(new SensorFusionEngine(new FusionScheduler(), new SensorResampler()),
+                new SensorFusionEngine(new FusionScheduler(), new SensorResampler()));
+        assertBatchedMatchesPerEvent(new SensorFusionEngine(new FusionScheduler()),
+                new SensorFusionEngine(new FusionScheduler()));
+    }
+
+    // Only onSensorEvent drives both engines, so the scheduled fusion steps run
+    // wherever the delivery order puts them
+    private static void assertBatchedMatchesPerEvent(FusionEngine perEvent, FusionEngine batched) {
+        // holds a whole burst, as the service's buffer does
+        SensorEventBuffer buffer = new SensorEventBuffer(1024);
+        perEvent.onSensorEvent(SensorType.STEP_COUNTER, 0, new float[]{0});
+        batched.onSensorEvent(SensorType.STEP_COUNTER, 0, new float[]{0});
+
+        int burst = 200; // a second of samples per FIFO flush
+        for (int start = 0; start < 5 * SAMPLES; start += burst) {
+            for (int i = start; i < start + burst; i++) {
+                feed(perEvent, i);
+            }
+            for (int i = start; i < start + burst; i++) {
+                addIfFull(buffer, batched, SensorType.ACCELEROMETER, timestamp(i), accel(i));
+            }
+            for (int i = start; i < start + burst; i++) {
+                addIfFull(buffer, batched, SensorType.GYROSCOPE, timestamp(i), gyro(i));
+            }
+            for (int i = start; i < start + burst; i++) {
+                addIfFull(buffer, batched, SensorType.MAGNETIC_FIELD, timestamp(i), MAGNET);
+                if (i % 100 == 99) {
+                    addIfFull(buffer, batched, SensorType.STEP_COUNTER, timestamp(i), new float[]{i / 100 + 1});
+                }
+            }
+            buffer.drainTo(batched);
+        }
+
+        assertTrue(Math.hypot(position(perEvent)[0], position(perEvent)[1]) > 1);
+        assertArrayEquals(position(perEvent), position(batched), 0.0f);
+        assertEquals(perEvent.getHeading(), batched.getHeading(), 0.0);
+        assertEquals(perEvent.getStepCount(), batched.getStepCount());
+    }
+
+    private static final float[] MAGNET = {0.0f, 22.0f, -40.0f};
+
+    private static void feed(FusionEngine engine, int i) {
+        engine.onSensorEvent(SensorType.ACCELEROMETER, timestamp(i), accel(i));
+        engine.onSensorEvent(SensorType.GYROSCOPE, timestamp(i), gyro(i));
+        engine.onSensorEvent(SensorType.MAGNETIC_FIELD, timestamp(i), MAGNET);
+        if (i % 100 == 99) {
+            engine.onSensorEvent(SensorType.STEP_COUNTER, timestamp(i), new float[]{i / 100 + 1});
+        }
+    }
+
+    private static void addIfFull(SensorEventBuffer buffer, FusionEngine engine, int type, long timestamp, float[] values) {
+        if (buffer.add(type, timestamp, values)) {
+            buffer.drainTo(engine);
+        }
+    }
+
+    private static long timestamp(int i) {
+        return 1_000_000_000L + i * PERIOD_NS;
+    }
+
+    private static float[] accel(int i) {
+        float bounce = (float) Math.sin(i * Math.PI / 50);
+        return new float[]{0.2f * bounce, 0.3f * bounce, 9.81f + bounce};
+    }
+
+    private static float[] gyro(int i) {
+        return new float[]{0.02f * (float) Math.cos(i * 0.1), 0.01f, 0.05f};
+    }
+
+    private static float[] position(FusionEngine engine) {
+        float[] position = new float[2];
+        engine.getPosition(position);
+        return position;
+    }
+}
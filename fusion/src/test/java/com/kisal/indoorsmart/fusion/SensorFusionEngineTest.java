@@ -0,0 +1,113 @@
+package com.kisal.indoorsmart.fusion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the fusion engine on a plain JVM with a synthetic sensor stream.
+ */
+public class SensorFusionEngineTest {
+
+    private static final float[] FLAT_GRAVITY = {0.0f, 0.0f, 9.81f};
+    private static final float[] NORTH_FIELD = {0.0f, 22.0f, -40.0f};
+
+    @Test
+    public void getRotationMatrix_flatDeviceFacingNorth() {
+        float[] R = new float[9];
+        float[] orientation = new float[3];
+
+        assertTrue(RotationMath.getRotationMatrix(R, FLAT_GRAVITY, NORTH_FIELD));
+        RotationMath.getOrientation(R, orientation);
+
+        assertArrayEquals(new float[]{1, 0, 0, 0, 1, 0, 0, 0, 1}, R, 1e-6f);
+        assertArrayEquals(new float[]{0, 0, 0}, orientation, 1e-6f);
+    }
+
+    @Test
+    public void getRotationMatrix_rejectsFreeFall() {
+        float[] R = new float[9];
+        assertFalse(RotationMath.getRotationMatrix(R, new float[]{0.1f, 0.0f, 0.2f}, NORTH_FIELD));
+    }
+
+    @Test
+    public void stepsOnFlatDevice_moveAlongY() {
+        FusionEngine engine = new SensorFusionEngine();
+        long timestamp = 1_000_000L;
+
+        engine.onSensorEvent(SensorType.MAGNETIC_FIELD, timestamp, NORTH_FIELD);
+        engine.onSensorEvent(SensorType.STEP_COUNTER, timestamp, new float[]{100});
+        for (int i = 0; i < 200; i++) {
+            timestamp += 5_000_000L;
+            engine.onSensorEvent(SensorType.ACCELEROMETER, timestamp, FLAT_GRAVITY);
+            engine.onSensorEvent(SensorType.GYROSCOPE, timestamp, new float[]{0, 0, 0});
+            if (i % 6 == 0) {
+                engine.fuseOrientation(0.03f);
+            }
+        }
+        engine.onSensorEvent(SensorType.STEP_COUNTER, timestamp, new float[]{110});
+
+        float expectedDistance = 10 * (float) (0.98 * Math.cbrt(9.81));
+        assertEquals(0.0, engine.getHeading(), 1e-3);
+        assertEquals(10, engine.getStepCount());
+        assertEquals(0.0f, position(engine)[0], 1e-3f);
+        assertEquals(expectedDistance, position(engine)[1], 1e-3f);
+
+        engine.onSensorEvent(SensorType.STEP_COUNTER, timestamp, new float[]{115});
+        assertEquals(5, engine.getStepCount());
+        assertEquals(15, engine.getTotalStepCount());
+    }
+
+    @Test
+    public void orientation_followsTheGyroAfterARead() {
+        FusionEngine engine = new SensorFusionEngine();
+        long timestamp = 1_000_000L;
+        float[] orientation = new float[3];
+
+        engine.onSensorEvent(SensorType.MAGNETIC_FIELD, timestamp, NORTH_FIELD);
+        engine.onSensorEvent(SensorType.ACCELEROMETER, timestamp, FLAT_GRAVITY);
+        engine.onSensorEvent(SensorType.GYROSCOPE, timestamp, new float[]{0, 0, 0});
+        engine.getOrientation(orientation);
+        float[] start = orientation.clone();
+        engine.getOrientation(orientation);
+        assertArrayEquals(start, orientation, 0.0f);
+
+        // a quarter turn about the vertical axis over one second
+        for (int i = 0; i < 100; i++) {
+            timestamp += 10_000_000L;
+            engine.onSensorEvent(SensorType.GYROSCOPE, timestamp, new float[]{0, 0, (float) (Math.PI / 2)});
+        }
+        engine.getOrientation(orientation);
+        float turned = Math.abs(orientation[0] - start[0]) + Math.abs(orientation[2] - start[2]);
+        assertTrue(turned > 1.0f);
+    }
+
+    @Test
+    public void resampledEngine_fusesAlignedFrames() {
+        FusionEngine engine = new SensorFusionEngine(new FusionScheduler(), new SensorResampler());
+        long timestamp = 1_000_000L;
+
+        engine.onSensorEvent(SensorType.STEP_COUNTER, timestamp, new float[]{100});
+        for (int i = 0; i < 2000; i++) {
+            // jittered delivery, magnetometer at a quarter of the rate
+            timestamp += 4_000_000L + (i % 3) * 1_000_000L;
+            engine.onSensorEvent(SensorType.ACCELEROMETER, timestamp, FLAT_GRAVITY);
+            engine.onSensorEvent(SensorType.GYROSCOPE, timestamp + 1_000_000L, new float[]{0, 0, 0});
+            if (i % 4 == 0) {
+                engine.onSensorEvent(SensorType.MAGNETIC_FIELD, timestamp, NORTH_FIELD);
+            }
+        }
+        engine.onSensorEvent(SensorType.STEP_COUNTER, timestamp, new float[]{110});
+
+        float expectedDistance = 10 * (float) (0.98 * Math.cbrt(9.81));
+        assertEquals(0.0, engine.getHeading(), 1e-3);
+        assertEquals(0.0f, position(engine)[0], 1e-3f);
+        assertEquals(expectedDistance, position(engine)[1], 1e-3f);
+    }
+
+    private static float[] position(FusionEngine engine) {
+        float[] position = new float[2];
+        engine.getPosition(position);
+        return position;
+    }
+}
@@ -0,0 +1,124 @@
+package com.kisal.indoorsmart.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SensorResamplerTest {
+
+    private final long[] times = new long[256];
+    private final float[] accel = new float[256 * 3];
+    private final float[] gyro = new float[256 * 3];
+    private final float[] magnet = new float[256 * 3];
+
+    @Test
+    public void linearSignals_areInterpolatedExactly() {
+        SensorResampler resampler = new SensorResampler();
+        Random random = new Random(7);
+        // beyond the range of an int nanosecond timestamp
+        long start = 5_000_000_000_000L;
+        long accelTime = start, gyroTime = start, magnetTime = start;
+        int frames = 0;
+        long lastTime = 0;
+        for (int i = 0; i < 400; i++) {
+            accelTime += 4_000_000L + random.nextInt(2_000_000);
+            resampler.add(SensorType.ACCELEROMETER, accelTime, ramp(accelTime, start));
+            for (int k = 0; k < 2; k++) {
+                gyroTime += 2_000_000L + random.nextInt(1_000_000);
+                resampler.add(SensorType.GYROSCOPE, gyroTime, ramp(gyroTime, start));
+            }
+            if (i % 4 == 0) {
+                magnetTime += 20_000_000L;
+                resampler.add(SensorType.MAGNETIC_FIELD, magnetTime, ramp(magnetTime, start));
+            }
+
+            int n = resampler.poll(times, accel, gyro, magnet, times.length);
+            for (int f = 0; f < n; f++) {
+                float[] expected = ramp(times[f], start);
+                assertEquals(0, times[f] % SensorResampler.DEFAULT_PERIOD_NS);
+                for (int k = 0; k < 3; k++) {
+                    assertEquals(expected[k], accel[3 * f + k], 1e-3f);
+                    assertEquals(expected[k], gyro[3 * f + k], 1e-3f);
+                    assertEquals(expected[k], magnet[3 * f + k], 1e-3f);
+                }
+                if (lastTime != 0) {
+                    assertEquals(SensorResampler.DEFAULT_PERIOD_NS, times[f] - lastTime);
+                }
+                lastTime = times[f];
+            }
+            frames += n;
+        }
+        // the slowest stream limits the timeline: 100 magnetometer samples, 20 ms apart
+        assertTrue(frames > 390);
+    }
+
+    @Test
+    public void framesWaitForTheSlowestStream() {
+        SensorResampler resampler = new SensorResampler(10_000_000L, 64, 100_000_000L);
+        resampler.add(SensorType.ACCELEROMETER, 0, new float[]{0, 0, 0});
+        resampler.add(SensorType.GYROSCOPE, 0, new float[]{0, 0, 0});
+        resampler.add(SensorType.MAGNETIC_FIELD, 0, new float[]{0, 0, 0});
+        resampler.add(SensorType.ACCELEROMETER, 50_000_000L, new float[]{5, 0, 0});
+        resampler.add(SensorType.GYROSCOPE, 50_000_000L, new float[]{5, 0, 0});
+        resampler.add(SensorType.MAGNETIC_FIELD, 20_000_000L, new float[]{2, 0, 0});
+
+        assertEquals(3, resampler.poll(times, accel, gyro, magnet, times.length));
+        assertEquals(20_000_000L, times[2]);
+        assertEquals(2.0f, accel[6], 1e-6f);
+        assertEquals(0, resampler.poll(times, accel, gyro, magnet, times.length));
+    }
+
+    @Test
+    public void silentStream_isHeld() {
+        SensorResampler resampler = new SensorResampler(10_000_000L, 64, 100_000_000L);
+        resampler.add(SensorType.MAGNETIC_FIELD, 0, new float[]{1, 2, 3});
+        int frames = 0;
+        for (long t = 0; t <= 300_000_000L; t += 10_000_000L) {
+            resampler.add(SensorType.ACCELEROMETER, t, new float[]{t / 1e9f, 0, 0});
+            resampler.add(SensorType.GYROSCOPE, t, new float[]{0, 0, 0});
+            int n = resampler.poll(times, accel, gyro, magnet, times.length);
+            if (t < 100_000_000L) {
+                // the magnetometer may still be late
+                assertEquals(t == 0 ? 1 : 0, n);
+            } else {
+                assertEquals(3.0f, magnet[3 * (n - 1) + 2], 0.0f);
+                assertEquals(t, times[n - 1]);
+            }
+            frames += n;
+        }
+        assertEquals(31, frames);
+    }
+
+    @Test
+    public void pause_isSkipped() {
+        SensorResampler resampler = new SensorResampler(10_000_000L, 64, 100_000_000L);
+        for (int type : new int[]{SensorType.ACCELEROMETER, SensorType.GYROSCOPE, SensorType.MAGNETIC_FIELD}) {
+            resampler.add(type, 0, new float[]{0, 0, 0});
+            resampler.add(type, 10_000_000L, new float[]{0, 0, 0});
+        }
+        assertEquals(2, resampler.poll(times, accel, gyro, magnet, times.length));
+
+        // an hour later
+        long later = 3_600_000_000_000L;
+        for (int type : new int[]{SensorType.ACCELEROMETER, SensorType.GYROSCOPE, SensorType.MAGNETIC_FIELD}) {
+            resampler.add(type, later, new float[]{1, 0, 0});
+        }
+        assertEquals(1, resampler.poll(times, accel, gyro, magnet, times.length));
+        assertEquals(later, times[0]);
+        assertEquals(1.0f, accel[0], 0.0f);
+    }
+
+    @Test
+    public void otherSensors_areNotBuffered() {
+        SensorResampler resampler = new SensorResampler();
+        assertFalse(resampler.add(SensorType.STEP_COUNTER, 0, new float[]{1}));
+        assertTrue(resampler.add(SensorType.GYROSCOPE, 0, new float[]{1, 2, 3}));
+    }
+
+    private static float[] ramp(long t, long start) {
+        float seconds = (t - start) / 1e9f;
+        return new float[]{seconds, 2 * seconds, -seconds};
+    }
+}
@@ -0,0 +1,185 @@
+package com.kisal.indoorsmart.fusion;
+
+import com.kisal.indoorsmart.fusion.trace.TraceReader;
+import com.kisal.indoorsmart.fusion.trace.TraceWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Validates the step detector on synthetic walking traces, replayed from trace files.
+ */
+public class StepDetectorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void countsStepsOfVaryingWalkers() throws IOException {
+        // cadence (Hz), bounce amplitude (m/s^2), sample rate (Hz)
+        float[][] walkers = {
+                {1.6f, 1.5f, 100},
+                {1.9f, 3.0f, 200},
+                {2.3f, 5.0f, 200},
+                {1.8f, 2.0f, 50},
+        };
+        for (float[] walker : walkers) {
+            File file = folder.newFile();
+            int trueSteps = writeWalk(file, walker[0], walker[1], (int) walker[2], 60, 11);
+
+            StepDetector detector = new StepDetector();
+            try (TraceReader reader = new TraceReader(file)) {
+                while (reader.next()) {
+                    if (reader.getSensorType() == SensorType.ACCELEROMETER) {
+                        detector.onAcceleration(magnitude(reader.getValues()), reader.getTimestamp());
+                    }
+                }
+            }
+            assertEquals("walker " + walker[0] + " Hz, " + walker[1] + " m/s^2",
+                    trueSteps, detector.getStepCount(), Math.max(2, trueSteps * 0.02));
+        }
+    }
+
+    @Test
+    public void ignoresStandingStill() {
+        StepDetector detector = new StepDetector();
+        Random random = new Random(2);
+        long timestamp = 0;
+        for (int i = 0; i < 200 * 60; i++) {
+            timestamp += 5_000_000L;
+            detector.onAcceleration(9.81f + (float) random.nextGaussian() * 0.15f, timestamp);
+        }
+        assertEquals(0, detector.getStepCount());
+    }
+
+    @Test
+    public void hardwareCounterAddsMissedSteps() throws IOException {
+        // a walker too gentle for the detector, so only the late hardware counter sees the steps
+        File file = folder.newFile();
+        int trueSteps = writeWalk(file, 1.8f, 0.6f, 100, 30, 3);
+
+        SensorFusionEngine engine = new SensorFusionEngine();
+        engine.setStepSource(StepSource.ACCELEROMETER);
+        try (TraceReader reader = new TraceReader(file)) {
+            while (reader.next()) {
+                engine.onSensorEvent(reader.getSensorType(), reader.getTimestamp(), reader.getValues());
+            }
+        }
+        float[] position = position(engine);
+
+        // strides of this model are about 2 m, and the last five seconds of steps
+        // (about 9) are never reported by the counter
+        float distance = (float) Math.hypot(position[0], position[1]);
+        assertTrue("distance " + distance + " for " + trueSteps + " steps", distance > (trueSteps - 10) * 2.0f);
+    }
+
+    @Test
+    public void accelerometerStepsMoveBeforeTheHardwareCounter() throws IOException {
+        File file = folder.newFile();
+        writeWalk(file, 1.9f, 3.0f, 200, 20, 5);
+
+        SensorFusionEngine counter = new SensorFusionEngine();
+        SensorFusionEngine detector = new SensorFusionEngine();
+        detector.setStepSource(StepSource.ACCELEROMETER);
+        try (TraceReader reader = new TraceReader(file)) {
+            while (reader.next()) {
+                counter.onSensorEvent(reader.getSensorType(), reader.getTimestamp(), reader.getValues());
+                detector.onSensorEvent(reader.getSensorType(), reader.getTimestamp(), reader.getValues());
+                // two seconds in, the batched hardware counter has not reported anything yet
+                if (reader.getTimestamp() == 2_000_000_000L) {
+                    assertEquals(0.0f, position(counter)[1], 0.0f);
+                    assertTrue(position(detector)[1] > 1.0f);
+                }
+            }
+        }
+        // the counter never reports the steps of the last few seconds
+        assertTrue(position(detector)[1] > position(counter)[1]);
+    }
+
+    @Test
+    public void doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        long thread = Thread.currentThread().getId();
+
+        StepDetector detector = new StepDetector();
+        long timestamp = 0;
+        for (int i = 0; i < 100_000; i++) {
+            timestamp += 5_000_000L;
+            detector.onAcceleration(9.81f + 3 * (float) Math.sin(i * 0.06), timestamp);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100_000; i++) {
+            timestamp += 5_000_000L;
+            detector.onAcceleration(9.81f + 3 * (float) Math.sin(i * 0.06), timestamp);
+            detector.countStepsAfter(timestamp - 1_000_000_000L);
+        }
+        assertTrue(threads.getThreadAllocatedBytes(thread) - before < 100_000);
+    }
+
+    private static float magnitude(float[] v) {
+        return (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+    }
+
+    /**
+     * Writes a walk facing north: a few seconds standing, then walking with one
+     * acceleration bounce per step plus a harmonic, sensor noise and timestamp jitter.
+     * The hardware step counter reports in batches every five seconds, late.
+     * Returns the number of steps taken.
+     */
+    static int writeWalk(File file, float cadence, float bounce, int sampleRate, int seconds, long seed)
+            throws IOException {
+        Random random = new Random(seed);
+        long period = 1_000_000_000L / sampleRate;
+        long standing = 3_000_000_000L;
+        int steps = 0;
+        long lastCounterReport = 0;
+        try (TraceWriter writer = new TraceWriter(file)) {
+            writer.record(SensorType.STEP_COUNTER, 0, new float[]{0});
+            double phase = 0;
+            long timestamp = 0;
+            while (timestamp < seconds * 1_000_000_000L) {
+                long step = period + (long) (random.nextGaussian() * period * 0.05);
+                timestamp += step;
+                double dynamic = 0;
+                if (timestamp > standing) {
+                    // cadence wanders by +-10 percent
+                    double rate = cadence * (1 + 0.1 * Math.sin(timestamp / 7e9));
+                    double before = phase;
+                    phase += rate * step / 1e9;
+                    if (Math.floor(phase) > Math.floor(before)) {
+                        steps++;
+                    }
+                    dynamic = bounce * (Math.sin(2 * Math.PI * phase) + 0.3 * Math.sin(4 * Math.PI * phase + 1));
+                }
+                float z = 9.81f + (float) (dynamic + random.nextGaussian() * 0.15);
+                float x = (float) (random.nextGaussian() * 0.15 + 0.2 * dynamic);
+                writer.record(SensorType.ACCELEROMETER, timestamp, new float[]{x, 0, z});
+                writer.record(SensorType.MAGNETIC_FIELD, timestamp, new float[]{0, 22, -40});
+                writer.record(SensorType.GYROSCOPE, timestamp, new float[]{0, 0, 0});
+
+                if (timestamp - lastCounterReport >= 5_000_000_000L) {
+                    lastCounterReport = timestamp;
+                    writer.record(SensorType.STEP_COUNTER, timestamp, new float[]{steps});
+                }
+            }
+        }
+        return steps;
+    }
+
+    private static float[] position(FusionEngine engine) {
+        float[] position = new float[2];
+        engine.getPosition(position);
+        return position;
+    }
+}
@@ -0,0 +1,229 @@
+package com.kisal.indoorsmart.fusion.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead_roundTrip() throws IOException {
+        File file = new File(folder.getRoot(), "trajectory.journal");
+        try (JournalWriter writer = new JournalWriter(file)) {
+            writer.append(1_000_000_000L, 0.0f, 0.0f, 90.0, 0);
+            writer.append(1_500_000_000L, 0.7f, -0.25f, 91.5, 1);
+            writer.append(2_000_000_000L, 1.4f, -0.5f, 92.25, 1);
+            assertEquals(3, writer.getRecordCount());
+        }
+
+        try (JournalReader reader = new JournalReader(file)) {
+            assertTrue(reader.next());
+            assertEquals(1_000_000_000L, reader.getTimestampNs());
+            assertEquals(90.0, reader.getHeading(), 0.0);
+
+            assertTrue(reader.next());
+            assertEquals(1_500_000_000L, reader.getTimestampNs());
+            assertEquals(0.7f, reader.getX(), 1e-3f);
+            assertEquals(-0.25f, reader.getY(), 1e-3f);
+            assertEquals(91.5, reader.getHeading(), 1e-9);
+            assertEquals(1, reader.getStepCount());
+
+            assertTrue(reader.next());
+            assertEquals(1.4f, reader.getX(), 1e-3f);
+            assertEquals(92.25, reader.getHeading(), 1e-9);
+            assertFalse(reader.next());
+
+            reader.rewind();
+            assertTrue(reader.next());
+            assertEquals(1_000_000_000L, reader.getTimestampNs());
+        }
+    }
+
+    @Test
+    public void deltas_areCompact() throws IOException {
+        File file = new File(folder.getRoot(), "walk.journal");
+        int records = 2000;
+        try (JournalWriter writer = new JournalWriter(file)) {
+            for (int i = 0; i < records; i++) {
+                writer.append(i * 20_000_000L, i * 0.01f, i * 0.005f, 45.0 + (i % 10), i / 50);
+            }
+        }
+        // a 20 ms update with small moves fits in about eight bytes, against 32 raw
+        assertTrue(file.length() < records * 9);
+
+        try (JournalReader reader = new JournalReader(file)) {
+            int count = 0;
+            while (reader.next()) {
+                assertEquals(count * 0.01f, reader.getX(), 1e-3f);
+                assertEquals(count * 0.005f, reader.getY(), 1e-3f);
+                assertEquals(45.0 + (count % 10), reader.getHeading(), 1e-9);
+                assertEquals(count / 50, reader.getStepCount());
+                count++;
+            }
+            assertEquals(records, count);
+        }
+    }
+
+    @Test
+    public void heading_wrapsThroughNorth() throws IOException {
+        File file = new File(folder.getRoot(), "wrap.journal");
+        try (JournalWriter writer = new JournalWriter(file)) {
+            writer.append(0L, 0f, 0f, 359.0, 0);
+            writer.append(1000L, 0f, 0f, 1.0, 0);
+            writer.append(2000L, 0f, 0f, 358.5, 0);
+        }
+        try (JournalReader reader = new JournalReader(file)) {
+            assertTrue(reader.next());
+            assertEquals(359.0, reader.getHeading(), 1e-9);
+            assertTrue(reader.next());
+            assertEquals(1.0, reader.getHeading(), 1e-9);
+            assertTrue(reader.next());
+            assertEquals(358.5, reader.getHeading(), 1e-9);
+        }
+    }
+
+    @Test
+    public void unchangedUpdates_areDropped() throws IOException {
+        File file = new File(folder.getRoot(), "idle.journal");
+        try (JournalWriter writer = new JournalWriter(file)) {
+            writer.append(0L, 1f, 2f, 10.0, 0);
+            writer.append(1000L, 1f, 2f, 10.5, 0);
+            writer.append(2000L, 1f, 2f, 12.0, 0);
+            writer.append(3000L, 1f, 2.1f, 12.0, 0);
+            assertEquals(3, writer.getRecordCount());
+        }
+    }
+
+    @Test
+    public void backgroundSync_writesEveryCheckpoint() throws IOException {
+        File file = new File(folder.getRoot(), "background.journal");
+        try (JournalWriter writer = new JournalWriter(file, true)) {
+            for (int i = 0; i < 20; i++) {
+                writer.append(i * JournalWriter.CHECKPOINT_INTERVAL_NS, i, 0f, 0.0, i);
+            }
+            assertEquals(writer.getLength(), file.length());
+        }
+
+        try (JournalReader reader = new JournalReader(file)) {
+            assertEquals(file.length(), reader.getValidLength());
+            int count = 0;
+            while (reader.next()) {
+                assertEquals(count, reader.getX(), 1e-3f);
+                count++;
+            }
+            assertEquals(20, count);
+        }
+    }
+
+    @Test
+    public void recover_cutsTornFrame() throws IOException {
+        File file = new File(folder.getRoot(), "torn.journal");
+        try (JournalWriter writer = new JournalWriter(file)) {
+            writer.append(0L, 0f, 0f, 0.0, 0);
+            writer.append(100_000_000L, 1f, 0f, 0.0, 1);
+            writer.checkpoint();
+            writer.append(200_000_000L, 2f, 0f, 0.0, 1);
+            writer.append(300_000_000L, 3f, 0f, 0.0, 1);
+        }
+        long complete;
+        try (JournalReader reader = new JournalReader(file)) {
+            complete = reader.getValidLength();
+        }
+        assertEquals(file.length(), complete);
+
+        // a crash in the middle of the last frame
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(complete - 3);
+        }
+        try (JournalReader reader = JournalReader.recover(file)) {
+            assertNotNull(reader);
+            float x = Float.NaN;
+            while (reader.next()) {
+                x = reader.getX();
+            }
+            assertEquals(1f, x, 1e-3f);
+        }
+        assertTrue(file.length() < complete - 3);
+
+        // appending continues after the last consistent frame
+        try (JournalWriter writer = new JournalWriter(file)) {
+            writer.append(400_000_000L, 4f, 0f, 0.0, 1);
+        }
+        try (JournalReader reader = new JournalReader(file)) {
+            int count = 0;
+            while (reader.next()) {
+                count++;
+            }
+            assertEquals(3, count);
+            assertEquals(4f, reader.getX(), 1e-3f);
+        }
+    }
+
+    @Test
+    public void reader_stopsAtCorruptFrame() throws IOException {
+        File file = new File(folder.getRoot(), "corrupt.journal");
+        try (JournalWriter writer = new JournalWriter(file)) {
+            writer.append(0L, 0f, 0f, 0.0, 0);
+            writer.checkpoint();
+            writer.append(1_000_000_000L, 5f, 0f, 0.0, 1);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0x40);
+        }
+        try (JournalReader reader = new JournalReader(file)) {
+            assertTrue(reader.next());
+            assertEquals(0f, reader.getX(), 0f);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void directory_keepsTheNewestSegments() throws IOException {
+        JournalDirectory directory = new JournalDirectory(new File(folder.getRoot(), "journal"), 3);
+        assertNull(directory.newest());
+        assertNull(directory.openLatest());
+
+        for (int session = 0; session < 5; session++) {
+            try (JournalWriter writer = new JournalWriter(directory.next())) {
+                writer.append(0L, session, 0f, 0.0, 0);
+                writer.append(1_000_000_000L, session, 1f, 0.0, 1);
+                assertEquals(JournalFormat.HEADER_SIZE, writer.getLength());
+                writer.checkpoint();
+                assertTrue(writer.getLength() > JournalFormat.HEADER_SIZE);
+            }
+        }
+        File[] segments = directory.list();
+        assertEquals(3, segments.length);
+        assertEquals(segments[2], directory.newest());
+
+        // a session without a checkpoint yet: the last one is replayed
+        try (JournalWriter writer = new JournalWriter(directory.next())) {
+            assertEquals(JournalFormat.HEADER_SIZE, writer.getLength());
+            try (JournalReader reader = directory.openLatest()) {
+                assertNotNull(reader);
+                assertTrue(reader.next());
+                assertEquals(4f, reader.getX(), 0f);
+                assertTrue(reader.next());
+                assertFalse(reader.next());
+            }
+        }
+        assertEquals(3, directory.list().length);
+    }
+
+    @Test
+    public void recover_withoutJournal_returnsNull() throws IOException {
+        assertNull(JournalReader.recover(new File(folder.getRoot(), "missing.journal")));
+    }
+}
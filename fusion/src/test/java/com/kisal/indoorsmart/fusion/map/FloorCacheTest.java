@@ -0,0 +1,190 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.*;
+
+public class FloorCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Loads "floor <n>" strings and remembers what was released
+    private static class RecordingLoader implements FloorCache.Loader<String> {
+        final List<String> released = new ArrayList<>();
+        int failingFloor = Integer.MIN_VALUE;
+
+        @Override
+        public String load(int floor) throws IOException {
+            if (floor == failingFloor) {
+                throw new FileNotFoundException("floor" + floor);
+            }
+            return "floor " + floor;
+        }
+
+        @Override
+        public synchronized void release(String data) {
+            released.add(data);
+        }
+    }
+
+    @Test
+    public void walkingUp_keepsOnlyAdjacentFloors() {
+        Building building = new Building(folder.getRoot(), -2, 20, 0, 3.5f);
+        RecordingLoader loader = new RecordingLoader();
+        FloorCache<String> cache = new FloorCache<>(building, loader, Runnable::run, null);
+
+        cache.setCurrentFloor(-2);
+        assertEquals(2, cache.getResidentCount());
+        assertEquals("floor -2", cache.get(-2));
+        assertEquals("floor -1", cache.get(-1));
+
+        for (int floor = -1; floor <= 20; floor++) {
+            cache.setCurrentFloor(floor);
+            assertTrue(cache.getResidentCount() <= 3);
+            assertEquals("floor " + floor, cache.get(floor));
+            assertNull(cache.get(floor - 2));
+        }
+        assertEquals(2, cache.getResidentCount());
+        // every floor loaded once, everything left behind released
+        assertEquals(23, cache.getLoadCount());
+        assertEquals(21, loader.released.size());
+        assertEquals("floor -2", loader.released.get(0));
+
+        // back down one floor, only the floor below it comes back
+        cache.setCurrentFloor(19);
+        assertEquals(24, cache.getLoadCount());
+        assertEquals(3, cache.getResidentCount());
+
+        cache.close();
+        assertEquals(24, loader.released.size());
+        assertNull(cache.get(19));
+    }
+
+    @Test
+    public void loadFinishingAfterEviction_isReleased() {
+        Building building = new Building(folder.getRoot(), 0, 10, 0, 3.5f);
+        RecordingLoader loader = new RecordingLoader();
+        Queue<Runnable> pending = new ArrayDeque<>();
+        List<Integer> loaded = new ArrayList<>();
+        FloorCache<String> cache = new FloorCache<>(building, loader, pending::add, new FloorCache.Listener<String>() {
+            @Override
+            public void onFloorLoaded(int floor, String data) {
+                loaded.add(floor);
+            }
+
+            @Override
+            public void onFloorFailed(int floor, IOException e) {
+                fail("floor " + floor + " failed");
+            }
+        });
+
+        cache.setCurrentFloor(0);
+        assertNull(cache.get(0)); // still loading, get never waits
+        // the lift went straight to floor 5 before the loader ran
+        cache.setCurrentFloor(5);
+        while (!pending.isEmpty()) {
+            pending.poll().run();
+        }
+
+        assertEquals(Arrays.asList(5, 6, 4), loaded);
+        assertNull(cache.get(0));
+        assertNull(cache.get(1));
+        assertEquals("floor 5", cache.get(5));
+        assertEquals(3, cache.getResidentCount());
+        assertEquals(Arrays.asList("floor 0", "floor 1"), loader.released);
+    }
+
+    @Test
+    public void closedCache_startsNoLoads() {
+        Building building = new Building(folder.getRoot(), 0, 10, 0, 3.5f);
+        RecordingLoader loader = new RecordingLoader();
+        Queue<Runnable> pending = new ArrayDeque<>();
+        FloorCache<String> cache = new FloorCache<>(building, loader, pending::add, null);
+
+        cache.setCurrentFloor(3);
+        cache.close();
+        cache.setCurrentFloor(4);
+        assertEquals(3, pending.size());
+        assertEquals(3, cache.getLoadCount());
+
+        // the loads that were already running are released as they finish
+        while (!pending.isEmpty()) {
+            pending.poll().run();
+        }
+        assertEquals(0, cache.getResidentCount());
+        assertEquals(3, loader.released.size());
+    }
+
+    @Test
+    public void failedFloor_isReportedAndRetried() {
+        Building building = new Building(folder.getRoot(), 0, 3, 1, 3.5f);
+        RecordingLoader loader = new RecordingLoader();
+        loader.failingFloor = 2;
+        List<Integer> failed = new ArrayList<>();
+        FloorCache<String> cache = new FloorCache<>(building, loader, Runnable::run, new FloorCache.Listener<String>() {
+            @Override
+            public void onFloorLoaded(int floor, String data) {}
+
+            @Override
+            public void onFloorFailed(int floor, IOException e) {
+                failed.add(floor);
+            }
+        });
+
+        cache.setCurrentFloor(1);
+        assertEquals(Arrays.asList(2), failed);
+        assertNull(cache.get(2));
+        assertEquals("floor 0", cache.get(0));
+        assertEquals("floor 1", cache.get(1));
+        assertEquals(2, cache.getResidentCount());
+
+        // the file turns up, the next floor change loads it
+        loader.failingFloor = Integer.MIN_VALUE;
+        cache.setCurrentFloor(2);
+        assertEquals("floor 2", cache.get(2));
+        assertEquals(Arrays.asList(2), failed);
+        assertEquals(5, cache.getLoadCount());
+    }
+
+    @Test
+    public void readManifest() throws IOException {
+        File directory = folder.newFolder("building");
+        Files.write(new File(directory, Building.MANIFEST).toPath(),
+                "# Main building\nfloors -1 6\n\nfloorHeight 4.2\n".getBytes(StandardCharsets.UTF_8));
+        Building building = Building.read(directory);
+        assertEquals(-1, building.getLowestFloor());
+        assertEquals(6, building.getHighestFloor());
+        assertEquals(0, building.getStartFloor());
+        assertEquals(4.2f, building.getFloorHeight(), 0.0f);
+        assertTrue(building.hasFloor(-1));
+        assertFalse(building.hasFloor(7));
+        assertEquals(new File(directory, "floor-1.walls"), building.getFile(-1, Building.WALLS_SUFFIX));
+
+        // floors the building lacks load as empty data
+        FloorData data = FloorData.load(building, 3);
+        assertNull(data.getWalls());
+        assertNull(data.getFingerprints());
+    }
+
+    @Test(expected = IOException.class)
+    public void readManifest_rejectsStartOutsideFloors() throws IOException {
+        File directory = folder.newFolder("building");
+        Files.write(new File(directory, Building.MANIFEST).toPath(),
+                "floors 0 3\nstartFloor 4\n".getBytes(StandardCharsets.UTF_8));
+        Building.read(directory);
+    }
+}
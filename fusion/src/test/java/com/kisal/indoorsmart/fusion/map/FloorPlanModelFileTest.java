@@ -0,0 +1,77 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class FloorPlanModelFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeAndMap_roundTrip() throws IOException {
+        FloorPlanModel model = new FloorPlanVectorizer()
+                .vectorize(FloorPlanVectorizerTest.source(FloorPlanVectorizerTest.room()), 2);
+        byte[] hash = FloorPlanModelCache.hash(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        File file = folder.newFile("room.fpm");
+
+        FloorPlanModelFile.write(file, hash, model);
+        FloorPlanModel mapped = FloorPlanModelFile.read(file, hash);
+
+        assertEquals(model.getImageWidth(), mapped.getImageWidth());
+        assertEquals(model.getImageHeight(), mapped.getImageHeight());
+        assertEquals(model.getCellSize(), mapped.getCellSize());
+        assertEquals(model.getWallCount(), mapped.getWallCount());
+        float[] expected = new float[4];
+        float[] actual = new float[4];
+        for (int i = 0; i < model.getWallCount(); i++) {
+            model.getWall(i, expected);
+            mapped.getWall(i, actual);
+            assertArrayEquals(expected, actual, 0.0f);
+        }
+        for (int row = 0; row < model.getRows(); row++) {
+            for (int column = 0; column < model.getColumns(); column++) {
+                assertEquals(model.isOccupiedCell(column, row), mapped.isOccupiedCell(column, row));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsModelOfAnotherImage() throws IOException {
+        FloorPlanModel model = new FloorPlanVectorizer()
+                .vectorize(FloorPlanVectorizerTest.source(FloorPlanVectorizerTest.room()), 1);
+        File file = folder.newFile("room.fpm");
+        FloorPlanModelFile.write(file, new byte[FloorPlanModelFile.HASH_SIZE], model);
+
+        byte[] other = new byte[FloorPlanModelFile.HASH_SIZE];
+        other[0] = 1;
+        FloorPlanModelFile.read(file, other);
+    }
+
+    @Test
+    public void cache_missesUntilStoredAndOnOldVersions() throws IOException {
+        FloorPlanModelCache cache = new FloorPlanModelCache(new File(folder.getRoot(), "models"));
+        byte[] hash = FloorPlanModelCache.hash(new ByteArrayInputStream(new byte[]{4, 5, 6}));
+        assertNull(cache.load(hash));
+
+        FloorPlanModel model = new FloorPlanVectorizer()
+                .vectorize(FloorPlanVectorizerTest.source(FloorPlanVectorizerTest.room()), 1);
+        cache.store(hash, model);
+        assertNotNull(cache.load(hash));
+
+        // a file written by another format version is a miss, not an error
+        try (RandomAccessFile file = new RandomAccessFile(cache.fileFor(hash), "rw")) {
+            file.seek(4);
+            file.writeShort(Short.reverseBytes((short) (FloorPlanModelFile.VERSION + 1)));
+        }
+        assertNull(cache.load(hash));
+    }
+}
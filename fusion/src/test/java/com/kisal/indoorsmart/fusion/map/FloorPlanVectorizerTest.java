@@ -0,0 +1,106 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FloorPlanVectorizerTest {
+
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+
+    /**
+     * A 200 x 100 px room whose walls are 4 px thick black strokes, with a 20 px
+     * doorway in the bottom wall.
+     */
+    static int[][] room() {
+        int[][] pixels = new int[100][200];
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 200; x++) {
+                boolean wall = y < 4 || y >= 96 || x < 4 || x >= 196;
+                boolean door = y >= 96 && x >= 90 && x < 110;
+                pixels[y][x] = wall && !door ? BLACK : WHITE;
+            }
+        }
+        return pixels;
+    }
+
+    static FloorPlanVectorizer.RowSource source(int[][] pixels) {
+        return new FloorPlanVectorizer.RowSource() {
+            @Override
+            public int getWidth() {
+                return pixels[0].length;
+            }
+
+            @Override
+            public int getHeight() {
+                return pixels.length;
+            }
+
+            @Override
+            public void readRow(int y, int[] argb) {
+                System.arraycopy(pixels[y], 0, argb, 0, argb.length);
+            }
+        };
+    }
+
+    @Test
+    public void room_becomesCentreLineSegments() {
+        FloorPlanModel model = new FloorPlanVectorizer().vectorize(source(room()), 1);
+
+        // top, bottom left, bottom right, left, right
+        assertEquals(5, model.getWallCount());
+        assertTrue(hasWall(model, 0, 2, 200, 2));
+        assertTrue(hasWall(model, 0, 98, 90, 98));
+        assertTrue(hasWall(model, 110, 98, 200, 98));
+        assertTrue(hasWall(model, 2, 0, 2, 100));
+        assertTrue(hasWall(model, 198, 0, 198, 100));
+    }
+
+    @Test
+    public void scale_mapsToFullResolutionPixels() {
+        FloorPlanModel model = new FloorPlanVectorizer().vectorize(source(room()), 4);
+
+        assertEquals(800, model.getImageWidth());
+        assertEquals(400, model.getImageHeight());
+        assertTrue(hasWall(model, 0, 8, 800, 8));
+        assertTrue(model.isOccupied(10, 10));
+        assertFalse(model.isOccupied(400, 200));
+    }
+
+    @Test
+    public void occupancy_marksWallCellsOnly() {
+        FloorPlanModel model = new FloorPlanVectorizer().setCellSize(10).vectorize(source(room()), 1);
+
+        assertEquals(20, model.getColumns());
+        assertEquals(10, model.getRows());
+        assertTrue(model.isOccupiedCell(0, 5));
+        assertTrue(model.isOccupiedCell(19, 5));
+        assertFalse(model.isOccupiedCell(10, 5));
+        // the doorway stays open
+        assertFalse(model.isOccupiedCell(9, 9));
+        assertTrue(model.isOccupiedCell(-1, 0));
+    }
+
+    @Test
+    public void toWallIndex_blocksTheWallsButNotTheDoor() {
+        FloorPlanModel model = new FloorPlanVectorizer().vectorize(source(room()), 1);
+        // 5 cm per pixel: a 10 x 5 m room with a 1 m doorway
+        WallIndex walls = model.toWallIndex(0.05f, WallIndex.DEFAULT_CELL_SIZE);
+
+        assertTrue(walls.crossesWall(5, 2.5f, 5, -1));
+        assertFalse(walls.crossesWall(5, 4.5f, 5, 5.5f));
+        assertTrue(walls.crossesWall(3, 4.5f, 3, 5.5f));
+    }
+
+    private static boolean hasWall(FloorPlanModel model, float x1, float y1, float x2, float y2) {
+        float[] wall = new float[4];
+        for (int i = 0; i < model.getWallCount(); i++) {
+            model.getWall(i, wall);
+            if (wall[0] == x1 && wall[1] == y1 && wall[2] == x2 && wall[3] == y2) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,99 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParticleFilterTest {
+
+    // A 2 m wide corridor along +y from (0, 0) to (2, 50)
+    private static final float[] CORRIDOR = {
+            0, 0, 0, 50,
+            2, 0, 2, 50,
+            0, 0, 2, 0,
+            0, 50, 2, 50
+    };
+
+    /**
+     * Walks up the corridor with a heading that is 10 degrees off. Dead reckoning
+     * would leave the corridor after about six metres; the map matched estimate
+     * stays inside and keeps most of the progress along it.
+     */
+    private static float[] estimateOf(ParticleFilter filter) {
+        float[] estimate = new float[2];
+        filter.getEstimate(estimate);
+        return estimate;
+    }
+
+    @Test
+    public void biasedHeading_staysInCorridor() {
+        WallIndex walls = new WallIndex(CORRIDOR, WallIndex.DEFAULT_CELL_SIZE);
+        ParticleFilter filter = new ParticleFilter(walls, 2000, 1);
+        filter.reset(1, 1, 0.3f);
+
+        for (int step = 0; step < 50; step++) {
+            filter.onStep(0.7f, 10);
+            float[] estimate = estimateOf(filter);
+            assertTrue("x " + estimate[0] + " at step " + step, estimate[0] > 0 && estimate[0] < 2);
+        }
+        // 50 steps of 0.7 m
+        assertEquals(35.0f, estimateOf(filter)[1], 3.0f);
+        assertEquals(0, filter.getResetCount());
+    }
+
+    @Test
+    public void allParticlesBlocked_restartsAroundEstimate() {
+        WallIndex walls = new WallIndex(CORRIDOR, WallIndex.DEFAULT_CELL_SIZE);
+        ParticleFilter filter = new ParticleFilter(walls, 500, 1);
+        filter.reset(1, 1, 0.1f);
+
+        // Straight into the end wall behind the start
+        filter.onStep(3.0f, 180);
+        assertEquals(1, filter.getResetCount());
+        assertEquals(1.0f, estimateOf(filter)[0], 1e-6f);
+        assertEquals(1.0f, estimateOf(filter)[1], 1e-6f);
+    }
+
+    @Test
+    public void fix_pullsTheEstimateAlongTheCorridor() {
+        WallIndex walls = new WallIndex(CORRIDOR, WallIndex.DEFAULT_CELL_SIZE);
+        ParticleFilter filter = new ParticleFilter(walls, 2000, 1);
+        filter.reset(1, 10, 2.0f);
+
+        filter.onFix(1, 11, 0.5f);
+        assertEquals(11.0f, estimateOf(filter)[1], 0.3f);
+        assertEquals(0, filter.getResetCount());
+
+        // nowhere near any particle: start over around the fix
+        filter.onFix(1, 40, 0.5f);
+        assertEquals(1, filter.getResetCount());
+        assertEquals(40.0f, estimateOf(filter)[1], 1e-6f);
+    }
+
+    @Test
+    public void result_doesNotDependOnThreadCount() {
+        WallIndex walls = new WallIndex(CORRIDOR, WallIndex.DEFAULT_CELL_SIZE);
+        ForkJoinPool single = new ForkJoinPool(1);
+        ForkJoinPool many = new ForkJoinPool(4);
+        try {
+            ParticleFilter first = new ParticleFilter(walls, 5000, 42, single);
+            ParticleFilter second = new ParticleFilter(walls, 5000, 42, many);
+            first.reset(1, 1, 0.3f);
+            second.reset(1, 1, 0.3f);
+            for (int step = 0; step < 30; step++) {
+                first.onStep(0.7f, 5 * (step % 5));
+                second.onStep(0.7f, 5 * (step % 5));
+            }
+            assertArrayEquals(estimateOf(first), estimateOf(second), 0.0f);
+            for (int i = 0; i < first.getParticleCount(); i++) {
+                assertEquals(first.getX(i), second.getX(i), 0.0f);
+                assertEquals(first.getY(i), second.getY(i), 0.0f);
+            }
+        } finally {
+            single.shutdown();
+            many.shutdown();
+        }
+    }
+}
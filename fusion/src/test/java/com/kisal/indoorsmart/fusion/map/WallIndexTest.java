@@ -0,0 +1,68 @@
+package com.kisal.indoorsmart.fusion.map;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WallIndexTest {
+
+    @Test
+    public void intersects_handlesCrossingTouchingAndCollinear() {
+        assertTrue(WallIndex.intersects(0, 0, 2, 2, 0, 2, 2, 0));
+        assertFalse(WallIndex.intersects(0, 0, 1, 1, 2, 0, 3, 1));
+        // ending exactly on the wall counts as crossing it
+        assertTrue(WallIndex.intersects(0, 0, 1, 0, 1, -1, 1, 1));
+        assertTrue(WallIndex.intersects(0, 0, 2, 0, 1, 0, 3, 0));
+        assertFalse(WallIndex.intersects(0, 0, 1, 0, 2, 0, 3, 0));
+    }
+
+    @Test
+    public void crossesWall_matchesBruteForce() {
+        Random random = new Random(11);
+        float[] walls = new float[4 * 300];
+        for (int i = 0; i < walls.length; i += 4) {
+            // mostly axis aligned walls of up to 5 m in a 40 x 30 m floor
+            float x = random.nextFloat() * 40;
+            float y = random.nextFloat() * 30;
+            float length = random.nextFloat() * 5;
+            boolean horizontal = random.nextBoolean();
+            walls[i] = x;
+            walls[i + 1] = y;
+            walls[i + 2] = horizontal ? x + length : x + random.nextFloat() * 0.5f;
+            walls[i + 3] = horizontal ? y : y + length;
+        }
+        WallIndex index = new WallIndex(walls, WallIndex.DEFAULT_CELL_SIZE);
+
+        for (int n = 0; n < 20000; n++) {
+            // steps of up to 1.5 m, some starting outside the floor
+            float x0 = random.nextFloat() * 44 - 2;
+            float y0 = random.nextFloat() * 34 - 2;
+            float x1 = x0 + (random.nextFloat() - 0.5f) * 3;
+            float y1 = y0 + (random.nextFloat() - 0.5f) * 3;
+
+            boolean expected = false;
+            for (int i = 0; i < walls.length && !expected; i += 4) {
+                expected = WallIndex.intersects(x0, y0, x1, y1, walls[i], walls[i + 1], walls[i + 2], walls[i + 3]);
+            }
+            assertEquals("step " + n, expected, index.crossesWall(x0, y0, x1, y1));
+        }
+    }
+
+    @Test
+    public void read_parsesWallFile() throws IOException {
+        WallIndex index = WallIndex.read(new StringReader(
+                "# outer walls\n0 0 10 0\n\n10 0 10 5\n"), WallIndex.DEFAULT_CELL_SIZE);
+        assertEquals(2, index.getWallCount());
+        assertTrue(index.crossesWall(9, 1, 11, 1));
+        assertFalse(index.crossesWall(1, 1, 2, 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsShortLines() throws IOException {
+        WallIndex.read(new StringReader("0 0 10\n"), WallIndex.DEFAULT_CELL_SIZE);
+    }
+}
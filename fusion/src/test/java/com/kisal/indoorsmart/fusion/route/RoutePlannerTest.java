@@ -0,0 +1,333 @@
+package com.kisal.indoorsmart.fusion.route;
+
+import com.kisal.indoorsmart.fusion.map.WallIndex;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class RoutePlannerTest {
+
+    private static final float EPSILON = 1e-3f;
+
+    private static OccupancyGrid randomGrid(Random random, int columns, int rows, float blockedFraction) {
+        OccupancyGrid grid = new OccupancyGrid(columns, rows, 0, 0, 1.0f);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                grid.setBlocked(column, row, random.nextFloat() < blockedFraction);
+            }
+        }
+        return grid;
+    }
+
+    private static int randomFreeCell(Random random, OccupancyGrid grid) {
+        while (true) {
+            int cell = random.nextInt(grid.getCellCount());
+            if (!grid.isBlocked(cell)) {
+                return cell;
+            }
+        }
+    }
+
+    // Plain Dijkstra over the same moves, the reference for every planner
+    private static float dijkstra(OccupancyGrid grid, int start, int goal) {
+        int columns = grid.getColumns();
+        float[] cost = new float[grid.getCellCount()];
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+        cost[start] = 0;
+        PriorityQueue<float[]> queue = new PriorityQueue<>((a, b) -> Float.compare(a[0], b[0]));
+        queue.add(new float[]{0, start});
+        while (!queue.isEmpty()) {
+            float[] entry = queue.poll();
+            int cell = (int) entry[1];
+            if (entry[0] > cost[cell]) {
+                continue;
+            }
+            if (cell == goal) {
+                return cost[cell];
+            }
+            int x = cell % columns, y = cell / columns;
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    if ((dx == 0 && dy == 0) || !canMove(grid, x, y, dx, dy)) {
+                        continue;
+                    }
+                    int next = (y + dy) * columns + x + dx;
+                    float nextCost = cost[cell] + (dx != 0 && dy != 0 ? JumpPointSearch.SQRT2 : 1);
+                    if (nextCost < cost[next]) {
+                        cost[next] = nextCost;
+                        queue.add(new float[]{nextCost, next});
+                    }
+                }
+            }
+        }
+        return Float.POSITIVE_INFINITY;
+    }
+
+    private static boolean canMove(OccupancyGrid grid, int x, int y, int dx, int dy) {
+        return !grid.isBlocked(x + dx, y + dy)
+                && (dx == 0 || dy == 0 || (!grid.isBlocked(x + dx, y) && !grid.isBlocked(x, y + dy)));
+    }
+
+    // Walks the path cell by cell, checking every move, and returns its cost
+    private static float walk(OccupancyGrid grid, CellPath path) {
+        int columns = grid.getColumns();
+        float cost = 0;
+        for (int i = 0; i + 1 < path.size(); i++) {
+            int x = path.get(i) % columns, y = path.get(i) / columns;
+            int tx = path.get(i + 1) % columns, ty = path.get(i + 1) / columns;
+            int dx = Integer.signum(tx - x), dy = Integer.signum(ty - y);
+            assertTrue("legs run straight or diagonally",
+                    dx == 0 || dy == 0 || Math.abs(tx - x) == Math.abs(ty - y));
+            while (x != tx || y != ty) {
+                assertTrue("move through a wall at " + x + ", " + y, canMove(grid, x, y, dx, dy));
+                x += dx;
+                y += dy;
+                cost += dx != 0 && dy != 0 ? JumpPointSearch.SQRT2 : 1;
+            }
+        }
+        return cost;
+    }
+
+    @Test
+    public void jumpPointSearch_findsShortestRoutes() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 200; trial++) {
+            OccupancyGrid grid = randomGrid(random, 40, 30, 0.3f);
+            JumpPointSearch search = new JumpPointSearch(grid);
+            int start = randomFreeCell(random, grid), goal = randomFreeCell(random, grid);
+            CellPath path = new CellPath();
+            float expected = dijkstra(grid, start, goal);
+
+            boolean found = search.findPath(start, goal, path);
+            assertEquals(expected < Float.POSITIVE_INFINITY, found);
+            if (found) {
+                assertEquals(start, path.get(0));
+                assertEquals(goal, path.get(path.size() - 1));
+                assertEquals(expected, walk(grid, path), EPSILON * expected + EPSILON);
+                assertEquals(expected, search.getCost(goal), EPSILON * expected + EPSILON);
+            } else {
+                assertEquals(0, path.size());
+            }
+        }
+    }
+
+    @Test
+    public void dStarLite_staysShortestAsTheStartMovesAndCellsChange() {
+        Random random = new Random(2);
+        for (int trial = 0; trial < 20; trial++) {
+            OccupancyGrid grid = randomGrid(random, 40, 30, 0.2f);
+            int goal = randomFreeCell(random, grid);
+            int start = randomFreeCell(random, grid);
+            DStarLite search = new DStarLite(grid);
+            search.reset(start, goal);
+            CellPath path = new CellPath();
+            for (int change = 0; change < 40; change++) {
+                search.computeShortestPath();
+                float expected = dijkstra(grid, start, goal);
+                assertEquals(expected, search.getCost(), EPSILON * expected + EPSILON);
+                assertEquals(expected < Float.POSITIVE_INFINITY, search.extractPath(path));
+                if (path.size() > 0) {
+                    assertEquals(expected, walk(grid, path), EPSILON * expected + EPSILON);
+                }
+
+                // the user walks somewhere else, and a cell away from them and the goal changes
+                start = randomFreeCell(random, grid);
+                search.moveStart(start);
+                int cell = random.nextInt(grid.getCellCount());
+                if (cell != start && cell != goal) {
+                    grid.setBlocked(cell % 40, cell / 40, !grid.isBlocked(cell));
+                    search.onCellChanged(cell);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void dStarLite_noticesTheGoalCutOffAfterTheStartMoved() {
+        // open rooms give long runs of keys that tie exactly, which rounding must not break
+        OccupancyGrid grid = twoRooms();
+        int goal = grid.cellOf(18.25f, 2.25f);
+        DStarLite search = new DStarLite(grid);
+        search.reset(grid.cellOf(2.25f, 2.25f), goal);
+        search.computeShortestPath();
+        int start = grid.cellOf(1.25f, 8.25f);
+        search.moveStart(start);
+        search.computeShortestPath();
+
+        // the door closes one cell after the other
+        for (int row = 16; row <= 17; row++) {
+            grid.setBlocked(20, row, true);
+            search.onCellChanged(row * grid.getColumns() + 20);
+            search.computeShortestPath();
+            float expected = dijkstra(grid, start, goal);
+            assertEquals(expected, search.getCost(), EPSILON * expected + EPSILON);
+        }
+        assertEquals(Float.POSITIVE_INFINITY, search.getCost(), 0.0f);
+    }
+
+    // A 20 x 10 m room split by a wall at x = 10 with a door at y = 8..9
+    private static OccupancyGrid twoRooms() {
+        OccupancyGrid grid = new OccupancyGrid(40, 20, 0, 0, 0.5f);
+        for (int row = 0; row < 20; row++) {
+            if (row < 16 || row > 17) {
+                grid.setBlocked(20, row, true);
+            }
+        }
+        return grid;
+    }
+
+    @Test
+    public void planner_followsTheRouteAndRepairsItWhenLeft() {
+        RoutePlanner planner = new RoutePlanner(twoRooms());
+        assertTrue(planner.setDestination(2, 2, 18, 2));
+        assertTrue(planner.getWaypointCount() >= 3);
+        float length = planner.getRemainingLength();
+        assertTrue(length > 16);
+
+        // walking the planned route needs no repair
+        for (int i = 0; i + 1 < planner.getWaypointCount(); i++) {
+            float x0 = planner.getWaypointX(i), y0 = planner.getWaypointY(i);
+            float x1 = planner.getWaypointX(i + 1), y1 = planner.getWaypointY(i + 1);
+            for (float t = 0; t <= 1; t += 0.1f) {
+                planner.onPosition(x0 + t * (x1 - x0), y0 + t * (y1 - y0));
+            }
+        }
+        assertEquals(0, planner.getRepairCount());
+
+        // back at the start and straying away from the door
+        assertTrue(planner.setDestination(2, 2, 18, 2));
+        planner.onPosition(2, 2);
+        planner.onPosition(1, 8);
+        assertEquals(1, planner.getRepairCount());
+        assertEquals(1.25f, planner.getWaypointX(0), 0.5f);
+        assertEquals(8.25f, planner.getWaypointY(0), 0.5f);
+        assertEquals(18.25f, planner.getWaypointX(planner.getWaypointCount() - 1), 0.01f);
+
+        // the door closes: no route any more
+        planner.setBlocked(10.25f, 8.25f, true);
+        planner.setBlocked(10.25f, 8.75f, true);
+        assertEquals(0, planner.getWaypointCount());
+        planner.setBlocked(10.25f, 8.75f, false);
+        assertTrue(planner.getWaypointCount() > 0);
+    }
+
+    @Test
+    public void planner_repairsIncrementallyFromTheFirstRepair() {
+        OccupancyGrid grid = new OccupancyGrid(100, 100, 0, 0, 0.5f);
+        for (int row = 0; row < 90; row++) {
+            grid.setBlocked(50, row, true);
+        }
+        RoutePlanner planner = new RoutePlanner(grid);
+        assertTrue(planner.setDestination(2, 2, 48, 2));
+        int seeded = planner.getLastExpandedCount();
+        assertTrue(seeded > 0);
+
+        // a step off the route only repairs around it
+        planner.onPosition(12, 8);
+        assertEquals(1, planner.getRepairCount());
+        assertTrue("repair expanded " + planner.getLastExpandedCount() + " cells, seeding " + seeded,
+                planner.getLastExpandedCount() < seeded / 10);
+    }
+
+    @Test
+    public void route_copiesThePlannersRoute() {
+        RoutePlanner planner = new RoutePlanner(twoRooms());
+        assertNull(Route.of(planner));
+        assertTrue(planner.setDestination(2, 2, 18, 2));
+        planner.onPosition(2, 2);
+
+        Route route = Route.of(planner);
+        assertNotNull(route);
+        assertEquals(planner.getWaypointCount(), route.getWaypointCount());
+        for (int i = 0; i < route.getWaypointCount(); i++) {
+            assertEquals(planner.getWaypointX(i), route.getWaypointX(i), 0.0f);
+            assertEquals(planner.getWaypointY(i), route.getWaypointY(i), 0.0f);
+        }
+        assertEquals(planner.getNextWaypoint(), route.getNextWaypoint());
+        assertEquals(planner.getRemainingLength(), route.getRemainingLength(), 0.0f);
+
+        // the copy stays as it was while the planner repairs
+        planner.onPosition(1, 8);
+        assertEquals(1, planner.getRepairCount());
+        assertEquals(0, route.getRepairCount());
+        assertEquals(2.25f, route.getWaypointY(0), 0.5f);
+    }
+
+    @Test
+    public void planner_refusesUnreachableDestinations() {
+        OccupancyGrid grid = twoRooms();
+        grid.setBlocked(20, 16, true);
+        grid.setBlocked(20, 17, true);
+        RoutePlanner planner = new RoutePlanner(grid);
+        assertFalse(planner.setDestination(2, 2, 18, 2));
+        assertFalse(planner.hasRoute());
+        assertFalse(planner.setDestination(2, 2, 100, 2));
+    }
+
+    @Test
+    public void gridFromWalls_blocksTheWallCells() {
+        WallIndex walls = new WallIndex(new float[]{
+                0, 0, 10, 0,
+                0, 0, 0, 10,
+                0, 10, 10, 10,
+                10, 0, 10, 10,
+                5, 0, 5, 4,
+                5, 6, 5, 10}, WallIndex.DEFAULT_CELL_SIZE);
+        OccupancyGrid grid = OccupancyGrid.fromWalls(walls, 0.5f);
+        assertTrue(grid.isBlocked(grid.columnOf(5), grid.rowOf(2)));
+        assertTrue(grid.isBlocked(grid.columnOf(3), grid.rowOf(0)));
+        assertFalse(grid.isBlocked(grid.columnOf(5), grid.rowOf(5)));
+        assertFalse(grid.isBlocked(grid.columnOf(2), grid.rowOf(2)));
+
+        RoutePlanner planner = new RoutePlanner(grid);
+        assertTrue(planner.setDestination(2, 2, 8, 2));
+        // through the gap at y = 4..6
+        float lowest = Float.MAX_VALUE;
+        for (int i = 0; i < planner.getWaypointCount(); i++) {
+            if (Math.abs(planner.getWaypointX(i) - 5) < 1) {
+                lowest = Math.min(lowest, planner.getWaypointY(i));
+            }
+        }
+        assertTrue(lowest >= 4 && lowest <= 6);
+        assertFalse(planner.setDestination(2, 2, 12, 2));
+    }
+
+    @Test
+    public void repairs_doNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        Random random = new Random(3);
+        OccupancyGrid grid = randomGrid(random, 100, 100, 0.2f);
+        int goal = randomFreeCell(random, grid);
+        DStarLite search = new DStarLite(grid);
+        search.reset(randomFreeCell(random, grid), goal);
+        search.computeShortestPath();
+        CellPath path = new CellPath();
+        for (int i = 0; i < 100; i++) {
+            search.moveStart(randomFreeCell(random, grid));
+            search.computeShortestPath();
+            search.extractPath(path);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 1000; i++) {
+            search.moveStart(randomFreeCell(random, grid));
+            int cell = random.nextInt(grid.getCellCount());
+            if (cell != goal) {
+                grid.setBlocked(cell % 100, cell / 100, !grid.isBlocked(cell));
+                search.onCellChanged(cell);
+            }
+            search.computeShortestPath();
+            search.extractPath(path);
+        }
+        assertTrue(threads.getThreadAllocatedBytes(thread) - before < 100_000);
+    }
+}
@@ -0,0 +1,108 @@
+package com.kisal.indoorsmart.fusion.stats;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void buckets_coverEveryValueWithinRelativeError() {
+        long[] values = {0, 1, 63, 64, 65, 127, 128, 1000, 999_999, 1L << 35, LatencyHistogram.MAX_TRACKABLE_NS};
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long lower = LatencyHistogram.bucketLowerBound(index);
+            long upper = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(value + " in [" + lower + ", " + upper + "]", lower <= value && value <= upper);
+            assertTrue(upper - lower <= Math.max(0, value / 32));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(LatencyHistogram.MAX_TRACKABLE_NS));
+    }
+
+    @Test
+    public void buckets_areContiguous() {
+        for (int i = 1; i < LatencyHistogram.BUCKET_COUNT; i++) {
+            assertEquals(LatencyHistogram.bucketUpperBound(i - 1) + 1, LatencyHistogram.bucketLowerBound(i));
+            assertEquals(i, LatencyHistogram.bucketIndex(LatencyHistogram.bucketLowerBound(i)));
+        }
+    }
+
+    @Test
+    public void percentiles_matchUniformInput() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000L, histogram.getMax());
+        assertEquals(5_000_500.0, histogram.getMean(), 1e-6);
+        assertEquals(5_000_000, histogram.getValueAtPercentile(50), 5_000_000 / 32.0);
+        assertEquals(9_900_000, histogram.getValueAtPercentile(99), 9_900_000 / 32.0);
+        assertEquals(10_000_000L, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void outOfRangeValues_areClamped() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_NS, histogram.getMax());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void dump_writesOneLine() throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram("ingest");
+        histogram.record(2_500);
+        StringBuilder out = new StringBuilder();
+        histogram.dump(out);
+        assertTrue(out.toString().startsWith("ingest count=1 mean=2.5 "));
+        assertTrue(out.toString().endsWith(" max=2.5 us\n"));
+    }
+
+    @Test
+    public void record_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        long thread = Thread.currentThread().getId();
+
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        RateCounter rate = new RateCounter("test");
+        Random random = new Random(3);
+        long timestamp = 0;
+        for (int i = 0; i < 100_000; i++) {
+            timestamp += 5_000_000L;
+            histogram.record(random.nextInt(1_000_000));
+            rate.record(timestamp);
+        }
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100_000; i++) {
+            timestamp += 5_000_000L;
+            histogram.record(random.nextInt(1_000_000));
+            rate.record(timestamp);
+        }
+        assertTrue(threads.getThreadAllocatedBytes(thread) - before < 100_000);
+    }
+
+    @Test
+    public void rateCounter_measuresEventsPerSecond() {
+        RateCounter rate = new RateCounter("gyroscope");
+        long timestamp = 1_000_000_000L;
+        for (int i = 0; i < 1000; i++) {
+            rate.record(timestamp);
+            timestamp += 5_000_000L;
+        }
+        assertEquals(1000, rate.getCount());
+        assertEquals(200.0f, rate.getRate(), 1.0f);
+    }
+}
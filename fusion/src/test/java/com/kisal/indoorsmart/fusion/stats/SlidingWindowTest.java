@@ -0,0 +1,94 @@
+package com.kisal.indoorsmart.fusion.stats;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SlidingWindowTest {
+
+    @Test
+    public void matchesBruteForceOnRandomStream() {
+        Random random = new Random(3);
+        int capacity = 17;
+        SlidingWindow window = new SlidingWindow(capacity, true);
+        float[] history = new float[5000];
+
+        for (int n = 0; n < history.length; n++) {
+            history[n] = (float) (random.nextGaussian() * 3 + 9.81);
+            window.add(history[n]);
+
+            int from = Math.max(0, n + 1 - capacity);
+            int count = n + 1 - from;
+            double sum = 0, min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+            for (int i = from; i <= n; i++) {
+                sum += history[i];
+                min = Math.min(min, history[i]);
+                max = Math.max(max, history[i]);
+            }
+            double mean = sum / count;
+            double squares = 0;
+            for (int i = from; i <= n; i++) {
+                squares += (history[i] - mean) * (history[i] - mean);
+            }
+
+            assertEquals(count, window.size());
+            assertEquals(history[from], window.get(0), 0.0f);
+            assertEquals(history[n], window.last(), 0.0f);
+            assertEquals(mean, window.mean(), 1e-5);
+            assertEquals(squares / count, window.variance(), 1e-4);
+            assertEquals(min, window.min(), 0.0);
+            assertEquals(max, window.max(), 0.0);
+        }
+    }
+
+    @Test
+    public void doesNotDriftOverLongSessions() {
+        Random random = new Random(5);
+        SlidingWindow window = new SlidingWindow(10);
+        float[] last = new float[10];
+
+        // roughly 14 hours of accelerometer samples at 200 Hz
+        for (int n = 0; n < 10_000_000; n++) {
+            float value = 9.81f + (float) random.nextGaussian() * 0.05f;
+            window.add(value);
+            last[n % 10] = value;
+        }
+
+        double mean = 0;
+        for (float value : last) {
+            mean += value;
+        }
+        mean /= last.length;
+        double variance = 0;
+        for (float value : last) {
+            variance += (value - mean) * (value - mean);
+        }
+        variance /= last.length;
+
+        assertEquals(mean, window.mean(), 1e-6);
+        assertEquals(variance, window.variance(), 1e-7);
+    }
+
+    @Test
+    public void emptyWindow() {
+        SlidingWindow window = new SlidingWindow(4, true);
+        assertTrue(window.isEmpty());
+        assertEquals(0.0f, window.mean(), 0.0f);
+        assertEquals(0.0f, window.variance(), 0.0f);
+        assertTrue(Float.isNaN(window.min()));
+
+        window.add(1.0f);
+        window.clear();
+        assertTrue(window.isEmpty());
+        assertTrue(Float.isNaN(window.max()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void minRequiresTracking() {
+        SlidingWindow window = new SlidingWindow(4);
+        window.add(1.0f);
+        window.min();
+    }
+}
@@ -0,0 +1,256 @@
+package com.kisal.indoorsmart.fusion.stream;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class PositionStreamServerTest {
+
+    private PositionStreamServer server;
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private PositionStreamServer start(int queueCapacity, long frameIntervalNs) throws IOException {
+        server = new PositionStreamServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                queueCapacity, 10, frameIntervalNs);
+        return server;
+    }
+
+    // Connects and checks the stream header
+    private SocketChannel connect(int receiveBuffer) throws IOException, InterruptedException {
+        SocketChannel channel = SocketChannel.open();
+        if (receiveBuffer > 0) {
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+        }
+        int clients = server.getClientCount();
+        channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+        ByteBuffer header = read(channel, StreamFormat.HEADER_SIZE);
+        assertEquals(StreamFormat.MAGIC, header.getInt());
+        assertEquals(StreamFormat.VERSION, header.getShort());
+        assertEquals(StreamFormat.FRAME_SIZE, header.getShort());
+        awaitClients(clients + 1);
+        return channel;
+    }
+
+    private void awaitClients(int count) throws InterruptedException {
+        for (int i = 0; i < 500 && server.getClientCount() != count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, server.getClientCount());
+    }
+
+    private static ByteBuffer read(SocketChannel channel, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(StreamFormat.BYTE_ORDER);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void frames_arriveInOrderInBatches() throws Exception {
+        start(64, 0);
+        try (SocketChannel channel = connect(0)) {
+            for (int i = 0; i < 40; i++) {
+                server.publish(1_000_000L * i, 0.5f * i, -0.25f * i, i, i / 2, 1);
+                Thread.sleep(1);
+            }
+
+            int received = 0;
+            int batches = 0;
+            while (received < 40) {
+                ByteBuffer batch = read(channel, StreamFormat.BATCH_HEADER_SIZE);
+                int count = batch.getInt();
+                assertEquals(0, batch.getInt());
+                ByteBuffer frames = read(channel, count * StreamFormat.FRAME_SIZE);
+                for (int k = 0; k < count; k++, received++) {
+                    assertEquals(1_000_000L * received, frames.getLong());
+                    assertEquals(0.5f * received, frames.getFloat(), 0);
+                    assertEquals(-0.25f * received, frames.getFloat(), 0);
+                    assertEquals(received, frames.getFloat(), 0);
+                    assertEquals(received / 2, frames.getInt());
+                    assertEquals(1, frames.getInt());
+                }
+                batches++;
+            }
+            assertEquals(40, received);
+            assertTrue("frames are batched", batches < 40);
+            assertEquals(0, server.getDroppedFrameCount());
+        }
+    }
+
+    @Test
+    public void publish_isRateLimitedUnlessTheStepsOrFloorChange() throws Exception {
+        start(64, 50_000_000L);
+        try (SocketChannel channel = connect(0)) {
+            server.publish(0, 0, 0, 0, 0, 0);
+            server.publish(10_000_000L, 1, 0, 0, 0, 0);          // too soon
+            server.publish(20_000_000L, 2, 0, 0, 1, 0);          // a step
+            server.publish(30_000_000L, 3, 0, 0, 1, 1);          // a floor
+            server.publish(60_000_000L, 4, 0, 0, 1, 1);          // too soon
+            server.publish(80_000_000L, 5, 0, 0, 1, 1);
+
+            long[] expected = {0, 20_000_000L, 30_000_000L, 80_000_000L};
+            int received = 0;
+            while (received < expected.length) {
+                ByteBuffer batch = read(channel, StreamFormat.BATCH_HEADER_SIZE);
+                int count = batch.getInt();
+                batch.getInt();
+                ByteBuffer frames = read(channel, count * StreamFormat.FRAME_SIZE);
+                for (int k = 0; k < count; k++) {
+                    assertEquals(expected[received++], frames.getLong());
+                    frames.position(frames.position() + StreamFormat.FRAME_SIZE - 8);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void slowClient_dropsTheOldestFramesWithoutBlockingThePublisher() throws Exception {
+        start(256, 0);
+        try (SocketChannel slow = connect(4096); SocketChannel fast = connect(0)) {
+            fast.configureBlocking(false);
+            // fills the socket buffers of the client that does not read, then its queue
+            int published = 1_000_000;
+            long startNs = System.nanoTime();
+            for (int i = 0; i < published; i++) {
+                server.publish(i, i, 0, 0, i, 0);
+                if ((i & 0xFFF) == 0) {
+                    fast.read(ByteBuffer.allocate(1 << 16));
+                }
+            }
+            long elapsedMs = (System.nanoTime() - startNs) / 1_000_000;
+            assertTrue("publishing took " + elapsedMs + " ms", elapsedMs < 5000);
+            assertTrue(server.getDroppedFrameCount() > 0);
+
+            // the slow client catches up: every frame arrives or is reported dropped,
+            // in order, up to the newest
+            long accounted = 0;
+            long last = -1;
+            while (last != published - 1) {
+                ByteBuffer batch = read(slow, StreamFormat.BATCH_HEADER_SIZE);
+                int count = batch.getInt();
+                accounted += count + batch.getInt();
+                ByteBuffer frames = read(slow, count * StreamFormat.FRAME_SIZE);
+                for (int k = 0; k < count; k++) {
+                    long timestamp = frames.getLong();
+                    assertTrue(timestamp > last);
+                    last = timestamp;
+                    frames.position(frames.position() + StreamFormat.FRAME_SIZE - 8);
+                }
+            }
+            assertEquals(published, accounted);
+        }
+    }
+
+    @Test
+    public void disconnectedClients_areForgotten() throws Exception {
+        start(16, 0);
+        SocketChannel channel = connect(0);
+        channel.close();
+        awaitClients(0);
+        server.publish(0, 0, 0, 0, 0, 0);
+
+        SocketChannel[] channels = new SocketChannel[PositionStreamServer.MAX_CLIENTS];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = connect(0);
+        }
+        try (SocketChannel refused = SocketChannel.open(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()))) {
+            assertEquals(-1, refused.read(ByteBuffer.allocate(StreamFormat.HEADER_SIZE)));
+        }
+        for (SocketChannel c : channels) {
+            c.close();
+        }
+    }
+
+    @Test
+    public void resetConnections_doNotStopTheServer() throws Exception {
+        start(16, 0);
+        // clients that hang up with a reset before or while they are accepted
+        for (int i = 0; i < 20; i++) {
+            SocketChannel aborted = SocketChannel.open(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+            aborted.setOption(StandardSocketOptions.SO_LINGER, 0);
+            aborted.close();
+        }
+        awaitClients(0);
+
+        try (SocketChannel channel = connect(0)) {
+            server.publish(1, 1, 2, 3, 4, 5);
+            ByteBuffer batch = read(channel, StreamFormat.BATCH_HEADER_SIZE + StreamFormat.FRAME_SIZE);
+            assertEquals(1, batch.getInt());
+        }
+    }
+
+    @Test
+    public void frameQueue_keepsTheNewestFrames() {
+        FrameQueue queue = new FrameQueue(4);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i, i, 0, 0, i, 0);
+        }
+        assertEquals(4, queue.size());
+        assertEquals(6, queue.getDroppedCount());
+
+        ByteBuffer out = ByteBuffer.allocate(StreamFormat.BATCH_HEADER_SIZE + 2 * StreamFormat.FRAME_SIZE)
+                .order(StreamFormat.BYTE_ORDER);
+        assertTrue(queue.drainTo(out, 4));
+        out.flip();
+        assertEquals(2, out.getInt());
+        assertEquals(6, out.getInt());
+        assertEquals(6, out.getLong());
+        out.position(out.position() + StreamFormat.FRAME_SIZE - 8);
+        assertEquals(7, out.getLong());
+        assertEquals(2, queue.size());
+
+        out.clear();
+        assertTrue(queue.drainTo(out, 4));
+        out.flip();
+        assertEquals(2, out.getInt());
+        assertEquals(0, out.getInt());
+        out.clear();
+        assertFalse(queue.drainTo(out, 4));
+    }
+
+    @Test
+    public void publish_doesNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        start(256, 0);
+        // a connected client, so publishing has a queue to fill
+        SocketChannel channel = connect(0);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                server.publish(i, i, 0, 0, i, 0);
+            }
+
+            long thread = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 1000; i < 100_000; i++) {
+                server.publish(i, i, 0, 0, i, 0);
+            }
+            assertTrue(threads.getThreadAllocatedBytes(thread) - before < 100_000);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.kisal.indoorsmart.fusion.trace;
+
+import com.kisal.indoorsmart.fusion.FusionParameters;
+import com.kisal.indoorsmart.fusion.SensorFusionEngine;
+import com.kisal.indoorsmart.fusion.SensorResampler;
+import com.kisal.indoorsmart.fusion.SensorType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParameterSweepTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void groundTruth_readsCheckpoints() throws IOException {
+        GroundTruth truth = GroundTruth.read(new StringReader("# start\n1000 0 0\n\n2000 1.5 -2\n"));
+        assertEquals(2, truth.size());
+        assertEquals(2000, truth.getTimestamp(1));
+        assertEquals(1.5f, truth.getX(1), 0.0f);
+        assertEquals(-2.0f, truth.getY(1), 0.0f);
+    }
+
+    @Test(expected = IOException.class)
+    public void groundTruth_rejectsUnorderedCheckpoints() throws IOException {
+        GroundTruth.read(new StringReader("2000 0 0\n1000 1 1\n"));
+    }
+
+    @Test
+    public void grid_coversEveryCombination() {
+        Map<String, double[]> values = new LinkedHashMap<>();
+        values.put(FusionParameters.STRIDE_SCALE, new double[]{0.5, 0.7, 0.9});
+        values.put(FusionParameters.WINDOW_SIZE, new double[]{5, 10});
+        List<FusionParameters> grid = ParameterSweep.grid(new FusionParameters(), values);
+        assertEquals(6, grid.size());
+        assertEquals(0.9f, grid.get(5).getStrideScale(), 0.0f);
+        assertEquals(10, grid.get(5).getWindowSize());
+        assertEquals(5, grid.get(0).getWindowSize());
+    }
+
+    @Test
+    public void random_staysInRanges() {
+        Map<String, double[]> ranges = new LinkedHashMap<>();
+        ranges.put(FusionParameters.CORRECTION_GAIN, new double[]{0.5, 4});
+        for (FusionParameters parameters : ParameterSweep.random(new FusionParameters(), ranges, 100, 3)) {
+            assertTrue(parameters.getCorrectionGain() >= 0.5f && parameters.getCorrectionGain() <= 4f);
+        }
+    }
+
+    @Test
+    public void sweep_ranksTheTrueParametersFirst() throws IOException {
+        FusionParameters actual = new FusionParameters();
+        actual.setStrideScale(0.7f);
+        for (int walk = 0; walk < 3; walk++) {
+            writeWalk(folder.getRoot(), "walk-" + walk, walk, actual, 0);
+        }
+        List<ParameterSweep.Walk> walks = ParameterSweep.loadCorpus(folder.getRoot());
+        assertEquals(3, walks.size());
+
+        Map<String, double[]> values = new LinkedHashMap<>();
+        values.put(FusionParameters.STRIDE_SCALE, new double[]{0.5, 0.6, 0.7, 0.8, 0.98});
+        values.put(FusionParameters.CORRECTION_GAIN, new double[]{1, 2});
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<ParameterSweep.Score> scores =
+                    new ParameterSweep(walks, pool).run(ParameterSweep.grid(new FusionParameters(), values));
+            assertEquals(10, scores.size());
+            assertEquals(0.7f, scores.get(0).parameters.getStrideScale(), 0.0f);
+            assertEquals(0.0, scores.get(0).endpointError, 1e-3);
+            assertTrue(scores.get(9).endpointError > 1.0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void evaluate_startsAtTheFirstCheckpoint() throws IOException {
+        FusionParameters actual = new FusionParameters();
+        actual.setStrideScale(0.7f);
+        // the checkpoints start 4 s, some eight steps, into the trace
+        writeWalk(folder.getRoot(), "late", 0, actual, 5_000_000_000L);
+        ParameterSweep.Walk walk = ParameterSweep.loadCorpus(folder.getRoot()).get(0);
+        assertTrue(Math.hypot(walk.truth.getX(0), walk.truth.getY(0)) > 1.0);
+
+        double[] errors = ParameterSweep.evaluate(walk, actual);
+        assertEquals(0.0, errors[0], 1e-3);
+        assertEquals(0.0, errors[1], 1e-3);
+    }
+
+    // A straight walk north, one step per 0.5 s, with checkpoints every two
+    // seconds from firstCheckpointNs on, taken from an engine with the actual
+    // parameters
+    private static void writeWalk(File dir, String name, int seed, FusionParameters actual,
+                                  long firstCheckpointNs) throws IOException {
+        File trace = new File(dir, name + ParameterSweep.TRACE_SUFFIX);
+        try (TraceWriter writer = new TraceWriter(trace)) {
+            long timestamp = 1_000_000_000L;
+            int steps = 0;
+            writer.record(SensorType.STEP_COUNTER, timestamp, new float[]{steps});
+            for (int i = 0; i < 2000 + 200 * seed; i++) {
+                timestamp += 5_000_000L;
+                float bounce = (float) Math.sin(i * Math.PI / 50);
+                writer.record(SensorType.ACCELEROMETER, timestamp, new float[]{0.0f, 0.3f * bounce, 9.81f + bounce});
+                writer.record(SensorType.MAGNETIC_FIELD, timestamp, new float[]{0.0f, 22.0f, -40.0f});
+                writer.record(SensorType.GYROSCOPE, timestamp, new float[]{0.01f * bounce, 0.0f, 0.0f});
+                if (i % 100 == 99) {
+                    writer.record(SensorType.STEP_COUNTER, timestamp, new float[]{++steps});
+                }
+            }
+        }
+
+        SensorFusionEngine engine = new SensorFusionEngine(actual, new SensorResampler());
+        float[] position = new float[2];
+        try (TraceReader reader = new TraceReader(trace);
+             Writer truth = new FileWriter(new File(dir, name + ParameterSweep.TRUTH_SUFFIX))) {
+            long nextCheckpoint = firstCheckpointNs;
+            long timestamp = 0;
+            while (reader.next()) {
+                timestamp = reader.getTimestamp();
+                if (timestamp >= nextCheckpoint) {
+                    engine.getPosition(position);
+                    truth.write(timestamp + " " + position[0] + " " + position[1] + "\n");
+                    nextCheckpoint = timestamp + 2_000_000_000L;
+                }
+                engine.onSensorEvent(reader.getSensorType(), timestamp, reader.getValues());
+            }
+            engine.getPosition(position);
+            truth.write((timestamp + 1) + " " + position[0] + " " + position[1] + "\n");
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.kisal.indoorsmart.fusion.trace;
+
+import com.kisal.indoorsmart.fusion.FusionEngine;
+import com.kisal.indoorsmart.fusion.SensorFusionEngine;
+import com.kisal.indoorsmart.fusion.SensorType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class TraceReplayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead_roundTrip() throws IOException {
+        File file = folder.newFile("trace.bin");
+        try (TraceWriter writer = new TraceWriter(file)) {
+            writer.record(SensorType.ACCELEROMETER, 123456789012L, new float[]{0.1f, 0.2f, 9.8f});
+            writer.record(SensorType.STEP_COUNTER, 123456789999L, new float[]{42});
+        }
+        assertEquals(TraceFormat.HEADER_SIZE + 2 * TraceFormat.RECORD_SIZE, file.length());
+
+        try (TraceReader reader = new TraceReader(file)) {
+            assertEquals(2, reader.getRecordCount());
+
+            assertTrue(reader.next());
+            assertEquals(SensorType.ACCELEROMETER, reader.getSensorType());
+            assertEquals(123456789012L, reader.getTimestamp());
+            assertArrayEquals(new float[]{0.1f, 0.2f, 9.8f}, reader.getValues(), 0.0f);
+
+            assertTrue(reader.next());
+            assertEquals(SensorType.STEP_COUNTER, reader.getSensorType());
+            assertArrayEquals(new float[]{42, 0, 0}, reader.getValues(), 0.0f);
+
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void reader_rejectsForeignFile() throws IOException {
+        File file = folder.newFile("not-a-trace.bin");
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        new TraceReader(file).close();
+    }
+
+    @Test
+    public void replay_isDeterministic() throws IOException {
+        File file = folder.newFile("walk.bin");
+        writeSyntheticWalk(file);
+
+        TraceReplayer replayer = new TraceReplayer();
+        try (TraceReader reader = new TraceReader(file)) {
+            FusionEngine first = new SensorFusionEngine();
+            TraceReplayer.Result result = replayer.replay(reader, first);
+            assertEquals(reader.getRecordCount(), result.events);
+            assertTrue(result.getEventsPerSecond() > 0);
+
+            reader.rewind();
+            FusionEngine second = new SensorFusionEngine();
+            replayer.replay(reader, second);
+
+            assertArrayEquals(position(first), position(second), 0.0f);
+            assertEquals(first.getHeading(), second.getHeading(), 0.0);
+            assertTrue(position(first)[1] > 0);
+        }
+    }
+
+    // Ten seconds of a flat device facing north at 200 Hz, one step every half second
+    private static void writeSyntheticWalk(File file) throws IOException {
+        try (TraceWriter writer = new TraceWriter(file)) {
+            long timestamp = 1_000_000_000L;
+            int steps = 0;
+            writer.record(SensorType.STEP_COUNTER, timestamp, new float[]{steps});
+            for (int i = 0; i < 2000; i++) {
+                timestamp += 5_000_000L;
+                float bounce = (float) Math.sin(i * Math.PI / 50);
+                writer.record(SensorType.ACCELEROMETER, timestamp, new float[]{0.0f, 0.3f * bounce, 9.81f + bounce});
+                writer.record(SensorType.MAGNETIC_FIELD, timestamp, new float[]{0.0f, 22.0f, -40.0f});
+                writer.record(SensorType.GYROSCOPE, timestamp, new float[]{0.01f * bounce, 0.0f, 0.0f});
+                if (i % 100 == 99) {
+                    writer.record(SensorType.STEP_COUNTER, timestamp, new float[]{++steps});
+                }
+            }
+        }
+    }
+
+    private static float[] position(FusionEngine engine) {
+        float[] position = new float[2];
+        engine.getPosition(position);
+        return position;
+    }
+}